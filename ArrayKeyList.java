@@ -0,0 +1,163 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * KeyList that stores the objects with the same key in an array that grows by half its capacity
+ * when it is full. Compared to the LinkedList in KeyList this needs no node object per key, and
+ * iterating walks over consecutive array slots. The first key is cached in a field, so comparing
+ * lists in the tree does not need to look into the array.
+ */
+public class ArrayKeyList<T extends Comparable<T>> implements KeyListInterface<T> {
+    private static final int INITIAL_CAPACITY = 4;
+
+    // first key in the list, represents the key of all objects in the list
+    protected T firstKey;
+    // stores the values for the same key, the first size slots are in use
+    protected Object[] keys;
+    protected int size;
+
+    /**
+     * Create a new ArrayKeyList and adds the first value with a specific key to it.
+     * @param firstKey the first object with firstKey
+     */
+    public ArrayKeyList(T firstKey) {
+        if (firstKey == null) throw new NullPointerException("keys cannot be null");
+        this.firstKey = firstKey;
+        this.keys = new Object[INITIAL_CAPACITY];
+        this.keys[0] = firstKey;
+        this.size = 1;
+    }
+
+    /**
+     * Adds another object with the same key to the list.
+     * @param newKey new object that maps to the same key as all objects in the list
+     */
+    @Override
+    public void addKey(T newKey) {
+        if (firstKey.compareTo(newKey) != 0) {
+            throw new IllegalArgumentException("compareTo for keys in same list must return 0");
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size + (size >> 1));
+        }
+        keys[size++] = newKey;
+    }
+
+    /**
+     * Removes one object that is equal to key from the list, and moves the objects after it one
+     * slot forward. An empty list keeps its last first key, so it can still be compared.
+     * @param key the key object to remove
+     * @return true if an object was removed, false if the list does not contain key
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean removeKey(T key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i].equals(key)) {
+                System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+                keys[--size] = null;
+                if (size > 0) {
+                    firstKey = (T) keys[0];
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the list contains key.
+     * @param key the key object to check for
+     * @return true if this list contains key, false if not
+     */
+    @Override
+    public boolean containsKey(T key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i].equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the first object added to the list, which represents the key of the list.
+     * @return the first object in the list
+     */
+    @Override
+    public T firstKey() {
+        return firstKey;
+    }
+
+    /**
+     * @return the number of objects stored in the list
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Compares this list to another list based on the keys of the objects that both lists
+     * contain.
+     * @param o reference to the other list for this comparison
+     * @return negative integer if the keys in this list are smaller than the keys in the other
+     *         list, 0 if the keys are the same, and a positive integer if the keys in this list
+     *         are larger than the keys in the other list.
+     */
+    @Override
+    public int compareTo(KeyListInterface<T> o) {
+        return firstKey.compareTo(o.firstKey());
+    }
+
+    /**
+     * Returns the object at a position of the list in constant time.
+     * @param index position of the object, 0 for the first object added
+     * @return the object at this position
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + size + " keys");
+        }
+        return (T) keys[index];
+    }
+
+    /**
+     * Returns an iterator over the objects stored in the list, in the order they were added.
+     * @return the iterator object
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return iterator(0);
+    }
+
+    /**
+     * Returns an iterator over the objects stored in the list, starting at a position.
+     * @param startIndex position of the first object to return
+     * @return the iterator object
+     */
+    @Override
+    public Iterator<T> iterator(int startIndex) {
+        return new Iterator<T>() {
+            private int index = startIndex;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (index >= size) {
+                    throw new NoSuchElementException("No keys left");
+                }
+                return (T) keys[index++];
+            }
+        };
+    }
+
+}
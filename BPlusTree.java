@@ -0,0 +1,991 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Multi-key collection that stores its KeyLists in a B+ tree instead of a binary tree. Every node
+ * holds up to fanOut entries in arrays: the keys of all entries next to each other, and next to
+ * them the KeyList of each entry in a leaf, or the child of each entry and the number of keys
+ * below it in an inner node. The key of an entry is the first key of its KeyList, or the smallest
+ * key below its child. Finding a key is a binary search over one key array per level, and a tree
+ * with a fan-out of 64 has only a few levels, so a lookup reads a few arrays instead of one node
+ * per level of a red black tree. All KeyLists are in the leaves, which are linked in order, so
+ * iterations and range scans walk the arrays of the leaves one after the other.
+ *
+ * All leaves have the same depth, and every node except the root has at least fanOut / 2
+ * entries. A node that gets more than fanOut entries is split in half, and a node that drops
+ * below half takes an entry from a sibling, or is merged with it when both fit into one node. The
+ * number of keys below each child lets countInRange, rank and select walk a single path from the
+ * root, like the subtree counts of IterableMultiKeyRBT.
+ */
+public class BPlusTree<T extends Comparable<T>> implements IterableMultiKeySortedCollectionInterface<T> {
+    private static final int DEFAULT_FAN_OUT = 64;
+    private final int fanOut;
+    private Node root = null;
+    private Node firstLeaf = null;
+    private Node lastLeaf = null;
+    private int size = 0;
+    private int numKeys = 0;
+    private Comparable<T> iterationStartPoint;
+    //Number of keys that the last insert added and the last remove removed
+    private int insertedKeys;
+    private int removedKeys;
+
+    /**
+     * Node of the tree. A leaf has the KeyLists of its entries and is linked to the leaves before
+     * and after it, an inner node has the children of its entries and the number of keys below
+     * each child. The arrays have one slot more than the fan-out, for the entry that makes a node
+     * split.
+     */
+    private static class Node {
+        private final Object[] keys;
+        private final Object[] lists;
+        private final Node[] children;
+        private final int[] counts;
+        private int size = 0;
+        private Node next;
+        private Node previous;
+
+        private Node(int fanOut, boolean leaf) {
+            keys = new Object[fanOut + 1];
+            lists = leaf ? new Object[fanOut + 1] : null;
+            children = leaf ? null : new Node[fanOut + 1];
+            counts = leaf ? null : new int[fanOut + 1];
+        }
+
+        private boolean isLeaf() {
+            return children == null;
+        }
+
+        /**
+         * @return the KeyList or the child of an entry
+         */
+        private Object value(int index) {
+            return isLeaf() ? lists[index] : children[index];
+        }
+
+        /**
+         * @return the number of keys of an entry
+         */
+        private int count(int index) {
+            return isLeaf() ? ((KeyListInterface<?>) lists[index]).size() : counts[index];
+        }
+
+        /**
+         * @return the number of keys of all entries
+         */
+        private int count() {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                count += count(i);
+            }
+            return count;
+        }
+
+        /**
+         * Inserts an entry at an index and moves the entries after it back by one.
+         * @param value the KeyList or the child of the entry
+         * @param count the number of keys below the child, not used by leaves
+         */
+        private void insert(int index, Object key, Object value, int count) {
+            System.arraycopy(keys, index, keys, index + 1, size - index);
+            keys[index] = key;
+            if (isLeaf()) {
+                System.arraycopy(lists, index, lists, index + 1, size - index);
+                lists[index] = value;
+            } else {
+                System.arraycopy(children, index, children, index + 1, size - index);
+                System.arraycopy(counts, index, counts, index + 1, size - index);
+                children[index] = (Node) value;
+                counts[index] = count;
+            }
+            size++;
+        }
+
+        /**
+         * Removes the entry at an index and moves the entries after it forward by one.
+         */
+        private void remove(int index) {
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            if (isLeaf()) {
+                System.arraycopy(lists, index + 1, lists, index, size - index - 1);
+            } else {
+                System.arraycopy(children, index + 1, children, index, size - index - 1);
+                System.arraycopy(counts, index + 1, counts, index, size - index - 1);
+            }
+            size--;
+            keys[size] = null;
+            if (isLeaf()) {
+                lists[size] = null;
+            } else {
+                children[size] = null;
+            }
+        }
+
+        /**
+         * Moves the entries from an index on to the end of another node of the same kind.
+         */
+        private void moveTo(int from, Node other) {
+            int length = size - from;
+            System.arraycopy(keys, from, other.keys, other.size, length);
+            if (isLeaf()) {
+                System.arraycopy(lists, from, other.lists, other.size, length);
+            } else {
+                System.arraycopy(children, from, other.children, other.size, length);
+                System.arraycopy(counts, from, other.counts, other.size, length);
+            }
+            other.size += length;
+            for (int i = from; i < size; i++) {
+                keys[i] = null;
+                if (isLeaf()) {
+                    lists[i] = null;
+                } else {
+                    children[i] = null;
+                }
+            }
+            size = from;
+        }
+    }
+
+    /**
+     * Creates a tree whose nodes have up to 64 entries.
+     */
+    public BPlusTree() {
+        this(DEFAULT_FAN_OUT);
+    }
+
+    /**
+     * Creates a tree with a fan-out. A larger fan-out makes the tree shallower, but every insert
+     * and remove moves more entries within a node.
+     * @param fanOut the largest number of entries of a node
+     * @throws IllegalArgumentException when fanOut is smaller than 4
+     */
+    public BPlusTree(int fanOut) {
+        if (fanOut < 4) {
+            throw new IllegalArgumentException("Fan-out must be at least 4");
+        }
+        this.fanOut = fanOut;
+    }
+
+    /**
+     * Inserts a key into the KeyList of its key, and creates a new KeyList in a leaf when the
+     * tree does not have its key yet.
+     * @param key object to insert
+     * @return true if a new KeyList was created, false if the key was added to an existing one
+     */
+    @Override
+    public boolean insertSingleKey(T key) {
+        if (key == null) {
+            throw new NullPointerException("Key is null");
+        }
+        int sizeBefore = size;
+        insertIntoRoot(key, null);
+        return size > sizeBefore;
+    }
+
+    /**
+     * Inserts a whole KeyList into a leaf, unless the tree already has a KeyList with its key.
+     * @param data the KeyList to insert
+     * @return true if the KeyList was inserted, false if there is a KeyList with its key already
+     */
+    @Override
+    public boolean insert(KeyListInterface<T> data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot insert data value null into the tree.");
+        }
+        int sizeBefore = size;
+        insertIntoRoot(data.firstKey(), data);
+        return size > sizeBefore;
+    }
+
+    /**
+     * Inserts a key, or a whole KeyList when list is not null, and adds a new root above the old
+     * one when the old root is split.
+     */
+    private void insertIntoRoot(T key, KeyListInterface<T> list) {
+        if (root == null) {
+            root = new Node(fanOut, true);
+            firstLeaf = root;
+            lastLeaf = root;
+        }
+        Node sibling = insert(root, key, list);
+        if (sibling != null) {
+            Node newRoot = new Node(fanOut, false);
+            newRoot.insert(0, root.keys[0], root, root.count());
+            newRoot.insert(1, sibling.keys[0], sibling, sibling.count());
+            root = newRoot;
+        }
+        numKeys += insertedKeys;
+    }
+
+    /**
+     * Inserts a key, or a whole KeyList when list is not null, below a node, and sets
+     * insertedKeys to the number of keys that were added.
+     * @return the new node after node when node was split, otherwise null
+     */
+    private Node insert(Node node, T key, KeyListInterface<T> list) {
+        if (node.isLeaf()) {
+            int index = search(node, 0, key, false);
+            if (index < node.size && key.compareTo(key(node, index)) == 0) {
+                if (list == null) {
+                    list(node, index).addKey(key);
+                }
+                insertedKeys = list == null ? 1 : 0;
+                return null;
+            }
+            KeyListInterface<T> newList = list == null ? new ArrayKeyList<>(key) : list;
+            node.insert(index, key, newList, 0);
+            size++;
+            insertedKeys = newList.size();
+        } else {
+            int index = childIndex(node, key, true);
+            Node child = node.children[index];
+            Node sibling = insert(child, key, list);
+            node.keys[index] = child.keys[0];
+            node.counts[index] += insertedKeys;
+            if (sibling != null) {
+                int siblingKeys = sibling.count();
+                node.counts[index] -= siblingKeys;
+                node.insert(index + 1, sibling.keys[0], sibling, siblingKeys);
+            }
+        }
+        return node.size > fanOut ? split(node) : null;
+    }
+
+    /**
+     * Moves the upper half of the entries of a full node into a new node after it.
+     * @return the new node
+     */
+    private Node split(Node node) {
+        Node right = new Node(fanOut, node.isLeaf());
+        node.moveTo(node.size / 2, right);
+        if (node.isLeaf()) {
+            right.next = node.next;
+            right.previous = node;
+            if (node.next != null) {
+                node.next.previous = right;
+            } else {
+                lastLeaf = right;
+            }
+            node.next = right;
+        }
+        return right;
+    }
+
+    /**
+     * Removes one value that is equal to key from the KeyList of its key, and removes the KeyList
+     * from its leaf when it is empty afterwards.
+     * @param key object to remove
+     * @return true if key was removed, false if the tree does not contain it
+     */
+    @Override
+    public boolean removeSingleKey(T key) {
+        if (key == null) {
+            throw new NullPointerException("Key is null");
+        }
+        removeFromRoot(key, false);
+        return removedKeys > 0;
+    }
+
+    /**
+     * Checks whether the tree has a KeyList that compares equal to data.
+     */
+    @Override
+    public boolean contains(Comparable<KeyListInterface<T>> data) {
+        return data != null && find(data) != null;
+    }
+
+    /**
+     * Removes the whole KeyList that compares equal to data.
+     * @return true if a KeyList was removed
+     */
+    @Override
+    public boolean remove(Comparable<KeyListInterface<T>> data) {
+        if (data == null) {
+            throw new NullPointerException("Cannot remove null from the tree.");
+        }
+        KeyListInterface<T> list = find(data);
+        if (list == null) {
+            return false;
+        }
+        removeFromRoot(list.firstKey(), true);
+        return true;
+    }
+
+    /**
+     * Finds the KeyList that compares equal to data. The keys of inner nodes are compared as
+     * KeyLists that only contain the key.
+     * @return the KeyList, or null when the tree does not have one
+     */
+    private KeyListInterface<T> find(Comparable<KeyListInterface<T>> data) {
+        Node node = root;
+        while (node != null && !node.isLeaf()) {
+            //The last child whose key is not larger than data
+            int low = 1;
+            int high = node.size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (data.compareTo(new ArrayKeyList<>(key(node, middle))) >= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            node = node.children[low - 1];
+        }
+        for (int i = 0; node != null && i < node.size; i++) {
+            if (data.compareTo(list(node, i)) == 0) {
+                return list(node, i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes a key, or the whole KeyList of key, and replaces the root by its only child when it
+     * has one entry left.
+     */
+    private void removeFromRoot(T key, boolean wholeList) {
+        removedKeys = 0;
+        if (root == null) {
+            return;
+        }
+        remove(root, key, wholeList);
+        numKeys -= removedKeys;
+        if (!root.isLeaf() && root.size == 1) {
+            root = root.children[0];
+        } else if (root.size == 0) {
+            root = null;
+            firstLeaf = null;
+            lastLeaf = null;
+        }
+    }
+
+    /**
+     * Removes one value that is equal to key below a node, or the whole KeyList of key, and sets
+     * removedKeys to the number of keys that were removed. A child that has too few entries
+     * afterwards is rebalanced with a sibling.
+     */
+    private void remove(Node node, T key, boolean wholeList) {
+        if (node.isLeaf()) {
+            int index = search(node, 0, key, false);
+            if (index == node.size || key.compareTo(key(node, index)) != 0) {
+                return;
+            }
+            KeyListInterface<T> list = list(node, index);
+            if (wholeList) {
+                removedKeys = list.size();
+            } else if (list.removeKey(key)) {
+                removedKeys = 1;
+            } else {
+                return;
+            }
+            if (wholeList || list.size() == 0) {
+                node.remove(index);
+                size--;
+            } else {
+                //The first key of the KeyList changes when its first key was removed
+                node.keys[index] = list.firstKey();
+            }
+            return;
+        }
+        int index = childIndex(node, key, true);
+        Node child = node.children[index];
+        remove(child, key, wholeList);
+        if (removedKeys == 0) {
+            return;
+        }
+        node.counts[index] -= removedKeys;
+        if (child.size >= fanOut / 2) {
+            node.keys[index] = child.keys[0];
+        } else {
+            rebalance(node, index);
+        }
+    }
+
+    /**
+     * Fixes a child that has fewer than fanOut / 2 entries, by merging it with a sibling when
+     * both fit into one node, and otherwise by moving one entry from the sibling into it.
+     * @param parent the parent of the child
+     * @param index the index of the child in parent
+     */
+    private void rebalance(Node parent, int index) {
+        int leftIndex = index > 0 ? index - 1 : index;
+        Node left = parent.children[leftIndex];
+        Node right = parent.children[leftIndex + 1];
+        if (left.size + right.size <= fanOut) {
+            right.moveTo(0, left);
+            if (left.isLeaf()) {
+                left.next = right.next;
+                if (right.next != null) {
+                    right.next.previous = left;
+                } else {
+                    lastLeaf = left;
+                }
+            }
+            parent.counts[leftIndex] += parent.counts[leftIndex + 1];
+            parent.remove(leftIndex + 1);
+        } else {
+            //Moves the entry next to the boundary from the larger node to the smaller one
+            int moved;
+            if (left.size > right.size) {
+                int last = left.size - 1;
+                moved = -left.count(last);
+                right.insert(0, left.keys[last], left.value(last), -moved);
+                left.remove(last);
+            } else {
+                moved = right.count(0);
+                left.insert(left.size, right.keys[0], right.value(0), moved);
+                right.remove(0);
+            }
+            parent.counts[leftIndex] += moved;
+            parent.counts[leftIndex + 1] -= moved;
+            parent.keys[leftIndex + 1] = right.keys[0];
+        }
+        parent.keys[leftIndex] = left.keys[0];
+    }
+
+    /**
+     * Inserts all keys. An empty tree is built bottom-up: the keys are grouped into one
+     * ArrayKeyList per distinct key, which are spread evenly over as few leaves as possible, and
+     * every level above is built the same way from the level below it. A tree that already
+     * contains keys inserts every key with insertSingleKey instead.
+     * @param keys the keys to insert
+     * @throws NullPointerException when keys or one of the keys is null
+     */
+    @Override
+    public void bulkLoad(Iterable<T> keys) {
+        if (keys == null) {
+            throw new NullPointerException("Keys are null");
+        }
+        if (!isEmpty()) {
+            for (T key : keys) {
+                insertSingleKey(key);
+            }
+            return;
+        }
+        List<T> inputKeys = new ArrayList<>();
+        for (T key : keys) {
+            if (key == null) {
+                throw new NullPointerException("Key is null");
+            }
+            inputKeys.add(key);
+        }
+        List<KeyListInterface<T>> keyLists = IterableMultiKeyRBT.groupKeys(inputKeys);
+        if (keyLists.isEmpty()) {
+            return;
+        }
+        List<Node> level = new ArrayList<>();
+        int numLeaves = (keyLists.size() + fanOut - 1) / fanOut;
+        for (int i = 0; i < numLeaves; i++) {
+            Node leaf = new Node(fanOut, true);
+            for (int j = start(i, numLeaves, keyLists.size());
+                 j < start(i + 1, numLeaves, keyLists.size()); j++) {
+                leaf.insert(leaf.size, keyLists.get(j).firstKey(), keyLists.get(j), 0);
+            }
+            if (i > 0) {
+                leaf.previous = level.get(i - 1);
+                leaf.previous.next = leaf;
+            }
+            level.add(leaf);
+        }
+        firstLeaf = level.get(0);
+        lastLeaf = level.get(numLeaves - 1);
+        while (level.size() > 1) {
+            List<Node> parents = new ArrayList<>();
+            int numParents = (level.size() + fanOut - 1) / fanOut;
+            for (int i = 0; i < numParents; i++) {
+                Node parent = new Node(fanOut, false);
+                for (int j = start(i, numParents, level.size());
+                     j < start(i + 1, numParents, level.size()); j++) {
+                    Node child = level.get(j);
+                    parent.insert(parent.size, child.keys[0], child, child.count());
+                }
+                parents.add(parent);
+            }
+            level = parents;
+        }
+        root = level.get(0);
+        size = keyLists.size();
+        numKeys = inputKeys.size();
+    }
+
+    /**
+     * @return the index of the first of length entries that goes into a node, when they are
+     *         spread evenly over numNodes nodes
+     */
+    private static int start(int node, int numNodes, int length) {
+        return (int) ((long) node * length / numNodes);
+    }
+
+    /**
+     * @return the number of values in the tree.
+     */
+    @Override
+    public int numKeys() {
+        return numKeys;
+    }
+
+    /**
+     * @return the number of KeyLists in the tree
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all keys from the tree
+     */
+    @Override
+    public void clear() {
+        root = null;
+        firstLeaf = null;
+        lastLeaf = null;
+        size = 0;
+        numKeys = 0;
+    }
+
+    /**
+     * Counts the keys between two bounds, by counting the keys below each bound.
+     */
+    @Override
+    public int countInRange(Comparable<T> lowerBound, boolean lowerInclusive,
+                            Comparable<T> upperBound, boolean upperInclusive) {
+        int upperCount = upperBound == null ? numKeys : countBelow(upperBound, upperInclusive);
+        int lowerCount = lowerBound == null ? 0 : countBelow(lowerBound, !lowerInclusive);
+        return Math.max(upperCount - lowerCount, 0);
+    }
+
+    /**
+     * Returns the number of keys that are smaller than key.
+     */
+    @Override
+    public int rank(Comparable<T> key) {
+        if (key == null) {
+            throw new NullPointerException("Key is null");
+        }
+        return countBelow(key, false);
+    }
+
+    /**
+     * Returns the key at an index of the in-order iteration. Walks down from the root by the
+     * counts of the children, and finds the key within the KeyList of the leaf by its position.
+     */
+    @Override
+    public T select(int index) {
+        if (index < 0 || index >= numKeys) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + numKeys + " keys");
+        }
+        Node node = root;
+        while (true) {
+            int entry = 0;
+            while (index >= node.count(entry)) {
+                index -= node.count(entry);
+                entry++;
+            }
+            if (node.isLeaf()) {
+                return list(node, entry).get(index);
+            }
+            node = node.children[entry];
+        }
+    }
+
+    /**
+     * Counts the keys that are smaller than a bound, or smaller than or equal to it.
+     */
+    private int countBelow(Comparable<T> bound, boolean inclusive) {
+        int count = 0;
+        Node node = root;
+        while (node != null) {
+            int index = node.isLeaf() ? search(node, 0, bound, inclusive)
+                    : childIndex(node, bound, inclusive);
+            for (int i = 0; i < index; i++) {
+                count += node.count(i);
+            }
+            node = node.isLeaf() ? null : node.children[index];
+        }
+        return count;
+    }
+
+    /**
+     * Returns the index of the first entry of a node from start on whose key is not smaller than
+     * a bound, or larger than it when afterEqual is true, with a binary search over the keys.
+     */
+    private int search(Node node, int start, Comparable<T> bound, boolean afterEqual) {
+        int low = start;
+        int high = node.size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int compare = bound.compareTo(key(node, middle));
+            if (compare > 0 || (afterEqual && compare == 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the child of an inner node that contains the first KeyList that is not
+     * smaller than a bound, or larger than it when afterEqual is true. This child also contains
+     * the KeyList equal to the bound when afterEqual is true.
+     */
+    private int childIndex(Node node, Comparable<T> bound, boolean afterEqual) {
+        return Math.max(search(node, 1, bound, afterEqual) - 1, 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T key(Node node, int index) {
+        return (T) node.keys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    private KeyListInterface<T> list(Node leaf, int index) {
+        return (KeyListInterface<T>) leaf.lists[index];
+    }
+
+    /**
+     * Returns an iterator that does an in-order iteration over the tree, starting at the
+     * iteration start point.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return iteratorFrom(iterationStartPoint, false, null, true).start(0);
+    }
+
+    /**
+     * Returns an iterator over the keys between two bounds. It walks down to the leaf of the lower
+     * bound and then along the linked leaves until it passes the upper bound.
+     */
+    @Override
+    public Iterator<T> iterator(Comparable<T> lowerBound, boolean lowerInclusive,
+                                Comparable<T> upperBound, boolean upperInclusive) {
+        return iteratorFrom(lowerBound, !lowerInclusive, upperBound, upperInclusive).start(0);
+    }
+
+    /**
+     * Returns an iterator that resumes at a position within the KeyList of startKey, or at the
+     * next larger KeyList when the tree does not have startKey.
+     */
+    @Override
+    public Iterator<T> iterator(Comparable<T> startKey, int startIndex, Comparable<T> upperBound,
+                                boolean upperInclusive) {
+        if (startIndex < 0) {
+            throw new IllegalArgumentException("Start index is negative");
+        }
+        LeafIterator iterator = iteratorFrom(startKey, false, upperBound, upperInclusive);
+        boolean inStartList = startKey != null && iterator.leaf != null
+                && startKey.compareTo(key(iterator.leaf, iterator.index)) == 0;
+        return iterator.start(inStartList ? startIndex : 0);
+    }
+
+    /**
+     * Returns an iterator from the largest key to the smallest, that walks the leaves backwards.
+     * Keys that compare equal are returned in the order they were inserted.
+     */
+    @Override
+    public Iterator<T> descendingIterator() {
+        return new Iterator<T>() {
+            private Node leaf = lastLeaf;
+            private int index = leaf == null ? -1 : leaf.size - 1;
+            private Iterator<T> keys;
+
+            @Override
+            public boolean hasNext() {
+                while ((keys == null || !keys.hasNext()) && leaf != null) {
+                    keys = list(leaf, index--).iterator();
+                    if (index < 0) {
+                        leaf = leaf.previous;
+                        index = leaf == null ? -1 : leaf.size - 1;
+                    }
+                }
+                return keys != null && keys.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException("No elements left");
+                }
+                return keys.next();
+            }
+        };
+    }
+
+    /**
+     * Returns a spliterator over all keys in order, starting at the iteration start point. It
+     * reports its exact size and splits the remaining positions in half.
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        int start = iterationStartPoint == null ? 0 : rank(iterationStartPoint);
+        return new KeySpliterator(start, numKeys);
+    }
+
+    /**
+     * Returns a spliterator over the keys between two bounds, see spliterator().
+     */
+    @Override
+    public Spliterator<T> spliterator(Comparable<T> lowerBound, boolean lowerInclusive,
+                                      Comparable<T> upperBound, boolean upperInclusive) {
+        int start = lowerBound == null ? 0 : countBelow(lowerBound, !lowerInclusive);
+        int end = upperBound == null ? numKeys : countBelow(upperBound, upperInclusive);
+        return new KeySpliterator(start, Math.max(start, end));
+    }
+
+    /**
+     * Sets the starting point for iterations, see IterableMultiKeySortedCollectionInterface.
+     * @param startPoint the start point to set for iterations
+     */
+    @Override
+    public void setIterationStartPoint(Comparable<T> startPoint) {
+        iterationStartPoint = startPoint;
+    }
+
+    /**
+     * Returns an iterator that is positioned at the first KeyList that is not smaller than a
+     * bound, or larger than it when afterEqual is true, and that has not started yet.
+     * @param bound the bound, or null to start at the first KeyList
+     */
+    private LeafIterator iteratorFrom(Comparable<T> bound, boolean afterEqual,
+                                      Comparable<T> upperBound, boolean upperInclusive) {
+        if (bound == null || root == null) {
+            return new LeafIterator(firstLeaf, 0, upperBound, upperInclusive);
+        }
+        Node node = root;
+        while (!node.isLeaf()) {
+            node = node.children[childIndex(node, bound, afterEqual)];
+        }
+        return new LeafIterator(node, search(node, 0, bound, afterEqual), upperBound,
+                upperInclusive);
+    }
+
+    /**
+     * Returns an iterator that starts at the key with an index of the in-order iteration. Walks
+     * down to the key like select.
+     */
+    private Iterator<T> iteratorAt(int index) {
+        if (index >= numKeys) {
+            return new LeafIterator(null, 0, null, true).start(0);
+        }
+        Node node = root;
+        while (true) {
+            int entry = 0;
+            while (index >= node.count(entry)) {
+                index -= node.count(entry);
+                entry++;
+            }
+            if (node.isLeaf()) {
+                return new LeafIterator(node, entry, null, true).start(index);
+            }
+            node = node.children[entry];
+        }
+    }
+
+    /**
+     * Iterator that walks the KeyLists of the leaves in order, and returns every key of each
+     * KeyList. Stops once it reaches a KeyList that is past the upper bound.
+     */
+    private class LeafIterator implements Iterator<T> {
+        //Leaf and index of the next KeyList, leaf is null when there are no KeyLists left
+        private Node leaf;
+        private int index;
+        private Iterator<T> keys;
+        private final Comparable<T> upperBound;
+        private final boolean upperInclusive;
+
+        private LeafIterator(Node leaf, int index, Comparable<T> upperBound,
+                             boolean upperInclusive) {
+            this.leaf = leaf;
+            this.index = index;
+            this.upperBound = upperBound;
+            this.upperInclusive = upperInclusive;
+            if (leaf != null && index == leaf.size) {
+                this.leaf = leaf.next;
+                this.index = 0;
+            }
+        }
+
+        /**
+         * Starts the iteration in the first KeyList, skipping its keys before startIndex.
+         * @return this iterator
+         */
+        private LeafIterator start(int startIndex) {
+            nextList(startIndex);
+            return this;
+        }
+
+        /**
+         * Moves to the next KeyList, or ends the iteration once it is past the upper bound.
+         */
+        private void nextList(int startIndex) {
+            if (leaf != null && index == leaf.size) {
+                leaf = leaf.next;
+                index = 0;
+            }
+            if (leaf == null || isPastUpperBound(key(leaf, index))) {
+                leaf = null;
+                keys = null;
+                return;
+            }
+            keys = list(leaf, index++).iterator(startIndex);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (keys != null && !keys.hasNext()) {
+                nextList(0);
+            }
+            return keys != null;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No elements left");
+            }
+            return keys.next();
+        }
+
+        /**
+         * Checks if the key of a KeyList is past the upper bound of this iterator
+         */
+        private boolean isPastUpperBound(T key) {
+            if (upperBound == null) {
+                return false;
+            }
+            int compare = upperBound.compareTo(key);
+            return upperInclusive ? compare < 0 : compare <= 0;
+        }
+    }
+
+    /**
+     * Spliterator over the keys with the indexes from start to end of the in-order iteration.
+     * Splitting divides the remaining indexes in half, and each half walks down to its first key
+     * once it is traversed.
+     */
+    private class KeySpliterator implements Spliterator<T> {
+        private int index;
+        private final int end;
+        private Iterator<T> iterator;
+
+        private KeySpliterator(int start, int end) {
+            this.index = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (index >= end) {
+                return false;
+            }
+            if (iterator == null) {
+                iterator = iteratorAt(index);
+            }
+            index++;
+            action.accept(iterator.next());
+            return true;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            if (end - index < 2 || iterator != null) {
+                return null;
+            }
+            int middle = index + (end - index) / 2;
+            Spliterator<T> firstHalf = new KeySpliterator(index, middle);
+            index = middle;
+            return firstHalf;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | NONNULL | SIZED | SUBSIZED;
+        }
+
+        /**
+         * Returns null, as the keys are sorted by their natural order.
+         */
+        @Override
+        public Comparator<? super T> getComparator() {
+            return null;
+        }
+    }
+
+    /**
+     * Checks the invariants of the tree: the keys of every node are sorted and are the first keys
+     * of their entries, the counts match the keys below each child, every node except the root
+     * has between fanOut / 2 and fanOut entries, all leaves have the same depth, and the linked
+     * leaves are the leaves in order.
+     * @return true if the tree is valid
+     */
+    public boolean hasValidStructure() {
+        if (root == null) {
+            return firstLeaf == null && lastLeaf == null && size == 0 && numKeys == 0;
+        }
+        List<Node> leaves = new ArrayList<>();
+        if (checkNode(root, true, leaves) != numKeys) {
+            return false;
+        }
+        int lists = 0;
+        Node leaf = firstLeaf;
+        for (int i = 0; i < leaves.size(); i++, leaf = leaf.next) {
+            if (leaf != leaves.get(i) || leaf.previous != (i == 0 ? null : leaves.get(i - 1))) {
+                return false;
+            }
+            lists += leaf.size;
+        }
+        return leaf == null && lastLeaf == leaves.get(leaves.size() - 1) && lists == size;
+    }
+
+    /**
+     * Checks a node and the nodes below it, and collects the leaves in order.
+     * @return the number of keys below the node, or -1 if the node is not valid
+     */
+    private int checkNode(Node node, boolean isRoot, List<Node> leaves) {
+        if (node.size > fanOut || node.size < (isRoot ? 1 : fanOut / 2)) {
+            return -1;
+        }
+        int keys = 0;
+        for (int i = 0; i < node.size; i++) {
+            if (i > 0 && key(node, i - 1).compareTo(key(node, i)) >= 0) {
+                return -1;
+            }
+            if (node.isLeaf()) {
+                if (list(node, i).size() == 0 || list(node, i).firstKey() != node.keys[i]) {
+                    return -1;
+                }
+                keys += list(node, i).size();
+                continue;
+            }
+            Node child = node.children[i];
+            //The leaves below every child continue at the same depth
+            if (child.isLeaf() != node.children[0].isLeaf() || child.keys[0] != node.keys[i]
+                    || checkNode(child, false, leaves) != node.counts[i]) {
+                return -1;
+            }
+            keys += node.counts[i];
+        }
+        if (node.isLeaf()) {
+            leaves.add(node);
+        }
+        return keys;
+    }
+
+}
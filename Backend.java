@@ -1,23 +1,104 @@
 
-import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+/**
+ * Backend that answers the queries of the frontend from a tree of the movies ordered by duration
+ * and from indexes by year, genre and country.
+ *
+ * The backend can be shared by many threads. Reading or refreshing a file, removing a movie and
+ * changing the duration of a movie are the writes, and hold the write lock of a StampedLock while
+ * they change the tree and the indexes. Queries that return lists hold the read lock, so any number
+ * of them run at the same time and they never see a half finished write. Counts and percentiles
+ * only take O(log n) steps, so they first run without any lock and validate the stamp of an
+ * optimistic read afterwards, and only take the read lock when a write happened in between. Streams
+ * are consumed after the method returns, so they cannot hold a lock: they validate their stamp
+ * after every movie instead, and fail with a ConcurrentModificationException when a file was read
+ * while they were consumed. Queries pass their bounds and start points as arguments, and never
+ * change the state of the tree.
+ *
+ * With a PersistentMultiKeyRBT as movie tree, queries need no locks at all. A write then copies
+ * the catalog of the tree and the indexes, which shares all unchanged nodes and lists with the
+ * previous catalog, inserts the movies into the copy and publishes it through an
+ * AtomicReference. Every query reads the current catalog once and works on that version, which
+ * never changes, so streams do not fail either. Only writers still take the write lock, to be
+ * serialized.
+ *
+ * With the title index turned on, the words in the titles are also kept in a TitleIndex, so that
+ * movies are found by the words of their title without comparing every title.
+ *
+ * With a QueryCache set, the results of the list queries are cached by their normalized
+ * predicates, and every write drops only the cached results that one of its movies matches.
+ */
 public class Backend implements BackendInterface{
-    //movieTree that data will be inserted into
-    private IterableMultiKeySortedCollectionInterface<MovieInterface> movieTree;
+    //current version of the movie tree and the indexes
+    private final AtomicReference<Catalog> catalog;
+    //number of threads that files are read with
+    private int readThreads = 1;
+    //true if readFile loads and stores snapshots of the files it reads
+    private boolean snapshotsEnabled = false;
+    //error of the last snapshot that could not be written, or null
+    private volatile IOException snapshotError = null;
+    //error of the last refresh of a watched file that failed, or null
+    private volatile IOException refreshError = null;
+    //serializes writes, and guards a catalog that is changed in place from queries
+    private final StampedLock lock = new StampedLock();
+    //trackers of the files read with refreshFile, by their absolute path
+    private final Map<Path, CsvFileTracker> trackedFiles = new ConcurrentHashMap<>();
+    //results of list queries, or null when they are not cached
+    private volatile QueryCache queryCache = null;
     /**
      * Main method for Backend class. Creates new backend and frontend that starts the main
      * command loop.
      */
     public static void main(String[] args) {
-        // Create an instance of the backend
-        BackendInterface backend = new Backend(new BackendIterableMultiKeySortedCollection<>());
+        // Create an instance of the backend that reads files with all available cores, and that
+        // answers queries without locks while a file is read
+        Backend backend = new Backend(new PersistentMultiKeyRBT<>());
+        backend.setReadThreads(Runtime.getRuntime().availableProcessors());
+        backend.setSnapshotsEnabled(true);
+        backend.setTitleIndexEnabled(true);
 
         // Create an instance of the frontend and pass the backend reference
         Frontend frontend = new Frontend(backend, new Scanner(System.in));
@@ -28,70 +109,170 @@ public class Backend implements BackendInterface{
     }
     /**
      * Constructor for Backend
-     * @param redBlackTree instance of redBlackTree that we will be inserting data into
+     * @param redBlackTree instance of redBlackTree that we will be inserting data into. A
+     *                     PersistentMultiKeyRBT is not changed by the backend: movies are inserted
+     *                     into new versions of it, which queries read without locks. Any other
+     *                     collection, like a BPlusTree, is changed in place
      */
     public Backend(IterableMultiKeySortedCollectionInterface<MovieInterface> redBlackTree){
-        this.movieTree = redBlackTree;
+        this.catalog = new AtomicReference<>(new Catalog(redBlackTree));
     }
     /**
-     * Reads data from a csv file and creates a Movie based on this data. Inserts that movie into
-     * the tree
+     * Sets the number of threads that readFile uses. With more than one thread, the file is
+     * memory-mapped and its chunks are parsed in parallel by MappedCsvReader, which returns the
+     * same movies in the same order as reading the file with a single thread.
+     * @param readThreads number of threads to read files with, 1 to read them sequentially
+     */
+    public void setReadThreads(int readThreads) {
+        if (readThreads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed to read files");
+        }
+        this.readThreads = readThreads;
+    }
+
+    /**
+     * Turns the use of snapshots on or off. With snapshots on, readFile loads the movies from the
+     * snapshot file next to the csv file when it is still up to date, and otherwise parses the
+     * csv file and writes a new snapshot of it. Snapshots are only used when the tree is empty
+     * before reading the file. A snapshot can be at most 2 GB, because it is memory-mapped as one
+     * buffer, so the snapshot of a larger catalog is not written, and getSnapshotError returns
+     * why.
+     * @param snapshotsEnabled true to read and write snapshots
+     */
+    public void setSnapshotsEnabled(boolean snapshotsEnabled) {
+        this.snapshotsEnabled = snapshotsEnabled;
+    }
+
+    /**
+     * Returns why the last snapshot that readFile tried to write could not be written. Without a
+     * snapshot, the next start parses the csv file again, so this does not make readFile fail
+     * @return the error of the last snapshot write, or null when it succeeded or no snapshot was
+     *         written yet
+     */
+    public IOException getSnapshotError() {
+        return snapshotError;
+    }
+
+    /**
+     * @return the error of the last refresh of a file watched with watchFile, or null when the
+     *         last refresh succeeded or no watched file was refreshed yet
+     */
+    public IOException getRefreshError() {
+        return refreshError;
+    }
+
+    /**
+     * Turns the inverted index of the words in the titles on or off. Turning it on indexes the
+     * movies that are in the backend already, and from then on reading files, removing movies
+     * and changing durations keep it up to date. Without it, queries for title words compare
+     * the words of every title. The index is off by default, because most titles have a word
+     * that no other title has, which the index keeps a posting list for
+     * @param titleIndexEnabled true to index the words in the titles
+     */
+    public void setTitleIndexEnabled(boolean titleIndexEnabled) {
+        long stamp = lock.writeLock();
+        try {
+            Catalog next = catalog.get().forWrite();
+            if (titleIndexEnabled == (next.titleIndex != null)) {
+                return;
+            }
+            next.titleIndex = null;
+            if (titleIndexEnabled) {
+                List<MovieInterface> movies = new ArrayList<>(next.movieTree.numKeys());
+                next.movieTree.iterator(null, true, null, true).forEachRemaining(movies::add);
+                next.titleIndex = new TitleIndex().add(movies);
+            }
+            catalog.set(next);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Sets the cache of the results of getMoviesWithMinDuration, getMoviesWithinRange and
+     * findMovies. A cached result is returned as a new list without reading the tree, and every
+     * write drops the results that its inserted or removed movies would change, so results are
+     * never stale. The cache counts its hits, misses, evictions and invalidations
+     * @param queryCache the cache to use, or null to not cache results
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    /**
+     * @return the cache of query results, or null when results are not cached
+     */
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Returns the path of the snapshot file of a csv file.
+     * @param file the csv file
+     * @return the path of the snapshot file
+     */
+    public static Path snapshotPath(String file) {
+        return Path.of(file + ".snapshot");
+    }
+
+    /**
+     * Reads data from a csv file and creates a Movie based on this data. The file is read in a
+     * single pass by MovieCsvParser, or in parallel chunks when more than one read thread is set.
+     * Inserts the movies into the tree with bulkLoad, which builds an empty tree directly from
+     * the sorted movies, and adds them to the year, genre and country indexes. When snapshots are
+     * enabled, a valid snapshot replaces parsing the file
      * @param file the csv file to be read
      */
     @Override
     public void readFile(String file) throws FileNotFoundException {
         try {
-            //Creates a BufferedReader with file we are going to read
-            BufferedReader input = new BufferedReader(new FileReader(file));
-            String currentLine;
-            input.readLine();
-
-            //ArrayList we will use when we parse "" in csv file.
-            List<String> updatedValues = new ArrayList<>();
-
-            //While there is still data to read
-            while ((currentLine = input.readLine()) != null){
-                //Splits csv line into data by , and inserts into an array
-                String[] movieData = currentLine.split(",");
-
-                for (int i = 0; i < movieData.length;i++){
-                    //If index of array starts with " we know we need to combine indexes
-                    if(movieData[i].startsWith("\"")){
-                        //Removes " from string
-                        String combinedString = movieData[i].substring(1);
-                        //While it doesn't end with " we combine indexes of array
-                        while (!movieData[i].endsWith("\"") && i < movieData.length -1){
-                            i++;
-                            combinedString += ("," + movieData[i]);
-                        }
-                        //When it ends with " we remove the quotations and know this is the end
-                        // of our combined string
-                        if (combinedString.endsWith("\"")){
-                            combinedString = combinedString.substring(0,combinedString.length()-1);
-                        }
-                        //Add the string to our updated arraylist
-                        updatedValues.add(combinedString);
-                    //If it doesn't start with " then we know data is good
-                    }else {
-                        updatedValues.add(movieData[i].trim());
-                    }
+            boolean useSnapshot = snapshotsEnabled
+                    && read(current -> current.movieTree.isEmpty());
+            if (useSnapshot) {
+                List<MovieInterface> snapshotMovies = MovieSnapshot.read(snapshotPath(file),
+                        Path.of(file));
+                if (snapshotMovies != null) {
+                    //The snapshot is sorted already, so the tree is built without sorting
+                    insertMovies(snapshotMovies);
+                    return;
                 }
+            }
 
-                //Our arrayList should have 8 different types of info
-                if (updatedValues.size() == 8){
-                    String title = updatedValues.get(1).trim();
-                    int year = Integer.parseInt(updatedValues.get(2).trim());
-                    String genre = updatedValues.get(3).trim();
-                    int duration = Integer.parseInt(updatedValues.get(4).trim());
-                    String country = updatedValues.get(5).trim();
-
-                    //Initializes movie and adds it to tree
-                    Movie movie = new Movie(title,genre,country,year,duration);
-                    movieTree.insertSingleKey(movie);
+            //Movies read from the file
+            List<MovieInterface> movies;
+            if (readThreads > 1) {
+                movies = MappedCsvReader.read(Path.of(file), readThreads);
+            } else {
+                movies = new ArrayList<>();
+                try (InputStream input = new FileInputStream(file)) {
+                    MovieCsvParser.parse(input, movies::add);
                 }
-                updatedValues.clear();
             }
-        }catch (FileNotFoundException e){
+
+            //The file is parsed before the write lock is taken, so queries only wait for the
+            //movies to be inserted
+            long stamp = lock.writeLock();
+            try {
+                //Another file may have been read since the tree was checked, and the snapshot
+                //may only hold the movies of this file
+                boolean writeSnapshot = useSnapshot && catalog.get().movieTree.isEmpty();
+                Catalog current = insert(movies);
+                //Queries may read the tree again while it is written to the snapshot
+                stamp = lock.tryConvertToReadLock(stamp);
+                if (writeSnapshot) {
+                    try {
+                        MovieSnapshot.write(snapshotPath(file), current.movieTree,
+                                Path.of(file));
+                        snapshotError = null;
+                    } catch (IOException e) {
+                        //Without a snapshot the next start parses the csv file again
+                        snapshotError = e;
+                    }
+                }
+            } finally {
+                lock.unlock(stamp);
+            }
+        }catch (FileNotFoundException | NoSuchFileException | InvalidPathException e){
             throw new FileNotFoundException("File not found");
         }catch (IOException e){
             System.out.println("IOException");
@@ -99,56 +280,1297 @@ public class Backend implements BackendInterface{
     }
 
     /**
-     * Gets movies based off duration. Uses iterator to iterator through tree and find movies
+     * Inserts movies into the tree and the indexes while holding the write lock
+     * @param movies the movies to insert
+     */
+    private void insertMovies(List<MovieInterface> movies) {
+        long stamp = lock.writeLock();
+        try {
+            insert(movies);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Inserts movies into the tree and the indexes, and publishes the catalog they were inserted
+     * into. The write lock has to be held
+     * @param movies the movies to insert
+     * @return the catalog with the movies
+     */
+    private Catalog insert(List<MovieInterface> movies) {
+        Catalog next = catalog.get().forWrite();
+        List<MovieInterface> stored = storedMovies(next, movies);
+        //An empty tree is built in one pass, otherwise every movie is inserted on its own
+        next.movieTree.bulkLoad(stored);
+        indexMovies(next, stored);
+        catalog.set(next);
+        invalidateQueryCache(stored);
+        return next;
+    }
+
+    /**
+     * Returns the movies that the tree of a catalog holds for movies that are about to be
+     * inserted. These are the movies themselves, unless the tree stores copies of its movies
+     * like an OffHeapMovieStore. The indexes hold the same movies as the tree
+     * @param target the catalog that the movies are inserted into
+     * @param movies the movies to insert
+     * @return the movies to insert into the tree and the indexes
+     */
+    private static List<MovieInterface> storedMovies(Catalog target,
+                                                     List<MovieInterface> movies) {
+        List<MovieInterface> stored = null;
+        int index = 0;
+        for (MovieInterface movie : movies) {
+            MovieInterface storedMovie = target.movieTree.storedKey(movie);
+            //Only copies the list once the tree returns a movie that is not the same
+            if (stored == null && storedMovie != movie) {
+                stored = new ArrayList<>(movies.size());
+                stored.addAll(movies.subList(0, index));
+            }
+            if (stored != null) {
+                stored.add(storedMovie);
+            }
+            index++;
+        }
+        return stored == null ? movies : stored;
+    }
+
+    /**
+     * Removes a movie from the tree and the indexes. The movie is found by its duration in
+     * O(log n) in the tree and by its year in the year index, and the lists of its genres and
+     * countries are copied without it
+     * @param movie the movie to remove, as returned by a query
+     * @return true if the movie was removed, false if it was not in the tree
+     */
+    @Override
+    public boolean removeMovie(MovieInterface movie) {
+        return replaceMovie(movie, null) != null;
+    }
+
+    /**
+     * Changes the duration of a movie. Movies are never changed, because older catalogs and
+     * running queries may still use them, so the movie is removed like in removeMovie and a copy
+     * with the new duration is inserted after the movies that have that duration already. It
+     * takes the place of the movie in the genre and country lists. Page cursors taken before the
+     * change may skip or repeat a movie with the old or the new duration
+     * @param movie the movie to change, as returned by a query
+     * @param newDuration the new duration in minutes
+     * @return the movie with the new duration, as the tree holds it
+     * @throws NoSuchElementException when the movie is not in the tree
+     */
+    @Override
+    public MovieInterface updateDuration(MovieInterface movie, int newDuration) {
+        MovieInterface updated = replaceMovie(movie, new Movie(movie.getTitle(), movie.getGenre(),
+                movie.getCountry(), movie.getYear(), newDuration));
+        if (updated == null) {
+            throw new NoSuchElementException("Movie is not in the backend");
+        }
+        return updated;
+    }
+
+    /**
+     * Removes a movie from the tree and the indexes and inserts its replacement, if there is
+     * one, and publishes the catalog while holding the write lock
+     * @param movie the movie to remove
+     * @param replacement the movie to insert instead, or null to only remove the movie
+     * @return the replacement as the tree holds it, movie when there is no replacement, or null
+     *         when movie was not in the tree
+     */
+    private MovieInterface replaceMovie(MovieInterface movie, MovieInterface replacement) {
+        long stamp = lock.writeLock();
+        try {
+            Catalog next = catalog.get().forWrite();
+            Map<MovieInterface, MovieInterface> replacements = new IdentityHashMap<>();
+            replacements.put(movie, replacement);
+            List<MovieInterface> inserted = new ArrayList<>();
+            List<MovieInterface> changed = replaceMovies(next, replacements, inserted);
+            if (changed.isEmpty()) {
+                return null;
+            }
+            catalog.set(next);
+            changed.addAll(inserted);
+            invalidateQueryCache(changed);
+            return replacement == null ? movie : inserted.get(0);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Removes movies from the tree and the indexes of a catalog, and inserts their replacements.
+     * A replacement takes the place of its movie in the genre and country lists, so it has to
+     * have the same genre and country. Every list is copied at most once. The indexes remove the
+     * movies that the tree removed, which are equal to the movies they hold even when the tree
+     * holds copies of its movies, like an OffHeapMovieStore. Such a copy can be reused by a
+     * replacement, so the removed movies are read before any replacement is inserted
+     * @param target the catalog that a write changes
+     * @param replacements map from each movie to its replacement, or to null to only remove it
+     * @param inserted list that the replacements are added to, as the tree holds them
+     * @return the movies that were removed from the tree, as Movies that stay readable
+     */
+    private static List<MovieInterface> replaceMovies(Catalog target,
+            Map<MovieInterface, MovieInterface> replacements, List<MovieInterface> inserted) {
+        //The movies that the tree held, mapped to their replacements
+        Map<MovieInterface, MovieInterface> removed = new LinkedHashMap<>();
+        List<MovieInterface> readable = new ArrayList<>();
+        Set<String> genres = new HashSet<>();
+        Set<String> countries = new HashSet<>();
+        for (Map.Entry<MovieInterface, MovieInterface> entry : replacements.entrySet()) {
+            MovieInterface movie = target.movieTree.removeStoredKey(entry.getKey());
+            if (movie == null) {
+                continue;
+            }
+            removed.put(movie, entry.getValue());
+            target.yearIndex.removeSingleKey(new YearKey(movie));
+            genres.addAll(indexKeys(movie.getGenre()));
+            countries.addAll(indexKeys(movie.getCountry()));
+            readable.add(movie instanceof Movie ? movie : new Movie(movie.getTitle(),
+                    movie.getGenre(), movie.getCountry(), movie.getYear(), movie.getDuration()));
+        }
+        if (target.titleIndex != null && !removed.isEmpty()) {
+            target.titleIndex = target.titleIndex.remove(removed.keySet());
+        }
+        for (Map.Entry<MovieInterface, MovieInterface> entry : removed.entrySet()) {
+            if (entry.getValue() != null) {
+                MovieInterface replacement = target.movieTree.storedKey(entry.getValue());
+                entry.setValue(replacement);
+                inserted.add(replacement);
+                target.movieTree.insertSingleKey(replacement);
+                target.yearIndex.insertSingleKey(new YearKey(replacement));
+            }
+        }
+        replaceInIndex(target.genreIndex, removed, genres);
+        replaceInIndex(target.countryIndex, removed, countries);
+        if (target.titleIndex != null && !inserted.isEmpty()) {
+            target.titleIndex = target.titleIndex.add(inserted);
+        }
+        return readable;
+    }
+
+    /**
+     * Reads the changes of a csv file since it was last refreshed, and applies only those to the
+     * tree and the indexes: movies of removed rows are removed, and movies of added rows are
+     * inserted, and a changed row does both. CsvFileTracker finds the changes, and only parses
+     * the new records of a file that was appended to once a checksum shows that the rest of the
+     * file is unchanged, so the parsing of a refresh depends on the size of the change instead
+     * of the size of the file. The first refresh of a file inserts all of its movies. A file
+     * that changes should only be read with refreshFile, as readFile inserts all of its movies
+     * again. The file is parsed before the write lock is taken, and refreshes of the same file
+     * run one at a time
+     * @param file the csv file to refresh
+     * @return the rows that were added, removed and changed
+     * @throws IOException when the file cannot be read, the tree is unchanged then
+     */
+    public CsvFileTracker.Changes refreshFile(String file) throws IOException {
+        Path path;
+        try {
+            path = Path.of(file).toAbsolutePath().normalize();
+        } catch (InvalidPathException e) {
+            throw new FileNotFoundException("File not found");
+        }
+        CsvFileTracker tracker = trackedFiles.computeIfAbsent(path, CsvFileTracker::new);
+        synchronized (tracker) {
+            CsvFileTracker.Changes changes = tracker.refresh();
+            if (changes.isEmpty()) {
+                return changes;
+            }
+            long stamp = lock.writeLock();
+            try {
+                Catalog next = catalog.get().forWrite();
+                Map<MovieInterface, MovieInterface> removed = new IdentityHashMap<>();
+                for (MovieInterface movie : changes.getRemoved()) {
+                    removed.put(movie, null);
+                }
+                List<MovieInterface> changed = replaceMovies(next, removed, new ArrayList<>());
+                List<MovieInterface> added = storedMovies(next, changes.getAdded());
+                next.movieTree.bulkLoad(added);
+                indexMovies(next, added);
+                catalog.set(next);
+                changed.addAll(added);
+                invalidateQueryCache(changed);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            return changes;
+        }
+    }
+
+    /**
+     * Refreshes a csv file with refreshFile now and then every time it is created or modified,
+     * on a daemon thread that waits for the events of a WatchService. When a refresh fails,
+     * getRefreshError returns why, and the file is still watched
+     * @param file the csv file to watch
+     * @return the watch, closing it stops watching the file and waits until the thread that
+     *         refreshes it has stopped, so the file is not refreshed anymore once it returns
+     * @throws IOException when the directory of the file cannot be watched, or the first refresh
+     *                     fails
+     */
+    public Closeable watchFile(String file) throws IOException {
+        Path path = Path.of(file).toAbsolutePath().normalize();
+        WatchService watcher = path.getFileSystem().newWatchService();
+        try {
+            path.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            refreshFile(file);
+        } catch (IOException e) {
+            watcher.close();
+            throw e;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watcher.take();
+                    boolean changed = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        changed |= path.getFileName().equals(event.context());
+                    }
+                    key.reset();
+                    if (changed) {
+                        try {
+                            refreshFile(file);
+                            refreshError = null;
+                        } catch (IOException e) {
+                            refreshError = e;
+                        }
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                //The watch service was closed
+            }
+        }, "refresh " + path.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+        return () -> {
+            watcher.close();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    /**
+     * Gets movies based off duration, as a list of the movies of streamMoviesWithMinDuration
      * @param minLength the minimum length the movie should be
      * @return list of movies with this minimum length
      */
     @Override
     public List<MovieInterface> getMoviesWithMinDuration(int minLength) {
-        List<MovieInterface> moviesWithMinDuration = new ArrayList<>();
-        Iterator<MovieInterface> iterator = movieTree.iterator();
-        //No movie should be below zero minutes
-        if (minLength < 0){
-            return moviesWithMinDuration;
+        return cachedRead("range", new MovieQuery.Builder().minDuration(minLength).build(),
+                () -> read(current -> durationStream(current, minLength, null)
+                        .collect(Collectors.toCollection(ArrayList::new))));
+    }
+
+    /**
+     * Gets movies based off of a specific threshold, as a list of the movies of
+     * streamMoviesWithinRange
+     * @param minLength the minimum length the movie should be
+     * @param maxLength the maximum length the movie should be
+     * @return list of movies with a certain threshold
+     */
+    @Override
+    public List<MovieInterface> getMoviesWithinRange(int minLength, int maxLength) {
+        return cachedRead("range",
+                new MovieQuery.Builder().durationBetween(minLength, maxLength).build(),
+                () -> read(current -> durationStream(current, minLength, maxLength)
+                        .collect(Collectors.toCollection(ArrayList::new))));
+    }
+
+    /**
+     * Streams movies based off duration. The stream is backed by a bounded spliterator of the
+     * tree that starts at the minimum length, so movies shorter than it are never visited and
+     * each movie is only read from the tree when the stream consumes it. The stream fails with a
+     * ConcurrentModificationException when a file is read while it is consumed
+     * @param minLength the minimum length the movie should be
+     * @return stream of movies with this minimum length, ordered by duration
+     */
+    @Override
+    public Stream<MovieInterface> streamMoviesWithMinDuration(int minLength) {
+        return validatedStream(current -> durationStream(current, minLength, null).spliterator());
+    }
+
+    /**
+     * Streams movies based off of a specific threshold. The stream is backed by a bounded
+     * spliterator of the tree that seeks to the minimum length and stops after the maximum
+     * length, so only movies in the range are visited, when the stream consumes them. The stream
+     * fails with a ConcurrentModificationException when a file is read while it is consumed
+     * @param minLength the minimum length the movie should be
+     * @param maxLength the maximum length the movie should be
+     * @return stream of movies with a certain threshold, ordered by duration
+     */
+    @Override
+    public Stream<MovieInterface> streamMoviesWithinRange(int minLength, int maxLength) {
+        return validatedStream(current -> durationStream(current, minLength, maxLength)
+                .spliterator());
+    }
+
+    /**
+     * Streams the movies with a duration from minLength up to maxLength, without any locking
+     * @param maxLength the maximum length, or null for no maximum
+     */
+    private static Stream<MovieInterface> durationStream(Catalog current, int minLength,
+                                                         Integer maxLength) {
+        //Neither length should be below zero
+        if (minLength < 0 || (maxLength != null && maxLength < 0)){
+            return Stream.empty();
         }
+        //Every movie from the stream has a duration in between the two points
+        return current.movieTree.stream(durationBound(minLength), true,
+                maxLength == null ? null : durationBound(maxLength), true);
+    }
 
-        //While there is data in the tree
-        while (iterator.hasNext()){
-            MovieInterface movie = iterator.next();
-            //If the duration of the movie is above threshold add it to list
-            if (movie.getDuration() >= minLength){
-                moviesWithMinDuration.add(movie);
+    /**
+     * Gets one page of the movies with a minimum duration, see getMoviesWithinRange(minLength,
+     * maxLength, limit, cursor)
+     * @param minLength the minimum length the movie should be
+     * @param limit the largest number of movies on the page
+     * @param cursor the cursor of the previous page, or null for the first page
+     * @return the page of movies, ordered by duration
+     */
+    @Override
+    public MoviePage getMoviesWithMinDuration(int minLength, int limit, String cursor) {
+        return read(current -> getPage(current, minLength, null, limit, cursor));
+    }
+
+    /**
+     * Gets one page of the movies within a threshold. The cursor encodes the duration of the
+     * last movie of the previous page and its position in the KeyList of that duration, so the
+     * next page seeks directly back to it in the tree instead of iterating over the previous
+     * pages again. Movies inserted between two pages do not shift the pages, as they are added
+     * at the end of their KeyList. Removing a movie moves the movies after it in its KeyList one
+     * position forward, so removing or updating a movie invalidates the cursors taken before,
+     * which skip a movie when a movie of their duration before them was removed
+     * @param minLength the minimum length the movie should be
+     * @param maxLength the maximum length the movie should be
+     * @param limit the largest number of movies on the page
+     * @param cursor the cursor of the previous page, or null for the first page
+     * @return the page of movies, ordered by duration
+     */
+    @Override
+    public MoviePage getMoviesWithinRange(int minLength, int maxLength, int limit,
+                                          String cursor) {
+        return read(current -> getPage(current, minLength, maxLength, limit, cursor));
+    }
+
+    /**
+     * Gets a page of movies with a duration from minLength up to maxLength
+     * @param maxLength the maximum length, or null for no maximum
+     */
+    private static MoviePage getPage(Catalog current, int minLength, Integer maxLength, int limit,
+                                     String cursor) {
+        if (limit < 1){
+            throw new IllegalArgumentException("A page needs room for at least one movie");
+        }
+        List<MovieInterface> movies = new ArrayList<>();
+        //Neither length should be below zero
+        if (minLength < 0 || (maxLength != null && maxLength < 0)){
+            return new MoviePage(movies, null);
+        }
+
+        //Resumes after the last movie of the previous page, or starts at the minimum length
+        int duration = minLength;
+        int position = -1;
+        if (cursor != null){
+            int[] decoded = decodeCursor(cursor);
+            duration = decoded[0];
+            position = decoded[1];
+            if (duration < minLength || (maxLength != null && duration > maxLength)){
+                throw new IllegalArgumentException("Cursor is not from this query");
             }
         }
-        return moviesWithMinDuration;
+        Iterator<MovieInterface> iterator = current.movieTree.iterator(durationBound(duration),
+                position + 1, maxLength == null ? null : durationBound(maxLength), true);
+        while (movies.size() < limit && iterator.hasNext()){
+            MovieInterface movie = iterator.next();
+            //Keeps track of the position of the movie in the KeyList of its duration
+            position = movie.getDuration() == duration ? position + 1 : 0;
+            duration = movie.getDuration();
+            movies.add(movie);
+        }
+        return new MoviePage(movies, iterator.hasNext() ? encodeCursor(duration, position) : null);
+    }
+
+    /**
+     * Encodes the duration and KeyList position of a movie into a cursor
+     */
+    private static String encodeCursor(int duration, int position) {
+        byte[] bytes = ByteBuffer.allocate(8).putInt(duration).putInt(position).array();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
 
+    /**
+     * Decodes a cursor into the duration and KeyList position of a movie
+     * @throws IllegalArgumentException when the cursor was not created by encodeCursor
+     */
+    private static int[] decodeCursor(String cursor) {
+        byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+        if (bytes.length != 8){
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int[] decoded = {buffer.getInt(), buffer.getInt()};
+        if (decoded[1] < 0){
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        return decoded;
     }
 
     /**
-     * Gets movies based off of a specific threshold. Uses iterator to iterator through tree and
-     * find movies
+     * Gets the longest movies. Walks the tree in reverse order from the longest movie, so only
+     * the k movies that are returned are visited
+     * @param k the number of movies to return
+     * @return list of the k longest movies, or of all movies if there are fewer, longest first
+     */
+    @Override
+    public List<MovieInterface> getLongestMovies(int k) {
+        return read(current -> {
+            List<MovieInterface> longestMovies = new ArrayList<>();
+            Iterator<MovieInterface> iterator = current.movieTree.descendingIterator();
+            while (longestMovies.size() < k && iterator.hasNext()){
+                longestMovies.add(iterator.next());
+            }
+            return longestMovies;
+        });
+    }
+
+    /**
+     * Gets the shortest movies. Walks the tree in order from the shortest movie, so only the k
+     * movies that are returned are visited
+     * @param k the number of movies to return
+     * @return list of the k shortest movies, or of all movies if there are fewer, shortest first
+     */
+    @Override
+    public List<MovieInterface> getShortestMovies(int k) {
+        return read(current -> {
+            List<MovieInterface> shortestMovies = new ArrayList<>();
+            Iterator<MovieInterface> iterator = current.movieTree.iterator(null, true, null,
+                    true);
+            while (shortestMovies.size() < k && iterator.hasNext()){
+                shortestMovies.add(iterator.next());
+            }
+            return shortestMovies;
+        });
+    }
+
+    /**
+     * Counts the movies with a minimum duration in O(log n), using the subtree counts of the tree.
+     * Runs as an optimistic read that does not wait for other queries
+     * @param minLength the minimum length the movie should be
+     * @return the number of movies with this minimum length
+     */
+    @Override
+    public int countMoviesWithMinDuration(int minLength) {
+        //No movie should be below zero minutes
+        if (minLength < 0){
+            return 0;
+        }
+        return optimisticRead(current -> current.movieTree.countInRange(durationBound(minLength),
+                true, null, true));
+    }
+
+    /**
+     * Counts the movies within a threshold in O(log n), using the subtree counts of the tree.
+     * Runs as an optimistic read that does not wait for other queries
      * @param minLength the minimum length the movie should be
      * @param maxLength the maximum length the movie should be
-     * @return list of movies with a certain threshold
+     * @return the number of movies within the threshold
      */
     @Override
-    public List<MovieInterface> getMoviesWithinRange(int minLength, int maxLength) {
-        List<MovieInterface> moviesWithinRange = new ArrayList<>();
-        Iterator<MovieInterface> iterator = movieTree.iterator();
+    public int countMoviesWithinRange(int minLength, int maxLength) {
         //Neither length should be below zero
         if (minLength < 0 || maxLength < 0){
-            return moviesWithinRange;
+            return 0;
         }
+        return optimisticRead(current -> current.movieTree.countInRange(durationBound(minLength),
+                true, durationBound(maxLength), true));
+    }
 
-        //While there is data in the tree
-        while (iterator.hasNext()){
-            MovieInterface movie = iterator.next();
-            int duration = movie.getDuration();
-            //If duration is in between two points add it to list
-            if (duration >= minLength && duration <= maxLength){
-                moviesWithinRange.add(movie);
+    /**
+     * Gets a percentile of the movie durations in O(log n) by selecting the movie at its rank.
+     * Uses the nearest rank method, so the result is the duration of one of the movies: the
+     * smallest duration that at least percentile percent of the movies are not longer than. Runs
+     * as an optimistic read that does not wait for other queries
+     * @param percentile the percentile between 0 and 100, 50 for the median
+     * @return the duration at the percentile in minutes
+     */
+    @Override
+    public int getDurationPercentile(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)){
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        return optimisticRead(current -> {
+            int numMovies = current.movieTree.numKeys();
+            if (numMovies == 0){
+                throw new NoSuchElementException("There are no movies");
+            }
+            int rank = (int) Math.ceil(percentile / 100 * numMovies);
+            return current.movieTree.select(Math.max(rank - 1, 0)).getDuration();
+        });
+    }
+
+    /**
+     * Gets the movies made between two years. Uses the year index, so only the movies in the
+     * range are visited
+     * @param minYear the first year the movies can be from
+     * @param maxYear the last year the movies can be from
+     * @return list of movies from these years, ordered by year
+     */
+    @Override
+    public List<MovieInterface> getMoviesFromYears(int minYear, int maxYear) {
+        return read(current -> {
+            List<MovieInterface> moviesFromYears = new ArrayList<>();
+            Iterator<YearKey> iterator = current.yearIndex.iterator(yearBound(minYear), true,
+                    yearBound(maxYear), true);
+            while (iterator.hasNext()){
+                moviesFromYears.add(iterator.next().movie);
+            }
+            return moviesFromYears;
+        });
+    }
+
+    /**
+     * Gets the movies of a genre. Movies with a list of genres like "Action, Drama" are found
+     * under each of them, and genres are compared ignoring case and surrounding whitespace
+     * @param genre the genre of the movies
+     * @return list of movies of this genre, in the order they were read
+     */
+    @Override
+    public List<MovieInterface> getMoviesWithGenre(String genre) {
+        return read(current -> lookup(current.genreIndex, genre));
+    }
+
+    /**
+     * Gets the movies from a country. Movies from a list of countries like "USA, UK" are found
+     * under each of them, and countries are compared ignoring case and surrounding whitespace
+     * @param country the country of the movies
+     * @return list of movies from this country, in the order they were read
+     */
+    @Override
+    public List<MovieInterface> getMoviesFromCountry(String country) {
+        return read(current -> lookup(current.countryIndex, country));
+    }
+
+    /**
+     * Finds the movies whose title contains every word of some text, in any order. Words are
+     * runs of letters and digits, compared in lower case, so "the lone star" finds "The Lone
+     * Star" and "Star of the Lone Pines". The posting lists of the words are intersected in the
+     * title index when it is on
+     * @param words the words that the titles have to contain
+     * @return list of movies with all the words, ordered by duration, or an empty list when the
+     *         text has no words
+     */
+    @Override
+    public List<MovieInterface> getMoviesWithTitleWords(String words) {
+        return findTitleWords(TitleIndex.words(words), true);
+    }
+
+    /**
+     * Finds the movies whose title contains at least one word of some text. The posting lists
+     * of the words are merged in the title index when it is on
+     * @param words the words that the titles contain one of
+     * @return list of movies with any of the words, ordered by duration
+     */
+    @Override
+    public List<MovieInterface> getMoviesWithAnyTitleWord(String words) {
+        return findTitleWords(TitleIndex.words(words), false);
+    }
+
+    /**
+     * Finds the movies whose title contains all or any of some words, with the title index, or
+     * by comparing the words of every title when it is off
+     * @param words the normalized words
+     * @param all true for the movies with all words, false for the movies with any of them
+     * @return list of the movies, ordered by duration
+     */
+    private List<MovieInterface> findTitleWords(List<String> words, boolean all) {
+        List<MovieInterface> movies = read(current -> {
+            if (current.titleIndex != null) {
+                return current.titleIndex.find(words, all);
+            }
+            List<MovieInterface> matches = new ArrayList<>();
+            //Iterates over all movies, whatever iteration start point the tree was given
+            Iterator<MovieInterface> iterator = current.movieTree.iterator(null, true, null,
+                    true);
+            while (iterator.hasNext()) {
+                MovieInterface movie = iterator.next();
+                List<String> titleWords = TitleIndex.words(movie.getTitle());
+                if (all ? !words.isEmpty() && titleWords.containsAll(words)
+                        : words.stream().anyMatch(titleWords::contains)) {
+                    matches.add(movie);
+                }
+            }
+            return matches;
+        });
+        //The title index returns the movies in the order they were indexed
+        movies.sort(null);
+        return movies;
+    }
+
+    /**
+     * Finds the movies that match every predicate of a query. The query planner looks up how
+     * many movies each index would return for the predicates of the query, and only iterates
+     * over the movies of the index that returns the fewest of them. The other predicates are
+     * checked on each of these movies as the index is iterated, so no intermediate lists are
+     * created. A query without indexed predicates scans all movies
+     * @param query the predicates the movies have to match
+     * @return list of movies that match the query, ordered by duration
+     */
+    @Override
+    public List<MovieInterface> findMovies(MovieQuery query) {
+        return cachedRead("find", query, () -> findUncached(query));
+    }
+
+    /**
+     * Runs findMovies without the query cache
+     * @param query the predicates the movies have to match
+     * @return list of movies that match the query, ordered by duration
+     */
+    private List<MovieInterface> findUncached(MovieQuery query) {
+        List<MovieInterface> movies = read(current -> {
+            QueryPlan plan = planQuery(current, query);
+            List<MovieInterface> matches = new ArrayList<>();
+            Iterator<MovieInterface> candidates = candidates(current, plan.index, query);
+            while (candidates.hasNext()){
+                MovieInterface movie = candidates.next();
+                if (query.matches(movie)){
+                    matches.add(movie);
+                }
             }
+            return matches;
+        });
+        //Candidates of the year, genre, country and title indexes are not in duration order,
+        //those of the duration index and the scan are, and sorting them takes linear time
+        movies.sort(null);
+        return movies;
+    }
+
+    /**
+     * Describes the plan that findMovies uses for a query, like
+     * "genre index (1200 candidates), filter: duration 90-120, genre drama"
+     * @param query the predicates the movies have to match
+     * @return the index that is iterated, the number of movies it returns, and the predicates
+     *         that every one of them is checked against
+     */
+    @Override
+    public String explainQuery(MovieQuery query) {
+        return read(current -> planQuery(current, query)).toString() + ", filter: " + query;
+    }
+
+    /**
+     * Chooses the index that returns the fewest candidates for a query. The number of
+     * candidates of the duration and year indexes is counted in O(log n) by the trees, and that
+     * of the genre and country indexes is the size of their lists. Title words are estimated by
+     * the shortest posting list of their words in the title index
+     * @param current the catalog to query
+     * @param query the query to plan
+     * @return the plan with the chosen index
+     */
+    private static QueryPlan planQuery(Catalog current, MovieQuery query) {
+        QueryPlan plan = new QueryPlan(QueryPlan.SCAN, current.movieTree.numKeys());
+        Integer minDuration = query.getMinDuration();
+        Integer maxDuration = query.getMaxDuration();
+        if (minDuration != null || maxDuration != null){
+            plan = plan.cheaper(QueryPlan.DURATION, current.movieTree.countInRange(
+                    minDuration == null ? null : durationBound(minDuration), true,
+                    maxDuration == null ? null : durationBound(maxDuration), true));
+        }
+        Integer minYear = query.getMinYear();
+        Integer maxYear = query.getMaxYear();
+        if (minYear != null || maxYear != null){
+            plan = plan.cheaper(QueryPlan.YEAR, current.yearIndex.countInRange(
+                    minYear == null ? null : yearBound(minYear), true,
+                    maxYear == null ? null : yearBound(maxYear), true));
+        }
+        if (query.getGenre() != null){
+            plan = plan.cheaper(QueryPlan.GENRE, current.genreIndex.getOrDefault(
+                    query.getGenre(), Collections.emptyList()).size());
+        }
+        if (query.getCountry() != null){
+            plan = plan.cheaper(QueryPlan.COUNTRY, current.countryIndex.getOrDefault(
+                    query.getCountry(), Collections.emptyList()).size());
+        }
+        if (query.getTitleWords() != null && current.titleIndex != null){
+            plan = plan.cheaper(QueryPlan.TITLE,
+                    current.titleIndex.estimateAll(query.getTitleWords()));
+        }
+        return plan;
+    }
+
+    /**
+     * Returns an iterator over the candidates of an index for a query
+     * @param current the catalog to query
+     * @param index the index chosen by the plan
+     * @param query the query whose predicates select the candidates of the index
+     * @return iterator over the movies of the index that match the predicate of the index
+     */
+    private static Iterator<MovieInterface> candidates(Catalog current, String index,
+                                                       MovieQuery query) {
+        switch (index){
+            case QueryPlan.DURATION:
+                Integer minDuration = query.getMinDuration();
+                Integer maxDuration = query.getMaxDuration();
+                return current.movieTree.iterator(
+                        minDuration == null ? null : durationBound(minDuration), true,
+                        maxDuration == null ? null : durationBound(maxDuration), true);
+            case QueryPlan.YEAR:
+                Iterator<YearKey> yearKeys = current.yearIndex.iterator(
+                        query.getMinYear() == null ? null : yearBound(query.getMinYear()), true,
+                        query.getMaxYear() == null ? null : yearBound(query.getMaxYear()), true);
+                return new Iterator<MovieInterface>() {
+                    @Override
+                    public boolean hasNext() {
+                        return yearKeys.hasNext();
+                    }
+
+                    @Override
+                    public MovieInterface next() {
+                        return yearKeys.next().movie;
+                    }
+                };
+            case QueryPlan.GENRE:
+                return current.genreIndex.getOrDefault(query.getGenre(), Collections.emptyList())
+                        .iterator();
+            case QueryPlan.COUNTRY:
+                return current.countryIndex.getOrDefault(query.getCountry(),
+                        Collections.emptyList()).iterator();
+            case QueryPlan.TITLE:
+                return current.titleIndex.iterator(query.getTitleWords(), true);
+            default:
+                return current.movieTree.iterator(null, true, null, true);
+        }
+    }
+
+    /**
+     * Returns the result of a list query from the query cache, or runs the query and caches its
+     * result. The version of the cache is read before the query reads the catalog, so a result
+     * is not cached when a write invalidated the cache in the meantime
+     * @param kind the kind of query, queries of different kinds are cached separately
+     * @param query the predicates of the query
+     * @param run runs the query on the current catalog
+     * @return a new list with the movies of the query
+     */
+    private List<MovieInterface> cachedRead(String kind, MovieQuery query,
+                                            Supplier<List<MovieInterface>> run) {
+        QueryCache cache = queryCache;
+        if (cache == null) {
+            return run.get();
+        }
+        List<MovieInterface> cached = cache.get(kind, query);
+        if (cached != null) {
+            return new ArrayList<>(cached);
+        }
+        long version = cache.version();
+        List<MovieInterface> movies = run.get();
+        cache.put(kind, query, movies, version);
+        return movies;
+    }
+
+    /**
+     * Drops the cached results that a write changed. Has to be called after the write published
+     * its catalog, while it still holds the write lock
+     * @param changed the movies that the write inserted or removed
+     */
+    private void invalidateQueryCache(List<MovieInterface> changed) {
+        QueryCache cache = queryCache;
+        if (cache != null) {
+            cache.invalidate(changed);
+        }
+    }
+
+    /**
+     * Runs a read on the current catalog. A persistent catalog never changes and is read without
+     * a lock, any other catalog is read while holding the read lock, so that no file is read at
+     * the same time
+     * @param read the read to run
+     * @return the result of the read
+     */
+    private <R> R read(Function<Catalog, R> read) {
+        Catalog current = catalog.get();
+        if (current.persistent){
+            return read.apply(current);
+        }
+        long stamp = lock.readLock();
+        try {
+            return read.apply(catalog.get());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Runs a short read as an optimistic read, without taking a lock. When a file was read in
+     * the meantime, the result may have come from a half finished write, so it is discarded and
+     * the read runs again while holding the read lock. The same is done with an exception that
+     * the read threw, unless it is still valid. Only reads of O(log n) steps, which only follow
+     * the child links of the tree, should be run like this. A rotation can leave a cycle in the
+     * links for a moment, so IterableMultiKeyRBT fails a walk that gets longer than any path of a
+     * valid tree, which is then run again with the lock instead of never ending. A persistent
+     * catalog is read directly
+     * @param read the read to run
+     * @return the result of the read
+     */
+    private <R> R optimisticRead(Function<Catalog, R> read) {
+        Catalog current = catalog.get();
+        if (current.persistent){
+            return read.apply(current);
+        }
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0){
+            try {
+                R result = read.apply(current);
+                if (lock.validate(stamp)){
+                    return result;
+                }
+            } catch (RuntimeException e) {
+                if (lock.validate(stamp)){
+                    throw e;
+                }
+            }
+        }
+        return read(read);
+    }
+
+    /**
+     * Creates a stream that validates the stamp of an optimistic read after every movie it
+     * returns. The spliterator is created while holding the read lock, which is then turned
+     * into the stamp. The stream of a persistent catalog needs no validation, as it keeps
+     * streaming the catalog it was created on
+     * @param spliterator creates the spliterator over the movies of the stream
+     * @return stream that fails with a ConcurrentModificationException when a file was read
+     *         after it was created
+     */
+    private Stream<MovieInterface> validatedStream(
+            Function<Catalog, Spliterator<MovieInterface>> spliterator) {
+        Catalog current = catalog.get();
+        if (current.persistent){
+            return StreamSupport.stream(spliterator.apply(current), false);
+        }
+        long stamp = lock.readLock();
+        Spliterator<MovieInterface> movies;
+        try {
+            movies = spliterator.apply(current);
+        } catch (RuntimeException e) {
+            lock.unlockRead(stamp);
+            throw e;
+        }
+        stamp = lock.tryConvertToOptimisticRead(stamp);
+        return StreamSupport.stream(new ValidatedSpliterator(movies, stamp), false);
+    }
+
+    /**
+     * Adds movies to the year, genre and country indexes of a catalog
+     * @param target the catalog that the movies were inserted into
+     * @param movies the movies that were inserted into the movie tree
+     */
+    private static void indexMovies(Catalog target, List<MovieInterface> movies) {
+        List<YearKey> yearKeys = new ArrayList<>(movies.size());
+        Map<String, List<MovieInterface>> genres = new HashMap<>();
+        Map<String, List<MovieInterface>> countries = new HashMap<>();
+        for (MovieInterface movie : movies) {
+            yearKeys.add(new YearKey(movie));
+            addToIndex(genres, movie.getGenre(), movie);
+            addToIndex(countries, movie.getCountry(), movie);
+        }
+        target.yearIndex.bulkLoad(yearKeys);
+        mergeIndex(target.genreIndex, genres);
+        mergeIndex(target.countryIndex, countries);
+        if (target.titleIndex != null) {
+            target.titleIndex = target.titleIndex.add(movies);
+        }
+    }
+
+    /**
+     * Appends the movies of every value to the list of the value in an index. The lists of an
+     * index are IndexLists, so appending leaves the lists of older catalogs unchanged
+     * @param index the index to add the movies to
+     * @param added the movies to add under each value
+     */
+    private static void mergeIndex(Map<String, List<MovieInterface>> index,
+                                   Map<String, List<MovieInterface>> added) {
+        for (Map.Entry<String, List<MovieInterface>> entry : added.entrySet()) {
+            index.put(entry.getKey(), IndexList.append((IndexList) index.get(entry.getKey()),
+                    entry.getValue()));
+        }
+    }
+
+    /**
+     * Adds a movie to an index under every value of a comma separated list
+     * @param index the index to add the movie to
+     * @param values one value or a comma separated list of values
+     * @param movie the movie to add
+     */
+    private static void addToIndex(Map<String, List<MovieInterface>> index, String values,
+                                   MovieInterface movie) {
+        for (String key : indexKeys(values)) {
+            index.computeIfAbsent(key, k -> new ArrayList<>()).add(movie);
+        }
+    }
+
+    /**
+     * Splits a comma separated list of values into the keys of an index. The keys of the genres
+     * and countries of movies are kept by the dictionary of Movie, so they are only split once
+     * @param values one value or a comma separated list of values, may be null
+     * @return the normalized values that are not empty
+     */
+    private static List<String> indexKeys(String values) {
+        List<String> dictionaryKeys = Movie.VALUES.keys(values);
+        if (dictionaryKeys != null) {
+            return dictionaryKeys;
+        }
+        List<String> keys = new ArrayList<>();
+        if (values == null) {
+            return keys;
+        }
+        for (String value : values.split(",")) {
+            String key = MovieQuery.normalize(value);
+            if (!key.isEmpty()) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Replaces movies in the lists of an index, under the values the movies have. Lists that
+     * become empty are removed from the index
+     * @param index the index to replace the movies in
+     * @param replacements map from each movie to its replacement, or to null to remove the movie
+     * @param keys the normalized values that the movies are indexed under
+     */
+    private static void replaceInIndex(Map<String, List<MovieInterface>> index,
+                                       Map<MovieInterface, MovieInterface> replacements,
+                                       Set<String> keys) {
+        for (String key : keys) {
+            IndexList list = (IndexList) index.get(key);
+            if (list == null) {
+                continue;
+            }
+            IndexList replaced = IndexList.replace(list, replacements);
+            if (replaced.isEmpty()) {
+                index.remove(key);
+            } else {
+                index.put(key, replaced);
+            }
+        }
+    }
+
+    /**
+     * Looks up the movies of a value in an index
+     * @return a copy of the list of movies, empty when the value is not in the index
+     */
+    private static List<MovieInterface> lookup(Map<String, List<MovieInterface>> index,
+                                               String value) {
+        if (value == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(index.getOrDefault(MovieQuery.normalize(value),
+                Collections.emptyList()));
+    }
+
+    /**
+     * Creates a bound for iterating over the year index
+     * @param year the year of the bound
+     * @return comparable that orders the year like a movie from that year
+     */
+    private static Comparable<YearKey> yearBound(int year) {
+        return key -> Integer.compare(year, key.movie.getYear());
+    }
+
+    /**
+     * Creates a bound for iterating over the movie tree that compares a duration to the duration
+     * of the movies in the tree. A DurationIndex compares the bound to its durations as an int
+     * @param duration the duration of the bound in minutes
+     * @return comparable that orders the duration like a movie of that duration
+     */
+    protected static Comparable<MovieInterface> durationBound(int duration) {
+        return DurationIndex.bound(duration);
+    }
+
+    /**
+     * Key of the year index that orders movies by the year they were made in
+     */
+    private static class YearKey implements Comparable<YearKey> {
+        private final MovieInterface movie;
+
+        private YearKey(MovieInterface movie) {
+            this.movie = movie;
+        }
+
+        @Override
+        public int compareTo(YearKey other) {
+            return Integer.compare(movie.getYear(), other.movie.getYear());
+        }
+
+        /**
+         * Keys are equal when their movies are equal, so a movie can be removed from the year
+         * index. Movies are only equal to themselves, and copies that a tree holds are equal
+         * when they are copies of the same movie
+         */
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof YearKey && ((YearKey) other).movie.equals(movie);
+        }
+
+        @Override
+        public int hashCode() {
+            return movie.hashCode();
+        }
+    }
+
+    /**
+     * The movie tree and the indexes of one version of the movies. A catalog with a
+     * PersistentMultiKeyRBT as movie tree is persistent: it is never changed once it is
+     * published, and a write changes a copy of it instead, which shares all movies and index
+     * lists with it. Any other catalog is changed in place. The values of the genre and country
+     * indexes are IndexLists in both cases
+     */
+    private static class Catalog {
+        private final IterableMultiKeySortedCollectionInterface<MovieInterface> movieTree;
+        //index of the movies ordered by year, for year range queries
+        private final IterableMultiKeySortedCollectionInterface<YearKey> yearIndex;
+        //indexes from each normalized genre and country to the movies that have it
+        private final Map<String, List<MovieInterface>> genreIndex;
+        private final Map<String, List<MovieInterface>> countryIndex;
+        //inverted index of the words in the titles, or null when titles are not indexed. A write
+        //replaces it with the new version that it returns
+        private TitleIndex titleIndex;
+        private final boolean persistent;
+
+        /**
+         * Creates a catalog with empty indexes, which are persistent when the tree is
+         */
+        private Catalog(IterableMultiKeySortedCollectionInterface<MovieInterface> movieTree) {
+            this(movieTree, movieTree instanceof PersistentMultiKeyRBT
+                    ? new PersistentMultiKeyRBT<>() : new IterableMultiKeyRBT<>(),
+                    new HashMap<>(), new HashMap<>(), null);
+        }
+
+        private Catalog(IterableMultiKeySortedCollectionInterface<MovieInterface> movieTree,
+                        IterableMultiKeySortedCollectionInterface<YearKey> yearIndex,
+                        Map<String, List<MovieInterface>> genreIndex,
+                        Map<String, List<MovieInterface>> countryIndex,
+                        TitleIndex titleIndex) {
+            this.movieTree = movieTree;
+            this.yearIndex = yearIndex;
+            this.genreIndex = genreIndex;
+            this.countryIndex = countryIndex;
+            this.titleIndex = titleIndex;
+            this.persistent = movieTree instanceof PersistentMultiKeyRBT;
+        }
+
+        /**
+         * Returns the catalog that a write changes: a copy of a persistent catalog that shares
+         * the trees, the index lists and the title index with it, or this catalog itself
+         */
+        private Catalog forWrite() {
+            if (!persistent) {
+                return this;
+            }
+            return new Catalog(((PersistentMultiKeyRBT<MovieInterface>) movieTree).snapshot(),
+                    ((PersistentMultiKeyRBT<YearKey>) yearIndex).snapshot(),
+                    new HashMap<>(genreIndex), new HashMap<>(countryIndex), titleIndex);
+        }
+    }
+
+    /**
+     * List of the movies of one value of an index, which is never changed. It is a view of the
+     * first size movies of an array, which is shared with the lists of the same value in other
+     * catalogs. Appending movies returns a new view: the movies are written into the array in
+     * place when they fit and no other list appended to the array yet, which is decided by
+     * claiming the slots after this list, otherwise the movies are copied into a larger array.
+     * So a write only takes time for the movies it adds, and older catalogs keep their lists
+     */
+    private static final class IndexList extends AbstractList<MovieInterface>
+            implements RandomAccess {
+        private final MovieInterface[] movies;
+        //number of slots of movies that some list has claimed
+        private final AtomicInteger claimed;
+        private final int size;
+
+        private IndexList(MovieInterface[] movies, AtomicInteger claimed, int size) {
+            this.movies = movies;
+            this.claimed = claimed;
+            this.size = size;
+        }
+
+        /**
+         * Returns a list with the movies of list followed by the added movies
+         * @param list the list to append to, or null for an empty list
+         * @param added the movies to append
+         */
+        private static IndexList append(IndexList list, List<MovieInterface> added) {
+            if (list == null) {
+                return new IndexList(added.toArray(new MovieInterface[0]),
+                        new AtomicInteger(added.size()), added.size());
+            }
+            int newSize = list.size + added.size();
+            MovieInterface[] movies = list.movies;
+            AtomicInteger claimed = list.claimed;
+            if (newSize > movies.length || !claimed.compareAndSet(list.size, newSize)) {
+                movies = Arrays.copyOf(movies, Math.max(newSize,
+                        list.size + (list.size >> 1)));
+                claimed = new AtomicInteger(newSize);
+            }
+            for (int i = 0; i < added.size(); i++) {
+                movies[list.size + i] = added.get(i);
+            }
+            return new IndexList(movies, claimed, newSize);
+        }
+
+        /**
+         * Returns a copy of a list in which movies are replaced, or removed
+         * @param list the list to replace the movies in
+         * @param replacements map from each movie to its replacement, or to null to remove the
+         *                     movie
+         * @return the copy, or list itself when it does not contain any of the movies
+         */
+        private static IndexList replace(IndexList list,
+                                         Map<MovieInterface, MovieInterface> replacements) {
+            MovieInterface[] movies = new MovieInterface[list.size];
+            int newSize = 0;
+            boolean found = false;
+            for (int i = 0; i < list.size; i++) {
+                if (!replacements.containsKey(list.movies[i])) {
+                    movies[newSize++] = list.movies[i];
+                } else {
+                    found = true;
+                    MovieInterface replacement = replacements.get(list.movies[i]);
+                    if (replacement != null) {
+                        movies[newSize++] = replacement;
+                    }
+                }
+            }
+            if (!found) {
+                return list;
+            }
+            return new IndexList(movies, new AtomicInteger(newSize), newSize);
+        }
+
+        @Override
+        public MovieInterface get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + " of " + size + " movies");
+            }
+            return movies[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Spliterator over movies of the tree that checks after every step that no file was read
+     * since the stamp of its optimistic read was taken. A movie is only passed on after the
+     * check, so a stream never returns a movie from a half finished write. A step that walks
+     * into a cycle of a rotation fails in the tree, and is then reported by the check as well
+     */
+    private class ValidatedSpliterator implements Spliterator<MovieInterface>,
+            Consumer<MovieInterface> {
+        private final Spliterator<MovieInterface> movies;
+        private final long stamp;
+        //movie that the last step of movies returned
+        private MovieInterface next;
+
+        private ValidatedSpliterator(Spliterator<MovieInterface> movies, long stamp) {
+            this.movies = movies;
+            this.stamp = stamp;
+        }
+
+        @Override
+        public void accept(MovieInterface movie) {
+            next = movie;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super MovieInterface> action) {
+            boolean advanced;
+            try {
+                advanced = movies.tryAdvance(this);
+            } catch (RuntimeException e) {
+                validate();
+                throw e;
+            }
+            validate();
+            if (advanced){
+                MovieInterface movie = next;
+                next = null;
+                action.accept(movie);
+            }
+            return advanced;
+        }
+
+        @Override
+        public Spliterator<MovieInterface> trySplit() {
+            Spliterator<MovieInterface> prefix;
+            try {
+                prefix = movies.trySplit();
+            } catch (RuntimeException e) {
+                validate();
+                throw e;
+            }
+            validate();
+            return prefix == null ? null : new ValidatedSpliterator(prefix, stamp);
+        }
+
+        @Override
+        public long estimateSize() {
+            return movies.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return movies.characteristics();
+        }
+
+        @Override
+        public Comparator<? super MovieInterface> getComparator() {
+            return movies.getComparator();
+        }
+
+        /**
+         * @throws ConcurrentModificationException when a file was read since the stamp was taken
+         */
+        private void validate() {
+            if (!lock.validate(stamp)){
+                throw new ConcurrentModificationException(
+                        "Movies were added while the stream was consumed");
+            }
+        }
+    }
+
+    /**
+     * Index chosen by the query planner, and the number of movies that it returns
+     */
+    private static class QueryPlan {
+        private static final String SCAN = "full scan";
+        private static final String DURATION = "duration index";
+        private static final String YEAR = "year index";
+        private static final String GENRE = "genre index";
+        private static final String COUNTRY = "country index";
+        private static final String TITLE = "title index";
+
+        private final String index;
+        private final long candidates;
+
+        private QueryPlan(String index, long candidates) {
+            this.index = index;
+            this.candidates = candidates;
+        }
+
+        /**
+         * @return a plan with the other index if it returns fewer candidates, otherwise this plan
+         */
+        private QueryPlan cheaper(String otherIndex, long otherCandidates) {
+            return otherCandidates < candidates ? new QueryPlan(otherIndex, otherCandidates) : this;
+        }
+
+        @Override
+        public String toString() {
+            return index + " (" + candidates + " candidates)";
         }
-        return moviesWithinRange;
     }
 }
@@ -4,8 +4,20 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 public class BackendDeveloperTests {
     private BackendIterableMultiKeySortedCollection testingTree = new BackendIterableMultiKeySortedCollection();
@@ -237,4 +249,1595 @@ public class BackendDeveloperTests {
         assertEquals(160, testMovie.getDuration());
     }
 
+    /**
+     * Test method for parsing csv records with MovieCsvParser
+     */
+    @Test
+    public void testCsvParser() {
+        String csv = ",title,year,genre,duration,country,avg_vote,votes\r\n"
+                + "0,Plain,2001,Drama,100,USA,7.1,100\r\n"
+                + "1,\"Title, with commas, inside\",2002,\"Drama, Romance\",121,France,6.2,200\n"
+                + "2,\"Say \"\"Hi\"\"\",2003, Comedy , 95 ,Italy,5.5,300\n"
+                + "3,\"Two\nLines\",2004,Action,80,Spain,6.9,400\n"
+                + "\n"
+                + "4,Too few fields,2005,Drama,90\n"
+                + "5,Bad year,20x5,Drama,90,USA,1.0,1\n"
+                + "6,Last,2006,Horror,200,Germany,4.2,600";
+        byte[] bytes = csv.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+
+        //Parses the whole file at once, and byte by byte so records span block boundaries
+        for (int blockSize : new int[] {bytes.length, 1}) {
+            List<MovieInterface> movies = new java.util.ArrayList<>();
+            MovieCsvParser parser = new MovieCsvParser(movies::add, true);
+            for (int i = 0; i < bytes.length; i += blockSize) {
+                parser.parse(bytes, i, Math.min(blockSize, bytes.length - i));
+            }
+            parser.finish();
+
+            //Records with missing fields or invalid numbers are skipped
+            assertEquals(5, movies.size());
+            assertEquals("Plain", movies.get(0).getTitle());
+            assertEquals(2001, movies.get(0).getYear());
+            assertEquals(100, movies.get(0).getDuration());
+            assertEquals("USA", movies.get(0).getCountry());
+            assertEquals("Title, with commas, inside", movies.get(1).getTitle());
+            assertEquals("Drama, Romance", movies.get(1).getGenre());
+            assertEquals("Say \"Hi\"", movies.get(2).getTitle());
+            assertEquals("Comedy", movies.get(2).getGenre());
+            assertEquals(95, movies.get(2).getDuration());
+            assertEquals("Two\nLines", movies.get(3).getTitle());
+            assertEquals("Last", movies.get(4).getTitle());
+            assertEquals("Germany", movies.get(4).getCountry());
+        }
+    }
+
+    /**
+     * Test method for reading a file in parallel chunks with MappedCsvReader
+     */
+    @Test
+    public void testParallelRead() {
+        try {
+            //Writes a file whose quoted fields contain commas, quotes and line breaks
+            java.nio.file.Path file = java.nio.file.Files.createTempFile("movies", ".csv");
+            StringBuilder csv = new StringBuilder(",title,year,genre,duration,country,a,b\n");
+            for (int i = 0; i < 500; i++) {
+                csv.append(i).append(",\"Movie ").append(i).append(i % 3 == 0 ? ",\n\"\"x\"\"" : "")
+                        .append("\",").append(1950 + i % 70).append(",Drama,").append(60 + i % 7)
+                        .append(",USA,7.0,").append(i).append(i % 2 == 0 ? "\r\n" : "\n");
+            }
+            java.nio.file.Files.writeString(file, csv);
+
+            List<MovieInterface> expected = new java.util.ArrayList<>();
+            try (java.io.InputStream input = java.nio.file.Files.newInputStream(file)) {
+                MovieCsvParser.parse(input, expected::add);
+            }
+            assertEquals(500, expected.size());
+
+            //Splits the file into many small chunks that are parsed by different threads
+            for (int numThreads = 1; numThreads <= 4; numThreads++) {
+                List<MovieInterface> movies = MappedCsvReader.read(file, numThreads, 37);
+                assertEquals(expected.size(), movies.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.get(i).getTitle(), movies.get(i).getTitle());
+                    assertEquals(expected.get(i).getDuration(), movies.get(i).getDuration());
+                }
+            }
+
+            //Tests the backend finds the same movies when it reads with several threads
+            testBackend = new Backend(new IterableMultiKeyRBT<>());
+            testBackend.setReadThreads(4);
+            testBackend.readFile(file.toString());
+            assertEquals(500, testBackend.getMoviesWithMinDuration(0).size());
+            java.nio.file.Files.delete(file);
+        } catch (Exception e) {
+            fail(e.toString());
+        }
+    }
+
+    /**
+     * Test method for loading movies from a snapshot and falling back to the csv file
+     */
+    @Test
+    public void testSnapshot() {
+        try {
+            java.nio.file.Path file = java.nio.file.Files.createTempFile("movies", ".csv");
+            java.nio.file.Path snapshot = Backend.snapshotPath(file.toString());
+            java.nio.file.Files.writeString(file, ",title,year,genre,duration,country,a,b\n"
+                    + "0,\"Amélie, the movie\",2001,\"Comedy, Romance\",122,France,8.3,1\n"
+                    + "1,Heat,1995,Crime,170,USA,8.3,2\n"
+                    + "2,Up,2009,Animation,96,USA,8.3,3\n");
+
+            //The first read parses the csv file and writes the snapshot
+            testBackend = new Backend(new IterableMultiKeyRBT<>());
+            testBackend.setSnapshotsEnabled(true);
+            testBackend.readFile(file.toString());
+            assertTrue(java.nio.file.Files.exists(snapshot));
+
+            //The second read loads the same movies from the snapshot
+            List<MovieInterface> expected = testBackend.getMoviesWithMinDuration(0);
+            List<MovieInterface> fromSnapshot = MovieSnapshot.read(snapshot, file);
+            assertEquals(3, fromSnapshot.size());
+            testBackend = new Backend(new IterableMultiKeyRBT<>());
+            testBackend.setSnapshotsEnabled(true);
+            testBackend.readFile(file.toString());
+            List<MovieInterface> movies = testBackend.getMoviesWithMinDuration(0);
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getTitle(), movies.get(i).getTitle());
+                assertEquals(expected.get(i).getGenre(), movies.get(i).getGenre());
+                assertEquals(expected.get(i).getCountry(), movies.get(i).getCountry());
+                assertEquals(expected.get(i).getYear(), movies.get(i).getYear());
+                assertEquals(expected.get(i).getDuration(), movies.get(i).getDuration());
+            }
+
+            //A corrupt snapshot is not used
+            byte[] bytes = java.nio.file.Files.readAllBytes(snapshot);
+            bytes[bytes.length / 2] ^= 1;
+            java.nio.file.Files.write(snapshot, bytes);
+            assertEquals(null, MovieSnapshot.read(snapshot, file));
+
+            //A snapshot of an older version of the csv file is not used
+            testBackend = new Backend(new IterableMultiKeyRBT<>());
+            testBackend.setSnapshotsEnabled(true);
+            testBackend.readFile(file.toString());
+            assertTrue(MovieSnapshot.read(snapshot, file) != null);
+            java.nio.file.Files.writeString(file, "4,Jaws,1975,Thriller,124,USA,8.0,4\n",
+                    java.nio.file.StandardOpenOption.APPEND);
+            assertEquals(null, MovieSnapshot.read(snapshot, file));
+            testBackend = new Backend(new IterableMultiKeyRBT<>());
+            testBackend.setSnapshotsEnabled(true);
+            testBackend.readFile(file.toString());
+            assertEquals(4, testBackend.getMoviesWithMinDuration(0).size());
+            assertEquals(null, testBackend.getSnapshotError());
+
+            //A snapshot that cannot be written does not make readFile fail, and is exposed
+            java.nio.file.Files.delete(snapshot);
+            java.nio.file.Path blocker = snapshot.resolve("blocker");
+            java.nio.file.Files.createDirectories(blocker);
+            testBackend = new Backend(new IterableMultiKeyRBT<>());
+            testBackend.setSnapshotsEnabled(true);
+            testBackend.readFile(file.toString());
+            assertEquals(4, testBackend.getMoviesWithMinDuration(0).size());
+            assertTrue(testBackend.getSnapshotError() != null);
+
+            java.nio.file.Files.delete(blocker);
+            java.nio.file.Files.delete(snapshot);
+            java.nio.file.Files.delete(file);
+        } catch (Exception e) {
+            fail(e.toString());
+        }
+    }
+
+    /**
+     * Test method for the year, genre and country indexes
+     */
+    @Test
+    public void testIndexes() {
+        try {
+            //Initialize backend implementation
+            testBackend = new Backend(new BackendIterableMultiKeySortedCollection<>());
+            testBackend.readFile("testMovies.csv");
+
+            //Tests that the year range includes both bounds and is ordered by year
+            List<MovieInterface> movies = testBackend.getMoviesFromYears(2003, 2005);
+            assertEquals(3, movies.size(), "Expected 3 movies from 2003 to 2005");
+            assertEquals(2003, movies.get(0).getYear());
+            assertEquals(2005, movies.get(2).getYear());
+            assertEquals(0, testBackend.getMoviesFromYears(2011, 2020).size());
+            assertEquals(0, testBackend.getMoviesFromYears(2005, 2003).size());
+            assertEquals(10, testBackend.getMoviesFromYears(0, 9999).size());
+
+            //Tests that movies with several genres are found under each of them
+            assertEquals(5, testBackend.getMoviesWithGenre("Drama").size());
+            assertEquals(5, testBackend.getMoviesWithGenre(" drama ").size());
+            assertEquals(1, testBackend.getMoviesWithGenre("Romance").size());
+            assertEquals(2, testBackend.getMoviesWithGenre("Action").size());
+            assertEquals(0, testBackend.getMoviesWithGenre("Western").size());
+            assertEquals(0, testBackend.getMoviesWithGenre(null).size());
+
+            //Tests the country index
+            assertEquals(5, testBackend.getMoviesFromCountry("USA").size());
+            assertEquals(2, testBackend.getMoviesFromCountry("france").size());
+            assertEquals(0, testBackend.getMoviesFromCountry("Japan").size());
+
+            //Tests that the indexes agree with a scan of all movies
+            for (MovieInterface movie : testBackend.getMoviesWithGenre("Comedy")) {
+                assertTrue(movie.getGenre().contains("Comedy"));
+            }
+        }catch (Exception e){
+            fail();
+        }
+    }
+
+    /**
+     * Test method for queries that combine several predicates
+     */
+    @Test
+    public void testFindMovies() {
+        try {
+            //Initialize backend implementation
+            testBackend = new Backend(new BackendIterableMultiKeySortedCollection<>());
+            testBackend.readFile("testMovies.csv");
+
+            //Tests a query on all predicates, which uses the country index with 2 movies
+            MovieQuery query = new MovieQuery.Builder().durationBetween(90, 130).minYear(2002)
+                    .genre("Drama").country("France").build();
+            List<MovieInterface> movies = testBackend.findMovies(query);
+            assertEquals(1, movies.size());
+            assertEquals("testMovie2", movies.get(0).getTitle());
+            assertTrue(testBackend.explainQuery(query).startsWith("country index (2 candidates)"));
+
+            //Tests that results of the genre index are ordered by duration
+            query = new MovieQuery.Builder().durationBetween(90, 130).minYear(2002).genre("drama")
+                    .build();
+            movies = testBackend.findMovies(query);
+            assertEquals(2, movies.size());
+            assertEquals("testMovie5", movies.get(0).getTitle());
+            assertEquals("testMovie2", movies.get(1).getTitle());
+
+            //Tests the title prefix, which has no index, and a query without predicates
+            query = new MovieQuery.Builder().titlePrefix("TESTMOVIE1").build();
+            assertEquals(2, testBackend.findMovies(query).size());
+            assertTrue(testBackend.explainQuery(query).startsWith("full scan (10 candidates)"));
+            //Whitespace at the end of a prefix is part of it
+            assertEquals(0, testBackend.findMovies(new MovieQuery.Builder()
+                    .titlePrefix("testMovie1 ").build()).size());
+            assertEquals(1, testBackend.findMovies(new MovieQuery.Builder()
+                    .titlePrefix("TestMovie3, ").build()).size());
+            assertEquals(10, testBackend.findMovies(new MovieQuery.Builder().build()).size());
+
+            //Tests that every plan returns the same movies as checking all of them
+            List<MovieInterface> allMovies = testBackend.getMoviesWithMinDuration(0);
+            MovieQuery[] queries = {
+                new MovieQuery.Builder().maxDuration(100).build(),
+                new MovieQuery.Builder().yearBetween(2004, 2007).genre("Comedy").build(),
+                new MovieQuery.Builder().country("USA").minDuration(110).build(),
+                new MovieQuery.Builder().genre("Action").country("france").build(),
+                new MovieQuery.Builder().yearBetween(2008, 2002).build(),
+                new MovieQuery.Builder().genre("Western").build()
+            };
+            for (MovieQuery q : queries) {
+                int expected = 0;
+                for (MovieInterface movie : allMovies) {
+                    if (q.matches(movie)) {
+                        expected++;
+                    }
+                }
+                assertEquals(expected, testBackend.findMovies(q).size(), q.toString());
+            }
+        }catch (Exception e){
+            fail(e.toString());
+        }
+    }
+
+    /**
+     * Test method for the streaming variants of the duration queries
+     */
+    @Test
+    public void testStreamMovies() {
+        try {
+            //Initialize backend implementation with a red black tree
+            testBackend = new Backend(new IterableMultiKeyRBT<>());
+            testBackend.readFile("testMovies.csv");
+
+            //Tests that the streams return the same movies in the same order as the lists
+            List<MovieInterface> list = testBackend.getMoviesWithMinDuration(120);
+            List<MovieInterface> streamed = testBackend.streamMoviesWithMinDuration(120)
+                    .collect(java.util.stream.Collectors.toList());
+            assertEquals(5, streamed.size());
+            for (int i = 0; i < list.size(); i++) {
+                assertTrue(list.get(i) == streamed.get(i));
+            }
+            assertEquals(3L, testBackend.streamMoviesWithinRange(90, 110).count());
+            assertEquals(42, testBackend.streamMoviesWithMinDuration(0).findFirst().get()
+                    .getDuration());
+
+            //Tests that negative durations return empty streams
+            assertEquals(0L, testBackend.streamMoviesWithMinDuration(-1).count());
+            assertEquals(0L, testBackend.streamMoviesWithinRange(-5, 100).count());
+        }catch (Exception e){
+            fail(e.toString());
+        }
+    }
+
+    /**
+     * Test method for paginated queries and the longest and shortest movies
+     */
+    @Test
+    public void testPagination() {
+        try {
+            //Creates a file with many movies of the same durations
+            StringBuilder csv = new StringBuilder(",title,year,genre,duration,country,a,b\n");
+            for (int i = 0; i < 237; i++) {
+                csv.append(i).append(",Movie ").append(i).append(",2000,Drama,")
+                        .append(90 + i % 10).append(",USA,5.0,1\n");
+            }
+            java.nio.file.Path file = java.nio.file.Files.createTempFile("movies", ".csv");
+            java.nio.file.Files.writeString(file, csv.toString());
+            testBackend = new Backend(new IterableMultiKeyRBT<>());
+            testBackend.readFile(file.toString());
+            java.nio.file.Files.delete(file);
+
+            //Tests that the pages contain the same movies as the whole query, in the same order
+            List<MovieInterface> expected = testBackend.getMoviesWithinRange(92, 97);
+            List<MovieInterface> paged = new java.util.ArrayList<>();
+            String cursor = null;
+            int pages = 0;
+            do {
+                MoviePage page = testBackend.getMoviesWithinRange(92, 97, 50, cursor);
+                assertTrue(page.getMovies().size() <= 50);
+                paged.addAll(page.getMovies());
+                cursor = page.getNextCursor();
+                pages++;
+            } while (cursor != null);
+            assertEquals(3, pages);
+            assertEquals(expected.size(), paged.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertTrue(expected.get(i) == paged.get(i));
+            }
+
+            //Tests a page that ends exactly at the last movie, and an empty query
+            MoviePage page = testBackend.getMoviesWithMinDuration(99, 23, null);
+            assertEquals(23, page.getMovies().size());
+            assertTrue(!page.hasNextPage());
+            assertEquals(0, testBackend.getMoviesWithMinDuration(100, 5, null).getMovies().size());
+
+            //Tests that invalid cursors and limits are rejected
+            try {
+                testBackend.getMoviesWithinRange(92, 97, 50, "not a cursor");
+                fail("Invalid cursor should be rejected");
+            } catch (IllegalArgumentException e) {
+                assertTrue(true);
+            }
+            try {
+                testBackend.getMoviesWithMinDuration(0, 0, null);
+                fail("Empty pages should be rejected");
+            } catch (IllegalArgumentException e) {
+                assertTrue(true);
+            }
+
+            //Tests the longest and shortest movies
+            List<MovieInterface> longest = testBackend.getLongestMovies(30);
+            assertEquals(30, longest.size());
+            assertEquals(99, longest.get(0).getDuration());
+            assertEquals(98, longest.get(29).getDuration());
+            assertEquals("Movie 9", longest.get(0).getTitle());
+            List<MovieInterface> shortest = testBackend.getShortestMovies(3);
+            assertEquals("Movie 0", shortest.get(0).getTitle());
+            assertEquals(90, shortest.get(2).getDuration());
+            assertEquals(237, testBackend.getLongestMovies(1000).size());
+            assertEquals(0, testBackend.getShortestMovies(0).size());
+
+            //Tests that removing a movie before the cursor in its KeyList invalidates the cursor,
+            //which then skips the movie that moved into its position
+            page = testBackend.getMoviesWithinRange(92, 97, 5, null);
+            assertEquals("Movie 42", page.getMovies().get(4).getTitle());
+            assertTrue(testBackend.removeMovie(page.getMovies().get(1)));
+            MoviePage stalePage = testBackend.getMoviesWithinRange(92, 97, 5,
+                    page.getNextCursor());
+            assertEquals("Movie 62", stalePage.getMovies().get(0).getTitle());
+            //A cursor taken after the removal resumes right after its page again
+            page = testBackend.getMoviesWithinRange(92, 97, 5, null);
+            assertEquals("Movie 52", page.getMovies().get(4).getTitle());
+            assertEquals("Movie 62", testBackend.getMoviesWithinRange(92, 97, 5,
+                    page.getNextCursor()).getMovies().get(0).getTitle());
+        }catch (Exception e){
+            fail(e.toString());
+        }
+    }
+
+    /**
+     * Test method for counting movies and duration percentiles
+     */
+    @Test
+    public void testCountsAndPercentiles() {
+        try {
+            //Initialize backend implementation with a red black tree
+            testBackend = new Backend(new IterableMultiKeyRBT<>());
+            try {
+                testBackend.getDurationPercentile(50);
+                fail("An empty backend has no percentiles");
+            } catch (java.util.NoSuchElementException e) {
+                assertTrue(true);
+            }
+            testBackend.readFile("testMovies.csv");
+
+            //Tests that the counts match the sizes of the lists
+            assertEquals(5, testBackend.countMoviesWithMinDuration(120));
+            assertEquals(5, testBackend.countMoviesWithinRange(90, 125));
+            assertEquals(testBackend.getMoviesWithinRange(91, 190).size(),
+                    testBackend.countMoviesWithinRange(91, 190));
+            assertEquals(0, testBackend.countMoviesWithinRange(130, 90));
+            assertEquals(0, testBackend.countMoviesWithMinDuration(-1));
+
+            //Tests percentiles of the durations 42, 60, 90, 100, 110, 121, 125, 150, 190, 200
+            assertEquals(110, testBackend.getDurationPercentile(50));
+            assertEquals(42, testBackend.getDurationPercentile(0));
+            assertEquals(42, testBackend.getDurationPercentile(10));
+            assertEquals(60, testBackend.getDurationPercentile(10.5));
+            assertEquals(190, testBackend.getDurationPercentile(90));
+            assertEquals(200, testBackend.getDurationPercentile(100));
+            try {
+                testBackend.getDurationPercentile(101);
+                fail("Percentiles above 100 should be rejected");
+            } catch (IllegalArgumentException e) {
+                assertTrue(true);
+            }
+        }catch (Exception e){
+            fail(e.toString());
+        }
+    }
+
+    /**
+     * Test method for removing movies and changing their durations, with trees that are changed
+     * in place and with a persistent tree
+     */
+    @Test
+    public void testUpdateAndRemoveMovies() {
+        List<IterableMultiKeySortedCollectionInterface<MovieInterface>> trees =
+                List.of(new IterableMultiKeyRBT<>(), new PersistentMultiKeyRBT<>(),
+                        new DurationIndex(), new BPlusTree<>(4));
+        for (IterableMultiKeySortedCollectionInterface<MovieInterface> tree : trees) {
+            try {
+                testBackend = new Backend(tree);
+                testBackend.readFile("testMovies.csv");
+
+                //Tests that the movie with the new duration replaces it in the tree and indexes
+                MovieInterface movie = testBackend.getMoviesWithGenre("Romance").get(0);
+                MovieInterface updated = testBackend.updateDuration(movie, 45);
+                assertEquals("testMovie2", updated.getTitle());
+                assertEquals(45, updated.getDuration());
+                assertEquals(121, movie.getDuration());
+                assertTrue(testBackend.getShortestMovies(2).get(1) == updated);
+                assertEquals(0, testBackend.countMoviesWithinRange(121, 121));
+                assertEquals(10, testBackend.countMoviesWithMinDuration(0));
+                assertTrue(testBackend.getMoviesWithGenre("Drama").contains(updated));
+                assertTrue(!testBackend.getMoviesWithGenre("Drama").contains(movie));
+                assertTrue(testBackend.getMoviesFromCountry("France").contains(updated));
+                assertTrue(testBackend.getMoviesFromYears(2002, 2002).get(0) == updated);
+                assertEquals(1, testBackend.findMovies(new MovieQuery.Builder().genre("Romance")
+                        .maxDuration(50).build()).size());
+                try {
+                    testBackend.updateDuration(movie, 10);
+                    fail("The old movie is not in the backend anymore");
+                } catch (java.util.NoSuchElementException e) {
+                    assertTrue(true);
+                }
+
+                //Tests that a removed movie is gone from the tree and all indexes
+                assertTrue(testBackend.removeMovie(updated));
+                assertTrue(!testBackend.removeMovie(updated));
+                assertEquals(9, testBackend.countMoviesWithMinDuration(0));
+                assertEquals(9, testBackend.getMoviesWithMinDuration(0).size());
+                assertEquals(0, testBackend.getMoviesWithGenre("Romance").size());
+                assertEquals(4, testBackend.getMoviesWithGenre("Drama").size());
+                assertEquals(1, testBackend.getMoviesFromCountry("France").size());
+                assertEquals(0, testBackend.getMoviesFromYears(2002, 2002).size());
+            }catch (Exception e){
+                fail(e.toString());
+            }
+        }
+    }
+
+    /**
+     * Test method for querying the backend from several threads while files are read
+     */
+    @Test
+    public void testConcurrentQueries() {
+        try {
+            //Initialize backend implementation with a red black tree
+            testBackend = new Backend(new IterableMultiKeyRBT<>());
+            testBackend.readFile("testMovies.csv");
+            //Every read of testMovies.csv adds one more copy of each of its 10 movies, with a
+            //total duration of 1188 minutes, so every consistent result is a multiple of those
+            java.util.Queue<String> errors = queryWhileReading(testBackend, true);
+
+            //Tests that no reader saw a half finished write, and that all movies were added
+            assertTrue(errors.isEmpty(), errors.toString());
+            assertEquals(510, testBackend.countMoviesWithMinDuration(0));
+            assertEquals(510, testBackend.getMoviesWithMinDuration(0).size());
+            assertEquals(51 * 1188, testBackend.streamMoviesWithMinDuration(0)
+                    .mapToInt(MovieInterface::getDuration).sum());
+
+            //Tests that a stream fails when movies are added while it is consumed
+            java.util.Iterator<MovieInterface> movies =
+                    testBackend.streamMoviesWithMinDuration(0).iterator();
+            movies.next();
+            testBackend.readFile("testMovies.csv");
+            try {
+                movies.next();
+                fail("The stream should fail after movies were added");
+            } catch (java.util.ConcurrentModificationException e) {
+                assertTrue(true);
+            }
+        }catch (Exception e){
+            fail(e.toString());
+        }
+    }
+
+    /**
+     * Test method for querying a backend with a persistent tree while files are read
+     */
+    @Test
+    public void testPersistentConcurrentQueries() {
+        try {
+            //Initialize backend implementation with a persistent red black tree
+            testBackend = new Backend(new PersistentMultiKeyRBT<>());
+            testBackend.readFile("testMovies.csv");
+            java.util.Queue<String> errors = queryWhileReading(testBackend, false);
+
+            //Tests that no reader saw a half finished write or a failing stream
+            assertTrue(errors.isEmpty(), errors.toString());
+            assertEquals(510, testBackend.countMoviesWithMinDuration(0));
+            assertEquals(255, testBackend.getMoviesWithGenre("Drama").size());
+            assertEquals(51, testBackend.getMoviesFromYears(2005, 2005).size());
+
+            //Tests that a stream keeps returning the movies it was created on
+            java.util.Iterator<MovieInterface> movies =
+                    testBackend.streamMoviesWithMinDuration(150).iterator();
+            movies.next();
+            testBackend.readFile("testMovies.csv");
+            int remaining = 0;
+            while (movies.hasNext()) {
+                movies.next();
+                remaining++;
+            }
+            assertEquals(3 * 51 - 1, remaining);
+            assertEquals(3 * 52, testBackend.countMoviesWithMinDuration(150));
+        }catch (Exception e){
+            fail(e.toString());
+        }
+    }
+
+    /**
+     * Runs queries on a backend from 4 threads while testMovies.csv is read 50 more times
+     * @param backend backend that has read testMovies.csv once
+     * @param streamsMayFail true if streams may fail with a ConcurrentModificationException
+     * @return the inconsistent results that the queries returned
+     */
+    private static java.util.Queue<String> queryWhileReading(Backend backend,
+                                                             boolean streamsMayFail)
+            throws FileNotFoundException, InterruptedException {
+        java.util.concurrent.atomic.AtomicBoolean writing =
+                new java.util.concurrent.atomic.AtomicBoolean(true);
+        java.util.Queue<String> errors = new java.util.concurrent.ConcurrentLinkedQueue<>();
+        List<Thread> readers = new java.util.ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    while (writing.get()) {
+                        int count = backend.countMoviesWithMinDuration(100);
+                        if (count % 7 != 0) {
+                            errors.add("count " + count);
+                        }
+                        List<MovieInterface> movies = backend.getMoviesWithinRange(90, 125);
+                        if (movies.size() % 5 != 0 || movies.isEmpty()
+                                || movies.get(0).getDuration() != 90) {
+                            errors.add("range of " + movies.size() + " movies");
+                        }
+                        if (backend.getDurationPercentile(50) != 110) {
+                            errors.add("median");
+                        }
+                        if (backend.getMoviesWithGenre("Drama").size() % 5 != 0) {
+                            errors.add("genre");
+                        }
+                        try {
+                            int total = backend.streamMoviesWithMinDuration(0)
+                                    .mapToInt(MovieInterface::getDuration).sum();
+                            if (total % 1188 != 0) {
+                                errors.add("stream total " + total);
+                            }
+                        } catch (java.util.ConcurrentModificationException e) {
+                            //A stream fails instead of returning movies of a write
+                            if (!streamsMayFail) {
+                                errors.add(e.toString());
+                            }
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    errors.add(e.toString());
+                }
+            });
+            readers.add(reader);
+            reader.start();
+        }
+        for (int i = 0; i < 50; i++) {
+            backend.readFile("testMovies.csv");
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        return errors;
+    }
+
+    /**
+     * Test method for the rows that a tracker finds after appends, edits, removed rows and a last
+     * record without a line break
+     */
+    @Test
+    public void testCsvFileTracker() throws IOException {
+        Path csv = Files.createTempFile("tracked", ".csv");
+        try {
+            String header = ",title,year,genre,duration,country,avg_vote,votes\n";
+            Files.writeString(csv, header + "0,A,2001,Drama,100,USA,7.1,100\n"
+                    + "1,B,2002,Comedy,90,USA,6.0,10\n");
+            CsvFileTracker tracker = new CsvFileTracker(csv);
+            CsvFileTracker.Changes changes = tracker.refresh();
+            assertEquals(2, changes.getAdded().size());
+            assertTrue(changes.getRemoved().isEmpty() && !changes.isAppendOnly());
+            assertTrue(tracker.refresh().isEmpty());
+
+            //Appended rows are new, or replace the row with the same id
+            Files.writeString(csv, "2,C,2003,Drama,120,France,5.0,1\n"
+                    + "1,B,2002,Comedy,95,USA,6.0,10\n" + "3,D,2004,Drama,80,USA,7.0,",
+                    StandardOpenOption.APPEND);
+            changes = tracker.refresh();
+            assertTrue(changes.isAppendOnly());
+            assertEquals(3, changes.getAdded().size());
+            assertEquals(1, changes.getRemoved().size());
+            assertEquals(90, changes.getRemoved().get(0).getDuration());
+            assertEquals(4, tracker.numRows());
+
+            //The last record is read again once its line is complete, and has not changed
+            Files.writeString(csv, "5\n", StandardOpenOption.APPEND);
+            changes = tracker.refresh();
+            assertTrue(changes.isEmpty() && changes.isAppendOnly());
+
+            //Edits and removed rows parse the whole file, only other columns do not count
+            Files.writeString(csv, header + "0,A,2001,Drama,100,USA,9.9,999\n"
+                    + "2,C,2003,Drama,125,France,5.0,1\n" + ",E,2005,Horror,70,USA,1,1\n");
+            changes = tracker.refresh();
+            assertTrue(!changes.isAppendOnly());
+            Set<String> added = new HashSet<>();
+            changes.getAdded().forEach(movie -> added.add(movie.getTitle()));
+            Set<String> removed = new HashSet<>();
+            changes.getRemoved().forEach(movie -> removed.add(movie.getTitle()));
+            assertEquals(Set.of("C", "E"), added);
+            assertEquals(Set.of("B", "C", "D"), removed);
+            assertEquals(3, tracker.numRows());
+            assertTrue(tracker.refresh().isEmpty());
+
+            //An edit near the end of the file is found even when rows are appended as well
+            Files.writeString(csv, header + "0,A,2001,Drama,100,USA,9.9,999\n"
+                    + "2,C,2003,Drama,125,France,5.0,1\n" + ",E,2005,Horror,75,USA,1,1\n"
+                    + "4,F,2006,Drama,60,USA,1,1\n");
+            changes = tracker.refresh();
+            assertTrue(!changes.isAppendOnly());
+            assertEquals(2, changes.getAdded().size());
+            assertEquals(1, changes.getRemoved().size());
+            assertEquals(70, changes.getRemoved().get(0).getDuration());
+            assertEquals(4, tracker.numRows());
+
+            //An edit that keeps the length of its row is found far before the end of the file,
+            //with and without an append
+            StringBuilder rows = new StringBuilder(header);
+            for (int i = 0; i < 3000; i++) {
+                rows.append(i).append(",Movie ").append(i).append(",2000,Drama,100,USA,5.0,1\n");
+            }
+            Files.writeString(csv, rows);
+            tracker = new CsvFileTracker(csv);
+            assertEquals(3000, tracker.refresh().getAdded().size());
+            int edit = rows.indexOf("100", header.length());
+            rows.replace(edit, edit + 3, "110");
+            Files.writeString(csv, rows.toString() + "3000,New,2001,Drama,90,USA,5.0,1\n");
+            changes = tracker.refresh();
+            assertTrue(!changes.isAppendOnly());
+            assertEquals(2, changes.getAdded().size());
+            assertEquals(1, changes.getRemoved().size());
+            assertEquals(100, changes.getRemoved().get(0).getDuration());
+            rows.replace(edit, edit + 3, "120");
+            Files.writeString(csv, rows.toString() + "3000,New,2001,Drama,90,USA,5.0,1\n");
+            Files.setLastModifiedTime(csv, FileTime.fromMillis(
+                    Files.getLastModifiedTime(csv).toMillis() + 1000));
+            changes = tracker.refresh();
+            assertEquals(1, changes.getAdded().size());
+            assertEquals(120, changes.getAdded().get(0).getDuration());
+            assertEquals(110, changes.getRemoved().get(0).getDuration());
+        } finally {
+            Files.deleteIfExists(csv);
+        }
+    }
+
+    /**
+     * Test method for refreshing the backend from a csv file that is appended to and edited
+     */
+    @Test
+    public void testRefreshFile() throws IOException, InterruptedException {
+        Path csv = Files.createTempFile("refreshed", ".csv");
+        try {
+            Files.copy(Path.of("testMovies.csv"), csv, StandardCopyOption.REPLACE_EXISTING);
+            testBackend = new Backend(new IterableMultiKeyRBT<>());
+            assertEquals(10, testBackend.refreshFile(csv.toString()).getAdded().size());
+            assertEquals(10, testBackend.countMoviesWithMinDuration(0));
+            assertTrue(testBackend.refreshFile(csv.toString()).isEmpty());
+
+            //Tests that only the appended movie is added, to the tree and the indexes. The last
+            //line of testMovies.csv has no line break, so it is read again and has not changed
+            Files.writeString(csv, "\n100,appended,2020,\"Drama, Horror\",30,Japan,5.0,1\n",
+                    StandardOpenOption.APPEND);
+            CsvFileTracker.Changes changes = testBackend.refreshFile(csv.toString());
+            assertTrue(changes.isAppendOnly());
+            assertEquals(1, changes.getAdded().size());
+            assertEquals(11, testBackend.countMoviesWithMinDuration(0));
+            assertEquals("appended", testBackend.getShortestMovies(1).get(0).getTitle());
+            assertEquals(6, testBackend.getMoviesWithGenre("Drama").size());
+            assertEquals(2, testBackend.getMoviesWithGenre("Horror").size());
+            assertEquals(1, testBackend.getMoviesFromCountry("Japan").size());
+
+            //Tests that an edited row replaces its movie, and a removed row removes it
+            List<String> lines = new ArrayList<>(Files.readAllLines(csv));
+            lines.set(lines.size() - 1, "100,appended,2020,Horror,300,Japan,5.0,1");
+            lines.remove(1);
+            Files.write(csv, lines);
+            changes = testBackend.refreshFile(csv.toString());
+            assertTrue(!changes.isAppendOnly());
+            assertEquals(10, testBackend.countMoviesWithMinDuration(0));
+            assertEquals(300, testBackend.getLongestMovies(1).get(0).getDuration());
+            assertEquals(4, testBackend.getMoviesWithGenre("Drama").size());
+            assertEquals(2, testBackend.getMoviesWithGenre("Horror").size());
+            assertEquals(0, testBackend.getMoviesFromYears(2001, 2001).size());
+
+            //Tests that a watched file is refreshed after it is modified
+            java.io.Closeable watch = testBackend.watchFile(csv.toString());
+            try {
+                Files.writeString(csv, "101,watched,2021,Comedy,20,USA,5.0,1\n",
+                        StandardOpenOption.APPEND);
+                for (int i = 0; i < 200 && testBackend.countMoviesWithMinDuration(0) < 11; i++) {
+                    Thread.sleep(100);
+                }
+                assertEquals(11, testBackend.countMoviesWithMinDuration(0));
+                assertEquals("watched", testBackend.getShortestMovies(1).get(0).getTitle());
+                assertTrue(testBackend.getRefreshError() == null);
+
+                //Tests that a refresh that fails is kept as the refresh error
+                Files.delete(csv);
+                Files.createDirectory(csv);
+                for (int i = 0; i < 200 && testBackend.getRefreshError() == null; i++) {
+                    Thread.sleep(100);
+                }
+                assertTrue(testBackend.getRefreshError() != null);
+                assertEquals(11, testBackend.countMoviesWithMinDuration(0));
+            } finally {
+                watch.close();
+            }
+
+            //Tests that the file is not refreshed anymore once the watch is closed, which waits
+            //for the refreshing thread to stop
+            String threadName = "refresh " + csv.getFileName();
+            assertTrue(Thread.getAllStackTraces().keySet().stream()
+                    .noneMatch(thread -> thread.getName().equals(threadName)));
+            IOException error = testBackend.getRefreshError();
+            Files.delete(csv);
+            Files.copy(Path.of("testMovies.csv"), csv);
+            assertEquals(11, testBackend.countMoviesWithMinDuration(0));
+            assertTrue(testBackend.getRefreshError() == error);
+        } finally {
+            Files.deleteIfExists(csv);
+        }
+    }
+
+    /**
+     * Test method for caching query results, and for dropping exactly the results that a write
+     * changes
+     */
+    @Test
+    public void testQueryCache() throws IOException {
+        for (IterableMultiKeySortedCollectionInterface<MovieInterface> tree :
+                List.<IterableMultiKeySortedCollectionInterface<MovieInterface>>of(
+                        new IterableMultiKeyRBT<>(), new PersistentMultiKeyRBT<>())) {
+            testBackend = new Backend(tree);
+            QueryCache cache = new QueryCache();
+            testBackend.setQueryCache(cache);
+            testBackend.readFile("testMovies.csv");
+
+            //Tests that repeated queries are hits, and return new lists with the same movies
+            List<MovieInterface> range = testBackend.getMoviesWithinRange(100, 130);
+            assertEquals(4, range.size());
+            assertEquals(3, testBackend.getMoviesWithMinDuration(150).size());
+            assertEquals(3, testBackend.findMovies(new MovieQuery.Builder().genre("Comedy")
+                    .build()).size());
+            range.clear();
+            assertEquals(4, testBackend.getMoviesWithinRange(100, 130).size());
+            assertEquals(3, testBackend.findMovies(new MovieQuery.Builder().genre(" COMEDY ")
+                    .build()).size());
+            assertEquals(2, cache.getHits());
+            assertEquals(3, cache.getMisses());
+            assertEquals(3, cache.size());
+
+            //Tests that a change outside of all cached queries keeps them
+            MovieInterface movie = testBackend.getMoviesFromYears(2005, 2005).get(0);
+            movie = testBackend.updateDuration(movie, 95);
+            assertEquals(0, cache.getInvalidations());
+            assertEquals(4, testBackend.getMoviesWithinRange(100, 130).size());
+
+            //Tests that a change inside a cached query drops only that query
+            testBackend.updateDuration(movie, 105);
+            assertEquals(1, cache.getInvalidations());
+            assertEquals(5, testBackend.getMoviesWithinRange(100, 130).size());
+            assertTrue(testBackend.removeMovie(testBackend.getLongestMovies(1).get(0)));
+            assertEquals(2, cache.getInvalidations());
+            assertEquals(2, testBackend.getMoviesWithMinDuration(150).size());
+            assertEquals(3, testBackend.findMovies(new MovieQuery.Builder().genre("comedy")
+                    .build()).size());
+
+            //Tests that reading a file again drops every query that its movies match
+            testBackend.readFile("testMovies.csv");
+            assertEquals(5, cache.getInvalidations());
+            assertEquals(9, testBackend.getMoviesWithinRange(100, 130).size());
+            assertEquals(5, testBackend.getMoviesWithMinDuration(150).size());
+            assertEquals(6, testBackend.findMovies(new MovieQuery.Builder().genre("Comedy")
+                    .build()).size());
+            assertEquals(testBackend.getMoviesWithMinDuration(0).size(),
+                    testBackend.countMoviesWithMinDuration(0));
+        }
+
+        //Tests that refreshing a file drops the queries that its added movies match
+        Path csv = Files.createTempFile("cached", ".csv");
+        try {
+            Files.copy(Path.of("testMovies.csv"), csv, StandardCopyOption.REPLACE_EXISTING);
+            testBackend = new Backend(new IterableMultiKeyRBT<>());
+            testBackend.setQueryCache(new QueryCache(2, QueryCache.DEFAULT_MAX_BYTES));
+            testBackend.refreshFile(csv.toString());
+            assertEquals(1, testBackend.getMoviesWithinRange(20, 50).size());
+            assertEquals(1, testBackend.getMoviesWithinRange(20, 50).size());
+            Files.writeString(csv, "\n100,appended,2020,Drama,30,Japan,5.0,1\n",
+                    StandardOpenOption.APPEND);
+            testBackend.refreshFile(csv.toString());
+            assertEquals(2, testBackend.getMoviesWithinRange(20, 50).size());
+            assertEquals(1, testBackend.getQueryCache().getInvalidations());
+
+            //Tests that the least recently used query is evicted from a full cache
+            testBackend.getMoviesWithMinDuration(100);
+            testBackend.getMoviesWithMinDuration(200);
+            assertEquals(1, testBackend.getQueryCache().getEvictions());
+            assertEquals(2, testBackend.getQueryCache().size());
+            testBackend.setQueryCache(null);
+            assertEquals(2, testBackend.getMoviesWithinRange(20, 50).size());
+        } finally {
+            Files.deleteIfExists(csv);
+        }
+    }
+
+    /**
+     * Test method for finding movies by the words in their titles, with the title index turned
+     * on before or after reading the file, and without it
+     */
+    @Test
+    public void testTitleWords() throws FileNotFoundException {
+        for (int run = 0; run < 6; run++) {
+            IterableMultiKeySortedCollectionInterface<MovieInterface> tree = run % 2 == 0
+                    ? new IterableMultiKeyRBT<>() : new PersistentMultiKeyRBT<>();
+            testBackend = new Backend(tree);
+            testBackend.setTitleIndexEnabled(run < 2);
+            testBackend.readFile("testMovies.csv");
+            testBackend.setTitleIndexEnabled(run < 4);
+            //Searching without the title index ignores the start point of iterating the tree
+            tree.setIterationStartPoint(Backend.durationBound(120));
+
+            //Tests AND and OR queries, which ignore case, punctuation and the order of words
+            List<MovieInterface> sequel = testBackend.getMoviesWithTitleWords("SEQUEL, the");
+            assertEquals(1, sequel.size());
+            assertEquals("testMovie3, the sequel", sequel.get(0).getTitle());
+            assertEquals(0, testBackend.getMoviesWithTitleWords("sequel testMovie1").size());
+            assertEquals(0, testBackend.getMoviesWithTitleWords("").size());
+            List<MovieInterface> any = testBackend.getMoviesWithAnyTitleWord(
+                    "testMovie1 sequel;testmovie2 prequel");
+            assertEquals(3, any.size());
+            assertEquals(100, any.get(0).getDuration());
+            assertEquals(125, any.get(2).getDuration());
+
+            //Tests that title words are intersected with the other predicates of a query
+            MovieQuery query = new MovieQuery.Builder().durationBetween(100, 130)
+                    .titleWords("The sequel").build();
+            assertEquals(sequel, testBackend.findMovies(query));
+            assertEquals(0, testBackend.findMovies(new MovieQuery.Builder().maxDuration(120)
+                    .titleWords("sequel").build()).size());
+            assertEquals(run < 4, testBackend.explainQuery(query).startsWith(
+                    "title index (1 candidates)"));
+
+            //Tests that changed and removed movies are changed in the title index
+            MovieInterface updated = testBackend.updateDuration(sequel.get(0), 30);
+            assertTrue(testBackend.getMoviesWithAnyTitleWord("sequel").get(0) == updated);
+            assertTrue(testBackend.removeMovie(updated));
+            assertEquals(0, testBackend.getMoviesWithTitleWords("sequel").size());
+            assertEquals(2, testBackend.getMoviesWithAnyTitleWord("testMovie1 testMovie2 the")
+                    .size());
+        }
+    }
+
+    /**
+     * Test method for the dictionary that movies share their genres and countries from
+     */
+    @Test
+    public void testDictionaryEncodedMovies() throws FileNotFoundException {
+        StringDictionary dictionary = new StringDictionary();
+        byte[] bytes = "x Drama, Romance x".getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        int code = dictionary.code(bytes, 2, 14);
+        assertEquals("Drama, Romance", dictionary.value(code));
+        assertTrue(dictionary.value(code) == dictionary.value(dictionary.code("Drama, Romance")));
+        assertEquals(List.of("drama", "romance"), dictionary.keys("Drama, Romance"));
+        assertTrue(dictionary.hasKey(code, dictionary.find("romance")));
+        assertTrue(!dictionary.hasKey(code, dictionary.find("comedy")));
+        assertEquals(List.of("drama"), dictionary.keys("drama"));
+        assertEquals(StringDictionary.NULL_CODE, dictionary.code((String) null));
+        //Tests that lookups by bytes still find every value after the table grew
+        for (int i = 0; i < 100; i++) {
+            code = dictionary.code("value " + i);
+            byte[] valueBytes = ("value " + i).getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            assertEquals(code, dictionary.find("value " + i));
+            assertEquals(code, dictionary.code(valueBytes, 0, valueBytes.length));
+        }
+        for (int i = 0; i < 100; i++) {
+            byte[] valueBytes = ("value " + i).getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            assertEquals("value " + i, dictionary.value(dictionary.code(valueBytes, 0,
+                    valueBytes.length)));
+        }
+        assertEquals(103, dictionary.size());
+        assertEquals(List.of("drama", "romance"), dictionary.keys("Drama, Romance"));
+        assertTrue(dictionary.hasKey(dictionary.find("Drama, Romance"), dictionary.find("drama")));
+
+        //Tests that movies read from a file share the instances of their genres and countries
+        testBackend = new Backend(new IterableMultiKeyRBT<>());
+        testBackend.readFile("testMovies.csv");
+        testBackend.readFile("testMovies.csv");
+        List<MovieInterface> dramas = testBackend.getMoviesWithGenre("Drama");
+        assertEquals(10, dramas.size());
+        for (MovieInterface movie : dramas) {
+            MovieInterface copy = new Movie("copy", movie.getGenre(), movie.getCountry(), 0, 0);
+            assertTrue(movie.getGenre() == copy.getGenre());
+            assertTrue(movie.getCountry() == copy.getCountry());
+        }
+        assertEquals(4, testBackend.findMovies(new MovieQuery.Builder().genre(" ACTION")
+                .build()).size());
+        assertEquals(0, testBackend.findMovies(new MovieQuery.Builder().genre("Unknown")
+                .build()).size());
+        assertEquals(4, testBackend.findMovies(new MovieQuery.Builder().country("france")
+                .build()).size());
+    }
+
+    /**
+     * Test method for a backend that keeps its movies in a DurationIndex instead of a tree
+     */
+    @Test
+    public void testDurationIndexBackend() throws FileNotFoundException {
+        assertSameQueryResults(new DurationIndex());
+    }
+
+    /**
+     * Test method for a backend that keeps its movies in a B+ tree with small nodes, so that the
+     * ten durations of the test file need two levels
+     */
+    @Test
+    public void testBPlusTreeBackend() throws FileNotFoundException {
+        BPlusTree<MovieInterface> tree = new BPlusTree<>(4);
+        assertSameQueryResults(tree);
+        assertTrue(tree.hasValidStructure());
+    }
+
+    /**
+     * Test method for a backend that keeps its movies off-heap in an OffHeapMovieStore
+     */
+    @Test
+    public void testOffHeapMovieStoreBackend() throws FileNotFoundException {
+        try (OffHeapMovieStore store = new OffHeapMovieStore()) {
+            assertSameQueryResults(store);
+            assertEquals(20, store.numKeys());
+
+            //Tests that changed and removed movies leave the tree and the indexes alike, even
+            //though queries return new views of the records of the store
+            testBackend.setTitleIndexEnabled(true);
+            MovieInterface longest = testBackend.getLongestMovies(1).get(0);
+            assertEquals("testMovie6", longest.getTitle());
+            MovieInterface updated = testBackend.updateDuration(longest, 30);
+            try {
+                longest.getTitle();
+                fail("The view of a changed movie should fail once its record is reused");
+            } catch (IllegalStateException e) {
+                assertTrue(true);
+            }
+            assertEquals(updated, testBackend.getShortestMovies(1).get(0));
+            assertEquals(2, testBackend.getMoviesFromYears(2006, 2006).size());
+            assertEquals(2, testBackend.getMoviesWithGenre("Horror").size());
+            assertEquals(2, testBackend.getMoviesFromCountry("Germany").size());
+            assertEquals(2, testBackend.getMoviesWithTitleWords("testMovie6").size());
+            assertTrue(testBackend.getMoviesFromYears(2006, 2006).contains(updated));
+            assertTrue(testBackend.removeMovie(testBackend.getShortestMovies(1).get(0)));
+            assertEquals(19, store.numKeys());
+            assertEquals(1, testBackend.getMoviesFromYears(2006, 2006).size());
+            assertEquals(1, testBackend.getMoviesWithGenre("Horror").size());
+            assertEquals(1, testBackend.getMoviesFromCountry("Germany").size());
+            assertEquals(1, testBackend.getMoviesWithTitleWords("testMovie6").size());
+            assertEquals(200, testBackend.getMoviesFromYears(2006, 2006).get(0).getDuration());
+            assertTrue(!testBackend.removeMovie(updated));
+        }
+    }
+
+    /**
+     * Checks that a backend with a collection returns the same movies as one with a tree
+     */
+    private void assertSameQueryResults(
+            IterableMultiKeySortedCollectionInterface<MovieInterface> movies)
+            throws FileNotFoundException {
+        Backend expected = new Backend(new IterableMultiKeyRBT<>());
+        testBackend = new Backend(movies);
+        for (Backend backend : List.of(expected, testBackend)) {
+            backend.readFile("testMovies.csv");
+            backend.readFile("testMovies.csv");
+        }
+        assertEquals(titles(expected.getMoviesWithMinDuration(100)),
+                titles(testBackend.getMoviesWithMinDuration(100)));
+        assertEquals(titles(expected.getMoviesWithinRange(60, 125)),
+                titles(testBackend.getMoviesWithinRange(60, 125)));
+        assertEquals(expected.countMoviesWithinRange(60, 125),
+                testBackend.countMoviesWithinRange(60, 125));
+        assertEquals(titles(expected.getShortestMovies(3)),
+                titles(testBackend.getShortestMovies(3)));
+        assertEquals(titles(expected.getLongestMovies(3)),
+                titles(testBackend.getLongestMovies(3)));
+        for (double percentile : new double[] {0, 10, 50, 90, 100}) {
+            assertEquals(expected.getDurationPercentile(percentile),
+                    testBackend.getDurationPercentile(percentile));
+        }
+        MovieQuery query = new MovieQuery.Builder().minDuration(90).genre("Drama").build();
+        assertEquals(titles(expected.findMovies(query)), titles(testBackend.findMovies(query)));
+
+        //Tests that the pages of both backends end and continue at the same movies
+        String expectedCursor = null;
+        String cursor = null;
+        do {
+            MoviePage expectedPage = expected.getMoviesWithinRange(60, 200, 3, expectedCursor);
+            MoviePage page = testBackend.getMoviesWithinRange(60, 200, 3, cursor);
+            assertEquals(titles(expectedPage.getMovies()), titles(page.getMovies()));
+            expectedCursor = expectedPage.getNextCursor();
+            cursor = page.getNextCursor();
+            assertEquals(expectedCursor, cursor);
+        } while (cursor != null);
+    }
+
+    /**
+     * Returns the titles of movies in their order
+     */
+    private static List<String> titles(List<MovieInterface> movies) {
+        List<String> titles = new ArrayList<>();
+        movies.forEach(movie -> titles.add(movie.getTitle()));
+        return titles;
+    }
+
+    /**
+     * Test method for the columnar store, which should return the movies of the backend in the
+     * same order
+     */
+    @Test
+    public void testColumnarMovieStore() throws FileNotFoundException {
+        testBackend = new Backend(new IterableMultiKeyRBT<>());
+        testBackend.readFile("testMovies.csv");
+        ColumnarMovieStore store = ColumnarMovieStore.read("testMovies.csv");
+        assertEquals(10, store.size());
+        assertEquals(titles(testBackend.getMoviesWithMinDuration(0)),
+                titles(store.getMoviesWithinRange(0, Integer.MAX_VALUE)));
+        assertEquals(titles(testBackend.getMoviesWithinRange(90, 125)),
+                titles(store.getMoviesWithinRange(90, 125)));
+        assertEquals(5, store.countWithinRange(90, 125));
+        assertEquals(0, store.countWithinRange(125, 90));
+        assertEquals(0, store.getMoviesWithinRange(300, 400).size());
+
+        //Tests that a view reads every field of its row
+        MovieInterface movie = store.getMoviesWithinRange(121, 121).get(0);
+        assertEquals("testMovie2", movie.getTitle());
+        assertEquals("Drama, Romance", movie.getGenre());
+        assertEquals("France", movie.getCountry());
+        assertEquals(2002, movie.getYear());
+        assertEquals(121, movie.getDuration());
+        assertTrue(movie.getGenre() == new Movie("", "Drama, Romance", "", 0, 0).getGenre());
+        assertEquals(movie, store.get(store.firstRow(121)));
+        assertTrue(movie.compareTo(store.get(0)) > 0);
+
+        //Tests the aggregations over the columns
+        assertEquals((2001 + 2002 + 2003 + 2005 + 2010) / 5.0,
+                store.averageYearWithinRange(90, 125));
+        assertTrue(Double.isNaN(store.averageYearWithinRange(300, 400)));
+        assertEquals((100 + 121 + 125) / 3.0, store.averageDurationFromYears(2001, 2003));
+        assertEquals(5, store.countWithGenre(" drama"));
+        assertEquals(2, store.countWithGenre("Action"));
+        assertEquals(0, store.countWithGenre("Western"));
+        ColumnarMovieStore empty = ColumnarMovieStore.of(List.of());
+        assertEquals(0, empty.countWithinRange(0, 1000));
+        assertTrue(Double.isNaN(empty.averageDurationFromYears(0, 3000)));
+    }
+
+    /**
+     * Tests that a snapshot keeps its keys while keys are inserted into the tree, also into
+     * KeyLists that the snapshot shares with the tree
+     */
+    @Test
+    public void testPersistentSnapshot() {
+        PersistentMultiKeyRBT<Integer> tree = new PersistentMultiKeyRBT<>();
+        tree.bulkLoad(List.of(5, 3, 8, 5));
+        PersistentMultiKeyRBT<Integer> snapshot = tree.snapshot();
+        assertTrue(tree.insertSingleKey(1));
+        assertTrue(!tree.insertSingleKey(5));
+        assertTrue(tree.insertSingleKey(9));
+
+        List<Integer> treeKeys = new ArrayList<>();
+        tree.forEach(treeKeys::add);
+        List<Integer> snapshotKeys = new ArrayList<>();
+        snapshot.forEach(snapshotKeys::add);
+        assertEquals(List.of(1, 3, 5, 5, 5, 8, 9), treeKeys);
+        assertEquals(List.of(3, 5, 5, 8), snapshotKeys);
+        assertEquals(4, snapshot.numKeys());
+        assertEquals(2, snapshot.countInRange(4, true, 8, false));
+
+        //Inserting into the snapshot copies the KeyList that the tree appended to
+        assertTrue(!snapshot.insertSingleKey(5));
+        assertEquals(3, snapshot.countInRange(5, true, 5, true));
+        assertEquals(3, tree.countInRange(5, true, 5, true));
+        assertEquals(7, tree.numKeys());
+        assertTrue(tree.isValid());
+        assertTrue(snapshot.isValid());
+
+        //Resumes within the KeyList of 5
+        Iterator<Integer> iterator = tree.iterator(5, 1, null, true);
+        assertEquals(5, iterator.next());
+        assertEquals(5, iterator.next());
+        assertEquals(8, iterator.next());
+        try {
+            tree.iterator(5, true, 5, true);
+            tree.select(0);
+            tree.select(7);
+            fail("select should reject an index past the last key");
+        } catch (IndexOutOfBoundsException e) {
+            assertTrue(true);
+        }
+    }
+
+    /**
+     * Tests random inserts against IterableMultiKeyRBT, and that every earlier version keeps its
+     * keys and stays a valid red black tree
+     */
+    @Test
+    public void testPersistentMatchesIterableMultiKeyRBT() {
+        for (int seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            PersistentMultiKeyRBT<Integer> tree = new PersistentMultiKeyRBT<>();
+            IterableMultiKeyRBT<Integer> expected = new IterableMultiKeyRBT<>();
+            List<PersistentMultiKeyRBT<Integer>> versions = new ArrayList<>();
+            List<List<Integer>> versionKeys = new ArrayList<>();
+            for (int i = 0; i < 300; i++) {
+                int key = random.nextInt(seed < 10 ? 50 : 1000);
+                assertEquals(expected.insertSingleKey(key), tree.insertSingleKey(key));
+                if (i % 30 == 0) {
+                    versions.add(tree.snapshot());
+                    List<Integer> keys = new ArrayList<>();
+                    expected.forEach(keys::add);
+                    versionKeys.add(keys);
+                }
+            }
+            assertTrue(tree.isValid());
+            assertEquals(expected.size(), tree.size());
+            assertEquals(expected.numKeys(), tree.numKeys());
+            for (int i = 0; i < tree.numKeys(); i++) {
+                assertEquals(expected.select(i), tree.select(i));
+            }
+            for (int bound = -1; bound <= 1001; bound += 7) {
+                assertEquals(expected.rank(bound), tree.rank(bound));
+                assertEquals(expected.countInRange(bound, false, bound + 60, true),
+                        tree.countInRange(bound, false, bound + 60, true));
+            }
+            List<Integer> descending = new ArrayList<>();
+            tree.descendingIterator().forEachRemaining(descending::add);
+            List<Integer> expectedDescending = new ArrayList<>();
+            expected.descendingIterator().forEachRemaining(expectedDescending::add);
+            assertEquals(expectedDescending, descending);
+            for (int i = 0; i < versions.size(); i++) {
+                List<Integer> keys = new ArrayList<>();
+                versions.get(i).spliterator(null, true, null, true).forEachRemaining(keys::add);
+                assertEquals(versionKeys.get(i), keys);
+                assertTrue(versions.get(i).isValid());
+            }
+        }
+    }
+
+    /**
+     * Tests removeSingleKey and remove against an IterableMultiKeyRBT with the same keys, and
+     * that snapshots taken between the removals keep their keys and stay valid
+     */
+    @Test
+    public void testPersistentRandomRemove() {
+        for (int seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            PersistentMultiKeyRBT<Integer> tree = new PersistentMultiKeyRBT<>();
+            IterableMultiKeyRBT<Integer> expected = new IterableMultiKeyRBT<>();
+            List<PersistentMultiKeyRBT<Integer>> versions = new ArrayList<>();
+            List<List<Integer>> versionKeys = new ArrayList<>();
+            int maxKey = seed < 10 ? 50 : 1000;
+            for (int i = 0; i < 1500; i++) {
+                int key = random.nextInt(maxKey);
+                int operation = random.nextInt(10);
+                if (operation < 5) {
+                    assertEquals(expected.insertSingleKey(key), tree.insertSingleKey(key));
+                } else if (operation < 9) {
+                    assertEquals(expected.removeSingleKey(key), tree.removeSingleKey(key));
+                } else {
+                    Comparable<KeyListInterface<Integer>> list =
+                            other -> Integer.compare(key, other.firstKey());
+                    assertEquals(expected.remove(list), tree.remove(list));
+                }
+                assertTrue(tree.isValid());
+                assertEquals(expected.size(), tree.size());
+                assertEquals(expected.numKeys(), tree.numKeys());
+                if (i % 100 == 0) {
+                    versions.add(tree.snapshot());
+                    List<Integer> keys = new ArrayList<>();
+                    expected.forEach(keys::add);
+                    versionKeys.add(keys);
+                }
+            }
+            List<Integer> keys = new ArrayList<>();
+            tree.forEach(keys::add);
+            List<Integer> expectedKeys = new ArrayList<>();
+            expected.forEach(expectedKeys::add);
+            assertEquals(expectedKeys, keys);
+            for (int i = 0; i < versions.size(); i++) {
+                List<Integer> versionKeysNow = new ArrayList<>();
+                versions.get(i).forEach(versionKeysNow::add);
+                assertEquals(versionKeys.get(i), versionKeysNow);
+                assertTrue(versions.get(i).isValid());
+            }
+            //Removes all keys again
+            for (int key : expectedKeys) {
+                assertTrue(tree.removeSingleKey(key));
+                assertTrue(tree.isValid());
+            }
+            assertTrue(tree.isEmpty());
+            assertEquals(0, tree.numKeys());
+        }
+    }
+
+    /**
+     * Tests that random inserts and removes keep the tree valid, and leave it with the same keys,
+     * counts and iteration orders as IterableMultiKeyRBT, for small and large fan-outs.
+     */
+    @Test
+    public void testBPlusTreeMatchesIterableMultiKeyRBT() {
+        for (int seed = 0; seed < 12; seed++) {
+            Random random = new Random(seed);
+            BPlusTree<Integer> tree = new BPlusTree<>(new int[] {4, 5, 64}[seed % 3]);
+            IterableMultiKeyRBT<Integer> expected = new IterableMultiKeyRBT<>();
+            List<Integer> keys = new ArrayList<>();
+            int maxKey = seed < 6 ? 50 : 2000;
+            if (seed % 2 == 0) {
+                for (int i = 0; i < 500; i++) {
+                    keys.add(random.nextInt(maxKey));
+                }
+                tree.bulkLoad(keys);
+                expected.bulkLoad(keys);
+                assertTrue(tree.hasValidStructure());
+            }
+            for (int i = 0; i < 2000; i++) {
+                if (random.nextInt(5) > 1 || keys.isEmpty()) {
+                    Integer key = random.nextInt(maxKey);
+                    keys.add(key);
+                    assertEquals(expected.insertSingleKey(key), tree.insertSingleKey(key));
+                } else {
+                    Integer key = keys.remove(random.nextInt(keys.size()));
+                    assertEquals(expected.removeSingleKey(key), tree.removeSingleKey(key));
+                }
+                assertEquals(expected.size(), tree.size());
+                assertEquals(expected.numKeys(), tree.numKeys());
+                assertTrue(tree.hasValidStructure());
+            }
+            assertEquals(toList(expected.iterator()), toList(tree.iterator()));
+            assertEquals(toList(expected.descendingIterator()), toList(tree.descendingIterator()));
+            for (int i = 0; i < 50; i++) {
+                int low = random.nextInt(maxKey);
+                Comparable<Integer> lower = key -> Integer.compare(low, key);
+                Comparable<Integer> upper = key -> Integer.compare(low + maxKey / 10, key);
+                boolean lowerInclusive = random.nextBoolean();
+                boolean upperInclusive = random.nextBoolean();
+                assertEquals(expected.countInRange(lower, lowerInclusive, upper, upperInclusive),
+                        tree.countInRange(lower, lowerInclusive, upper, upperInclusive));
+                assertEquals(toList(expected.iterator(lower, lowerInclusive, upper,
+                        upperInclusive)), toList(tree.iterator(lower, lowerInclusive, upper,
+                        upperInclusive)));
+                assertEquals(expected.rank(lower), tree.rank(lower));
+                int startIndex = random.nextInt(4);
+                assertEquals(toList(expected.iterator(lower, startIndex, upper, true)),
+                        toList(tree.iterator(lower, startIndex, upper, true)));
+                assertEquals(expected.stream(lower, lowerInclusive, upper, upperInclusive)
+                                .collect(Collectors.toList()),
+                        tree.stream(lower, lowerInclusive, upper, upperInclusive).parallel()
+                                .collect(Collectors.toList()));
+            }
+            for (int i = 0; i < tree.numKeys(); i++) {
+                assertEquals(expected.select(i), tree.select(i));
+            }
+            tree.setIterationStartPoint(maxKey / 2);
+            expected.setIterationStartPoint(maxKey / 2);
+            assertEquals(toList(expected.iterator()), toList(tree.iterator()));
+            assertEquals(expected.stream().collect(Collectors.toList()),
+                    tree.stream().collect(Collectors.toList()));
+
+            //Removes every key, which merges the tree back into an empty root
+            for (Integer key : keys) {
+                assertTrue(tree.removeSingleKey(key));
+            }
+            assertTrue(tree.isEmpty());
+            assertTrue(tree.hasValidStructure());
+            assertTrue(!tree.iterator().hasNext());
+        }
+    }
+
+    /**
+     * Tests inserting, finding and removing whole KeyLists, and a fan-out that is too small
+     */
+    @Test
+    public void testBPlusTreeKeyLists() {
+        BPlusTree<Integer> tree = new BPlusTree<>(4);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(tree.insert(new ArrayKeyList<>(2 * i)));
+        }
+        KeyListInterface<Integer> duplicates = new KeyList<>(7);
+        duplicates.addKey(7);
+        assertTrue(tree.insert(duplicates));
+        assertTrue(!tree.insert(new ArrayKeyList<>(8)));
+        assertEquals(21, tree.size());
+        assertEquals(22, tree.numKeys());
+        assertTrue(tree.hasValidStructure());
+
+        Comparable<KeyListInterface<Integer>> seven = list -> Integer.compare(7, list.firstKey());
+        assertTrue(tree.contains(seven));
+        assertEquals(4, tree.rank(key -> Integer.compare(7, key)));
+        assertTrue(tree.remove(seven));
+        assertTrue(!tree.contains(seven));
+        assertTrue(!tree.remove(seven));
+        assertEquals(20, tree.numKeys());
+        assertTrue(tree.hasValidStructure());
+        tree.clear();
+        assertTrue(tree.isEmpty());
+        assertTrue(!tree.contains(seven));
+        try {
+            new BPlusTree<Integer>(3);
+            fail("Fan-outs below 4 should be rejected");
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+    }
+
+    /**
+     * Collects the keys of an iterator into a list.
+     */
+    private static <T> List<T> toList(Iterator<T> iterator) {
+        List<T> keys = new ArrayList<>();
+        iterator.forEachRemaining(keys::add);
+        return keys;
+    }
+
+    /**
+     * Test method for evicting the least recently used query results
+     */
+    @Test
+    public void testQueryCacheEvictsLeastRecentlyUsed() {
+        QueryCache cache = new QueryCache(2, QueryCache.DEFAULT_MAX_BYTES);
+        List<MovieInterface> movies = List.of(new Movie("a", "Drama", "USA", 2000, 90));
+        cache.put("range", durationQuery(90), movies, cache.version());
+        cache.put("range", durationQuery(100), movies, cache.version());
+        //Using the first entry makes the second one the least recently used
+        assertEquals(movies, cache.get("range", durationQuery(90)));
+        cache.put("range", durationQuery(110), movies, cache.version());
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertTrue(cache.get("range", durationQuery(100)) == null);
+        assertEquals(movies, cache.get("range", durationQuery(90)));
+        assertEquals(movies, cache.get("range", durationQuery(110)));
+        //Kinds of queries with the same predicates are cached separately
+        assertTrue(cache.get("find", durationQuery(90)) == null);
+        assertEquals(3, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    /**
+     * Test method for bounding the query cache by the estimated bytes of its results
+     */
+    @Test
+    public void testQueryCacheBoundedByBytes() {
+        List<MovieInterface> movies = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            movies.add(new Movie("Movie " + i, "Drama", "USA", 2000, 90));
+        }
+        long maxBytes = 2 * (QueryCache.ENTRY_BYTES + 100 * QueryCache.MOVIE_BYTES);
+        QueryCache cache = new QueryCache(100, maxBytes);
+        for (int i = 0; i < 5; i++) {
+            cache.put("range", durationQuery(i), movies, cache.version());
+        }
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.getEvictions());
+        assertEquals(maxBytes, cache.getEstimatedBytes());
+        //A result that is larger than the cache is not cached
+        for (int i = 100; i < 300; i++) {
+            movies.add(new Movie("Movie " + i, "Drama", "USA", 2000, 90));
+        }
+        cache.put("range", durationQuery(10), movies, cache.version());
+        assertTrue(cache.get("range", durationQuery(10)) == null);
+        assertEquals(2, cache.size());
+        try {
+            new QueryCache(0, 100);
+            fail("A cache without entries should not be created");
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+    }
+
+    /**
+     * Test method for invalidating only the cached queries that a change affects
+     */
+    @Test
+    public void testQueryCacheInvalidatesOnlyAffectedQueries() {
+        QueryCache cache = new QueryCache();
+        MovieQuery shortMovies = new MovieQuery.Builder().durationBetween(60, 90).build();
+        MovieQuery longMovies = new MovieQuery.Builder().durationBetween(150, 200).build();
+        MovieQuery comedies = new MovieQuery.Builder().durationBetween(60, 200).genre("Comedy")
+                .build();
+        MovieQuery all = new MovieQuery.Builder().build();
+        for (MovieQuery query : List.of(shortMovies, longMovies, comedies, all)) {
+            cache.put("find", query, List.of(), cache.version());
+        }
+        cache.invalidate(List.of(new Movie("a", "Drama", "USA", 2000, 120),
+                new Movie("b", "Drama, Comedy", "USA", 2000, 210)));
+        //Only the unbounded query has both movies in its range, and the comedy is too long
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getInvalidations());
+        assertTrue(cache.get("find", all) == null);
+        cache.invalidate(List.of(new Movie("c", "Comedy ", "USA", 2000, 150)));
+        assertTrue(cache.get("find", longMovies) == null);
+        assertTrue(cache.get("find", comedies) == null);
+        assertEquals(List.of(), cache.get("find", new MovieQuery.Builder().maxDuration(90)
+                .minDuration(60).build()));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getEstimatedBytes());
+    }
+
+    /**
+     * Test method for ignoring query results that were read before an invalidation
+     */
+    @Test
+    public void testQueryCacheIgnoresResultsReadBeforeInvalidation() {
+        QueryCache cache = new QueryCache();
+        long version = cache.version();
+        cache.invalidate(List.of(new Movie("a", "Drama", "USA", 2000, 90)));
+        cache.put("range", durationQuery(90), List.of(), version);
+        assertEquals(0, cache.size());
+        //A copy is cached, so changing the list afterwards does not change the cache
+        List<MovieInterface> movies = new ArrayList<>();
+        cache.put("range", durationQuery(90), movies, cache.version());
+        movies.add(new Movie("b", "Drama", "USA", 2000, 90));
+        assertEquals(List.of(), cache.get("range", durationQuery(90)));
+        try {
+            cache.get("range", durationQuery(90)).add(movies.get(0));
+            fail("A cached result should not be modifiable");
+        } catch (UnsupportedOperationException e) {
+            assertTrue(true);
+        }
+    }
+
+    /**
+     * @return a query for the movies of one duration
+     */
+    private static MovieQuery durationQuery(int duration) {
+        return new MovieQuery.Builder().durationBetween(duration, duration).build();
+    }
+
+    /**
+     * Test method for queries that need all or any of the words of a title
+     */
+    @Test
+    public void testTitleIndexAndOrQueries() {
+        List<MovieInterface> movies = List.of(
+                new Movie("Star Wars", "Action", "USA", 1977, 121),
+                new Movie("Star Trek: The Motion Picture", "Action", "USA", 1979, 132),
+                new Movie("The Lone Star", "Drama", "USA", 1996, 135),
+                new Movie("Starship Troopers", "Action", "USA", 1997, 129),
+                new Movie("wars of the STAR-crossed star", "Drama", "UK", 2000, 90),
+                new Movie("!!!", "Drama", "UK", 2000, 90));
+        assertEquals(List.of("star", "trek", "the", "motion", "picture"),
+                TitleIndex.words(" Star Trek: the Motion Picture!"));
+        TitleIndex index = new TitleIndex().add(movies);
+        assertEquals(5, index.size());
+        assertEquals(List.of(movies.get(0), movies.get(1), movies.get(2), movies.get(4)),
+                index.find(TitleIndex.words("STAR"), true));
+        assertEquals(List.of(movies.get(0), movies.get(4)),
+                index.find(TitleIndex.words("wars star"), true));
+        assertEquals(List.of(movies.get(1), movies.get(2), movies.get(4)),
+                index.find(TitleIndex.words("star the"), true));
+        assertEquals(List.of(movies.get(0), movies.get(1), movies.get(3), movies.get(4)),
+                index.find(TitleIndex.words("wars trek troopers"), false));
+        assertEquals(List.of(), index.find(TitleIndex.words("starship wars"), true));
+        assertEquals(List.of(), index.find(TitleIndex.words("empire"), false));
+        assertEquals(List.of(), index.find(TitleIndex.words("!!!"), false));
+        assertEquals(1, index.estimateAll(TitleIndex.words("trek star")));
+        assertEquals(0, index.estimateAll(TitleIndex.words("empire star")));
+        Iterator<MovieInterface> iterator = index.iterator(TitleIndex.words("troopers"), true);
+        assertEquals(movies.get(3), iterator.next());
+        assertTrue(!iterator.hasNext());
+    }
+
+    /**
+     * Test method for adding and removing movies in new versions of the index, which leave the
+     * older versions unchanged
+     */
+    @Test
+    public void testTitleIndexVersions() {
+        Movie wars = new Movie("Star Wars", "Action", "USA", 1977, 121);
+        Movie trek = new Movie("Star Trek", "Action", "USA", 1979, 132);
+        Movie copy = new Movie("Star Wars", "Action", "USA", 1977, 121);
+        TitleIndex first = new TitleIndex().add(List.of(wars, trek));
+        TitleIndex second = first.add(List.of(copy));
+        TitleIndex third = second.remove(List.of(wars, new Movie("Star", "", "", 0, 0)));
+        //Older versions still return their movies, and a removed movie is found by identity
+        assertEquals(List.of(wars, trek), first.find(TitleIndex.words("star"), true));
+        assertEquals(List.of(wars, trek, copy), second.find(TitleIndex.words("star"), true));
+        assertEquals(List.of(trek, copy), third.find(TitleIndex.words("star"), true));
+        assertEquals(2, third.size());
+        assertEquals(List.of(copy),
+                third.remove(List.of(trek)).find(TitleIndex.words("star"), false));
+        //Changing an older version builds a new index, which does not change the newer ones
+        TitleIndex branch = first.add(List.of(new Movie("Star Dust", "", "", 0, 0)));
+        assertEquals(3, branch.find(TitleIndex.words("star"), true).size());
+        assertEquals(List.of(wars, copy), second.find(TitleIndex.words("wars"), true));
+        assertEquals(List.of(copy), third.find(TitleIndex.words("wars"), true));
+    }
+
+    /**
+     * Test method that compares random queries to a scan of all titles, and for long posting lists
+     */
+    @Test
+    public void testTitleIndexMatchesScan() {
+        Random random = new Random(42);
+        String[] vocabulary = {"star", "wars", "the", "night", "day", "love", "war", "a", "of",
+                "2001", "Éclair"};
+        List<MovieInterface> live = new ArrayList<>();
+        TitleIndex index = new TitleIndex();
+        for (int round = 0; round < 200; round++) {
+            List<MovieInterface> added = new ArrayList<>();
+            for (int i = random.nextInt(40); i > 0; i--) {
+                StringBuilder title = new StringBuilder();
+                for (int j = random.nextInt(4); j >= 0; j--) {
+                    title.append(vocabulary[random.nextInt(vocabulary.length)]).append(", ");
+                }
+                added.add(new Movie(title.toString(), "Drama", "USA", 2000, 90));
+            }
+            index = index.add(added);
+            live.addAll(added);
+            List<MovieInterface> removedMovies = new ArrayList<>();
+            for (int i = random.nextInt(40); i > 0 && !live.isEmpty(); i--) {
+                removedMovies.add(live.remove(random.nextInt(live.size())));
+            }
+            index = index.remove(removedMovies);
+            assertEquals(live.size(), index.size());
+
+            List<String> query = TitleIndex.words(vocabulary[random.nextInt(vocabulary.length)]
+                    + " " + vocabulary[random.nextInt(vocabulary.length)]);
+            for (boolean all : new boolean[] {true, false}) {
+                List<MovieInterface> expected = new ArrayList<>();
+                for (MovieInterface movie : live) {
+                    List<String> titleWords = TitleIndex.words(movie.getTitle());
+                    boolean matches = all ? titleWords.containsAll(query)
+                            : query.stream().anyMatch(titleWords::contains);
+                    if (matches) {
+                        expected.add(movie);
+                    }
+                }
+                assertEquals(expected, index.find(query, all));
+            }
+        }
+        //Long lists of gaps that need several bytes
+        List<MovieInterface> many = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            many.add(new Movie(i % 1000 == 0 ? "rare common" : "common " + i, "", "", 0, 0));
+        }
+        index = new TitleIndex().add(many);
+        assertEquals(100, index.find(TitleIndex.words("rare"), true).size());
+        assertEquals(100_000, index.find(TitleIndex.words("common"), true).size());
+        assertEquals(100, index.find(TitleIndex.words("common rare"), true).size());
+    }
 }
@@ -1,4 +1,5 @@
 import java.util.List;
+import java.util.stream.Stream;
 import java.io.FileNotFoundException;
 /**
  * This interfaces allows users to get data and lists of movies from a file
@@ -29,5 +30,152 @@ public interface BackendInterface {
      * @return list of movies with duration in between two thresholds
      */
     public List<MovieInterface> getMoviesWithinRange(int minLength, int maxLength);
+
+    /**
+     * Streams the movies with a minimum duration, ordered by duration. Movies are produced as
+     * the stream is consumed, without building a list of them first.
+     * @param minLength minimum duration of movies
+     * @return a stream of the movies with the minimum duration.
+     */
+    public Stream<MovieInterface> streamMoviesWithMinDuration(int minLength);
+
+    /**
+     * Streams the movies with a duration between two thresholds, ordered by duration. Movies are
+     * produced as the stream is consumed, without building a list of them first.
+     * @param minLength minimum length of movie
+     * @param maxLength maximum length of movie
+     * @return stream of movies with duration in between two thresholds
+     */
+    public Stream<MovieInterface> streamMoviesWithinRange(int minLength, int maxLength);
+
+    /**
+     * Finds one page of the movies with a minimum duration, ordered by duration.
+     * @param minLength minimum duration of movies
+     * @param limit largest number of movies on the page
+     * @param cursor the cursor of the previous page, or null for the first page
+     * @return the page of movies and the cursor for the next page
+     */
+    public MoviePage getMoviesWithMinDuration(int minLength, int limit, String cursor);
+
+    /**
+     * Finds one page of the movies between two thresholds, ordered by duration. A cursor of a
+     * page resumes the query right after the last movie of that page, without computing the
+     * movies of the earlier pages again. Removing or updating a movie invalidates the cursors
+     * taken before, which may then skip or repeat a movie.
+     * @param minLength minimum length of movie
+     * @param maxLength maximum length of movie
+     * @param limit largest number of movies on the page
+     * @param cursor the cursor of the previous page, or null for the first page
+     * @return the page of movies and the cursor for the next page
+     */
+    public MoviePage getMoviesWithinRange(int minLength, int maxLength, int limit, String cursor);
+
+    /**
+     * Counts the movies with a minimum duration, without listing them.
+     * @param minLength minimum duration of movies
+     * @return the number of movies with the minimum duration
+     */
+    public int countMoviesWithMinDuration(int minLength);
+
+    /**
+     * Counts the movies between two thresholds, without listing them.
+     * @param minLength minimum length of movie
+     * @param maxLength maximum length of movie
+     * @return the number of movies with duration in between two thresholds
+     */
+    public int countMoviesWithinRange(int minLength, int maxLength);
+
+    /**
+     * Finds the duration at a percentile of all movie durations, using the nearest rank method.
+     * @param percentile the percentile between 0 and 100, 50 for the median
+     * @return the duration at the percentile in minutes
+     * @throws java.util.NoSuchElementException when there are no movies
+     */
+    public int getDurationPercentile(double percentile);
+
+    /**
+     * Finds the longest movies.
+     * @param k number of movies to find
+     * @return list of the k longest movies, longest first
+     */
+    public List<MovieInterface> getLongestMovies(int k);
+
+    /**
+     * Finds the shortest movies.
+     * @param k number of movies to find
+     * @return list of the k shortest movies, shortest first
+     */
+    public List<MovieInterface> getShortestMovies(int k);
+
+    /**
+     * Finds list of movies made between two years, using an index ordered by year.
+     * @param minYear first year the movies can be from
+     * @param maxYear last year the movies can be from
+     * @return list of movies from these years, ordered by year
+     */
+    public List<MovieInterface> getMoviesFromYears(int minYear, int maxYear);
+
+    /**
+     * Finds list of movies of a genre, using an index on genres. Movies that list several
+     * genres separated by commas are found under each of them. Case is ignored.
+     * @param genre the genre of the movies
+     * @return list of movies of this genre
+     */
+    public List<MovieInterface> getMoviesWithGenre(String genre);
+
+    /**
+     * Finds list of movies from a country, using an index on countries. Movies that list
+     * several countries separated by commas are found under each of them. Case is ignored.
+     * @param country the country of the movies
+     * @return list of movies from this country
+     */
+    public List<MovieInterface> getMoviesFromCountry(String country);
+
+    /**
+     * Finds list of movies whose title contains every word of some text, in any order, using an
+     * inverted index of the words in the titles. Case and punctuation are ignored.
+     * @param words the words that the titles have to contain
+     * @return list of movies with all the words, ordered by duration
+     */
+    public List<MovieInterface> getMoviesWithTitleWords(String words);
+
+    /**
+     * Finds list of movies whose title contains at least one word of some text.
+     * @param words the words that the titles contain one of
+     * @return list of movies with any of the words, ordered by duration
+     */
+    public List<MovieInterface> getMoviesWithAnyTitleWord(String words);
+
+    /**
+     * Finds list of movies that match every predicate of a query, using the index that
+     * selects the fewest movies and checking the other predicates on them.
+     * @param query the predicates on duration, year, genre, country and title
+     * @return list of movies that match the query, ordered by duration
+     */
+    public List<MovieInterface> findMovies(MovieQuery query);
+
+    /**
+     * Describes how findMovies answers a query, for debugging.
+     * @param query the predicates on duration, year, genre, country and title
+     * @return description of the index that is used and the predicates that are checked
+     */
+    public String explainQuery(MovieQuery query);
+
+    /**
+     * Removes a movie from the backend, so that no query returns it anymore.
+     * @param movie the movie to remove, as returned by a query
+     * @return true if the movie was removed, false if it was not in the backend
+     */
+    public boolean removeMovie(MovieInterface movie);
+
+    /**
+     * Changes the duration of a movie. The movie is replaced by a movie with the same title,
+     * genre, country and year and the new duration, which queries return from then on.
+     * @param movie the movie to change, as returned by a query
+     * @param newDuration the new duration in minutes
+     * @return the movie with the new duration
+     * @throws java.util.NoSuchElementException when the movie is not in the backend
+     */
+    public MovieInterface updateDuration(MovieInterface movie, int newDuration);
 }
 
@@ -14,6 +14,27 @@ public class BackendIterableMultiKeySortedCollection <T extends Comparable<T>> i
         return true;
     }
 
+    /**
+     * Removes the first key in the placeholder list that is equal to key.
+     * @param key object to remove
+     * @return true if key was removed
+     */
+    @Override
+    public boolean removeSingleKey(T key) {
+        return placeHolder.remove(key);
+    }
+
+    /**
+     * Inserts all keys into the placeholder list.
+     * @param keys the keys to insert
+     */
+    @Override
+    public void bulkLoad(Iterable<T> keys) {
+        for (T key : keys) {
+            insertSingleKey(key);
+        }
+    }
+
     /**
      * @return the number of values in the tree.
      */
@@ -30,6 +51,92 @@ public class BackendIterableMultiKeySortedCollection <T extends Comparable<T>> i
         return placeHolder.iterator();
     }
 
+    /**
+     * Returns an iterator over the keys between two bounds, by filtering the placeholder list.
+     */
+    @Override
+    public Iterator<T> iterator(Comparable<T> lowerBound, boolean lowerInclusive,
+                                Comparable<T> upperBound, boolean upperInclusive) {
+        ArrayList<T> keysInRange = new ArrayList<>();
+        for (T key : placeHolder) {
+            int compareLower = lowerBound == null ? -1 : lowerBound.compareTo(key);
+            int compareUpper = upperBound == null ? 1 : upperBound.compareTo(key);
+            if ((compareLower < 0 || (lowerInclusive && compareLower == 0))
+                    && (compareUpper > 0 || (upperInclusive && compareUpper == 0))) {
+                keysInRange.add(key);
+            }
+        }
+        return keysInRange.iterator();
+    }
+
+    /**
+     * Returns an iterator over a stable sorted copy of the placeholder list, that starts at a
+     * position among the keys equal to startKey.
+     */
+    @Override
+    public Iterator<T> iterator(Comparable<T> startKey, int startIndex, Comparable<T> upperBound,
+                                boolean upperInclusive) {
+        ArrayList<T> sortedKeys = new ArrayList<>(placeHolder);
+        sortedKeys.sort(null);
+        ArrayList<T> keysInRange = new ArrayList<>();
+        int equalKeys = 0;
+        for (T key : sortedKeys) {
+            int compareStart = startKey == null ? -1 : startKey.compareTo(key);
+            int compareUpper = upperBound == null ? 1 : upperBound.compareTo(key);
+            if (compareStart == 0 && equalKeys++ < startIndex) {
+                continue;
+            }
+            if (compareStart <= 0 && (compareUpper > 0 || (upperInclusive && compareUpper == 0))) {
+                keysInRange.add(key);
+            }
+        }
+        return keysInRange.iterator();
+    }
+
+    /**
+     * Returns an iterator over a sorted copy of the placeholder list, from the largest key to
+     * the smallest.
+     */
+    @Override
+    public Iterator<T> descendingIterator() {
+        ArrayList<T> sortedKeys = new ArrayList<>(placeHolder);
+        sortedKeys.sort(java.util.Collections.reverseOrder());
+        return sortedKeys.iterator();
+    }
+
+    /**
+     * Counts the keys between two bounds by iterating over the keys in that range.
+     */
+    @Override
+    public int countInRange(Comparable<T> lowerBound, boolean lowerInclusive,
+                            Comparable<T> upperBound, boolean upperInclusive) {
+        int count = 0;
+        Iterator<T> iterator = iterator(lowerBound, lowerInclusive, upperBound, upperInclusive);
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Counts the keys smaller than key in the placeholder list.
+     */
+    @Override
+    public int rank(Comparable<T> key) {
+        return countInRange(null, true, key, false);
+    }
+
+    /**
+     * Returns the key at an index of a stable sorted copy of the placeholder list.
+     */
+    @Override
+    public T select(int index) {
+        ArrayList<T> sortedKeys = new ArrayList<>(placeHolder);
+        sortedKeys.sort(null);
+        return sortedKeys.get(index);
+    }
+
     /**
      * Sets the starting point for iterations. Future iterations will start at the
      * starting point or the key closest to it in the tree. This setting is remembered
@@ -61,6 +168,14 @@ public class BackendIterableMultiKeySortedCollection <T extends Comparable<T>> i
         }
     }
 
+    /**
+     * Removes all keys that compare equal to data from the placeholder list
+     * @param data the data to be removed
+     */
+    public boolean remove(Comparable<KeyListInterface<T>> data) {
+        return placeHolder.removeIf(key -> data.compareTo(new KeyList<>(key)) == 0);
+    }
+
     /**
      * Size of the tree
      */
@@ -1,6 +1,7 @@
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Stream;
 
 
 public class BackendPlaceholderForFrontend implements BackendInterface {
@@ -39,4 +40,119 @@ public class BackendPlaceholderForFrontend implements BackendInterface {
 
         return movies;
     }
+
+    @Override
+    public List<MovieInterface> getMoviesFromYears(int minYear, int maxYear) {
+        ArrayList<MovieInterface> movies = new ArrayList<>();
+        Movie m1 = new Movie("toystory", "kids", "Usa", 2006, 90);
+        movies.add(m1);
+
+        return movies;
+    }
+
+    @Override
+    public List<MovieInterface> getMoviesWithGenre(String genre) {
+        ArrayList<MovieInterface> movies = new ArrayList<>();
+        Movie m1 = new Movie("toystory", "kids", "Usa", 2006, 90);
+        movies.add(m1);
+
+        return movies;
+    }
+
+    @Override
+    public List<MovieInterface> getMoviesFromCountry(String country) {
+        ArrayList<MovieInterface> movies = new ArrayList<>();
+        Movie m1 = new Movie("toystory", "kids", "Usa", 2006, 90);
+        movies.add(m1);
+
+        return movies;
+    }
+
+    @Override
+    public List<MovieInterface> getMoviesWithTitleWords(String words) {
+        ArrayList<MovieInterface> movies = new ArrayList<>();
+        Movie m1 = new Movie("toystory", "kids", "Usa", 2006, 90);
+        movies.add(m1);
+
+        return movies;
+    }
+
+    @Override
+    public List<MovieInterface> getMoviesWithAnyTitleWord(String words) {
+        ArrayList<MovieInterface> movies = new ArrayList<>();
+        Movie m1 = new Movie("toystory", "kids", "Usa", 2006, 90);
+        movies.add(m1);
+
+        return movies;
+    }
+
+    @Override
+    public List<MovieInterface> findMovies(MovieQuery query) {
+        ArrayList<MovieInterface> movies = new ArrayList<>();
+        Movie m1 = new Movie("toystory", "kids", "Usa", 2006, 90);
+        movies.add(m1);
+
+        return movies;
+    }
+
+    @Override
+    public String explainQuery(MovieQuery query) {
+        return "placeholder, filter: " + query;
+    }
+
+    @Override
+    public boolean removeMovie(MovieInterface movie) {
+        return true;
+    }
+
+    @Override
+    public MovieInterface updateDuration(MovieInterface movie, int newDuration) {
+        return new Movie(movie.getTitle(), movie.getGenre(), movie.getCountry(), movie.getYear(),
+                newDuration);
+    }
+
+    @Override
+    public Stream<MovieInterface> streamMoviesWithMinDuration(int minLength) {
+        return getMoviesWithMinDuration(minLength).stream();
+    }
+
+    @Override
+    public Stream<MovieInterface> streamMoviesWithinRange(int minLength, int maxLength) {
+        return getMoviesWithinRange(minLength, maxLength).stream();
+    }
+
+    @Override
+    public MoviePage getMoviesWithMinDuration(int minLength, int limit, String cursor) {
+        return new MoviePage(getMoviesWithMinDuration(minLength), null);
+    }
+
+    @Override
+    public MoviePage getMoviesWithinRange(int minLength, int maxLength, int limit, String cursor) {
+        return new MoviePage(getMoviesWithinRange(minLength, maxLength), null);
+    }
+
+    @Override
+    public List<MovieInterface> getLongestMovies(int k) {
+        return getMoviesWithMinDuration(0);
+    }
+
+    @Override
+    public List<MovieInterface> getShortestMovies(int k) {
+        return getMoviesWithMinDuration(0);
+    }
+
+    @Override
+    public int countMoviesWithMinDuration(int minLength) {
+        return getMoviesWithMinDuration(minLength).size();
+    }
+
+    @Override
+    public int countMoviesWithinRange(int minLength, int maxLength) {
+        return getMoviesWithinRange(minLength, maxLength).size();
+    }
+
+    @Override
+    public int getDurationPercentile(double percentile) {
+        return 90;
+    }
 }
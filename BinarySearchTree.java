@@ -149,8 +149,12 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
 
             //Sets parents left node to child's right node
             parent.down[0] = child.down[1];
+            if (parent.down[0] != null) {
+                parent.down[0].up = parent;
+            }
             //Sets child's right node to parent node
             child.down[1] = parent;
+            parent.up = child;
 
             //Else left rotation
         } else {
@@ -168,8 +172,12 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
 
             //Sets parents right node to child's left node
             parent.down[1] = child.down[0];
+            if (parent.down[1] != null) {
+                parent.down[1].up = parent;
+            }
             //Sets child's left node to parent
             child.down[0] = parent;
+            parent.up = child;
         }
 
         //Sets child to root
@@ -188,6 +196,31 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
         return size;
     }
 
+    /**
+     * Get the height of the tree, which is the number of nodes on the longest path from the root
+     * down to a leaf.
+     *
+     * @return the height of the tree, 0 if the tree is empty
+     */
+    public int height() {
+        if (this.root == null) {
+            return 0;
+        }
+        // level order traversal that counts the levels of the tree
+        int height = 0;
+        LinkedList<Node<T>> level = new LinkedList<>();
+        level.add(this.root);
+        while (!level.isEmpty()) {
+            height++;
+            for (int i = level.size(); i > 0; i--) {
+                Node<T> next = level.removeFirst();
+                if (next.down[0] != null) level.add(next.down[0]);
+                if (next.down[1] != null) level.add(next.down[1]);
+            }
+        }
+        return height;
+    }
+
     /**
      * Method to check if the tree is empty (does not contain any node).
      *
@@ -214,6 +247,55 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
         }
     }
 
+    /**
+     * Removes the value *data* from the tree.
+     *
+     * @param data a comparable for the data value to remove
+     * @return true if *data* was removed, false if it was not in the tree
+     * @throws NullPointerException when the provided data argument is null
+     */
+    public boolean remove(Comparable<T> data) throws NullPointerException {
+        if (data == null)
+            throw new NullPointerException("This tree cannot store null references.");
+        Node<T> nodeWithData = this.findNode(data);
+        if (nodeWithData == null) {
+            return false;
+        }
+        this.removeNode(nodeWithData);
+        return true;
+    }
+
+    /**
+     * Removes a node from the tree. A node with two children takes over the data of its in-order
+     * successor, which has no left child, and the node of the successor is removed instead. The
+     * removed node is replaced by its only child, or by null if it is a leaf.
+     *
+     * @param node the node to remove
+     */
+    protected void removeNode(Node<T> node) {
+        if (node.down[0] != null && node.down[1] != null) {
+            Node<T> successor = node.down[1];
+            while (successor.down[0] != null) {
+                successor = successor.down[0];
+            }
+            node.data = successor.data;
+            node = successor;
+        }
+        Node<T> child = node.down[0] != null ? node.down[0] : node.down[1];
+        if (child != null) {
+            child.up = node.up;
+        }
+        if (node.up == null) {
+            root = child;
+        } else {
+            node.up.down[node.isRightChild() ? 1 : 0] = child;
+        }
+        node.up = null;
+        node.down[0] = null;
+        node.down[1] = null;
+        size--;
+    }
+
     /**
      * Removes all keys from the tree.
      */
@@ -0,0 +1,396 @@
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Read-only movie catalog that stores its movies as columns instead of one object per movie.
+ * Durations, years, genres and countries are int columns, where genres and countries are codes of
+ * the dictionary of Movie, and the titles are packed as UTF-8 into one byte array with an array
+ * of the offset of every title. The rows are sorted by duration, and movies with the same
+ * duration keep the order they were added in, so the row order is the order of the movie tree.
+ *
+ * Range scans and aggregations run over the int columns: a duration range is found with two
+ * binary searches over the duration column, and the rows in between are read from consecutive
+ * array slots without touching any other memory. Movies are returned as flyweight views that
+ * only hold the store and a row, and read their fields from the columns. A view is created for
+ * every movie that is returned, so views are cheap, but getTitle decodes a new String on every
+ * call.
+ */
+public class ColumnarMovieStore {
+    private final int size;
+    private final int[] durations;
+    private final int[] years;
+    private final int[] genres;
+    private final int[] countries;
+    //UTF-8 bytes of all titles, the title of row i starts at titleOffsets[i] and ends at
+    //titleOffsets[i + 1]
+    private final byte[] titles;
+    private final int[] titleOffsets;
+
+    private ColumnarMovieStore(int size, int[] durations, int[] years, int[] genres,
+                               int[] countries, byte[] titles, int[] titleOffsets) {
+        this.size = size;
+        this.durations = durations;
+        this.years = years;
+        this.genres = genres;
+        this.countries = countries;
+        this.titles = titles;
+        this.titleOffsets = titleOffsets;
+    }
+
+    /**
+     * Collects movies into growing columns and sorts them into a store.
+     */
+    public static class Builder {
+        private int size = 0;
+        private int[] durations = new int[16];
+        private int[] years = new int[16];
+        private int[] genres = new int[16];
+        private int[] countries = new int[16];
+        private byte[] titles = new byte[256];
+        private int[] titleEnds = new int[16];
+        private int titlesLength = 0;
+
+        /**
+         * Adds a movie to the store. Only the fields of the movie are copied, and a null title
+         * is stored as an empty title.
+         * @param movie the movie to add
+         */
+        public void add(MovieInterface movie) {
+            if (size == durations.length) {
+                int capacity = 2 * size;
+                durations = Arrays.copyOf(durations, capacity);
+                years = Arrays.copyOf(years, capacity);
+                genres = Arrays.copyOf(genres, capacity);
+                countries = Arrays.copyOf(countries, capacity);
+                titleEnds = Arrays.copyOf(titleEnds, capacity);
+            }
+            byte[] title = movie.getTitle() == null ? new byte[0]
+                    : movie.getTitle().getBytes(StandardCharsets.UTF_8);
+            if (titlesLength + title.length > titles.length) {
+                titles = Arrays.copyOf(titles, Math.max(2 * titles.length,
+                        titlesLength + title.length));
+            }
+            System.arraycopy(title, 0, titles, titlesLength, title.length);
+            titlesLength += title.length;
+            durations[size] = movie.getDuration();
+            years[size] = movie.getYear();
+            genres[size] = Movie.VALUES.code(movie.getGenre());
+            countries[size] = Movie.VALUES.code(movie.getCountry());
+            titleEnds[size] = titlesLength;
+            size++;
+        }
+
+        /**
+         * Sorts the rows by duration and creates the store. Rows with the same duration keep the
+         * order they were added in.
+         * @return the store
+         */
+        public ColumnarMovieStore build() {
+            int[] order = sortByDuration(durations, size);
+            int[] sortedDurations = new int[size];
+            int[] sortedYears = new int[size];
+            int[] sortedGenres = new int[size];
+            int[] sortedCountries = new int[size];
+            byte[] sortedTitles = new byte[titlesLength];
+            int[] titleOffsets = new int[size + 1];
+            for (int row = 0; row < size; row++) {
+                int added = order[row];
+                sortedDurations[row] = durations[added];
+                sortedYears[row] = years[added];
+                sortedGenres[row] = genres[added];
+                sortedCountries[row] = countries[added];
+                int titleStart = added == 0 ? 0 : titleEnds[added - 1];
+                int titleLength = titleEnds[added] - titleStart;
+                System.arraycopy(titles, titleStart, sortedTitles, titleOffsets[row],
+                        titleLength);
+                titleOffsets[row + 1] = titleOffsets[row] + titleLength;
+            }
+            return new ColumnarMovieStore(size, sortedDurations, sortedYears, sortedGenres,
+                    sortedCountries, sortedTitles, titleOffsets);
+        }
+    }
+
+    /**
+     * Creates a store of movies.
+     * @param movies the movies to store
+     * @return the store
+     */
+    public static ColumnarMovieStore of(Iterable<? extends MovieInterface> movies) {
+        Builder builder = new Builder();
+        for (MovieInterface movie : movies) {
+            builder.add(movie);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Reads a movie csv file into a store with MovieCsvParser. The parsed movies are only kept
+     * until their fields are copied into the columns.
+     * @param file the csv file to read
+     * @return the store
+     * @throws FileNotFoundException when the file cannot be read
+     */
+    public static ColumnarMovieStore read(String file) throws FileNotFoundException {
+        Builder builder = new Builder();
+        try (InputStream input = new FileInputStream(file)) {
+            MovieCsvParser.parse(input, builder::add);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new FileNotFoundException("Could not read " + file + ": " + e.getMessage());
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the number of movies in the store
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param row the row of the movie, 0 for the shortest movie
+     * @return a view of the movie in a row
+     * @throws IndexOutOfBoundsException when row is negative or not smaller than size()
+     */
+    public MovieInterface get(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size + " rows");
+        }
+        return new MovieView(this, row);
+    }
+
+    /**
+     * Returns the first row whose duration is at least minDuration, with a binary search over
+     * the duration column.
+     * @param minDuration the smallest duration
+     * @return the first row with that duration or longer, size() if there is none
+     */
+    public int firstRow(int minDuration) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (durations[middle] < minDuration) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Gets the movies with a duration between two lengths, both included, in the order of the
+     * rows. The list is a view of the rows in between, which creates the movies as they are read.
+     * @param minLength the minimum length the movie should be
+     * @param maxLength the maximum length the movie should be
+     * @return list of movies within the range
+     */
+    public List<MovieInterface> getMoviesWithinRange(int minLength, int maxLength) {
+        int start = firstRow(minLength);
+        int end = maxLength == Integer.MAX_VALUE ? size : Math.max(start, firstRow(maxLength + 1));
+        return new RowList(start, end);
+    }
+
+    /**
+     * Counts the movies with a duration between two lengths, both included, with two binary
+     * searches.
+     */
+    public int countWithinRange(int minLength, int maxLength) {
+        int start = firstRow(minLength);
+        int end = maxLength == Integer.MAX_VALUE ? size : firstRow(maxLength + 1);
+        return Math.max(end - start, 0);
+    }
+
+    /**
+     * Returns the average year of the movies with a duration between two lengths. Reads only the
+     * year column between the rows of the range.
+     * @return the average year, or NaN when no movie is in the range
+     */
+    public double averageYearWithinRange(int minLength, int maxLength) {
+        int start = firstRow(minLength);
+        int end = maxLength == Integer.MAX_VALUE ? size : firstRow(maxLength + 1);
+        long sum = 0;
+        for (int row = start; row < end; row++) {
+            sum += years[row];
+        }
+        return end > start ? sum / (double) (end - start) : Double.NaN;
+    }
+
+    /**
+     * Returns the average duration of the movies made between two years, both included, by a
+     * scan over the year and duration columns.
+     * @return the average duration in minutes, or NaN when no movie is from these years
+     */
+    public double averageDurationFromYears(int minYear, int maxYear) {
+        long sum = 0;
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            int year = years[row];
+            if (year >= minYear && year <= maxYear) {
+                sum += durations[row];
+                count++;
+            }
+        }
+        return count > 0 ? sum / (double) count : Double.NaN;
+    }
+
+    /**
+     * Counts the movies that list a genre, by a scan over the genre column that compares the
+     * codes of the genres. Whether a genre code lists the genre is looked up once per code.
+     * @param genre the genre, compared ignoring case and surrounding whitespace
+     * @return the number of movies with the genre
+     */
+    public int countWithGenre(String genre) {
+        int keyCode = Movie.VALUES.find(MovieQuery.normalize(genre));
+        if (keyCode == StringDictionary.NULL_CODE) {
+            return 0;
+        }
+        //0 for codes that were not looked up yet, 1 for codes with the genre, 2 for the others
+        byte[] hasGenre = new byte[Movie.VALUES.size()];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            int code = genres[row];
+            if (code == StringDictionary.NULL_CODE) {
+                continue;
+            }
+            if (hasGenre[code] == 0) {
+                hasGenre[code] = (byte) (Movie.VALUES.hasKey(code, keyCode) ? 1 : 2);
+            }
+            if (hasGenre[code] == 1) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sorts the rows by duration with a stable least significant digit radix sort over the two
+     * halves of the durations, which takes linear time.
+     * @return the index of the row that goes to each position
+     */
+    private static int[] sortByDuration(int[] durations, int size) {
+        int[] order = new int[size];
+        int[] buffer = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        for (int shift = 0; shift < 32; shift += 16) {
+            int[] counts = new int[(1 << 16) + 1];
+            for (int i = 0; i < size; i++) {
+                counts[digit(durations[order[i]], shift) + 1]++;
+            }
+            for (int i = 0; i < 1 << 16; i++) {
+                counts[i + 1] += counts[i];
+            }
+            for (int i = 0; i < size; i++) {
+                buffer[counts[digit(durations[order[i]], shift)]++] = order[i];
+            }
+            int[] sorted = buffer;
+            buffer = order;
+            order = sorted;
+        }
+        return order;
+    }
+
+    /**
+     * @return 16 bits of a duration, with the sign bit flipped so that negative durations sort
+     *         first
+     */
+    private static int digit(int duration, int shift) {
+        return ((duration ^ Integer.MIN_VALUE) >>> shift) & 0xFFFF;
+    }
+
+    /**
+     * List of the movies in the rows from start to end.
+     */
+    private class RowList extends AbstractList<MovieInterface> implements RandomAccess {
+        private final int start;
+        private final int end;
+
+        private RowList(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public MovieInterface get(int index) {
+            if (index < 0 || index >= end - start) {
+                throw new IndexOutOfBoundsException("Index " + index + " of " + size());
+            }
+            return new MovieView(ColumnarMovieStore.this, start + index);
+        }
+
+        @Override
+        public int size() {
+            return end - start;
+        }
+    }
+
+    /**
+     * Flyweight movie that reads its fields from a row of the store. Two views are equal when
+     * they show the same row of the same store.
+     */
+    private static class MovieView implements MovieInterface {
+        private final ColumnarMovieStore store;
+        private final int row;
+
+        private MovieView(ColumnarMovieStore store, int row) {
+            this.store = store;
+            this.row = row;
+        }
+
+        @Override
+        public String getTitle() {
+            int start = store.titleOffsets[row];
+            return new String(store.titles, start, store.titleOffsets[row + 1] - start,
+                    StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String getGenre() {
+            return Movie.VALUES.value(store.genres[row]);
+        }
+
+        @Override
+        public String getCountry() {
+            return Movie.VALUES.value(store.countries[row]);
+        }
+
+        @Override
+        public int getYear() {
+            return store.years[row];
+        }
+
+        @Override
+        public int getDuration() {
+            return store.durations[row];
+        }
+
+        @Override
+        public int compareTo(MovieInterface other) {
+            return Integer.compare(getDuration(), other.getDuration());
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof MovieView && ((MovieView) other).store == store
+                    && ((MovieView) other).row == row;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(store) + row;
+        }
+    }
+
+}
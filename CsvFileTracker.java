@@ -0,0 +1,221 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * Tracks the rows of a csv file that is appended to and edited while it is used, so that a
+ * refresh only returns the rows that were added, removed or changed since the previous refresh.
+ * Every row is identified by the id in its first field, or by its title and year when that field
+ * is empty, and a later row with the same id replaces an earlier one. A row counts as changed
+ * when the movie parsed from it differs in title, genre, country, year or duration, the other
+ * columns of the file are not part of the movies and are ignored.
+ *
+ * A refresh that finds the file with the size and modification time of the previous refresh
+ * returns no changes without reading it. Otherwise it checks whether the file was only appended
+ * to: it did not shrink, and the CRC32 checksum of all bytes that were read before is unchanged,
+ * so an edit anywhere in them is found, also one that keeps the length of its row. The checksum
+ * runs over the memory-mapped file without parsing it or creating any objects, and continues over
+ * the appended part. Only the records after the last complete record that was read before are
+ * parsed, so parsing an append costs the size of the appended part and not of the whole file.
+ * Any other change parses the whole file and compares all of its rows to the tracked ones. A last
+ * record without a line break may still be being written, so it is read, but parsed again by the
+ * next refresh.
+ *
+ * A tracker is not thread safe, refreshes of one file have to come from one thread at a time.
+ */
+public class CsvFileTracker {
+    //Largest part of the file that is mapped at once
+    private static final long MAX_MAPPED_SIZE = 1L << 30;
+
+    private final Path file;
+    //movies of the rows read so far, by the id of their row
+    private final Map<String, MovieInterface> rows = new HashMap<>();
+    //offset after the last complete record that was read, and the checksum of the bytes before it
+    private long trackedEnd = 0;
+    private long trackedChecksum = 0;
+    //size and modification time of the file at the previous refresh
+    private long trackedSize = -1;
+    private FileTime trackedModified = null;
+
+    /**
+     * Creates a tracker for a file that has not been read yet, so the first refresh returns all
+     * of its rows as added.
+     * @param file the csv file to track
+     */
+    public CsvFileTracker(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * The rows of a file that changed between two refreshes. A changed row appears with its old
+     * movie in the removed movies and with its new movie in the added movies.
+     */
+    public static class Changes {
+        private final List<MovieInterface> added;
+        private final List<MovieInterface> removed;
+        private final boolean appendOnly;
+
+        private Changes(List<MovieInterface> added, List<MovieInterface> removed,
+                        boolean appendOnly) {
+            this.added = added;
+            this.removed = removed;
+            this.appendOnly = appendOnly;
+        }
+
+        /**
+         * @return the movies of the new and changed rows, in the order of the file
+         */
+        public List<MovieInterface> getAdded() {
+            return added;
+        }
+
+        /**
+         * @return the movies that the removed and changed rows had before
+         */
+        public List<MovieInterface> getRemoved() {
+            return removed;
+        }
+
+        /**
+         * @return true if only the appended part of the file was parsed
+         */
+        public boolean isAppendOnly() {
+            return appendOnly;
+        }
+
+        /**
+         * @return true if no row was added, removed or changed
+         */
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    /**
+     * Reads the changes of the file since the previous refresh, and tracks the rows it has now.
+     * @return the added, removed and changed rows
+     * @throws IOException when the file cannot be read, the tracked rows are unchanged then
+     */
+    public Changes refresh() throws IOException {
+        //The time is read before the size, so an append in between changes it for the next refresh
+        FileTime modified = Files.getLastModifiedTime(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == trackedSize && modified.equals(trackedModified)) {
+                return new Changes(new ArrayList<>(), new ArrayList<>(), true);
+            }
+            Changes changes = null;
+            if (trackedEnd > 0 && size >= trackedEnd) {
+                CRC32 checksum = new CRC32();
+                update(checksum, channel, 0, trackedEnd);
+                if (checksum.getValue() == trackedChecksum) {
+                    changes = read(channel, trackedEnd, size, checksum);
+                }
+            }
+            if (changes == null) {
+                changes = read(channel, 0, size, new CRC32());
+            }
+            trackedSize = size;
+            trackedModified = modified;
+            return changes;
+        }
+    }
+
+    /**
+     * Parses the records of the file from an offset and compares them to the tracked rows. Rows
+     * that are not in the parsed part are only removed when the whole file was parsed.
+     * @param channel the open file
+     * @param start 0 to parse the whole file, or the end of the records that were read before
+     * @param size the size of the file
+     * @param checksum the checksum of the bytes before start, which is continued over the records
+     *                 that are parsed
+     * @return the changes of the rows
+     */
+    private Changes read(FileChannel channel, long start, long size, CRC32 checksum)
+            throws IOException {
+        boolean appendOnly = start > 0;
+        //Rows of the parsed part, a later row replaces an earlier one with the same id
+        Map<String, MovieInterface> parsed = new LinkedHashMap<>();
+        MovieCsvParser parser = MovieCsvParser.withRowIds(
+                (id, movie) -> parsed.put(rowId(id, movie), movie), !appendOnly);
+        for (long position = start; position < size; position += MAX_MAPPED_SIZE) {
+            parser.parse(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(MAX_MAPPED_SIZE, size - position)));
+        }
+        parser.finish();
+
+        List<MovieInterface> added = new ArrayList<>();
+        List<MovieInterface> removed = new ArrayList<>();
+        for (Map.Entry<String, MovieInterface> row : parsed.entrySet()) {
+            MovieInterface old = rows.get(row.getKey());
+            if (old != null && sameMovie(old, row.getValue())) {
+                continue;
+            }
+            if (old != null) {
+                removed.add(old);
+            }
+            added.add(row.getValue());
+            rows.put(row.getKey(), row.getValue());
+        }
+        if (!appendOnly) {
+            rows.entrySet().removeIf(row -> {
+                if (parsed.containsKey(row.getKey())) {
+                    return false;
+                }
+                removed.add(row.getValue());
+                return true;
+            });
+        }
+
+        trackedEnd = start + parser.completeRecordsEnd();
+        update(checksum, channel, start, trackedEnd);
+        trackedChecksum = checksum.getValue();
+        return new Changes(added, removed, appendOnly);
+    }
+
+    /**
+     * Updates a CRC32 checksum with the bytes of the file from start up to end
+     */
+    private static void update(CRC32 checksum, FileChannel channel, long start, long end)
+            throws IOException {
+        for (long position = start; position < end; position += MAX_MAPPED_SIZE) {
+            checksum.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(MAX_MAPPED_SIZE, end - position)));
+        }
+    }
+
+    /**
+     * @return the id of a row, its title and year when the first field of the row is empty
+     */
+    private static String rowId(String id, MovieInterface movie) {
+        return id.isEmpty() ? movie.getTitle() + "\u0000" + movie.getYear() : id;
+    }
+
+    /**
+     * @return true if both movies have the same title, genre, country, year and duration
+     */
+    private static boolean sameMovie(MovieInterface a, MovieInterface b) {
+        return a.getDuration() == b.getDuration() && a.getYear() == b.getYear()
+                && Objects.equals(a.getTitle(), b.getTitle())
+                && Objects.equals(a.getGenre(), b.getGenre())
+                && Objects.equals(a.getCountry(), b.getCountry());
+    }
+
+    /**
+     * @return the number of rows that are tracked
+     */
+    public int numRows() {
+        return rows.size();
+    }
+
+}
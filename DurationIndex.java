@@ -0,0 +1,771 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Multi-key collection of movies that is specialized for their durations. Instead of a tree of
+ * KeyLists that is searched with compareTo, the index keeps three parallel arrays sorted by
+ * duration: the distinct durations as ints, the list of the movies of each duration, and the
+ * number of movies up to and including each list. Finding a duration is a binary search over the
+ * int array that compares ints directly, and iterating walks the lists one after the other, so
+ * neither needs a call to compareTo or getDuration. Counting, rank and select are binary searches
+ * over the running counts.
+ *
+ * Movies are ordered by getDuration, which is the order of Movie.compareTo. Bounds that are
+ * created with bound(duration), or that are movies, are compared as ints, all other bounds are
+ * compared with compareTo against the first movie of each list.
+ *
+ * Adding a movie to a duration that is already in the index appends it to the list of the
+ * duration, but has to update the running counts after it, and a new duration moves the arrays
+ * after it. Both take time linear in the number of distinct durations, which is small for movie
+ * durations, so the index is not meant for keys that are different for most movies.
+ *
+ * Subclasses can store the movies of a duration differently by overriding newList, and release
+ * the lists that are removed by overriding releaseList, like OffHeapMovieStore does.
+ */
+public class DurationIndex implements IterableMultiKeySortedCollectionInterface<MovieInterface> {
+    private static final int INITIAL_CAPACITY = 16;
+
+    //Sorted distinct durations, the list of the movies of each duration, and the number of movies
+    //in the lists up to and including each list. Only the first size slots are in use
+    private int[] durations = new int[INITIAL_CAPACITY];
+    private KeyListInterface<MovieInterface>[] lists = newLists(INITIAL_CAPACITY);
+    private int[] ends = new int[INITIAL_CAPACITY];
+    private int size = 0;
+    private Comparable<MovieInterface> iterationStartPoint;
+
+    /**
+     * Bound that orders a duration like a movie of that duration. The index compares it to its
+     * durations as an int.
+     */
+    public static class Bound implements Comparable<MovieInterface> {
+        private final int duration;
+
+        private Bound(int duration) {
+            this.duration = duration;
+        }
+
+        @Override
+        public int compareTo(MovieInterface movie) {
+            return Integer.compare(duration, movie.getDuration());
+        }
+    }
+
+    /**
+     * ArrayKeyList for the movies of one duration. The index only adds movies whose duration it
+     * has already compared, so addKey does not compare them again.
+     */
+    private static class DurationList extends ArrayKeyList<MovieInterface> {
+        private DurationList(MovieInterface firstKey) {
+            super(firstKey);
+        }
+
+        @Override
+        public void addKey(MovieInterface movie) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size + (size >> 1));
+            }
+            keys[size++] = movie;
+        }
+    }
+
+    /**
+     * Creates the list for the movies of a duration that is not in the index yet. The index only
+     * calls addKey on the list with movies of the same duration, and reads movies with get.
+     * @param firstKey the first movie of the duration
+     * @return a list that contains firstKey
+     */
+    protected KeyListInterface<MovieInterface> newList(MovieInterface firstKey) {
+        return new DurationList(firstKey);
+    }
+
+    /**
+     * Called when a list is removed from the index, with the movies it still has, which are
+     * none when its last movie was removed. clear does not call it for every list.
+     * @param list the list that was removed
+     */
+    protected void releaseList(KeyListInterface<MovieInterface> list) {
+    }
+
+    /**
+     * Creates a bound for iterating over and counting movies of a duration.
+     * @param duration the duration of the bound in minutes
+     * @return comparable that orders the duration like a movie of that duration
+     */
+    public static Bound bound(int duration) {
+        return new Bound(duration);
+    }
+
+    /**
+     * Inserts a movie by appending it to the list of its duration, and creates the list if the
+     * index does not have the duration yet.
+     * @param key movie to insert
+     * @return true if a new list was created, false if the movie was added to an existing list
+     */
+    @Override
+    public boolean insertSingleKey(MovieInterface key) {
+        if (key == null) {
+            throw new NullPointerException("Key is null");
+        }
+        int duration = key.getDuration();
+        int index = firstIndex(duration, false);
+        if (index < size && durations[index] == duration) {
+            lists[index].addKey(key);
+            addToEnds(index, 1);
+            return false;
+        }
+        insertList(index, duration, newList(key));
+        return true;
+    }
+
+    /**
+     * Inserts the movies of a KeyList as a new duration.
+     * @param data the KeyList to insert
+     * @return true if the KeyList was inserted, false if there is a list of its duration already
+     * @throws IllegalArgumentException when the KeyList is empty, so it has no duration
+     */
+    @Override
+    public boolean insert(KeyListInterface<MovieInterface> data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot insert data value null into the index.");
+        }
+        if (data.size() == 0) {
+            throw new IllegalArgumentException("Cannot insert an empty list into the index.");
+        }
+        int duration = data.firstKey().getDuration();
+        int index = firstIndex(duration, false);
+        if (index < size && durations[index] == duration) {
+            return false;
+        }
+        KeyListInterface<MovieInterface> list = null;
+        for (MovieInterface movie : data) {
+            if (list == null) {
+                list = newList(movie);
+            } else {
+                list.addKey(movie);
+            }
+        }
+        insertList(index, duration, list);
+        return true;
+    }
+
+    /**
+     * Removes one movie that is equal to key from the list of its duration, and removes the list
+     * when it is empty afterwards.
+     * @param key movie to remove
+     * @return true if key was removed, false if the index does not contain it
+     */
+    @Override
+    public boolean removeSingleKey(MovieInterface key) {
+        if (key == null) {
+            throw new NullPointerException("Key is null");
+        }
+        int duration = key.getDuration();
+        int index = firstIndex(duration, false);
+        if (index == size || durations[index] != duration || !lists[index].removeKey(key)) {
+            return false;
+        }
+        if (lists[index].size() == 0) {
+            removeList(index);
+        } else {
+            addToEnds(index, -1);
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the index has a list that compares equal to data.
+     */
+    @Override
+    public boolean contains(Comparable<KeyListInterface<MovieInterface>> data) {
+        return data != null && indexOf(data) >= 0;
+    }
+
+    /**
+     * Removes the whole list that compares equal to data.
+     * @return true if a list was removed
+     */
+    @Override
+    public boolean remove(Comparable<KeyListInterface<MovieInterface>> data) {
+        if (data == null) {
+            throw new NullPointerException("Cannot remove null from the index.");
+        }
+        int index = indexOf(data);
+        if (index < 0) {
+            return false;
+        }
+        removeList(index);
+        return true;
+    }
+
+    /**
+     * Inserts all movies. When the index is empty, the movies are sorted by duration with a
+     * stable sort and every run of the same duration becomes one list, otherwise every movie is
+     * inserted with insertSingleKey.
+     * @param keys the movies to insert
+     */
+    @Override
+    public void bulkLoad(Iterable<MovieInterface> keys) {
+        if (keys == null) {
+            throw new NullPointerException("Keys are null");
+        }
+        if (!isEmpty()) {
+            for (MovieInterface key : keys) {
+                insertSingleKey(key);
+            }
+            return;
+        }
+        List<MovieInterface> movies = new ArrayList<>();
+        for (MovieInterface key : keys) {
+            if (key == null) {
+                throw new NullPointerException("Key is null");
+            }
+            movies.add(key);
+        }
+        movies.sort(Comparator.comparingInt(MovieInterface::getDuration));
+        for (MovieInterface movie : movies) {
+            if (size > 0 && durations[size - 1] == movie.getDuration()) {
+                lists[size - 1].addKey(movie);
+                ends[size - 1]++;
+            } else {
+                insertList(size, movie.getDuration(), newList(movie));
+            }
+        }
+    }
+
+    /**
+     * @return the number of movies in the index
+     */
+    @Override
+    public int numKeys() {
+        return size == 0 ? 0 : ends[size - 1];
+    }
+
+    /**
+     * @return the number of distinct durations in the index
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all movies from the index
+     */
+    @Override
+    public void clear() {
+        durations = new int[INITIAL_CAPACITY];
+        lists = newLists(INITIAL_CAPACITY);
+        ends = new int[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Counts the movies between two bounds with two binary searches.
+     */
+    @Override
+    public int countInRange(Comparable<MovieInterface> lowerBound, boolean lowerInclusive,
+                            Comparable<MovieInterface> upperBound, boolean upperInclusive) {
+        int start = lowerBound == null ? 0 : start(firstIndex(lowerBound, !lowerInclusive));
+        int end = upperBound == null ? numKeys() : start(firstIndex(upperBound, upperInclusive));
+        return Math.max(end - start, 0);
+    }
+
+    /**
+     * Returns the number of movies that are shorter than key with a binary search.
+     */
+    @Override
+    public int rank(Comparable<MovieInterface> key) {
+        if (key == null) {
+            throw new NullPointerException("Key is null");
+        }
+        return start(firstIndex(key, false));
+    }
+
+    /**
+     * Returns the movie at an index of the in-order iteration, by a binary search for the list
+     * that contains it in the running counts.
+     */
+    @Override
+    public MovieInterface select(int index) {
+        if (index < 0 || index >= numKeys()) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + numKeys() + " keys");
+        }
+        int list = listAt(index);
+        return lists[list].get(index - start(list));
+    }
+
+    /**
+     * Returns an iterator over all movies in order, starting at the iteration start point.
+     */
+    @Override
+    public Iterator<MovieInterface> iterator() {
+        return new PositionIterator(iterationStartPoint == null ? 0
+                : start(firstIndex(iterationStartPoint, false)), numKeys());
+    }
+
+    /**
+     * Returns an iterator over the movies between two bounds. Both bounds are turned into
+     * positions of the in-order iteration, so the iteration does not compare any movie.
+     */
+    @Override
+    public Iterator<MovieInterface> iterator(Comparable<MovieInterface> lowerBound,
+                                             boolean lowerInclusive,
+                                             Comparable<MovieInterface> upperBound,
+                                             boolean upperInclusive) {
+        int start = lowerBound == null ? 0 : start(firstIndex(lowerBound, !lowerInclusive));
+        int end = upperBound == null ? numKeys() : start(firstIndex(upperBound, upperInclusive));
+        return new PositionIterator(start, Math.max(start, end));
+    }
+
+    /**
+     * Returns an iterator that resumes at a position within the list of startKey, or at the next
+     * longer duration when the index does not have its duration.
+     */
+    @Override
+    public Iterator<MovieInterface> iterator(Comparable<MovieInterface> startKey, int startIndex,
+                                             Comparable<MovieInterface> upperBound,
+                                             boolean upperInclusive) {
+        if (startIndex < 0) {
+            throw new IllegalArgumentException("Start index is negative");
+        }
+        int start = 0;
+        if (startKey != null) {
+            int list = firstIndex(startKey, false);
+            start = start(list);
+            if (list < size && startKey.compareTo(lists[list].firstKey()) == 0) {
+                start += Math.min(startIndex, lists[list].size());
+            }
+        }
+        int end = upperBound == null ? numKeys() : start(firstIndex(upperBound, upperInclusive));
+        return new PositionIterator(start, Math.max(start, end));
+    }
+
+    /**
+     * Returns an iterator from the longest duration to the shortest. Movies of the same duration
+     * are returned in the order they were inserted.
+     */
+    @Override
+    public Iterator<MovieInterface> descendingIterator() {
+        return new Iterator<MovieInterface>() {
+            private int list = size - 1;
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return list >= 0;
+            }
+
+            @Override
+            public MovieInterface next() {
+                if (list < 0) {
+                    throw new NoSuchElementException("No elements left");
+                }
+                MovieInterface movie = lists[list].get(index++);
+                if (index == lists[list].size()) {
+                    list--;
+                    index = 0;
+                }
+                return movie;
+            }
+        };
+    }
+
+    /**
+     * Returns a spliterator over all movies in order, starting at the iteration start point. It
+     * reports its exact size and splits the remaining positions in half.
+     */
+    @Override
+    public Spliterator<MovieInterface> spliterator() {
+        int start = iterationStartPoint == null ? 0 : rank(iterationStartPoint);
+        return new PositionSpliterator(start, numKeys());
+    }
+
+    /**
+     * Returns a spliterator over the movies between two bounds, see spliterator().
+     */
+    @Override
+    public Spliterator<MovieInterface> spliterator(Comparable<MovieInterface> lowerBound,
+                                                   boolean lowerInclusive,
+                                                   Comparable<MovieInterface> upperBound,
+                                                   boolean upperInclusive) {
+        int start = lowerBound == null ? 0 : start(firstIndex(lowerBound, !lowerInclusive));
+        int end = upperBound == null ? numKeys() : start(firstIndex(upperBound, upperInclusive));
+        return new PositionSpliterator(start, Math.max(start, end));
+    }
+
+    /**
+     * Sets the starting point for iterations, see IterableMultiKeySortedCollectionInterface.
+     * @param startPoint the start point to set for iterations
+     */
+    @Override
+    public void setIterationStartPoint(Comparable<MovieInterface> startPoint) {
+        iterationStartPoint = startPoint;
+    }
+
+    /**
+     * Returns the index of the first list whose duration is not smaller than a duration, or not
+     * smaller or equal when afterEqual is true.
+     */
+    private int firstIndex(int duration, boolean afterEqual) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (durations[middle] < duration || (afterEqual && durations[middle] == duration)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the first list that is not smaller than a bound, or not smaller or
+     * equal when afterEqual is true. Bounds with a known duration are searched as ints.
+     */
+    private int firstIndex(Comparable<MovieInterface> bound, boolean afterEqual) {
+        if (bound instanceof Bound) {
+            return firstIndex(((Bound) bound).duration, afterEqual);
+        }
+        if (bound instanceof MovieInterface) {
+            return firstIndex(((MovieInterface) bound).getDuration(), afterEqual);
+        }
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int compare = bound.compareTo(lists[middle].firstKey());
+            if (compare > 0 || (afterEqual && compare == 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the list that compares equal to data, or -1.
+     */
+    private int indexOf(Comparable<KeyListInterface<MovieInterface>> data) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int compare = data.compareTo(lists[middle]);
+            if (compare == 0) {
+                return middle;
+            } else if (compare > 0) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position of the first movie of a list in the in-order iteration, or the number
+     *         of movies when list is size
+     */
+    private int start(int list) {
+        return list == 0 ? 0 : ends[list - 1];
+    }
+
+    /**
+     * @return the index of the list that contains the movie at a position
+     */
+    private int listAt(int position) {
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (ends[middle] <= position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Adds to the running counts of a list and all lists after it.
+     */
+    private void addToEnds(int list, int count) {
+        for (int i = list; i < size; i++) {
+            ends[i] += count;
+        }
+    }
+
+    /**
+     * Inserts a list at an index and moves the lists after it back by one.
+     */
+    private void insertList(int index, int duration, KeyListInterface<MovieInterface> list) {
+        if (size == durations.length) {
+            durations = Arrays.copyOf(durations, 2 * size);
+            lists = Arrays.copyOf(lists, 2 * size);
+            ends = Arrays.copyOf(ends, 2 * size);
+        }
+        System.arraycopy(durations, index, durations, index + 1, size - index);
+        System.arraycopy(lists, index, lists, index + 1, size - index);
+        System.arraycopy(ends, index, ends, index + 1, size - index);
+        durations[index] = duration;
+        lists[index] = list;
+        ends[index] = start(index);
+        size++;
+        addToEnds(index, list.size());
+    }
+
+    /**
+     * Removes the list at an index and moves the lists after it forward by one.
+     */
+    private void removeList(int index) {
+        releaseList(lists[index]);
+        int removed = ends[index] - start(index);
+        System.arraycopy(durations, index + 1, durations, index, size - index - 1);
+        System.arraycopy(lists, index + 1, lists, index, size - index - 1);
+        System.arraycopy(ends, index + 1, ends, index, size - index - 1);
+        size--;
+        lists[size] = null;
+        addToEnds(index, -removed);
+    }
+
+    /**
+     * Creates an array for the lists of the index.
+     */
+    @SuppressWarnings("unchecked")
+    private static KeyListInterface<MovieInterface>[] newLists(int capacity) {
+        return (KeyListInterface<MovieInterface>[]) new KeyListInterface<?>[capacity];
+    }
+
+    /**
+     * Iterator over the movies between two positions of the in-order iteration. It walks the
+     * lists one after the other, and finds the first list with one binary search.
+     */
+    private class PositionIterator implements Iterator<MovieInterface> {
+        private int list;
+        private int index;
+        private int remaining;
+
+        private PositionIterator(int start, int end) {
+            this.remaining = end - start;
+            if (remaining > 0) {
+                this.list = listAt(start);
+                this.index = start - start(list);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public MovieInterface next() {
+            if (remaining <= 0) {
+                throw new NoSuchElementException("No elements left");
+            }
+            remaining--;
+            if (index == lists[list].size()) {
+                list++;
+                index = 0;
+            }
+            return lists[list].get(index++);
+        }
+    }
+
+    /**
+     * Spliterator over the movies between two positions of the in-order iteration. Splitting
+     * divides the remaining positions in half, and each half finds its first list once it is
+     * traversed.
+     */
+    private class PositionSpliterator implements Spliterator<MovieInterface> {
+        private int position;
+        private final int end;
+        private Iterator<MovieInterface> iterator;
+
+        private PositionSpliterator(int start, int end) {
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super MovieInterface> action) {
+            if (position >= end) {
+                return false;
+            }
+            if (iterator == null) {
+                iterator = new PositionIterator(position, end);
+            }
+            position++;
+            action.accept(iterator.next());
+            return true;
+        }
+
+        @Override
+        public Spliterator<MovieInterface> trySplit() {
+            if (end - position < 2 || iterator != null) {
+                return null;
+            }
+            int middle = position + (end - position) / 2;
+            Spliterator<MovieInterface> firstHalf = new PositionSpliterator(position, middle);
+            position = middle;
+            return firstHalf;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - position;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | NONNULL | SIZED | SUBSIZED;
+        }
+
+        /**
+         * Returns null, as the movies are sorted by their natural order.
+         */
+        @Override
+        public Comparator<? super MovieInterface> getComparator() {
+            return null;
+        }
+    }
+
+    /**
+     * Tests that random inserts and removes leave the index with the same movies, counts and
+     * iteration orders as IterableMultiKeyRBT.
+     */
+    @Test
+    public void testMatchesIterableMultiKeyRBT() {
+        for (int seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            DurationIndex index = new DurationIndex();
+            IterableMultiKeyRBT<MovieInterface> expected = new IterableMultiKeyRBT<>();
+            List<MovieInterface> movies = new ArrayList<>();
+            int maxDuration = seed < 10 ? 30 : 1000;
+            if (seed % 2 == 0) {
+                for (int i = 0; i < 300; i++) {
+                    movies.add(new Movie("Bulk " + i, "Drama", "USA", 2000,
+                            random.nextInt(maxDuration)));
+                }
+                index.bulkLoad(movies);
+                expected.bulkLoad(movies);
+            }
+            for (int i = 0; i < 1000; i++) {
+                if (random.nextInt(3) > 0 || movies.isEmpty()) {
+                    MovieInterface movie = new Movie("Movie " + i, "Drama", "USA", 2000,
+                            random.nextInt(maxDuration));
+                    movies.add(movie);
+                    assertEquals(expected.insertSingleKey(movie), index.insertSingleKey(movie));
+                } else {
+                    MovieInterface movie = movies.remove(random.nextInt(movies.size()));
+                    assertEquals(expected.removeSingleKey(movie), index.removeSingleKey(movie));
+                }
+                assertEquals(expected.size(), index.size());
+                assertEquals(expected.numKeys(), index.numKeys());
+            }
+            assertEquals(toList(expected.iterator()), toList(index.iterator()));
+            assertEquals(toList(expected.descendingIterator()), toList(index.descendingIterator()));
+            for (int i = 0; i < 50; i++) {
+                int low = random.nextInt(maxDuration);
+                int high = low + random.nextInt(maxDuration / 3);
+                boolean lowerInclusive = random.nextBoolean();
+                boolean upperInclusive = random.nextBoolean();
+                //Compares the int bounds and the generic bounds that use compareTo
+                Comparable<MovieInterface> genericLower =
+                        movie -> Integer.compare(low, movie.getDuration());
+                for (Comparable<MovieInterface> lower : List.of(bound(low), genericLower)) {
+                    Comparable<MovieInterface> upper = lower instanceof Bound ? bound(high)
+                            : movie -> Integer.compare(high, movie.getDuration());
+                    assertEquals(expected.countInRange(lower, lowerInclusive, upper,
+                            upperInclusive), index.countInRange(lower, lowerInclusive, upper,
+                            upperInclusive));
+                    assertEquals(toList(expected.iterator(lower, lowerInclusive, upper,
+                            upperInclusive)), toList(index.iterator(lower, lowerInclusive, upper,
+                            upperInclusive)));
+                    assertEquals(expected.rank(lower), index.rank(lower));
+                    int startIndex = random.nextInt(5);
+                    assertEquals(toList(expected.iterator(lower, startIndex, upper, true)),
+                            toList(index.iterator(lower, startIndex, upper, true)));
+                    assertEquals(expected.stream(lower, lowerInclusive, upper, upperInclusive)
+                            .collect(java.util.stream.Collectors.toList()),
+                            index.stream(lower, lowerInclusive, upper, upperInclusive).parallel()
+                                    .collect(java.util.stream.Collectors.toList()));
+                }
+            }
+            for (int i = 0; i < index.numKeys(); i++) {
+                assertTrue(expected.select(i) == index.select(i));
+            }
+            index.setIterationStartPoint(bound(maxDuration / 2));
+            expected.setIterationStartPoint(bound(maxDuration / 2));
+            assertEquals(toList(expected.iterator()), toList(index.iterator()));
+            assertEquals(expected.stream().collect(java.util.stream.Collectors.toList()),
+                    index.stream().collect(java.util.stream.Collectors.toList()));
+        }
+    }
+
+    /**
+     * Tests inserting and removing whole lists of a duration
+     */
+    @Test
+    public void testInsertAndRemoveLists() {
+        DurationIndex index = new DurationIndex();
+        KeyListInterface<MovieInterface> list = new ArrayKeyList<>(new Movie("a", "", "", 0, 90));
+        list.addKey(new Movie("b", "", "", 0, 90));
+        assertTrue(index.insert(list));
+        assertTrue(!index.insert(new ArrayKeyList<>(new Movie("c", "", "", 0, 90))));
+        MovieInterface removed = new Movie("e", "", "", 0, 30);
+        KeyListInterface<MovieInterface> empty = new ArrayKeyList<>(removed);
+        empty.removeKey(removed);
+        try {
+            index.insert(empty);
+            fail("Inserting an empty list should throw an exception");
+        } catch (IllegalArgumentException e) {
+            assertTrue(true);
+        }
+        assertTrue(index.insertSingleKey(new Movie("d", "", "", 0, 60)));
+        assertEquals(3, index.numKeys());
+        assertEquals(2, index.size());
+        Comparable<KeyListInterface<MovieInterface>> ninety =
+                other -> Integer.compare(90, other.firstKey().getDuration());
+        assertTrue(index.contains(ninety));
+        assertTrue(index.remove(ninety));
+        assertTrue(!index.contains(ninety));
+        assertEquals(1, index.numKeys());
+        assertEquals("d", index.select(0).getTitle());
+        index.clear();
+        assertTrue(index.isEmpty());
+        assertEquals(0, index.countInRange(null, true, null, true));
+    }
+
+    /**
+     * Collects the movies of an iterator into a list.
+     */
+    private static List<MovieInterface> toList(Iterator<MovieInterface> iterator) {
+        List<MovieInterface> movies = new ArrayList<>();
+        iterator.forEachRemaining(movies::add);
+        return movies;
+    }
+
+}
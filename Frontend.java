@@ -1,6 +1,7 @@
 import java.io.FileNotFoundException;
 import java.util.List;
 import java.util.Scanner;
+import java.util.stream.Stream;
 /*
  * A frontend for the movie timer app to select specific movies from a movie dataset.
  */
@@ -56,7 +57,8 @@ public class Frontend implements FrontendInterface {
                 System.out.println("Please enter a minimum movie duration (minutes): ");
                 int minLength = scanner.nextInt();
 
-                List<MovieInterface> moviesWithMinDuration = backend.getMoviesWithMinDuration(minLength);
+                // Movies are printed as the backend finds them, without collecting them first
+                Stream<MovieInterface> moviesWithMinDuration = backend.streamMoviesWithMinDuration(minLength);
 
                 System.out.println("Movies with a minimum duration of " + minLength + " minutes:");
                 printMoviesWithMinDuration(moviesWithMinDuration);
@@ -79,7 +81,7 @@ public class Frontend implements FrontendInterface {
                 }
 		
                 // Now call backend to get the movies in that range
-                List<MovieInterface> moviesInRange = backend.getMoviesWithinRange(lower, upper);
+                Stream<MovieInterface> moviesInRange = backend.streamMoviesWithinRange(lower, upper);
                 System.out.println("Movies between " + lower + " minutes and " + upper + " minutes:");
                 printMoviesBetweenRange(moviesInRange);
 
@@ -105,6 +107,14 @@ public class Frontend implements FrontendInterface {
     }
 
 
+    /**
+     * A method to print a stream of movies with a minimum duration, one movie at a time.
+     */
+    public static void printMoviesWithMinDuration(Stream<MovieInterface> movies) {
+        movies.forEachOrdered(movie -> System.out.println(movie.getTitle() + " " + movie.getDuration()));
+    }
+
+
     /**
     * A method to print movies between two thresholds.
     */
@@ -113,6 +123,14 @@ public class Frontend implements FrontendInterface {
             System.out.println(movie.getTitle() + " " + movie.getDuration());
         }
     }
+
+
+    /**
+     * A method to print a stream of movies between two thresholds, one movie at a time.
+     */
+    public static void printMoviesBetweenRange(Stream<MovieInterface> movies) {
+        movies.forEachOrdered(movie -> System.out.println(movie.getTitle() + " " + movie.getDuration()));
+    }
     
 
     /**
@@ -1,6 +1,7 @@
 import java.io.FileNotFoundException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.stream.Stream;
 
 /*
  * This class is a placeholder for the backend. 
@@ -24,5 +25,90 @@ public class FrontendBackendPlaceholder implements BackendInterface{
         return moviesWithinRange;
     }
 
+    public Stream<MovieInterface> streamMoviesWithMinDuration(int minLength) {
+        return getMoviesWithMinDuration(minLength).stream();
+    }
+
+    public Stream<MovieInterface> streamMoviesWithinRange(int minLength, int maxLength) {
+        return getMoviesWithinRange(minLength, maxLength).stream();
+    }
+
+    public MoviePage getMoviesWithMinDuration(int minLength, int limit, String cursor) {
+        return new MoviePage(getMoviesWithMinDuration(minLength), null);
+    }
+
+    public MoviePage getMoviesWithinRange(int minLength, int maxLength, int limit, String cursor) {
+        return new MoviePage(getMoviesWithinRange(minLength, maxLength), null);
+    }
+
+    public List<MovieInterface> getLongestMovies(int k) {
+        return getMoviesWithMinDuration(0);
+    }
+
+    public List<MovieInterface> getShortestMovies(int k) {
+        return getMoviesWithinRange(0, 0);
+    }
+
+    public int countMoviesWithMinDuration(int minLength) {
+        return getMoviesWithMinDuration(minLength).size();
+    }
+
+    public int countMoviesWithinRange(int minLength, int maxLength) {
+        return getMoviesWithinRange(minLength, maxLength).size();
+    }
+
+    public int getDurationPercentile(double percentile) {
+        return 103;
+    }
+
+    public List<MovieInterface> getMoviesFromYears(int minYear, int maxYear) {
+        List<MovieInterface> moviesFromYears = new ArrayList<>();
+        moviesFromYears.add(new Movie("Moana", "fantasy", "USA", 2016, 103));
+        return moviesFromYears;
+    }
+
+    public List<MovieInterface> getMoviesWithGenre(String genre) {
+        List<MovieInterface> moviesWithGenre = new ArrayList<>();
+        moviesWithGenre.add(new Movie("Moana", "fantasy", "USA", 2016, 103));
+        return moviesWithGenre;
+    }
+
+    public List<MovieInterface> getMoviesFromCountry(String country) {
+        List<MovieInterface> moviesFromCountry = new ArrayList<>();
+        moviesFromCountry.add(new Movie("Shutter Island", "Thriller", "USA", 2009, 50));
+        return moviesFromCountry;
+    }
+
+    public List<MovieInterface> getMoviesWithTitleWords(String words) {
+        List<MovieInterface> moviesWithWords = new ArrayList<>();
+        moviesWithWords.add(new Movie("Star Wars", "Action", "USA", 1977, 121));
+        return moviesWithWords;
+    }
+
+    public List<MovieInterface> getMoviesWithAnyTitleWord(String words) {
+        List<MovieInterface> moviesWithWords = new ArrayList<>();
+        moviesWithWords.add(new Movie("Star Wars", "Action", "USA", 1977, 121));
+        return moviesWithWords;
+    }
+
+    public List<MovieInterface> findMovies(MovieQuery query) {
+        List<MovieInterface> foundMovies = new ArrayList<>();
+        foundMovies.add(new Movie("Moana", "fantasy", "USA", 2016, 103));
+        return foundMovies;
+    }
+
+    public String explainQuery(MovieQuery query) {
+        return "placeholder, filter: " + query;
+    }
+
+    public boolean removeMovie(MovieInterface movie) {
+        return true;
+    }
+
+    public MovieInterface updateDuration(MovieInterface movie, int newDuration) {
+        return new Movie(movie.getTitle(), movie.getGenre(), movie.getCountry(), movie.getYear(),
+                newDuration);
+    }
+
     
 }
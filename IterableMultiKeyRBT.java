@@ -1,8 +1,15 @@
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
 import java.util.Stack;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -10,15 +17,40 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 
 /**
  * IterableMultiKey class that uses an iterator to iterate through a keyList. Creates its own stack
- * to iterate through.
+ * to iterate through. The KeyLists are stored in a red black tree, so the height of the tree stays
+ * logarithmic in the number of distinct keys, even when keys are inserted in sorted order. New
+ * nodes store their keys in an ArrayKeyList.
+ *
+ * Every node also stores the number of keys in its subtree, counting all keys of each KeyList.
+ * The counts are updated on the way down when a key is inserted, on the way up when a key is
+ * removed, and recomputed for the two nodes of every rotation, which lets countInRange, rank and
+ * select walk a single path from the root.
  */
-public class IterableMultiKeyRBT<T extends Comparable<T>> extends BinarySearchTree<KeyListInterface<T>> implements IterableMultiKeySortedCollectionInterface<T> {
+public class IterableMultiKeyRBT<T extends Comparable<T>> extends RedBlackTree<KeyListInterface<T>> implements IterableMultiKeySortedCollectionInterface<T> {
+    //Largest number of distinct keys that bulkLoad groups without sorting the keys first
+    private static final int MAX_GROUPED_KEYS = 4096;
+    //Longer than any path from the root of a red black tree with less than 2^31 nodes
+    private static final int MAX_DEPTH = 64;
     private Comparable<T> iterationStartPoint;
     private int numKeys;
 
+    /**
+     * Node of the tree that stores the number of keys in its subtree.
+     */
+    protected static class CountedNode<T extends Comparable<T>> extends RBTNode<KeyListInterface<T>> {
+        //number of keys in the KeyLists of this node and all of its descendants
+        protected int subtreeKeys;
+
+        public CountedNode(KeyListInterface<T> data) {
+            super(data);
+            this.subtreeKeys = data.size();
+        }
+    }
+
     /**
      * Inserts value into tree that can store multiple objects per key by keeping lists of objects
-     * in each node of the tree.
+     * in each node of the tree. Walks down the tree only once: the key is appended to the KeyList
+     * of the node it finds, and a new KeyList is only created when a new node is added.
      *
      * @param key object to insert
      * @return true if a new node was inserted, false if the key was added into an existing node
@@ -29,24 +61,425 @@ public class IterableMultiKeyRBT<T extends Comparable<T>> extends BinarySearchTr
         if (key == null) {
             throw new NullPointerException("Key is null");
         }
-        //Creates new keyList with key to be inserted
-        KeyList<T> keyList = new KeyList<>(key);
+        //Finds the node with a duplicate key, or the leaf position for a new node
+        Node<KeyListInterface<T>> parent = null;
+        Node<KeyListInterface<T>> currentNode = root;
+        int compare = 0;
+        while (currentNode != null) {
+            //The key ends up in the subtree of every node on the way down
+            ((CountedNode<T>) currentNode).subtreeKeys++;
+            compare = key.compareTo(currentNode.data.firstKey());
+            if (compare == 0) {
+                //Inserts key to the node with the duplicate value
+                currentNode.data.addKey(key);
+                numKeys++;
+                return false;
+            }
+            parent = currentNode;
+            currentNode = currentNode.down[compare < 0 ? 0 : 1];
+        }
+        //There are no duplicates, inserts key into a new node of the tree
+        insertBelow(new CountedNode<>(new ArrayKeyList<>(key)), parent, compare > 0);
+        numKeys++;
+        return true;
+    }
+
+    /**
+     * Inserts a whole KeyList into a new node of the tree, unless the tree already has a KeyList
+     * with the same key.
+     *
+     * @param data the KeyList to insert
+     * @return true if the KeyList was inserted, false if there is a KeyList with its key already
+     */
+    @Override
+    public boolean insert(KeyListInterface<T> data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot insert data value null into the tree.");
+        }
+        Node<KeyListInterface<T>> parent = null;
+        Node<KeyListInterface<T>> currentNode = root;
+        int compare = 0;
+        while (currentNode != null) {
+            compare = data.compareTo(currentNode.data);
+            if (compare == 0) {
+                return false;
+            }
+            parent = currentNode;
+            currentNode = currentNode.down[compare < 0 ? 0 : 1];
+        }
+        //Adds the keys of the list to the counts of the nodes above the new node
+        for (Node<KeyListInterface<T>> node = parent; node != null; node = node.up) {
+            ((CountedNode<T>) node).subtreeKeys += data.size();
+        }
+        insertBelow(new CountedNode<>(data), parent, compare > 0);
+        numKeys += data.size();
+        return true;
+    }
 
-        //Check if the tree already contains a node with a duplicate key
-        if (findNode(keyList) != null) {
-            //Inserts key to the node with the duplicate value
-            this.findNode(keyList).data.addKey(key);
-            numKeys++;
+    /**
+     * Removes one value from the KeyList of its key. Walks down the tree only once, and subtracts
+     * the key from the counts of the nodes on the way back up. A KeyList that is empty afterwards
+     * is removed from the tree.
+     *
+     * @param key object to remove
+     * @return true if key was removed, false if the tree does not contain it
+     */
+    @Override
+    public boolean removeSingleKey(T key) {
+        if (key == null) {
+            throw new NullPointerException("Key is null");
+        }
+        Node<KeyListInterface<T>> currentNode = root;
+        while (currentNode != null) {
+            int compare = key.compareTo(currentNode.data.firstKey());
+            if (compare == 0) {
+                break;
+            }
+            currentNode = currentNode.down[compare < 0 ? 0 : 1];
+        }
+        if (currentNode == null || !currentNode.data.removeKey(key)) {
             return false;
-            //Else there are no duplicates
-        } else {
-            //Inserts key into a new node of the tree
-            this.insert(keyList);
-            numKeys++;
-            return true;
+        }
+        for (Node<KeyListInterface<T>> node = currentNode; node != null; node = node.up) {
+            ((CountedNode<T>) node).subtreeKeys--;
+        }
+        numKeys--;
+        if (currentNode.data.size() == 0) {
+            removeNode(currentNode);
+        }
+        return true;
+    }
+
+    /**
+     * Removes a node with its whole KeyList, and keeps the subtree counts correct while the tree
+     * is rebalanced. The keys of the KeyList are subtracted from the counts above the node first.
+     * A node with two children takes over the KeyList of its successor, whose keys then leave the
+     * subtrees between the two nodes. The node that is unlinked holds no KeyList afterwards, so it
+     * counts no keys in the rotations of the fix-up.
+     */
+    @Override
+    protected void removeNode(Node<KeyListInterface<T>> node) {
+        int removedKeys = node.data.size();
+        for (Node<KeyListInterface<T>> ancestor = node; ancestor != null; ancestor = ancestor.up) {
+            ((CountedNode<T>) ancestor).subtreeKeys -= removedKeys;
+        }
+        numKeys -= removedKeys;
+        Node<KeyListInterface<T>> removed = node;
+        if (node.down[0] != null && node.down[1] != null) {
+            removed = node.down[1];
+            while (removed.down[0] != null) {
+                removed = removed.down[0];
+            }
+            int movedKeys = removed.data.size();
+            for (Node<KeyListInterface<T>> below = removed; below != node; below = below.up) {
+                ((CountedNode<T>) below).subtreeKeys -= movedKeys;
+            }
+            node.data = removed.data;
+        }
+        removed.data = null;
+        super.removeNode(removed);
+    }
+
+    /**
+     * Rotates two nodes, and recomputes their subtree counts. Only the counts of these two nodes
+     * change, as the rotated subtree as a whole still contains the same keys.
+     */
+    @Override
+    protected void rotate(Node<KeyListInterface<T>> child, Node<KeyListInterface<T>> parent)
+            throws IllegalArgumentException {
+        super.rotate(child, parent);
+        //The parent is below the child now, so its count is needed for the count of the child
+        updateCount(parent);
+        updateCount(child);
+    }
+
+    /**
+     * Recomputes the subtree count of a node from the counts of its children.
+     */
+    private void updateCount(Node<KeyListInterface<T>> node) {
+        //A node that is being removed has no KeyList anymore
+        int nodeKeys = node.data == null ? 0 : node.data.size();
+        ((CountedNode<T>) node).subtreeKeys = subtreeKeys(node.down[0]) + nodeKeys
+                + subtreeKeys(node.down[1]);
+    }
+
+    /**
+     * @return the number of keys in the subtree of a node, 0 for an empty subtree
+     */
+    private int subtreeKeys(Node<KeyListInterface<T>> node) {
+        return node == null ? 0 : ((CountedNode<T>) node).subtreeKeys;
+    }
+
+    /**
+     * Counts the keys between two bounds in O(log n), by counting the keys below each bound.
+     *
+     * @param lowerBound     smallest key to count, null for no lower bound
+     * @param lowerInclusive true if keys equal to lowerBound should be counted
+     * @param upperBound     largest key to count, null for no upper bound
+     * @param upperInclusive true if keys equal to upperBound should be counted
+     * @return the number of keys between the bounds
+     */
+    @Override
+    public int countInRange(Comparable<T> lowerBound, boolean lowerInclusive,
+                            Comparable<T> upperBound, boolean upperInclusive) {
+        int upperCount = upperBound == null ? numKeys : countBelow(upperBound, upperInclusive);
+        int lowerCount = lowerBound == null ? 0 : countBelow(lowerBound, !lowerInclusive);
+        return Math.max(upperCount - lowerCount, 0);
+    }
+
+    /**
+     * Returns the number of keys that are smaller than key in O(log n), which is the index that
+     * select returns the first key equal to key at.
+     *
+     * @param key the key to find the rank of, it does not have to be in the tree
+     * @return the number of keys in the tree that are smaller than key
+     */
+    @Override
+    public int rank(Comparable<T> key) {
+        if (key == null) {
+            throw new NullPointerException("Key is null");
+        }
+        return countBelow(key, false);
+    }
+
+    /**
+     * Returns the key at an index of the in-order iteration in O(log n). Walks down from the root
+     * using the subtree counts, and finds the key within the KeyList of the last node by its
+     * position.
+     *
+     * @param index index of the key, 0 for the smallest key
+     * @return the key at this index
+     * @throws IndexOutOfBoundsException when index is negative or not smaller than numKeys()
+     */
+    @Override
+    public T select(int index) {
+        if (index < 0 || index >= numKeys) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + numKeys + " keys");
+        }
+        Node<KeyListInterface<T>> currentNode = root;
+        for (int depth = 0; ; depth++) {
+            checkDepth(depth);
+            int leftKeys = subtreeKeys(currentNode.down[0]);
+            if (index < leftKeys) {
+                currentNode = currentNode.down[0];
+            } else if (index < leftKeys + currentNode.data.size()) {
+                return currentNode.data.get(index - leftKeys);
+            } else {
+                index -= leftKeys + currentNode.data.size();
+                currentNode = currentNode.down[1];
+            }
+        }
+    }
+
+    /**
+     * Counts the keys that are smaller than a bound, or smaller than or equal to it.
+     *
+     * @param bound     the bound to count the keys below
+     * @param inclusive true to also count the keys equal to the bound
+     * @return the number of keys below the bound
+     */
+    private int countBelow(Comparable<T> bound, boolean inclusive) {
+        int count = 0;
+        Node<KeyListInterface<T>> currentNode = root;
+        for (int depth = 0; currentNode != null; depth++) {
+            checkDepth(depth);
+            int compare = bound.compareTo(currentNode.data.firstKey());
+            if (compare < 0) {
+                currentNode = currentNode.down[0];
+            } else if (compare > 0) {
+                //All keys of the left subtree and of this node are below the bound
+                count += subtreeKeys(currentNode.down[0]) + currentNode.data.size();
+                currentNode = currentNode.down[1];
+            } else {
+                count += subtreeKeys(currentNode.down[0]);
+                return inclusive ? count + currentNode.data.size() : count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks the depth of a walk down the tree. A walk can only get longer than any path of a
+     * valid tree when it reads the tree without a lock while a write rotates nodes, which may
+     * even leave a cycle for a moment, so the walk fails instead of never ending.
+     *
+     * @param depth the number of nodes that the walk passed
+     * @throws ConcurrentModificationException when the walk is longer than MAX_DEPTH nodes
+     */
+    private static void checkDepth(int depth) {
+        if (depth > MAX_DEPTH) {
+            throw new ConcurrentModificationException("The tree was changed while it was read");
         }
     }
 
+    /**
+     * Checks that the subtree count of every node matches the keys in its subtree.
+     *
+     * @return true if all counts are correct
+     */
+    public boolean hasValidCounts() {
+        return root == null ? numKeys == 0 : checkCounts(root) == numKeys;
+    }
+
+    /**
+     * @return the number of keys in the subtree of node, or -1 if a count in it is wrong
+     */
+    private int checkCounts(Node<KeyListInterface<T>> node) {
+        if (node == null) {
+            return 0;
+        }
+        int left = checkCounts(node.down[0]);
+        int right = checkCounts(node.down[1]);
+        if (left < 0 || right < 0) {
+            return -1;
+        }
+        int keys = left + node.data.size() + right;
+        return keys == ((CountedNode<T>) node).subtreeKeys ? keys : -1;
+    }
+
+    /**
+     * Inserts all keys into the tree. An empty tree is built bottom-up: the keys are grouped into
+     * one ArrayKeyList per distinct key, in sorted order, and the KeyLists are linked into a
+     * perfectly balanced tree. Every level is full except for the deepest one, whose nodes are
+     * colored red while all other nodes are black, which satisfies the red black tree properties
+     * without any rotations. Building the tree takes linear time in the number of keys, and so
+     * does grouping sorted input. A tree that already contains keys inserts every key with
+     * insertSingleKey instead.
+     *
+     * @param keys the keys to insert
+     * @throws NullPointerException when keys or one of the keys is null
+     */
+    @Override
+    public void bulkLoad(Iterable<T> keys) {
+        if (keys == null) {
+            throw new NullPointerException("Keys are null");
+        }
+        if (!isEmpty()) {
+            for (T key : keys) {
+                insertSingleKey(key);
+            }
+            return;
+        }
+        //Copies the keys so that they can be grouped without changing the input
+        List<T> inputKeys = new ArrayList<>();
+        for (T key : keys) {
+            if (key == null) {
+                throw new NullPointerException("Key is null");
+            }
+            inputKeys.add(key);
+        }
+        List<KeyListInterface<T>> keyLists = groupKeys(inputKeys);
+        if (keyLists.isEmpty()) {
+            return;
+        }
+
+        //Nodes at the deepest level of the tree are red, all others are black
+        int redDepth = 31 - Integer.numberOfLeadingZeros(keyLists.size());
+        root = buildBalancedSubtree(keyLists, 0, keyLists.size() - 1, 0, redDepth);
+        ((RBTNode<KeyListInterface<T>>) root).blackHeight = 1;
+        size = keyLists.size();
+        numKeys = inputKeys.size();
+    }
+
+    /**
+     * Groups keys into sorted KeyLists, keeping equal keys in their input order. Each key is
+     * first compared to the list that received the previous key, which makes sorted and clustered
+     * input linear, and otherwise found with a binary search among the distinct keys seen so far.
+     * When there are more than MAX_GROUPED_KEYS distinct keys, keeping the lists sorted gets too
+     * expensive and the keys are grouped after a stable sort instead.
+     *
+     * @param keys the keys to group
+     * @return KeyLists sorted by their keys
+     */
+    static <T extends Comparable<T>> List<KeyListInterface<T>> groupKeys(List<T> keys) {
+        List<KeyListInterface<T>> keyLists = new ArrayList<>();
+        KeyListInterface<T> lastList = null;
+        for (T key : keys) {
+            if (lastList != null && lastList.firstKey().compareTo(key) == 0) {
+                lastList.addKey(key);
+                continue;
+            }
+            //Binary search for the list with this key or the position for a new list
+            int low = 0;
+            int high = keyLists.size() - 1;
+            lastList = null;
+            while (low <= high && lastList == null) {
+                int middle = (low + high) >>> 1;
+                int compare = key.compareTo(keyLists.get(middle).firstKey());
+                if (compare == 0) {
+                    lastList = keyLists.get(middle);
+                } else if (compare < 0) {
+                    high = middle - 1;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            if (lastList != null) {
+                lastList.addKey(key);
+            } else if (keyLists.size() < MAX_GROUPED_KEYS) {
+                lastList = new ArrayKeyList<>(key);
+                keyLists.add(low, lastList);
+            } else {
+                return groupSortedKeys(keys);
+            }
+        }
+        return keyLists;
+    }
+
+    /**
+     * Groups keys into KeyLists after sorting them with a stable sort.
+     *
+     * @param keys the keys to group
+     * @return KeyLists sorted by their keys
+     */
+    private static <T extends Comparable<T>> List<KeyListInterface<T>> groupSortedKeys(
+            List<T> keys) {
+        List<T> sortedKeys = new ArrayList<>(keys);
+        sortedKeys.sort(null);
+        List<KeyListInterface<T>> keyLists = new ArrayList<>();
+        KeyListInterface<T> currentList = null;
+        for (T key : sortedKeys) {
+            if (currentList != null && currentList.firstKey().compareTo(key) == 0) {
+                currentList.addKey(key);
+            } else {
+                currentList = new ArrayKeyList<>(key);
+                keyLists.add(currentList);
+            }
+        }
+        return keyLists;
+    }
+
+    /**
+     * Builds a balanced subtree from a sorted range of KeyLists, using the middle list as root of
+     * the subtree.
+     *
+     * @param keyLists sorted KeyLists to build the tree from
+     * @param low      index of the first list of the subtree
+     * @param high     index of the last list of the subtree
+     * @param depth    depth of the root of the subtree within the tree
+     * @param redDepth depth of the deepest level of the tree, whose nodes are colored red
+     * @return the root of the subtree, or null if the range is empty
+     */
+    private RBTNode<KeyListInterface<T>> buildBalancedSubtree(List<KeyListInterface<T>> keyLists,
+                                                              int low, int high, int depth,
+                                                              int redDepth) {
+        if (low > high) {
+            return null;
+        }
+        int middle = (low + high) >>> 1;
+        CountedNode<T> node = new CountedNode<>(keyLists.get(middle));
+        node.blackHeight = depth == redDepth ? 0 : 1;
+        node.down[0] = buildBalancedSubtree(keyLists, low, middle - 1, depth + 1, redDepth);
+        node.down[1] = buildBalancedSubtree(keyLists, middle + 1, high, depth + 1, redDepth);
+        for (Node<KeyListInterface<T>> child : node.down) {
+            if (child != null) {
+                child.up = node;
+            }
+        }
+        updateCount(node);
+        return node;
+    }
+
     /**
      * @return the number of values in the tree.
      */
@@ -60,52 +493,306 @@ public class IterableMultiKeyRBT<T extends Comparable<T>> extends BinarySearchTr
      */
     @Override
     public Iterator<T> iterator() {
-        //Anonymous  class
-        return new Iterator<T>() {
-            //Create the initial stack for the iterator.
-            private Stack<Node<KeyListInterface<T>>> stack = getStackStart();
-            //keyIterator to iterate through duplicate values
-            private Iterator<T> keyIterator = null;
-
-            /**
-             * Returns true if there are more keys to iterate through
-             * @return true or false depending on if there are more keys in the tree
-             */
-            @Override
-            public boolean hasNext() {
-                return !stack.isEmpty() || (keyIterator != null && keyIterator.hasNext());
-            }
-
-            /**
-             * Gets the next in order value of key
-             * @return next key value
-             */
-            @Override
-            public T next() {
-                //Checks if there are more values in the tree
-                if (!hasNext()) {
-                    throw new NoSuchElementException("No elements left");
-                }
-                //Iterator of node checks if there are duplicate values, and if so returns
-                // that value
-                if (keyIterator != null && keyIterator.hasNext()) {
-                    return keyIterator.next();
-                    //Else iterates next node
-                } else {
-                    //Pops node in stack
-                    Node<KeyListInterface<T>> currentNode = stack.pop();
-                    keyIterator = currentNode.data.iterator();
-
-                    //Returns nodes in ascending values
-                    while (currentNode != null && currentNode.down[1] != null) {
-                        stack.push(currentNode.down[1]);
-                        currentNode = currentNode.down[0];
-                    }
+        return new KeyIterator(getStackStart(), null, true, false);
+    }
 
-                }
+    /**
+     * Returns an iterator that does an in-order iteration over the keys between two bounds. The
+     * stack is seeked to the lower bound and the iteration ends once it passes the upper bound.
+     *
+     * @param lowerBound     smallest key to return, null for no lower bound
+     * @param lowerInclusive true if keys equal to lowerBound should be returned
+     * @param upperBound     largest key to return, null for no upper bound
+     * @param upperInclusive true if keys equal to upperBound should be returned
+     */
+    @Override
+    public Iterator<T> iterator(Comparable<T> lowerBound, boolean lowerInclusive,
+                                Comparable<T> upperBound, boolean upperInclusive) {
+        return new KeyIterator(getStackStart(lowerBound, lowerInclusive), upperBound,
+                upperInclusive, false);
+    }
+
+    /**
+     * Returns an iterator that resumes an in-order iteration at a position within a KeyList. The
+     * stack is seeked to the KeyList of startKey in O(log n) and its keys are returned from
+     * startIndex on, followed by the keys of all larger KeyLists up to the upper bound. As keys
+     * are appended to a KeyList, a position stays valid while keys are inserted, but removing a
+     * key moves the keys after it one position forward, so a position taken before a removal
+     * may skip a key.
+     *
+     * @param startKey       key of the KeyList to resume in, iteration starts at the next larger
+     *                       KeyList when the tree has no KeyList with this key
+     * @param startIndex     position of the first key to return within the KeyList of startKey
+     * @param upperBound     largest key to return, null for no upper bound
+     * @param upperInclusive true if keys equal to upperBound should be returned
+     */
+    @Override
+    public Iterator<T> iterator(Comparable<T> startKey, int startIndex, Comparable<T> upperBound,
+                                boolean upperInclusive) {
+        if (startIndex < 0) {
+            throw new IllegalArgumentException("Start index is negative");
+        }
+        KeyIterator iterator = new KeyIterator(getStackStart(startKey, true), upperBound,
+                upperInclusive, false);
+        if (startKey != null && iterator.hasNext()
+                && startKey.compareTo(iterator.stack.peek().data.firstKey()) == 0) {
+            iterator.startInFirstList(startIndex);
+        }
+        return iterator;
+    }
+
+    /**
+     * Returns an iterator that does a reverse in-order iteration over the tree, starting at the
+     * largest key. Keys that compare equal are returned in the order they were inserted.
+     */
+    @Override
+    public Iterator<T> descendingIterator() {
+        java.util.Stack<Node<KeyListInterface<T>>> stack = new Stack<>();
+        Node<KeyListInterface<T>> currentNode = root;
+        //Iterates down the right subtree to the largest key
+        for (int depth = 0; currentNode != null; depth++) {
+            checkDepth(depth);
+            stack.push(currentNode);
+            currentNode = currentNode.down[1];
+        }
+        return new KeyIterator(stack, null, true, true);
+    }
+
+    /**
+     * Returns a spliterator over all keys in order, starting at the iteration start point. It
+     * reports its exact size, which is counted from the subtree counts, and can be split for
+     * parallel streams.
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        int start = iterationStartPoint == null ? 0 : rank(iterationStartPoint);
+        return new KeySpliterator(start, numKeys);
+    }
+
+    /**
+     * Returns a spliterator over the keys between two bounds, in the order of iterator(lowerBound,
+     * lowerInclusive, upperBound, upperInclusive). It reports its exact size, which is counted
+     * from the subtree counts, and can be split for parallel streams.
+     */
+    @Override
+    public Spliterator<T> spliterator(Comparable<T> lowerBound, boolean lowerInclusive,
+                                      Comparable<T> upperBound, boolean upperInclusive) {
+        int start = lowerBound == null ? 0 : countBelow(lowerBound, !lowerInclusive);
+        int end = upperBound == null ? numKeys : countBelow(upperBound, upperInclusive);
+        return new KeySpliterator(start, Math.max(start, end));
+    }
+
+    /**
+     * Returns an iterator that starts at the key with an index of the in-order iteration. Walks
+     * down to the key like select, and pushes every node on the way whose keys come after it.
+     *
+     * @param index index of the first key to return
+     */
+    private KeyIterator iteratorAt(int index) {
+        Stack<Node<KeyListInterface<T>>> stack = new Stack<>();
+        KeyIterator iterator = new KeyIterator(stack, null, true, false);
+        Node<KeyListInterface<T>> currentNode = index < numKeys ? root : null;
+        for (int depth = 0; currentNode != null; depth++) {
+            checkDepth(depth);
+            int leftKeys = subtreeKeys(currentNode.down[0]);
+            if (index < leftKeys) {
+                stack.push(currentNode);
+                currentNode = currentNode.down[0];
+            } else if (index < leftKeys + currentNode.data.size()) {
+                stack.push(currentNode);
+                iterator.startInFirstList(index - leftKeys);
+                return iterator;
+            } else {
+                index -= leftKeys + currentNode.data.size();
+                currentNode = currentNode.down[1];
+            }
+        }
+        return iterator;
+    }
+
+    /**
+     * Spliterator over the keys with the indexes from start to end of the in-order iteration.
+     * The keys are sorted by their natural order, and keys that compare equal are in the order
+     * they were inserted. Splitting divides the remaining indexes in half, so both halves get the
+     * same number of keys, even when they split a large KeyList. Each half seeks to its first
+     * key with the subtree counts once it is traversed.
+     */
+    private class KeySpliterator implements Spliterator<T> {
+        //Index of the next key and index after the last key
+        private int index;
+        private final int end;
+        //Iterator positioned at index, created when the traversal starts
+        private Iterator<T> iterator;
+
+        private KeySpliterator(int start, int end) {
+            this.index = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (index >= end) {
+                return false;
+            }
+            if (iterator == null) {
+                iterator = iteratorAt(index);
+            }
+            index++;
+            action.accept(iterator.next());
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (index >= end) {
+                return;
+            }
+            if (iterator == null) {
+                iterator = iteratorAt(index);
+            }
+            while (index < end) {
+                index++;
+                action.accept(iterator.next());
+            }
+        }
+
+        /**
+         * Splits off the first half of the remaining keys.
+         *
+         * @return spliterator over the first half, or null when fewer than two keys are left
+         */
+        @Override
+        public Spliterator<T> trySplit() {
+            if (end - index < 2) {
+                return null;
+            }
+            int middle = index + (end - index) / 2;
+            Spliterator<T> firstHalf = new KeySpliterator(index, middle);
+            //This spliterator seeks to the middle once it is traversed
+            index = middle;
+            iterator = null;
+            return firstHalf;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | NONNULL | SIZED | SUBSIZED;
+        }
+
+        /**
+         * Returns null, as the keys are sorted by their natural order.
+         */
+        @Override
+        public Comparator<? super T> getComparator() {
+            return null;
+        }
+    }
+
+    /**
+     * Iterator that walks the nodes on a stack in order, or in reverse order when descending, and
+     * returns every key of each node's KeyList. Stops once it reaches a node that is past the
+     * upper bound.
+     */
+    private class KeyIterator implements Iterator<T> {
+        //Stack of nodes that have not been visited yet
+        private final Stack<Node<KeyListInterface<T>>> stack;
+        //keyIterator to iterate through duplicate values
+        private Iterator<T> keyIterator = null;
+        private final Comparable<T> upperBound;
+        private final boolean upperInclusive;
+        //Index of the child whose subtree is visited after a node, 1 in order and 0 in reverse
+        private final int nextChild;
+
+        private KeyIterator(Stack<Node<KeyListInterface<T>>> stack, Comparable<T> upperBound,
+                            boolean upperInclusive, boolean descending) {
+            this.stack = stack;
+            this.upperBound = upperBound;
+            this.upperInclusive = upperInclusive;
+            this.nextChild = descending ? 0 : 1;
+            //Drops the whole stack when the first node is already past the upper bound
+            if (!stack.isEmpty() && isPastUpperBound(stack.peek())) {
+                stack.clear();
+            }
+        }
+
+        /**
+         * Visits the node on top of the stack, skipping the keys of its KeyList before startIndex
+         */
+        private void startInFirstList(int startIndex) {
+            Node<KeyListInterface<T>> currentNode = visitNextNode();
+            keyIterator = currentNode.data.iterator(startIndex);
+        }
+
+        /**
+         * Pops the next node from the stack and pushes the path to the node that follows it
+         * @return the node that was popped
+         */
+        private Node<KeyListInterface<T>> visitNextNode() {
+            Node<KeyListInterface<T>> currentNode = stack.pop();
+
+            //Pushes the path to the node that comes next, which is the smallest node of the
+            //right subtree in order and the largest node of the left subtree in reverse
+            Node<KeyListInterface<T>> nextNode = currentNode.down[nextChild];
+            for (int depth = 0; nextNode != null; depth++) {
+                checkDepth(depth);
+                stack.push(nextNode);
+                nextNode = nextNode.down[1 - nextChild];
+            }
+            //Ends the iteration once the next node is past the upper bound
+            if (!stack.isEmpty() && isPastUpperBound(stack.peek())) {
+                stack.clear();
+            }
+            return currentNode;
+        }
+
+        /**
+         * Returns true if there are more keys to iterate through
+         * @return true or false depending on if there are more keys in the tree
+         */
+        @Override
+        public boolean hasNext() {
+            //Skips past a KeyList that was resumed after its last key
+            while (keyIterator != null && !keyIterator.hasNext() && !stack.isEmpty()) {
+                keyIterator = visitNextNode().data.iterator();
+            }
+            return !stack.isEmpty() || (keyIterator != null && keyIterator.hasNext());
+        }
+
+        /**
+         * Gets the next in order value of key
+         * @return next key value
+         */
+        @Override
+        public T next() {
+            //Checks if there are more values in the tree
+            if (!hasNext()) {
+                throw new NoSuchElementException("No elements left");
+            }
+            //Iterator of node checks if there are duplicate values, and if so returns
+            // that value
+            if (keyIterator != null && keyIterator.hasNext()) {
                 return keyIterator.next();
             }
-        };
+            //Else pops the next node in the stack
+            keyIterator = visitNextNode().data.iterator();
+            return keyIterator.next();
+        }
+
+        /**
+         * Checks if the keys of a node are past the upper bound of this iterator
+         */
+        private boolean isPastUpperBound(Node<KeyListInterface<T>> node) {
+            if (upperBound == null) {
+                return false;
+            }
+            int compare = upperBound.compareTo(node.data.firstKey());
+            return upperInclusive ? compare < 0 : compare <= 0;
+        }
     }
 
     /**
@@ -134,15 +821,28 @@ public class IterableMultiKeyRBT<T extends Comparable<T>> extends BinarySearchTr
      * containing nodes after initialization.
      */
     protected java.util.Stack<Node<KeyListInterface<T>>> getStackStart() {
+        return getStackStart(iterationStartPoint, true);
+    }
+
+    /**
+     * Returns a stack containing the nodes on the path from the root to the first node with a key
+     * equal to or larger than the start point, so that popping the stack visits the nodes in
+     * order from there.
+     *
+     * @param startPoint the smallest key to visit, null to start at the smallest key in the tree
+     * @param inclusive  true if a node with a key equal to the start point should be visited
+     */
+    protected java.util.Stack<Node<KeyListInterface<T>>> getStackStart(Comparable<T> startPoint,
+                                                                       boolean inclusive) {
         java.util.Stack<Node<KeyListInterface<T>>> stack = new Stack<>();
-        Comparable<T> startPoint = iterationStartPoint;
 
         //No start point is set, the stack is initialized with the nodes
         // on the path from the root node to smallest key.
-        if (iterationStartPoint == null) {
+        if (startPoint == null) {
             Node<KeyListInterface<T>> currentNode = root;
             //Iterates down left subtree
-            while (currentNode != null) {
+            for (int depth = 0; currentNode != null; depth++) {
+                checkDepth(depth);
                 stack.push(currentNode);
                 currentNode = currentNode.down[0];
             }
@@ -151,12 +851,13 @@ public class IterableMultiKeyRBT<T extends Comparable<T>> extends BinarySearchTr
             //the iteration start point is set, then the stack is
             //initialized with all the nodes with keys equal to or larger than the start point
             Node<KeyListInterface<T>> currentNode = root;
-            while (currentNode != null) {
+            for (int depth = 0; currentNode != null; depth++) {
+                checkDepth(depth);
                 //Compares startNode to next node
-                int compareNodes =
-                        iterationStartPoint.compareTo(currentNode.data.iterator().next());
-                //Iterator visits the nodes that are equal to or greater than the start point
-                if (compareNodes <= 0) {
+                int compareNodes = startPoint.compareTo(currentNode.data.firstKey());
+                //Iterator visits the nodes that are equal to (when inclusive) or greater than
+                // the start point
+                if (compareNodes < 0 || (inclusive && compareNodes == 0)) {
                     stack.push(currentNode);
                     currentNode = currentNode.down[0];
                 } else {
@@ -350,4 +1051,504 @@ public class IterableMultiKeyRBT<T extends Comparable<T>> extends BinarySearchTr
     }
 
 
+    /**
+     * Tests iterating between a lower and upper bound
+     */
+    @Test
+    public void testBoundedIterator() {
+        try {
+            IterableMultiKeyRBT<Integer> tree = new IterableMultiKeyRBT<>();
+            //Inserts keys so that right subtrees have left children, with duplicates
+            int[] keys = {50, 20, 80, 10, 30, 70, 90, 25, 35, 65, 75, 30, 70};
+            for (int key : keys) {
+                tree.insertSingleKey(key);
+            }
+
+            //Tests a full in order iteration visits every key in ascending order
+            StringBuilder all = new StringBuilder();
+            for (Integer key : tree) {
+                all.append(key).append(" ");
+            }
+            assertEquals("10 20 25 30 30 35 50 65 70 70 75 80 90 ", all.toString());
+
+            //Tests inclusive bounds
+            StringBuilder inclusive = new StringBuilder();
+            Iterator<Integer> iterator = tree.iterator(30, true, 70, true);
+            while (iterator.hasNext()) {
+                inclusive.append(iterator.next()).append(" ");
+            }
+            assertEquals("30 30 35 50 65 70 70 ", inclusive.toString());
+
+            //Tests exclusive bounds
+            StringBuilder exclusive = new StringBuilder();
+            iterator = tree.iterator(30, false, 70, false);
+            while (iterator.hasNext()) {
+                exclusive.append(iterator.next()).append(" ");
+            }
+            assertEquals("35 50 65 ", exclusive.toString());
+
+            //Tests bounds that are not keys of the tree and open bounds
+            StringBuilder open = new StringBuilder();
+            iterator = tree.iterator(null, true, 26, true);
+            while (iterator.hasNext()) {
+                open.append(iterator.next()).append(" ");
+            }
+            assertEquals("10 20 25 ", open.toString());
+            iterator = tree.iterator(76, true, null, true);
+            assertEquals(80, iterator.next());
+            assertEquals(90, iterator.next());
+            assertTrue(!iterator.hasNext());
+
+            //Tests an empty range
+            iterator = tree.iterator(36, true, 49, true);
+            assertTrue(!iterator.hasNext());
+            try {
+                iterator.next();
+                fail();
+            } catch (NoSuchElementException e) {
+            }
+
+        } catch (Exception e) {
+            fail();
+        }
+    }
+
+    /**
+     * Tests that inserting sorted keys keeps the tree balanced
+     */
+    @Test
+    public void testSortedInsertIsBalanced() {
+        IterableMultiKeyRBT<Integer> tree = new IterableMultiKeyRBT<>();
+        //Inserts sorted keys with a duplicate for each key
+        for (int i = 0; i < 1000; i++) {
+            tree.insertSingleKey(i);
+            tree.insertSingleKey(i);
+        }
+        assertEquals(1000, tree.size());
+        assertEquals(2000, tree.numKeys());
+        assertTrue(tree.isValidRedBlackTree());
+        //A red black tree with 1000 nodes is at most 2 * log2(1001) levels high
+        assertTrue(tree.height() <= 19);
+
+        //Checks the keys are still iterated in order
+        int expected = 0;
+        int count = 0;
+        for (Integer key : tree) {
+            assertEquals(expected, key);
+            count++;
+            expected = count / 2;
+        }
+        assertEquals(2000, count);
+    }
+
+    /**
+     * Tests that many duplicates of a key are kept in insertion order within their node
+     */
+    @Test
+    public void testManyDuplicates() {
+        IterableMultiKeyRBT<String> tree = new IterableMultiKeyRBT<>();
+        //Equal keys share one node, which has to grow past its initial capacity
+        for (int i = 0; i < 100; i++) {
+            tree.insertSingleKey("b");
+        }
+        tree.insertSingleKey("a");
+        tree.insertSingleKey("c");
+        assertEquals(3, tree.size());
+        assertEquals(102, tree.numKeys());
+
+        Iterator<String> iterator = tree.iterator();
+        assertEquals("a", iterator.next());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("b", iterator.next());
+        }
+        assertEquals("c", iterator.next());
+        assertTrue(!iterator.hasNext());
+    }
+
+    /**
+     * Tests building the tree with bulkLoad
+     */
+    @Test
+    public void testBulkLoad() {
+        //Tests trees of every size up to 64 distinct keys are valid red black trees
+        for (int numKeys = 0; numKeys <= 64; numKeys++) {
+            IterableMultiKeyRBT<Integer> tree = new IterableMultiKeyRBT<>();
+            List<Integer> keys = new ArrayList<>();
+            for (int i = numKeys - 1; i >= 0; i--) {
+                keys.add(i);
+                keys.add(i);
+            }
+            tree.bulkLoad(keys);
+            assertEquals(numKeys, tree.size());
+            assertEquals(2 * numKeys, tree.numKeys());
+            assertTrue(tree.isValidRedBlackTree());
+
+            //Checks the keys are iterated in order
+            int count = 0;
+            for (Integer key : tree) {
+                assertEquals(count / 2, key);
+                count++;
+            }
+            assertEquals(2 * numKeys, count);
+        }
+
+        //Tests movies with equal durations keep their input order
+        IterableMultiKeyRBT<MovieInterface> movieTree = new IterableMultiKeyRBT<>();
+        movieTree.bulkLoad(new MovieInterface[] {new Movie("b", "", "", 2000, 90),
+                new Movie("a1", "", "", 2000, 60), new Movie("c", "", "", 2000, 120),
+                new Movie("a2", "", "", 2000, 60)});
+        Iterator<MovieInterface> movies = movieTree.iterator();
+        assertEquals("a1", movies.next().getTitle());
+        assertEquals("a2", movies.next().getTitle());
+
+        IterableMultiKeyRBT<String> tree = new IterableMultiKeyRBT<>();
+        tree.bulkLoad(new String[] {"b", "a", "c", "a"});
+
+        //Tests bulkLoad into a tree that already contains keys
+        tree.bulkLoad(new String[] {"d", "a"});
+        assertEquals(4, tree.size());
+        assertEquals(6, tree.numKeys());
+        assertTrue(tree.isValidRedBlackTree());
+
+        //Tests shuffled input with more distinct keys than are grouped without sorting
+        List<Integer> manyKeys = new ArrayList<>();
+        for (int i = 0; i < 3 * MAX_GROUPED_KEYS; i++) {
+            manyKeys.add((i * 7919) % (3 * MAX_GROUPED_KEYS));
+        }
+        IterableMultiKeyRBT<Integer> largeTree = new IterableMultiKeyRBT<>();
+        largeTree.bulkLoad(manyKeys);
+        assertEquals(3 * MAX_GROUPED_KEYS, largeTree.size());
+        assertTrue(largeTree.isValidRedBlackTree());
+        int expected = 0;
+        for (Integer key : largeTree) {
+            assertEquals(expected++, key);
+        }
+
+        //Tests null keys are rejected
+        try {
+            new IterableMultiKeyRBT<String>().bulkLoad(new String[] {"a", null});
+            fail();
+        } catch (NullPointerException e) {
+        }
+    }
+
+    /**
+     * Tests streams and spliterators over all keys and over the keys between two bounds
+     */
+    @Test
+    public void testStream() {
+        IterableMultiKeyRBT<Integer> tree = new IterableMultiKeyRBT<>();
+        assertEquals(0L, tree.stream().count());
+        for (int key : new int[] {5, 1, 9, 5, 3, 7, 5, 2}) {
+            tree.insertSingleKey(key);
+        }
+
+        //A stream over all keys is sized, sorted and ordered
+        Spliterator<Integer> spliterator = tree.spliterator();
+        assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED));
+        assertTrue(spliterator.hasCharacteristics(Spliterator.SORTED));
+        assertTrue(spliterator.hasCharacteristics(Spliterator.ORDERED));
+        assertEquals(8L, spliterator.getExactSizeIfKnown());
+        assertEquals(null, spliterator.getComparator());
+        assertEquals(List.of(1, 2, 3, 5, 5, 5, 7, 9), tree.stream().collect(Collectors.toList()));
+
+        //A bounded stream is sorted and knows its size from the subtree counts
+        Comparable<Integer> lower = key -> Integer.compare(3, key);
+        Comparable<Integer> upper = key -> Integer.compare(7, key);
+        spliterator = tree.spliterator(lower, true, upper, false);
+        assertTrue(spliterator.hasCharacteristics(Spliterator.SORTED));
+        assertEquals(4L, spliterator.getExactSizeIfKnown());
+        assertEquals(List.of(3, 5, 5, 5), tree.stream(lower, true, upper, false)
+                .collect(Collectors.toList()));
+        assertEquals(List.of(5, 5, 5, 7), tree.stream(lower, false, upper, true)
+                .collect(Collectors.toList()));
+
+        //Short-circuiting operations stop the iteration, and the size counts down
+        assertEquals(Integer.valueOf(5), tree.stream(lower, false, null, true).findFirst().get());
+        spliterator = tree.spliterator();
+        spliterator.tryAdvance(key -> { });
+        assertEquals(7L, spliterator.estimateSize());
+    }
+
+    /**
+     * Tests resuming an iteration within a KeyList and iterating in reverse order
+     */
+    @Test
+    public void testResumeAndDescending() {
+        IterableMultiKeyRBT<MovieInterface> tree = new IterableMultiKeyRBT<>();
+        assertTrue(!tree.descendingIterator().hasNext());
+        List<MovieInterface> movies = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            movies.add(new Movie("Movie " + i, "Drama", "USA", 2000, 90 + i % 4));
+            tree.insertSingleKey(movies.get(i));
+        }
+        Comparable<MovieInterface> duration91 = movie -> Integer.compare(91, movie.getDuration());
+        Comparable<MovieInterface> duration92 = movie -> Integer.compare(92, movie.getDuration());
+
+        //Resumes at the fourth movie of 91 minutes, which was inserted as the 14th movie
+        Iterator<MovieInterface> iterator = tree.iterator(duration91, 3, duration92, true);
+        assertEquals("Movie 13", iterator.next().getTitle());
+        int count = 1;
+        while (iterator.hasNext()) {
+            assertTrue(iterator.next().getDuration() <= 92);
+            count++;
+        }
+        assertEquals(17, count);
+
+        //Resuming after the last movie of a KeyList continues with the next KeyList
+        iterator = tree.iterator(duration91, 10, null, true);
+        assertEquals("Movie 2", iterator.next().getTitle());
+        iterator = tree.iterator(duration92, 10, duration92, true);
+        assertTrue(!iterator.hasNext());
+        //A key without a KeyList starts at the next larger key
+        iterator = tree.iterator(movie -> Integer.compare(85, movie.getDuration()), 5, null, true);
+        assertEquals("Movie 0", iterator.next().getTitle());
+
+        //Iterates from the largest duration down, equal durations in insertion order
+        iterator = tree.descendingIterator();
+        assertEquals("Movie 3", iterator.next().getTitle());
+        assertEquals("Movie 7", iterator.next().getTitle());
+        int previousDuration = Integer.MAX_VALUE;
+        count = 2;
+        while (iterator.hasNext()) {
+            int duration = iterator.next().getDuration();
+            assertTrue(duration <= previousDuration);
+            previousDuration = duration;
+            count++;
+        }
+        assertEquals(40, count);
+    }
+
+    /**
+     * Tests countInRange, rank and select against a sorted list of the same keys, for random
+     * trees built with insertSingleKey, insert and bulkLoad
+     */
+    @Test
+    public void testOrderStatistics() {
+        for (long seed = 0; seed < 30; seed++) {
+            java.util.Random random = new java.util.Random(seed);
+            IterableMultiKeyRBT<MovieInterface> tree = new IterableMultiKeyRBT<>();
+            List<MovieInterface> oracle = new ArrayList<>();
+            int maxDuration = 1 + random.nextInt(200);
+            if (seed % 3 == 0) {
+                //Starts from a tree that was built by bulkLoad
+                List<MovieInterface> movies = new ArrayList<>();
+                for (int i = random.nextInt(300); i > 0; i--) {
+                    movies.add(new Movie("Bulk " + i, "Drama", "USA", 2000,
+                            random.nextInt(maxDuration)));
+                }
+                tree.bulkLoad(movies);
+                oracle.addAll(movies);
+            }
+            for (int i = random.nextInt(500); i > 0; i--) {
+                MovieInterface movie = new Movie("Movie " + i, "Drama", "USA", 2000,
+                        random.nextInt(maxDuration));
+                if (random.nextInt(10) == 0) {
+                    //Inserts a whole KeyList, which only works for a new duration
+                    KeyListInterface<MovieInterface> list = new ArrayKeyList<>(movie);
+                    list.addKey(new Movie("Copy " + i, "Drama", "USA", 2000,
+                            movie.getDuration()));
+                    if (tree.insert(list)) {
+                        oracle.add(movie);
+                        oracle.add(list.get(1));
+                    }
+                } else {
+                    tree.insertSingleKey(movie);
+                    oracle.add(movie);
+                }
+            }
+            //The oracle is sorted by duration, with equal durations in insertion order
+            oracle.sort(null);
+            assertTrue(tree.isValidRedBlackTree());
+            assertTrue(tree.hasValidCounts());
+            assertEquals(oracle.size(), tree.numKeys());
+
+            for (int i = 0; i < oracle.size(); i++) {
+                assertTrue(oracle.get(i) == tree.select(i));
+            }
+            for (int test = 0; test < 50; test++) {
+                int low = random.nextInt(maxDuration + 2) - 1;
+                int high = random.nextInt(maxDuration + 2) - 1;
+                boolean lowInclusive = random.nextBoolean();
+                boolean highInclusive = random.nextBoolean();
+                int expectedCount = 0;
+                int expectedRank = 0;
+                for (MovieInterface movie : oracle) {
+                    int duration = movie.getDuration();
+                    if ((duration > low || (lowInclusive && duration == low))
+                            && (duration < high || (highInclusive && duration == high))) {
+                        expectedCount++;
+                    }
+                    if (duration < low) {
+                        expectedRank++;
+                    }
+                }
+                Comparable<MovieInterface> lowBound = movie -> Integer.compare(low,
+                        movie.getDuration());
+                Comparable<MovieInterface> highBound = movie -> Integer.compare(high,
+                        movie.getDuration());
+                assertEquals(expectedCount, tree.countInRange(lowBound, lowInclusive, highBound,
+                        highInclusive));
+                assertEquals(expectedRank, tree.rank(lowBound));
+            }
+            assertEquals(oracle.size(), tree.countInRange(null, true, null, true));
+        }
+
+        //Tests indexes outside of the tree
+        IterableMultiKeyRBT<Integer> tree = new IterableMultiKeyRBT<>();
+        tree.insertSingleKey(1);
+        for (int index : new int[] {-1, 1}) {
+            try {
+                tree.select(index);
+                fail();
+            } catch (IndexOutOfBoundsException e) {
+            }
+        }
+    }
+
+    /**
+     * Tests removeSingleKey and remove against a list of the same keys, for random trees that
+     * keys are inserted into and removed from, until all keys are removed again
+     */
+    @Test
+    public void testRandomRemove() {
+        for (long seed = 0; seed < 20; seed++) {
+            java.util.Random random = new java.util.Random(seed);
+            IterableMultiKeyRBT<MovieInterface> tree = new IterableMultiKeyRBT<>();
+            List<MovieInterface> oracle = new ArrayList<>();
+            int maxDuration = 1 + random.nextInt(300);
+            for (int i = 0; i < 1500; i++) {
+                int operation = random.nextInt(10);
+                if (operation < 5 || oracle.isEmpty()) {
+                    MovieInterface movie = new Movie("Movie " + i, "Drama", "USA", 2000,
+                            random.nextInt(maxDuration));
+                    tree.insertSingleKey(movie);
+                    oracle.add(movie);
+                } else if (operation < 9) {
+                    MovieInterface movie = oracle.remove(random.nextInt(oracle.size()));
+                    assertTrue(tree.removeSingleKey(movie));
+                    assertTrue(!tree.removeSingleKey(movie));
+                } else {
+                    //Removes the whole KeyList of a duration
+                    int duration = random.nextInt(maxDuration);
+                    boolean expected = oracle.removeIf(movie -> movie.getDuration() == duration);
+                    assertEquals(expected, tree.remove(list -> Integer.compare(duration,
+                            list.firstKey().getDuration())));
+                }
+                assertTrue(tree.isValidRedBlackTree());
+                assertTrue(tree.hasValidCounts());
+                assertEquals(oracle.size(), tree.numKeys());
+            }
+            //The oracle is sorted by duration, with equal durations in insertion order
+            List<MovieInterface> sorted = new ArrayList<>(oracle);
+            sorted.sort(null);
+            Iterator<MovieInterface> iterator = tree.iterator();
+            for (int i = 0; i < sorted.size(); i++) {
+                assertTrue(sorted.get(i) == tree.select(i));
+                assertTrue(sorted.get(i) == iterator.next());
+            }
+            assertTrue(!iterator.hasNext());
+            for (MovieInterface movie : oracle) {
+                assertTrue(tree.removeSingleKey(movie));
+                assertTrue(tree.isValidRedBlackTree());
+                assertTrue(tree.hasValidCounts());
+            }
+            assertEquals(0, tree.numKeys());
+            assertTrue(tree.isEmpty());
+        }
+    }
+
+    /**
+     * Tests that splitting spliterators and parallel streams return the same keys in the same
+     * order as a sequential iteration, including splits within a large KeyList
+     */
+    @Test
+    public void testParallelStream() {
+        IterableMultiKeyRBT<MovieInterface> tree = new IterableMultiKeyRBT<>();
+        java.util.Random random = new java.util.Random(7);
+        for (int i = 0; i < 3000; i++) {
+            //Half of the movies share one duration and end up in a single KeyList, the others
+            //are shorter or longer
+            int duration = i % 2 == 0 ? 100 : random.nextInt(100) + (i % 4 == 1 ? 0 : 101);
+            tree.insertSingleKey(new Movie("Movie " + i, "Drama", "USA", 2000, duration));
+        }
+        List<MovieInterface> sequential = new ArrayList<>();
+        tree.iterator().forEachRemaining(sequential::add);
+
+        //Splits recursively and traverses the parts in order, mixing tryAdvance and forEach
+        List<MovieInterface> fromParts = new ArrayList<>();
+        splitAndTraverse(tree.spliterator(), fromParts, 0);
+        assertEquals(sequential.size(), fromParts.size());
+        for (int i = 0; i < sequential.size(); i++) {
+            assertTrue(sequential.get(i) == fromParts.get(i));
+        }
+
+        //Parallel streams keep the order and aggregate the same values
+        List<MovieInterface> parallel = tree.parallelStream().collect(Collectors.toList());
+        for (int i = 0; i < sequential.size(); i++) {
+            assertTrue(sequential.get(i) == parallel.get(i));
+        }
+        assertEquals(tree.stream().mapToLong(MovieInterface::getDuration).sum(),
+                tree.parallelStream().mapToLong(MovieInterface::getDuration).sum());
+
+        //Bounded spliterators split into parts of the bounded range
+        Comparable<MovieInterface> lower = movie -> Integer.compare(100, movie.getDuration());
+        Spliterator<MovieInterface> bounded = tree.spliterator(lower, true, lower, true);
+        assertEquals(1500L, bounded.getExactSizeIfKnown());
+        Spliterator<MovieInterface> firstHalf = bounded.trySplit();
+        assertEquals(750L, firstHalf.estimateSize());
+        assertEquals(750L, bounded.estimateSize());
+        assertTrue(bounded.hasCharacteristics(Spliterator.SUBSIZED));
+        long[] count = new long[1];
+        bounded.forEachRemaining(movie -> {
+            assertEquals(100, movie.getDuration());
+            count[0]++;
+        });
+        assertEquals(750L, count[0]);
+        assertEquals(1500L, tree.stream(lower, true, lower, true).parallel()
+                .filter(movie -> movie.getDuration() == 100).count());
+    }
+
+    /**
+     * Tests that walks down a tree with a cycle, which a rotation can leave for a moment while
+     * the tree is read without a lock, fail instead of never ending
+     */
+    @Test
+    public void testWalkIntoCycleFails() {
+        IterableMultiKeyRBT<Integer> tree = new IterableMultiKeyRBT<>();
+        for (int key = 10; key <= 70; key += 10) {
+            tree.insertSingleKey(key);
+        }
+        //Keys between the root and its right child now lead back to the root forever
+        int between = tree.root.data.firstKey() + 1;
+        tree.root.down[1].down[0] = tree.root;
+        try {
+            tree.countInRange(between, true, null, true);
+            fail("Counting into a cycle should throw an exception");
+        } catch (ConcurrentModificationException e) {
+            assertTrue(true);
+        }
+        try {
+            tree.iterator(between, true, null, true);
+            fail("Iterating into a cycle should throw an exception");
+        } catch (ConcurrentModificationException e) {
+            assertTrue(true);
+        }
+    }
+
+    /**
+     * Splits a spliterator up to a depth and adds the keys of the parts to a list in order
+     */
+    private static void splitAndTraverse(Spliterator<MovieInterface> spliterator,
+                                         List<MovieInterface> keys, int depth) {
+        //Takes one key before splitting, so splits also happen during a traversal
+        spliterator.tryAdvance(keys::add);
+        Spliterator<MovieInterface> firstHalf = depth < 10 ? spliterator.trySplit() : null;
+        if (firstHalf != null) {
+            splitAndTraverse(firstHalf, keys, depth + 1);
+            splitAndTraverse(spliterator, keys, depth + 1);
+        } else {
+            spliterator.forEachRemaining(keys::add);
+        }
+    }
 }
@@ -1,4 +1,8 @@
 import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This interfaces extends the SortedCollectionInterface to allow storing multiple values for a single key,
@@ -14,20 +18,174 @@ public interface IterableMultiKeySortedCollectionInterface<T extends Comparable<
      */
     public boolean insertSingleKey(T key);
 
+    /**
+     * Removes one value from the KeyList of its key, and removes the whole KeyList from the tree
+     * when it is empty afterwards. Values are matched with equals.
+     * @param key object to remove
+     * @return true if key was removed, false if the collection does not contain it
+     * @throws NullPointerException when key is null
+     */
+    public boolean removeSingleKey(T key);
+
+    /**
+     * Returns the key that the collection holds for a key once it is inserted. A collection
+     * that stores copies of its keys creates the copy here, and inserting the returned key then
+     * stores it without copying it again. Every other collection returns the key itself.
+     * @param key the key that is about to be inserted
+     * @return the key that the collection returns for key after inserting it
+     */
+    public default T storedKey(T key) {
+        return key;
+    }
+
+    /**
+     * Removes one value like removeSingleKey, and returns the value that the collection held,
+     * which is a copy of key for a collection that stores copies of its keys.
+     * @param key object to remove
+     * @return the removed value, or null if the collection does not contain key
+     * @throws NullPointerException when key is null
+     */
+    public default T removeStoredKey(T key) {
+        return removeSingleKey(key) ? key : null;
+    }
+
+    /**
+     * Inserts all keys into the collection. When the collection is empty, the keys are sorted and
+     * grouped into KeyLists first, and the tree is built from the sorted lists in linear time
+     * instead of inserting the keys one by one. When the collection already contains keys, every
+     * key is inserted with insertSingleKey. Keys that compare equal keep the order they have in
+     * the input.
+     * @param keys the keys to insert
+     * @throws NullPointerException when keys or one of the keys is null
+     */
+    public void bulkLoad(Iterable<T> keys);
+
+    /**
+     * Inserts all keys of an array into the collection, see bulkLoad(Iterable).
+     * @param keys the keys to insert
+     * @throws NullPointerException when keys or one of the keys is null
+     */
+    public default void bulkLoad(T[] keys) {
+        bulkLoad(java.util.Arrays.asList(keys));
+    }
+
     /**
      * @return the number of values in the tree.
      */
     public int numKeys();
 
+    /**
+     * Counts the keys between two bounds in O(log n), without iterating over them.
+     * @param lowerBound smallest key to count, or null for no lower bound
+     * @param lowerInclusive true if keys equal to lowerBound should be counted
+     * @param upperBound largest key to count, or null for no upper bound
+     * @param upperInclusive true if keys equal to upperBound should be counted
+     * @return the number of keys between the bounds
+     */
+    public int countInRange(Comparable<T> lowerBound, boolean lowerInclusive,
+                            Comparable<T> upperBound, boolean upperInclusive);
+
+    /**
+     * Returns the number of keys smaller than key in O(log n). This is the index of the first
+     * key equal to key in an in-order iteration, if the collection contains such a key.
+     * @param key the key to rank, it does not have to be in the collection
+     * @return the number of keys smaller than key
+     */
+    public int rank(Comparable<T> key);
+
+    /**
+     * Returns the key at an index of the in-order iteration in O(log n).
+     * @param index index of the key, 0 for the smallest key
+     * @return the key at this index
+     * @throws IndexOutOfBoundsException when index is negative or not smaller than numKeys()
+     */
+    public T select(int index);
+
     /**
      * Returns an iterator that does an in-order iteration over the tree.
      */
     public Iterator<T> iterator();
 
+    /**
+     * Returns an iterator that does an in-order iteration over the keys between two bounds. The
+     * iteration seeks directly to the lower bound and stops as soon as it passes the upper bound,
+     * so only the keys inside the range are visited. This iteration ignores the start point set
+     * through setIterationStartPoint.
+     * @param lowerBound smallest key to return, or null to start at the smallest key in the tree
+     * @param lowerInclusive true if keys equal to lowerBound should be returned
+     * @param upperBound largest key to return, or null to iterate until the largest key in the tree
+     * @param upperInclusive true if keys equal to upperBound should be returned
+     */
+    public Iterator<T> iterator(Comparable<T> lowerBound, boolean lowerInclusive,
+                                Comparable<T> upperBound, boolean upperInclusive);
+
+    /**
+     * Returns an iterator that resumes an in-order iteration at a position within the KeyList of
+     * a key, so that an iteration can be continued later from the last key it returned. The
+     * iteration seeks directly to that KeyList, and continues with the larger keys until it
+     * passes the upper bound. Keys that are removed from the KeyList move the keys after them
+     * one position forward, so a position is only valid until a key is removed. This iteration
+     * ignores the start point set through setIterationStartPoint.
+     * @param startKey key of the KeyList to resume in, the iteration starts at the next larger
+     *                 key when there is no KeyList with this key
+     * @param startIndex position within the KeyList of startKey of the first key to return
+     * @param upperBound largest key to return, or null to iterate until the largest key in the tree
+     * @param upperInclusive true if keys equal to upperBound should be returned
+     */
+    public Iterator<T> iterator(Comparable<T> startKey, int startIndex, Comparable<T> upperBound,
+                                boolean upperInclusive);
+
+    /**
+     * Returns an iterator that does a reverse in-order iteration over the tree, from the largest
+     * key to the smallest. Keys that compare equal are returned in the order they were inserted.
+     */
+    public Iterator<T> descendingIterator();
+
+    /**
+     * Returns a spliterator over the keys between two bounds, in the order of iterator(lowerBound,
+     * lowerInclusive, upperBound, upperInclusive). Keys are only visited as they are consumed.
+     * @param lowerBound smallest key to return, or null to start at the smallest key in the tree
+     * @param lowerInclusive true if keys equal to lowerBound should be returned
+     * @param upperBound largest key to return, or null to iterate until the largest key in the tree
+     * @param upperInclusive true if keys equal to upperBound should be returned
+     */
+    public default Spliterator<T> spliterator(Comparable<T> lowerBound, boolean lowerInclusive,
+                                              Comparable<T> upperBound, boolean upperInclusive) {
+        return Spliterators.spliteratorUnknownSize(iterator(lowerBound, lowerInclusive,
+                upperBound, upperInclusive), Spliterator.ORDERED | Spliterator.NONNULL);
+    }
+
+    /**
+     * Returns a sequential stream over all keys, in the order of iterator().
+     */
+    public default Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Returns a parallel stream over all keys, see spliterator().
+     */
+    public default Stream<T> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Returns a sequential stream over the keys between two bounds, see spliterator(lowerBound,
+     * lowerInclusive, upperBound, upperInclusive).
+     */
+    public default Stream<T> stream(Comparable<T> lowerBound, boolean lowerInclusive,
+                                    Comparable<T> upperBound, boolean upperInclusive) {
+        return StreamSupport.stream(spliterator(lowerBound, lowerInclusive, upperBound,
+                upperInclusive), false);
+    }
+
     /**
      * Sets the starting point for iterations. Future iterations will start at the
      * starting point or the key closest to it in the tree. This setting is remembered
      * until it is reset. Passing in null disables the starting point.
+     * The start point is shared by all iterations of the tree, so code that iterates from
+     * several threads should pass its bounds to iterator(lowerBound, lowerInclusive, upperBound,
+     * upperInclusive) or stream(...) instead.
      * @param startPoint the start point to set for iterations
      */
     public void setIterationStartPoint(Comparable<T> startPoint);
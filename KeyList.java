@@ -31,6 +31,16 @@ public class KeyList<T extends Comparable<T>> implements KeyListInterface<T> {
         keyList.add(newKey);
     }
 
+    /**
+     * Removes one object that is equal to key from the list.
+     * @param key the key object to remove
+     * @return true if an object was removed, false if the list does not contain key
+     */
+    @Override
+    public boolean removeKey(T key) {
+        return keyList.remove(key);
+    }
+
 	/*
 	* Checks if the KeyList contains key.
 	* @return true if this KeyList contains key, false if not
@@ -50,7 +60,45 @@ public class KeyList<T extends Comparable<T>> implements KeyListInterface<T> {
      */
     @Override
     public int compareTo(KeyListInterface<T> o) {
-        return keyList.get(0).compareTo(o.iterator().next());
+        return keyList.get(0).compareTo(o.firstKey());
+    }
+
+    /**
+     * Returns the first object added to the list, which represents the key of the list.
+     * @return the first object in the list
+     */
+    @Override
+    public T firstKey() {
+        return keyList.get(0);
+    }
+
+    /**
+     * @return the number of objects stored in the list
+     */
+    @Override
+    public int size() {
+        return keyList.size();
+    }
+
+    /**
+     * Returns the object at a position of the list. Takes linear time in the position, as the
+     * objects are stored in a LinkedList.
+     * @param index position of the object, 0 for the first object added
+     * @return the object at this position
+     */
+    @Override
+    public T get(int index) {
+        return keyList.get(index);
+    }
+
+    /**
+     * Returns an iterator over the objects stored in the list, starting at a position.
+     * @param startIndex position of the first object to return
+     * @return the iterator object
+     */
+    @Override
+    public Iterator<T> iterator(int startIndex) {
+        return keyList.listIterator(Math.min(startIndex, keyList.size()));
     }
 
     /**
@@ -1,3 +1,5 @@
+import java.util.Iterator;
+
 /**
  * This is the interface of a type that will allow us to store duplicate keys in a single node of a tree.
  */
@@ -9,10 +11,47 @@ public interface KeyListInterface<T extends Comparable<T>> extends Comparable<Ke
      */
     public void addKey(T newKey);
 
+    /**
+     * Removes one object that is equal to key from the list. The objects after it move one
+     * position forward.
+     * @param key the key object to remove
+     * @return true if an object was removed, false if the list does not contain key
+     */
+    public boolean removeKey(T key);
+
     /**
      * Checks if the list contains key.
      * @param key the key object to check for
      */
     public boolean containsKey(T key);
 
+    /**
+     * Returns the first object added to the list. All objects in the list map to the same key,
+     * so this object represents the key of the whole list when comparing lists.
+     * @return the first object in the list
+     */
+    public T firstKey();
+
+    /**
+     * @return the number of objects stored in the list
+     */
+    public int size();
+
+    /**
+     * Returns the object at a position of the list. Objects keep their position while objects are
+     * added, but removing an object moves the objects after it one position forward.
+     * @param index position of the object, 0 for the first object added
+     * @return the object at this position
+     * @throws IndexOutOfBoundsException when index is not smaller than size()
+     */
+    public T get(int index);
+
+    /**
+     * Returns an iterator over the objects of the list, starting at a position.
+     * @param startIndex position of the first object to return, may be size() or larger to
+     *                   return no objects
+     * @return the iterator object
+     */
+    public Iterator<T> iterator(int startIndex);
+
 }
\ No newline at end of file
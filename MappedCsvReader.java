@@ -0,0 +1,176 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads a movie csv file with several threads. The file is memory-mapped and split into chunks
+ * that start and end on record boundaries, each chunk is parsed by MovieCsvParser on a worker
+ * thread, and the movies of all chunks are returned in the order of the file. The result is
+ * therefore the same as parsing the file sequentially.
+ *
+ * A line break only ends a record when it is outside of a quoted field, which is the case when an
+ * even number of quotes comes before it in the file (escaped quotes count twice). The threads
+ * first count the quotes of equally sized parts of the file, and the counts of all earlier parts
+ * tell each part whether it starts inside a quoted field. Then every part looks for its first
+ * line break outside of quotes, which is where its chunk starts. This requires that quotes are
+ * only used around fields and escaped within them, as in RFC 4180.
+ */
+public class MappedCsvReader {
+    //Parts are at most this large, so that each of them fits into a MappedByteBuffer
+    private static final long MAX_PART_SIZE = 1L << 29;
+    //Number of parts per thread, so that threads that finish early can take over other parts
+    private static final int PARTS_PER_THREAD = 4;
+
+    /**
+     * Reads all movies from a csv file with a header line.
+     * @param file the csv file to read
+     * @param numThreads number of worker threads that parse the file
+     * @return the movies in the order of the records in the file
+     * @throws IOException when the file cannot be read
+     */
+    public static List<MovieInterface> read(Path file, int numThreads) throws IOException {
+        return read(file, numThreads, 0);
+    }
+
+    /**
+     * Reads all movies from a csv file with a header line, splitting it into at least numParts
+     * parts.
+     * @param file the csv file to read
+     * @param numThreads number of worker threads that parse the file
+     * @param numParts minimum number of parts to split the file into, 0 to choose by file size
+     * @return the movies in the order of the records in the file
+     * @throws IOException when the file cannot be read
+     */
+    static List<MovieInterface> read(Path file, int numThreads, int numParts) throws IOException {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize == 0) {
+                return new ArrayList<>();
+            }
+            int parts = (int) Math.max(Math.max(numParts, (long) numThreads * PARTS_PER_THREAD),
+                    (fileSize + MAX_PART_SIZE - 1) / MAX_PART_SIZE);
+            parts = (int) Math.min(parts, fileSize);
+            long[] partStarts = new long[parts + 1];
+            for (int i = 0; i <= parts; i++) {
+                partStarts[i] = fileSize * i / parts;
+            }
+
+            //Counts the quotes of every part
+            List<Future<Long>> quoteCounts = new ArrayList<>();
+            for (int i = 0; i < parts; i++) {
+                long start = partStarts[i];
+                long end = partStarts[i + 1];
+                quoteCounts.add(executor.submit(() -> countQuotes(channel, start, end)));
+            }
+
+            //Finds the first record boundary of every part, a part starts inside quotes when an
+            //odd number of quotes comes before it
+            List<Future<Long>> boundaries = new ArrayList<>();
+            long quotesBefore = 0;
+            for (int i = 0; i < parts; i++) {
+                long start = partStarts[i];
+                long end = partStarts[i + 1];
+                boolean inQuotes = quotesBefore % 2 == 1;
+                boundaries.add(executor.submit(() -> findRecordStart(channel, start, end,
+                        inQuotes)));
+                quotesBefore += quoteCounts.get(i).get();
+            }
+
+            //Chunks go from one record boundary to the next, a part without a boundary is
+            //merged into the chunk of the previous part
+            List<Long> chunkStarts = new ArrayList<>();
+            chunkStarts.add(0L);
+            for (int i = 1; i < parts; i++) {
+                long boundary = boundaries.get(i).get();
+                if (boundary != -1 && boundary > chunkStarts.get(chunkStarts.size() - 1)) {
+                    chunkStarts.add(boundary);
+                }
+            }
+            chunkStarts.add(fileSize);
+
+            //Parses every chunk, only the first one starts with the header
+            List<Future<List<MovieInterface>>> chunkMovies = new ArrayList<>();
+            for (int i = 0; i + 1 < chunkStarts.size(); i++) {
+                long start = chunkStarts.get(i);
+                long end = chunkStarts.get(i + 1);
+                boolean skipHeader = i == 0;
+                chunkMovies.add(executor.submit(() -> parseChunk(channel, start, end,
+                        skipHeader)));
+            }
+            List<MovieInterface> movies = new ArrayList<>();
+            for (Future<List<MovieInterface>> chunk : chunkMovies) {
+                movies.addAll(chunk.get());
+            }
+            return movies;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Reading the file was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Reading the file failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Counts the quote characters between two positions of the file.
+     */
+    private static long countQuotes(FileChannel channel, long start, long end) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        long quotes = 0;
+        for (int i = 0; i < buffer.limit(); i++) {
+            if (buffer.get(i) == '"') {
+                quotes++;
+            }
+        }
+        return quotes;
+    }
+
+    /**
+     * Finds the first position after a line break outside of quotes between two positions.
+     * @param inQuotes true if start is inside a quoted field
+     * @return position right after the line break, or -1 when the part contains no such line
+     *         break
+     */
+    private static long findRecordStart(FileChannel channel, long start, long end,
+                                        boolean inQuotes) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        for (int i = 0; i < buffer.limit(); i++) {
+            byte b = buffer.get(i);
+            if (b == '"') {
+                inQuotes = !inQuotes;
+            } else if (b == '\n' && !inQuotes) {
+                return start + i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the records between two record boundaries of the file.
+     */
+    private static List<MovieInterface> parseChunk(FileChannel channel, long start, long end,
+                                                   boolean skipHeader) throws IOException {
+        List<MovieInterface> movies = new ArrayList<>();
+        MovieCsvParser parser = new MovieCsvParser(movies::add, skipHeader);
+        parser.parse(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+        parser.finish();
+        return movies;
+    }
+
+}
@@ -1,7 +1,14 @@
+/**
+ * A movie. Genres and countries repeat across millions of movies, so they are stored as codes of
+ * the shared dictionary VALUES, and every movie with the same genre returns the same String.
+ */
 public class Movie implements MovieInterface,Comparable<MovieInterface>  {
+    //dictionary of the genres and countries of all movies
+    static final StringDictionary VALUES = new StringDictionary();
+
     private String title;
-    private String genre;
-    private String country;
+    private int genreCode;
+    private int countryCode;
     private int year;
     private int duration;
 
@@ -9,9 +16,16 @@ public class Movie implements MovieInterface,Comparable<MovieInterface>  {
      * Constructor for movie class
      */
     public Movie(String title, String genre, String country, int year, int duration){
+        this(title, VALUES.code(genre), VALUES.code(country), year, duration);
+    }
+
+    /**
+     * Constructor for a movie whose genre and country are already codes of VALUES
+     */
+    Movie(String title, int genreCode, int countryCode, int year, int duration){
         this.title = title;
-        this.genre = genre;
-        this.country = country;
+        this.genreCode = genreCode;
+        this.countryCode = countryCode;
         this.year = year;
         this.duration = duration;
     }
@@ -32,7 +46,7 @@ public class Movie implements MovieInterface,Comparable<MovieInterface>  {
      */
     @Override
     public String getGenre(){
-        return genre;
+        return VALUES.value(genreCode);
 
     }
 
@@ -42,7 +56,7 @@ public class Movie implements MovieInterface,Comparable<MovieInterface>  {
      */
     @Override
     public String getCountry(){
-        return country;
+        return VALUES.value(countryCode);
 
     }
 
@@ -65,6 +79,24 @@ public class Movie implements MovieInterface,Comparable<MovieInterface>  {
         return duration;
 
     }
+    /**
+     * checks whether the movie lists a genre.
+     * @param keyCode the code of the normalized genre in VALUES
+     * @return true if the genre of the movie contains it
+     */
+    boolean hasGenre(int keyCode){
+        return VALUES.hasKey(genreCode, keyCode);
+    }
+
+    /**
+     * checks whether the movie lists a country.
+     * @param keyCode the code of the normalized country in VALUES
+     * @return true if the country of the movie contains it
+     */
+    boolean hasCountry(int keyCode){
+        return VALUES.hasKey(countryCode, keyCode);
+    }
+
     /**
      * compares the duration of two different movies
      * @param other the other movie to be compared to
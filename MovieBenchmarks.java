@@ -0,0 +1,1668 @@
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.ListenerNotFoundException;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Benchmarks for the movie tree and the backend queries. Each benchmark builds its own data set
+ * of generated movies, warms up the JIT and then prints the average time per operation. Run a
+ * single benchmark by passing its name as argument, or all of them by passing no arguments.
+ */
+public class MovieBenchmarks {
+    //Number of times each measured operation is repeated
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 20;
+
+    /**
+     * Main method that runs the benchmarks named in args, or every benchmark when args is empty.
+     */
+    public static void main(String[] args) {
+        List<String> names = List.of(args);
+        if (names.isEmpty() || names.contains("rangeQuery")) {
+            benchmarkRangeQuery(1_000_000);
+        }
+        if (names.isEmpty() || names.contains("sortedLoad")) {
+            benchmarkSortedLoad(20_000);
+        }
+        if (names.isEmpty() || names.contains("duplicateInsert")) {
+            benchmarkDuplicateInsert(1_000_000);
+        }
+        if (names.isEmpty() || names.contains("keyListFootprint")) {
+            benchmarkKeyListFootprint(1_000_000);
+        }
+        if (names.isEmpty() || names.contains("bulkLoad")) {
+            benchmarkBulkLoad(1_000_000);
+            //10M movies need a larger heap, e.g. -Xmx4g
+            benchmarkBulkLoad(10_000_000);
+        }
+        if (names.isEmpty() || names.contains("csvParse")) {
+            //Pass a size like 5000 as second argument to parse a 5 GB file
+            long megabytes = args.length > 1 ? Long.parseLong(args[1]) : 256;
+            benchmarkCsvParse(megabytes);
+        }
+        if (names.isEmpty() || names.contains("parallelRead")) {
+            long megabytes = args.length > 1 ? Long.parseLong(args[1]) : 256;
+            benchmarkParallelRead(megabytes, Runtime.getRuntime().availableProcessors());
+        }
+        if (names.isEmpty() || names.contains("snapshotStart")) {
+            long megabytes = args.length > 1 ? Long.parseLong(args[1]) : 256;
+            benchmarkSnapshotStart(megabytes);
+        }
+        if (names.isEmpty() || names.contains("indexQuery")) {
+            long megabytes = args.length > 1 ? Long.parseLong(args[1]) : 64;
+            benchmarkIndexQuery(megabytes);
+        }
+        if (names.isEmpty() || names.contains("mixedQuery")) {
+            long megabytes = args.length > 1 ? Long.parseLong(args[1]) : 64;
+            benchmarkMixedQuery(megabytes);
+        }
+        if (names.isEmpty() || names.contains("wideQuery")) {
+            benchmarkWideQuery(3_000_000);
+        }
+        if (names.isEmpty() || names.contains("deepPages")) {
+            benchmarkDeepPages(3_000_000);
+        }
+        if (names.isEmpty() || names.contains("orderStatistics")) {
+            benchmarkOrderStatistics(3_000_000);
+        }
+        if (names.isEmpty() || names.contains("parallelAggregation")) {
+            //10M movies need a larger heap, e.g. -Xmx4g
+            benchmarkParallelAggregation(10_000_000);
+        }
+        if (names.isEmpty() || names.contains("readScaling")) {
+            benchmarkReadScaling(1_000_000, 32);
+        }
+        if (names.isEmpty() || names.contains("persistentTree")) {
+            benchmarkPersistentTree(1_000_000);
+        }
+        if (names.isEmpty() || names.contains("updateDuration")) {
+            benchmarkUpdateDuration(1_000_000);
+        }
+        if (names.isEmpty() || names.contains("refreshFile")) {
+            benchmarkRefreshFile(1_000_000, 1000);
+        }
+        if (names.isEmpty() || names.contains("durationIndex")) {
+            benchmarkDurationIndex(1_000_000);
+        }
+        if (names.isEmpty() || names.contains("columnarStore")) {
+            benchmarkColumnarStore(1_000_000);
+        }
+        if (names.isEmpty() || names.contains("offHeap")) {
+            //10M movies need a larger heap, e.g. -Xmx3g
+            benchmarkOffHeap(10_000_000, 20);
+        }
+        if (names.isEmpty() || names.contains("bPlusTree")) {
+            //Pass a number of keys as second argument, 50M keys need a heap of about 12 GB
+            if (args.length > 1) {
+                benchmarkBPlusTree(Integer.parseInt(args[1]));
+            } else {
+                benchmarkBPlusTree(1_000_000);
+                benchmarkBPlusTree(10_000_000);
+            }
+        }
+        if (names.isEmpty() || names.contains("queryCache")) {
+            benchmarkQueryCache(1_000_000, 20_000, 100);
+        }
+        if (names.isEmpty() || names.contains("titleIndex")) {
+            //5M titles need a larger heap, e.g. -Xmx3g
+            int numMovies = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+            benchmarkTitleIndex(numMovies);
+        }
+        if (names.isEmpty() || names.contains("dictionaryLoad")) {
+            //435 MB are about 5M rows, which need a larger heap, e.g. -Xmx3g
+            long megabytes = args.length > 1 ? Long.parseLong(args[1]) : 435;
+            benchmarkDictionaryLoad(megabytes);
+        }
+    }
+
+    /**
+     * Compares a narrow duration range query answered by filtering a full in-order iteration to
+     * the same query answered by the bounded iterator, which seeks to the lower bound and stops
+     * after the upper bound.
+     * @param numMovies number of movies in the tree
+     */
+    public static void benchmarkRangeQuery(int numMovies) {
+        IterableMultiKeyRBT<MovieInterface> tree = new IterableMultiKeyRBT<>();
+        for (MovieInterface movie : generateMovies(numMovies, 42)) {
+            tree.insertSingleKey(movie);
+        }
+        System.out.println("rangeQuery: " + numMovies + " movies, 90-95 minutes");
+
+        double fullScan = averageMillis(() -> {
+            int count = 0;
+            for (MovieInterface movie : tree) {
+                if (movie.getDuration() >= 90 && movie.getDuration() <= 95) {
+                    count++;
+                }
+            }
+            return count;
+        });
+        double bounded = averageMillis(() -> {
+            int count = 0;
+            Iterator<MovieInterface> iterator = tree.iterator(Backend.durationBound(90), true,
+                    Backend.durationBound(95), true);
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+            return count;
+        });
+        System.out.printf("  full scan + filter: %10.3f ms%n", fullScan);
+        System.out.printf("  bounded iterator:   %10.3f ms%n", bounded);
+    }
+
+    /**
+     * Compares loading keys in sorted order into an unbalanced binary search tree, which degrades
+     * into a linked list, to loading them into the red black tree based multi-key collection.
+     * @param numKeys number of distinct keys to insert in ascending order
+     */
+    public static void benchmarkSortedLoad(int numKeys) {
+        System.out.println("sortedLoad: " + numKeys + " distinct keys in ascending order");
+        double unbalanced = averageMillis(() -> {
+            BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+            for (int i = 0; i < numKeys; i++) {
+                tree.insert(i);
+            }
+            return tree.size();
+        });
+        double balanced = averageMillis(() -> {
+            IterableMultiKeyRBT<Integer> tree = new IterableMultiKeyRBT<>();
+            for (int i = 0; i < numKeys; i++) {
+                tree.insertSingleKey(i);
+            }
+            return tree.size();
+        });
+        BinarySearchTree<Integer> unbalancedTree = new BinarySearchTree<>();
+        IterableMultiKeyRBT<Integer> balancedTree = new IterableMultiKeyRBT<>();
+        for (int i = 0; i < numKeys; i++) {
+            unbalancedTree.insert(i);
+            balancedTree.insertSingleKey(i);
+        }
+        System.out.printf("  BinarySearchTree:    %10.3f ms (height %d)%n", unbalanced,
+                unbalancedTree.height());
+        System.out.printf("  IterableMultiKeyRBT: %10.3f ms (height %d)%n", balanced,
+                balancedTree.height());
+    }
+
+    /**
+     * Measures throughput and allocated bytes per insert on a duplicate-heavy workload, where
+     * about 300 distinct durations are shared by all movies. Compares the single descent
+     * insertSingleKey to the previous insert path, which allocated a KeyList per movie and
+     * searched the tree twice for duplicates and a third time for new keys.
+     * @param numMovies number of movies to insert
+     */
+    public static void benchmarkDuplicateInsert(int numMovies) {
+        List<MovieInterface> movies = generateMovies(numMovies, 42);
+        System.out.println("duplicateInsert: " + numMovies + " movies, 300 distinct durations");
+
+        Operation previousInsert = () -> {
+            IterableMultiKeyRBT<MovieInterface> tree = new IterableMultiKeyRBT<>();
+            for (MovieInterface movie : movies) {
+                KeyList<MovieInterface> keyList = new KeyList<>(movie);
+                if (tree.findNode(keyList) != null) {
+                    tree.findNode(keyList).data.addKey(movie);
+                } else {
+                    tree.insert(keyList);
+                }
+            }
+            return tree.size();
+        };
+        Operation singleDescentInsert = () -> {
+            IterableMultiKeyRBT<MovieInterface> tree = new IterableMultiKeyRBT<>();
+            for (MovieInterface movie : movies) {
+                tree.insertSingleKey(movie);
+            }
+            return tree.size();
+        };
+        double previousMillis = averageMillis(previousInsert);
+        double singleDescentMillis = averageMillis(singleDescentInsert);
+        System.out.printf("  previous insert:      %10.3f ms, %6.1f bytes/insert, %6.2f M inserts/s%n",
+                previousMillis, allocatedBytes(previousInsert) / (double) numMovies,
+                numMovies / previousMillis / 1000);
+        System.out.printf("  single descent:       %10.3f ms, %6.1f bytes/insert, %6.2f M inserts/s%n",
+                singleDescentMillis, allocatedBytes(singleDescentInsert) / (double) numMovies,
+                numMovies / singleDescentMillis / 1000);
+    }
+
+    /**
+     * Reports the heap retained by a KeyList and by an ArrayKeyList holding the same number of
+     * entries, and the time to iterate over them. The same movie is added for every entry, so
+     * only the memory of the list structure itself is counted.
+     * @param numEntries number of entries added to each list
+     */
+    public static void benchmarkKeyListFootprint(int numEntries) {
+        MovieInterface movie = new Movie("Movie", "Drama", "USA", 2000, 90);
+        System.out.println("keyListFootprint: " + numEntries + " entries in one list");
+
+        long heapBefore = usedHeap();
+        KeyListInterface<MovieInterface> linkedList = new KeyList<>(movie);
+        for (int i = 1; i < numEntries; i++) {
+            linkedList.addKey(movie);
+        }
+        long linkedListBytes = usedHeap() - heapBefore;
+
+        heapBefore = usedHeap();
+        KeyListInterface<MovieInterface> arrayList = new ArrayKeyList<>(movie);
+        for (int i = 1; i < numEntries; i++) {
+            arrayList.addKey(movie);
+        }
+        long arrayListBytes = usedHeap() - heapBefore;
+
+        double linkedListIteration = averageMillis(() -> sumDurations(linkedList));
+        double arrayListIteration = averageMillis(() -> sumDurations(arrayList));
+        System.out.printf("  KeyList:      %12d bytes (%5.1f bytes/entry), iteration %8.3f ms%n",
+                linkedListBytes, linkedListBytes / (double) numEntries, linkedListIteration);
+        System.out.printf("  ArrayKeyList: %12d bytes (%5.1f bytes/entry), iteration %8.3f ms%n",
+                arrayListBytes, arrayListBytes / (double) numEntries, arrayListIteration);
+    }
+
+    /**
+     * Adds up the durations of all movies returned by an iterable.
+     */
+    private static long sumDurations(Iterable<MovieInterface> movies) {
+        long sum = 0;
+        for (MovieInterface movie : movies) {
+            sum += movie.getDuration();
+        }
+        return sum;
+    }
+
+    /**
+     * Runs the garbage collector a few times and returns the heap memory that is still in use.
+     * @return used heap memory in bytes
+     */
+    public static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Compares loading movies into an empty tree with one insertSingleKey call per movie to
+     * loading them with bulkLoad, for movies in random order and for movies sorted by duration.
+     * @param numMovies number of movies to load
+     */
+    public static void benchmarkBulkLoad(int numMovies) {
+        List<MovieInterface> movies = generateMovies(numMovies, 42);
+        List<MovieInterface> sortedMovies = new ArrayList<>(movies);
+        sortedMovies.sort(null);
+        System.out.println("bulkLoad: " + numMovies + " movies");
+
+        for (List<MovieInterface> input : List.of(movies, sortedMovies)) {
+            double perRow = averageMillis(() -> {
+                IterableMultiKeyRBT<MovieInterface> tree = new IterableMultiKeyRBT<>();
+                for (MovieInterface movie : input) {
+                    tree.insertSingleKey(movie);
+                }
+                return tree.size();
+            });
+            double bulk = averageMillis(() -> {
+                IterableMultiKeyRBT<MovieInterface> tree = new IterableMultiKeyRBT<>();
+                tree.bulkLoad(input);
+                return tree.size();
+            });
+            String order = input == movies ? "random order" : "sorted order";
+            System.out.printf("  %s, insertSingleKey: %10.3f ms%n", order, perRow);
+            System.out.printf("  %s, bulkLoad:        %10.3f ms%n", order, bulk);
+        }
+    }
+
+    /**
+     * Compares the parsing throughput of the previous readFile implementation, which split every
+     * line at commas and joined quoted fields again, to MovieCsvParser. Both read a generated csv
+     * file of the given size whose titles contain commas and escaped quotes.
+     * @param megabytes size of the generated file in MB
+     */
+    public static void benchmarkCsvParse(long megabytes) {
+        try {
+            File file = File.createTempFile("movies", ".csv");
+            file.deleteOnExit();
+            long rows = writeCsvFile(file, megabytes * 1024 * 1024);
+            System.out.println("csvParse: " + rows + " rows, " + file.length() / (1024 * 1024)
+                    + " MB");
+
+            long[] count = new long[1];
+            long start = System.nanoTime();
+            try (BufferedReader input = new BufferedReader(new FileReader(file))) {
+                splitParse(input, movie -> count[0]++);
+            }
+            printThroughput("split + join", file.length(), count[0], System.nanoTime() - start);
+
+            count[0] = 0;
+            start = System.nanoTime();
+            try (InputStream input = new FileInputStream(file)) {
+                MovieCsvParser.parse(input, movie -> count[0]++);
+            }
+            printThroughput("MovieCsvParser", file.length(), count[0], System.nanoTime() - start);
+            file.delete();
+        } catch (IOException e) {
+            System.out.println("IOException: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Measures how reading a csv file into the movie tree scales with the number of threads
+     * MappedCsvReader uses, from 1 thread up to maxThreads, doubling each time.
+     * @param megabytes size of the generated file in MB
+     * @param maxThreads largest number of threads to read the file with
+     */
+    public static void benchmarkParallelRead(long megabytes, int maxThreads) {
+        try {
+            File file = File.createTempFile("movies", ".csv");
+            file.deleteOnExit();
+            long rows = writeCsvFile(file, megabytes * 1024 * 1024);
+            System.out.println("parallelRead: " + rows + " rows, " + file.length() / (1024 * 1024)
+                    + " MB, " + Runtime.getRuntime().availableProcessors() + " cores");
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                long start = System.nanoTime();
+                IterableMultiKeyRBT<MovieInterface> tree = new IterableMultiKeyRBT<>();
+                tree.bulkLoad(MappedCsvReader.read(file.toPath(), threads));
+                printThroughput(threads + " threads", file.length(), tree.numKeys(),
+                        System.nanoTime() - start);
+            }
+            file.delete();
+        } catch (IOException e) {
+            System.out.println("IOException: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Measures the start of a backend that reads a csv file, once by parsing the file and once
+     * from the snapshot that the first read wrote. Each start uses a new backend and tree, run
+     * the benchmark in a fresh JVM to include class loading and JIT warm-up as in a restart.
+     * @param megabytes size of the generated file in MB
+     */
+    public static void benchmarkSnapshotStart(long megabytes) {
+        try {
+            File file = File.createTempFile("movies", ".csv");
+            file.deleteOnExit();
+            long rows = writeCsvFile(file, megabytes * 1024 * 1024);
+            Path snapshot = Backend.snapshotPath(file.toString());
+            snapshot.toFile().deleteOnExit();
+            System.out.println("snapshotStart: " + rows + " rows, " + file.length() / (1024 * 1024)
+                    + " MB");
+
+            //Reads the csv file without snapshots, then writes the snapshot, then uses it
+            String[] starts = {"csv", "csv + writing snapshot", "snapshot"};
+            for (int i = 0; i < starts.length; i++) {
+                long start = System.nanoTime();
+                Backend backend = new Backend(new IterableMultiKeyRBT<>());
+                backend.setSnapshotsEnabled(i > 0);
+                backend.readFile(file.toString());
+                long nanos = System.nanoTime() - start;
+                System.out.printf("  start from %-24s %10.3f s%n", starts[i] + ":", nanos / 1e9);
+            }
+            System.out.println("  snapshot size: " + Files.size(snapshot) / (1024 * 1024) + " MB");
+            Files.delete(snapshot);
+            file.delete();
+        } catch (IOException e) {
+            System.out.println("IOException: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compares queries on year, genre and country answered by a scan of the movie tree to the
+     * same queries answered by the indexes of Backend.
+     * @param megabytes size of the generated file in MB
+     */
+    public static void benchmarkIndexQuery(long megabytes) {
+        try {
+            File file = File.createTempFile("movies", ".csv");
+            file.deleteOnExit();
+            long rows = writeCsvFile(file, megabytes * 1024 * 1024);
+            IterableMultiKeyRBT<MovieInterface> tree = new IterableMultiKeyRBT<>();
+            Backend backend = new Backend(tree);
+            backend.readFile(file.toString());
+            file.delete();
+            System.out.println("indexQuery: " + rows + " movies");
+
+            double yearScan = averageMillis(() -> {
+                int count = 0;
+                for (MovieInterface movie : tree) {
+                    if (movie.getYear() >= 1990 && movie.getYear() <= 1994) {
+                        count++;
+                    }
+                }
+                return count;
+            });
+            double yearIndex = averageMillis(() -> backend.getMoviesFromYears(1990, 1994).size());
+            double genreScan = averageMillis(() -> {
+                int count = 0;
+                for (MovieInterface movie : tree) {
+                    for (String genre : movie.getGenre().split(",")) {
+                        if (genre.trim().equalsIgnoreCase("romance")) {
+                            count++;
+                        }
+                    }
+                }
+                return count;
+            });
+            double genreIndex = averageMillis(() -> backend.getMoviesWithGenre("Romance").size());
+            double countryScan = averageMillis(() -> {
+                int count = 0;
+                for (MovieInterface movie : tree) {
+                    if (movie.getCountry().equalsIgnoreCase("italy")) {
+                        count++;
+                    }
+                }
+                return count;
+            });
+            double countryIndex = averageMillis(() -> backend.getMoviesFromCountry("Italy").size());
+            System.out.printf("  years 1990-1994, scan:  %10.3f ms%n", yearScan);
+            System.out.printf("  years 1990-1994, index: %10.3f ms%n", yearIndex);
+            System.out.printf("  genre Romance, scan:    %10.3f ms%n", genreScan);
+            System.out.printf("  genre Romance, index:   %10.3f ms%n", genreIndex);
+            System.out.printf("  country Italy, scan:    %10.3f ms%n", countryScan);
+            System.out.printf("  country Italy, index:   %10.3f ms%n", countryIndex);
+        } catch (IOException e) {
+            System.out.println("IOException: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compares a workload of queries that combine several predicates answered by filtering the
+     * result of getMoviesWithinRange to the same queries answered by findMovies, and prints the
+     * plan findMovies uses for each of them.
+     * @param megabytes size of the generated file in MB
+     */
+    public static void benchmarkMixedQuery(long megabytes) {
+        try {
+            File file = File.createTempFile("movies", ".csv");
+            file.deleteOnExit();
+            long rows = writeCsvFile(file, megabytes * 1024 * 1024);
+            Backend backend = new Backend(new IterableMultiKeyRBT<>());
+            backend.readFile(file.toString());
+            file.delete();
+            System.out.println("mixedQuery: " + rows + " movies");
+
+            MovieQuery[] queries = {
+                new MovieQuery.Builder().durationBetween(90, 120).minYear(2000).genre("Drama")
+                        .country("France").build(),
+                new MovieQuery.Builder().durationBetween(100, 101).genre("Comedy").build(),
+                new MovieQuery.Builder().durationBetween(40, 300).yearBetween(1950, 1950)
+                        .build(),
+                new MovieQuery.Builder().durationBetween(60, 200).genre("Romance")
+                        .country("Italy").maxYear(1930).build(),
+                new MovieQuery.Builder().durationBetween(40, 339).titlePrefix("Movie 12345")
+                        .build()
+            };
+            for (MovieQuery query : queries) {
+                System.out.println("  " + backend.explainQuery(query));
+            }
+            double filtered = averageMillis(() -> {
+                long count = 0;
+                for (MovieQuery query : queries) {
+                    for (MovieInterface movie : backend.getMoviesWithinRange(
+                            query.getMinDuration(), query.getMaxDuration())) {
+                        if (query.matches(movie)) {
+                            count++;
+                        }
+                    }
+                }
+                return count;
+            });
+            double planned = averageMillis(() -> {
+                long count = 0;
+                for (MovieQuery query : queries) {
+                    count += backend.findMovies(query).size();
+                }
+                return count;
+            });
+            System.out.printf("  range + filter: %10.3f ms per workload%n", filtered);
+            System.out.printf("  findMovies:     %10.3f ms per workload%n", planned);
+        } catch (IOException e) {
+            System.out.println("IOException: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compares a query for all movies of at least 0 minutes answered as a list to the same query
+     * answered as a stream: the time until the first movie is available, the bytes allocated to
+     * consume all movies, and the heap that is held while the movies are consumed.
+     * @param numMovies number of movies in the tree
+     */
+    public static void benchmarkWideQuery(int numMovies) {
+        IterableMultiKeyRBT<MovieInterface> tree = new IterableMultiKeyRBT<>();
+        tree.bulkLoad(generateMovies(numMovies, 42));
+        Backend backend = new Backend(tree);
+        System.out.println("wideQuery: " + numMovies + " movies, at least 0 minutes");
+
+        double listFirst = averageMillis(() -> backend.getMoviesWithMinDuration(0).get(0)
+                .getDuration());
+        double streamFirst = averageMillis(() -> backend.streamMoviesWithMinDuration(0)
+                .findFirst().get().getDuration());
+        long listAllocated = allocatedBytes(() -> sumDurations(
+                backend.getMoviesWithMinDuration(0)));
+        long streamAllocated = allocatedBytes(() -> backend.streamMoviesWithMinDuration(0)
+                .mapToLong(MovieInterface::getDuration).sum());
+
+        //Measures the heap halfway through consuming the movies, above the heap of the tree
+        long baseline = usedHeap();
+        long[] held = new long[2];
+        List<MovieInterface> list = backend.getMoviesWithMinDuration(0);
+        for (int i = 0; i < list.size(); i++) {
+            if (i == list.size() / 2) {
+                held[0] = usedHeap() - baseline;
+            }
+        }
+        list = null;
+        long[] consumed = {0};
+        backend.streamMoviesWithMinDuration(0).forEach(movie -> {
+            if (consumed[0]++ == numMovies / 2) {
+                held[1] = usedHeap() - baseline;
+            }
+        });
+        System.out.printf("  list:   first result %10.3f ms, %12d bytes allocated, %12d bytes "
+                + "held%n", listFirst, listAllocated, held[0]);
+        System.out.printf("  stream: first result %10.3f ms, %12d bytes allocated, %12d bytes "
+                + "held%n", streamFirst, streamAllocated, held[1]);
+    }
+
+    /**
+     * Compares the latency of fetching one page of 50 movies at increasing depths of a wide
+     * duration query: with a cursor, by skipping the earlier movies of a stream, and by computing
+     * the whole list. Also compares top-K of the longest movies to taking the end of the list.
+     * @param numMovies number of movies in the tree
+     */
+    public static void benchmarkDeepPages(int numMovies) {
+        IterableMultiKeyRBT<MovieInterface> tree = new IterableMultiKeyRBT<>();
+        tree.bulkLoad(generateMovies(numMovies, 42));
+        Backend backend = new Backend(tree);
+        int pageSize = 50;
+        System.out.println("deepPages: " + numMovies + " movies, 40-339 minutes, pages of "
+                + pageSize);
+
+        //Walks all pages once to get the cursor of each measured depth
+        int[] depths = {0, 100, 1_000, 10_000, 50_000};
+        String[] cursors = new String[depths.length];
+        String cursor = null;
+        for (int page = 0, next = 0; next < depths.length; page++) {
+            if (page == depths[next]) {
+                cursors[next++] = cursor;
+            }
+            cursor = backend.getMoviesWithinRange(40, 339, pageSize, cursor).getNextCursor();
+        }
+        for (int i = 0; i < depths.length; i++) {
+            String pageCursor = cursors[i];
+            long skipped = (long) depths[i] * pageSize;
+            double withCursor = averageMillis(() -> backend.getMoviesWithinRange(40, 339,
+                    pageSize, pageCursor).getMovies().size());
+            double withSkip = averageMillis(() -> backend.streamMoviesWithinRange(40, 339)
+                    .skip(skipped).limit(pageSize).count());
+            System.out.printf("  page %6d: cursor %10.4f ms, skip %10.3f ms%n", depths[i],
+                    withCursor, withSkip);
+        }
+        double fullList = averageMillis(() -> backend.getMoviesWithinRange(40, 339)
+                .subList(0, pageSize).size());
+        System.out.printf("  any page from the full list:  %10.3f ms%n", fullList);
+        double topK = averageMillis(() -> backend.getLongestMovies(pageSize).size());
+        double listEnd = averageMillis(() -> {
+            List<MovieInterface> movies = backend.getMoviesWithMinDuration(0);
+            return movies.subList(movies.size() - pageSize, movies.size()).size();
+        });
+        System.out.printf("  %d longest, descending walk: %10.4f ms%n", pageSize, topK);
+        System.out.printf("  %d longest, end of the list: %10.3f ms%n", pageSize, listEnd);
+    }
+
+    /**
+     * Compares counting the movies of a duration range and finding the median duration by
+     * iterating over the tree to the same queries answered from the subtree counts.
+     * @param numMovies number of movies in the tree
+     */
+    public static void benchmarkOrderStatistics(int numMovies) {
+        IterableMultiKeyRBT<MovieInterface> tree = new IterableMultiKeyRBT<>();
+        tree.bulkLoad(generateMovies(numMovies, 42));
+        Backend backend = new Backend(tree);
+        System.out.println("orderStatistics: " + numMovies + " movies");
+
+        double countIterating = averageMillis(() -> {
+            int count = 0;
+            Iterator<MovieInterface> iterator = tree.iterator(Backend.durationBound(80), true,
+                    Backend.durationBound(100), true);
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+            return count;
+        });
+        double countSubtrees = averageMillis(() -> backend.countMoviesWithinRange(80, 100));
+        double medianIterating = averageMillis(() -> {
+            Iterator<MovieInterface> iterator = tree.iterator();
+            for (int i = 0; i < (numMovies + 1) / 2 - 1; i++) {
+                iterator.next();
+            }
+            return iterator.next().getDuration();
+        });
+        double medianSelect = averageMillis(() -> backend.getDurationPercentile(50));
+        System.out.printf("  count 80-100, iterating:  %10.4f ms%n", countIterating);
+        System.out.printf("  count 80-100, subtrees:   %10.4f ms%n", countSubtrees);
+        System.out.printf("  median, iterating:        %10.4f ms%n", medianIterating);
+        System.out.printf("  median, select:           %10.4f ms%n", medianSelect);
+    }
+
+    /**
+     * Measures an aggregation over all movies with a parallel stream in thread pools of 1, 2, 4
+     * and 8 threads, and prints the speedup over the sequential stream. The speedup is limited by
+     * the number of cores of the machine.
+     * @param numMovies number of movies in the tree
+     */
+    public static void benchmarkParallelAggregation(int numMovies) {
+        IterableMultiKeyRBT<MovieInterface> tree = new IterableMultiKeyRBT<>();
+        tree.bulkLoad(generateMovies(numMovies, 42));
+        System.out.println("parallelAggregation: " + numMovies + " movies, "
+                + Runtime.getRuntime().availableProcessors() + " cores");
+
+        double sequential = averageMillis(() -> tree.stream()
+                .mapToLong(movie -> movie.getDuration() * (long) movie.getYear()).sum());
+        System.out.printf("  sequential: %10.3f ms%n", sequential);
+        for (int threads : new int[] {1, 2, 4, 8}) {
+            java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(threads);
+            double parallel = averageMillis(() -> pool.submit(() -> tree.parallelStream()
+                    .mapToLong(movie -> movie.getDuration() * (long) movie.getYear()).sum())
+                    .join());
+            pool.shutdown();
+            System.out.printf("  %d threads:  %10.3f ms, speedup %5.2f%n", threads, parallel,
+                    sequential / parallel);
+        }
+    }
+
+    /**
+     * Measures the throughput of queries on one backend from 1 up to maxThreads reader threads.
+     * Every reader runs a mix of optimistic counts and percentiles and of read locked page
+     * queries for two seconds. The throughput can only grow up to the number of cores of the
+     * machine.
+     * @param numMovies number of movies in the tree
+     * @param maxThreads largest number of reader threads
+     */
+    public static void benchmarkReadScaling(int numMovies, int maxThreads) {
+        IterableMultiKeyRBT<MovieInterface> tree = new IterableMultiKeyRBT<>();
+        tree.bulkLoad(generateMovies(numMovies, 42));
+        Backend backend = new Backend(tree);
+        System.out.println("readScaling: " + numMovies + " movies, "
+                + Runtime.getRuntime().availableProcessors() + " cores");
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            java.util.concurrent.atomic.AtomicBoolean running =
+                    new java.util.concurrent.atomic.AtomicBoolean(true);
+            java.util.concurrent.atomic.LongAdder queries =
+                    new java.util.concurrent.atomic.LongAdder();
+            java.util.concurrent.atomic.LongAdder results =
+                    new java.util.concurrent.atomic.LongAdder();
+            List<Thread> readers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                int seed = i;
+                Thread reader = new Thread(() -> {
+                    Random random = new Random(seed);
+                    long sum = 0;
+                    while (running.get()) {
+                        int duration = 60 + random.nextInt(120);
+                        sum += backend.countMoviesWithinRange(duration, duration + 10);
+                        sum += backend.getDurationPercentile(random.nextInt(101));
+                        sum += backend.getMoviesWithinRange(duration, duration + 10, 10, null)
+                                .getMovies().size();
+                        queries.add(3);
+                    }
+                    //Keeps the results of the queries alive
+                    results.add(sum);
+                });
+                readers.add(reader);
+                reader.start();
+            }
+            try {
+                Thread.sleep(2000);
+                running.set(false);
+                for (Thread reader : readers) {
+                    reader.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            System.out.printf("  %2d threads: %12.0f queries/s%n", threads,
+                    queries.sum() / 2.0);
+        }
+    }
+
+    /**
+     * Compares the persistent tree to IterableMultiKeyRBT. First measures the time and the bytes
+     * allocated per insert into a tree of numMovies movies, which shows the write amplification
+     * of copying the path to every inserted key. Then measures the throughput of two reader
+     * threads on a backend with each tree while a writer thread keeps reading a file of about
+     * 1000 movies into it, and the number of files the writer reads.
+     * @param numMovies number of movies in the trees
+     */
+    public static void benchmarkPersistentTree(int numMovies) {
+        List<MovieInterface> movies = generateMovies(numMovies, 42);
+        List<MovieInterface> newMovies = generateMovies(numMovies / 10, 7);
+        System.out.println("persistentTree: " + numMovies + " movies, inserting "
+                + newMovies.size());
+        IterableMultiKeyRBT<MovieInterface> lockedTree = new IterableMultiKeyRBT<>();
+        lockedTree.bulkLoad(movies);
+        PersistentMultiKeyRBT<MovieInterface> persistentTree = new PersistentMultiKeyRBT<>();
+        persistentTree.bulkLoad(movies);
+        //Warms up both insert paths on separate trees
+        IterableMultiKeyRBT<MovieInterface> warmupTree = new IterableMultiKeyRBT<>();
+        PersistentMultiKeyRBT<MovieInterface> warmupPersistentTree = new PersistentMultiKeyRBT<>();
+        for (MovieInterface movie : movies) {
+            warmupTree.insertSingleKey(movie);
+            warmupPersistentTree.insertSingleKey(movie);
+        }
+
+        long start = System.nanoTime();
+        long lockedBytes = allocatedBytes(() -> {
+            for (MovieInterface movie : newMovies) {
+                lockedTree.insertSingleKey(movie);
+            }
+            return lockedTree.numKeys();
+        });
+        long lockedNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        long persistentBytes = allocatedBytes(() -> {
+            for (MovieInterface movie : newMovies) {
+                persistentTree.insertSingleKey(movie);
+            }
+            return persistentTree.numKeys();
+        });
+        long persistentNanos = System.nanoTime() - start;
+        System.out.printf("  IterableMultiKeyRBT insert:   %8.1f ns, %8.1f bytes/insert%n",
+                lockedNanos / (double) newMovies.size(), lockedBytes / (double) newMovies.size());
+        System.out.printf("  PersistentMultiKeyRBT insert: %8.1f ns, %8.1f bytes/insert%n",
+                persistentNanos / (double) newMovies.size(),
+                persistentBytes / (double) newMovies.size());
+
+        File file = null;
+        File batch = null;
+        try {
+            file = File.createTempFile("movies", ".csv");
+            batch = File.createTempFile("batch", ".csv");
+            writeCsvFile(file, numMovies * 110L);
+            writeCsvFile(batch, 110_000);
+            for (boolean persistent : new boolean[] {false, true}) {
+                Backend backend = new Backend(persistent ? new PersistentMultiKeyRBT<>()
+                        : new IterableMultiKeyRBT<>());
+                backend.readFile(file.toString());
+                String batchFile = batch.toString();
+                java.util.concurrent.atomic.AtomicBoolean running =
+                        new java.util.concurrent.atomic.AtomicBoolean(true);
+                java.util.concurrent.atomic.LongAdder queries =
+                        new java.util.concurrent.atomic.LongAdder();
+                java.util.concurrent.atomic.LongAdder results =
+                        new java.util.concurrent.atomic.LongAdder();
+                java.util.concurrent.atomic.AtomicInteger batches =
+                        new java.util.concurrent.atomic.AtomicInteger();
+                List<Thread> threads = new ArrayList<>();
+                threads.add(new Thread(() -> {
+                    try {
+                        while (running.get()) {
+                            backend.readFile(batchFile);
+                            batches.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }));
+                for (int i = 0; i < 2; i++) {
+                    int seed = i;
+                    threads.add(new Thread(() -> {
+                        Random random = new Random(seed);
+                        long sum = 0;
+                        while (running.get()) {
+                            int duration = 60 + random.nextInt(120);
+                            sum += backend.countMoviesWithinRange(duration, duration + 10);
+                            sum += backend.getMoviesWithinRange(duration, duration + 10, 10, null)
+                                    .getMovies().size();
+                            sum += backend.findMovies(new MovieQuery.Builder()
+                                    .durationBetween(duration, duration).yearBetween(1950, 1951)
+                                    .build()).size();
+                            queries.add(3);
+                        }
+                        results.add(sum);
+                    }));
+                }
+                threads.forEach(Thread::start);
+                Thread.sleep(3000);
+                running.set(false);
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                System.out.printf("  %-22s %10.0f queries/s, %6.1f files of 1000 movies/s%n",
+                        persistent ? "persistent catalog:" : "locked catalog:",
+                        queries.sum() / 3.0, batches.get() / 3.0);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not write the csv files: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (file != null) {
+                file.delete();
+            }
+            if (batch != null) {
+                batch.delete();
+            }
+        }
+    }
+
+    /**
+     * Measures changing the duration of single movies in a backend of numMovies movies, with a
+     * tree that is changed in place and with a persistent tree, and compares it to reading the
+     * whole file into a new backend, which was the only way to change a movie before. Also checks
+     * that the trees are still valid red black trees afterwards.
+     * @param numMovies number of movies in the backend
+     */
+    public static void benchmarkUpdateDuration(int numMovies) {
+        System.out.println("updateDuration: " + numMovies + " movies");
+        File file = null;
+        try {
+            file = File.createTempFile("movies", ".csv");
+            writeCsvFile(file, numMovies * 110L);
+            String fileName = file.toString();
+            double reload = averageMillis(() -> {
+                Backend backend = new Backend(new IterableMultiKeyRBT<>());
+                try {
+                    backend.readFile(fileName);
+                } catch (FileNotFoundException e) {
+                    throw new RuntimeException(e);
+                }
+                return backend.countMoviesWithMinDuration(0);
+            });
+            System.out.printf("  %-22s %10.3f ms%n", "read whole file:", reload);
+
+            for (boolean persistent : new boolean[] {false, true}) {
+                IterableMultiKeySortedCollectionInterface<MovieInterface> tree = persistent
+                        ? new PersistentMultiKeyRBT<>() : new IterableMultiKeyRBT<>();
+                Backend backend = new Backend(tree);
+                backend.readFile(fileName);
+                List<MovieInterface> movies = backend.getMoviesWithMinDuration(0);
+                Random random = new Random(3);
+                int updates = 2000;
+                //Every update replaces a random movie of the list with its updated copy
+                Operation update = () -> {
+                    int index = random.nextInt(movies.size());
+                    MovieInterface updated = backend.updateDuration(movies.get(index),
+                            40 + random.nextInt(300));
+                    movies.set(index, updated);
+                    return updated.getDuration();
+                };
+                for (int i = 0; i < updates; i++) {
+                    update.run();
+                }
+                long start = System.nanoTime();
+                for (int i = 0; i < updates; i++) {
+                    update.run();
+                }
+                double millis = (System.nanoTime() - start) / 1e6 / updates;
+                boolean valid = persistent ? ((PersistentMultiKeyRBT<MovieInterface>) tree)
+                        .isValid() : ((IterableMultiKeyRBT<MovieInterface>) tree)
+                        .isValidRedBlackTree();
+                System.out.printf("  %-22s %10.3f ms per update, valid tree: %b%n",
+                        persistent ? "persistent catalog:" : "locked catalog:", millis, valid);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not write the csv file: " + e.getMessage());
+        } finally {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Compares reading a whole csv file again after rows were appended to it to refreshing the
+     * file, which only parses the appended rows, and to refreshing it after an edit in the middle
+     * of the file, which parses and compares all rows.
+     * @param numMovies number of movies in the file
+     * @param numAppended number of rows appended before every refresh
+     */
+    public static void benchmarkRefreshFile(int numMovies, int numAppended) {
+        System.out.println("refreshFile: " + numMovies + " movies, " + numAppended
+                + " appended rows");
+        File file = null;
+        try {
+            file = File.createTempFile("movies", ".csv");
+            writeCsvFile(file, numMovies * 110L);
+            String fileName = file.toString();
+            double reload = averageMillis(() -> {
+                Backend backend = new Backend(new IterableMultiKeyRBT<>());
+                try {
+                    backend.readFile(fileName);
+                } catch (FileNotFoundException e) {
+                    throw new RuntimeException(e);
+                }
+                return backend.countMoviesWithMinDuration(0);
+            });
+            System.out.printf("  %-22s %10.3f ms%n", "read whole file:", reload);
+
+            Backend backend = new Backend(new IterableMultiKeyRBT<>());
+            backend.refreshFile(fileName);
+            long[] nextId = {numMovies * 10L};
+            double append = averageMillis(() -> {
+                StringBuilder rows = new StringBuilder();
+                for (int i = 0; i < numAppended; i++) {
+                    rows.append(nextId[0]++).append(",Appended,2000,Drama,")
+                            .append(40 + i % 300).append(",USA,5.0,1\n");
+                }
+                try {
+                    Files.writeString(Path.of(fileName), rows, StandardOpenOption.APPEND);
+                    return backend.refreshFile(fileName).getAdded().size();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            System.out.printf("  %-22s %10.3f ms, %d movies%n", "refresh appended rows:",
+                    append, backend.countMoviesWithMinDuration(0));
+
+            //Changes the last digit of the year of the first movie every round, the year
+            //follows the title, which ends with ""Series"""
+            byte[] bytes = Files.readAllBytes(Path.of(fileName));
+            int yearEnd = new String(bytes, 0, 200).indexOf("\"\"\",") + 7;
+            int[] round = {0};
+            double edit = averageMillis(() -> {
+                bytes[yearEnd] = (byte) ('0' + round[0]++ % 10);
+                try {
+                    Files.write(Path.of(fileName), bytes);
+                    return backend.refreshFile(fileName).getAdded().size();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            System.out.printf("  %-22s %10.3f ms%n", "refresh edited row:", edit);
+        } catch (IOException e) {
+            System.out.println("Could not write the csv file: " + e.getMessage());
+        } finally {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads a generated csv file into a backend and reports the heap it retains, the number of
+     * distinct genre and country instances of its movies, the classes of the heap histogram that
+     * hold movies and strings, and the time to filter all movies by genre and country.
+     * @param megabytes size of the generated file in MB
+     */
+    public static void benchmarkDictionaryLoad(long megabytes) {
+        File file = null;
+        try {
+            file = File.createTempFile("movies", ".csv");
+            long rows = writeCsvFile(file, megabytes * 1024 * 1024);
+            System.out.println("dictionaryLoad: " + rows + " rows");
+            long heapBefore = usedHeap();
+            Backend backend = new Backend(new IterableMultiKeyRBT<>());
+            backend.readFile(file.toString());
+            long heapBytes = usedHeap() - heapBefore;
+            System.out.printf("  retained heap: %10.1f MB, %6.1f bytes/movie%n",
+                    heapBytes / (1024.0 * 1024.0), heapBytes / (double) rows);
+            printHistogram("java.lang.String", "[B", "Movie");
+
+            List<MovieInterface> movies = backend.getMoviesWithMinDuration(0);
+            Set<String> instances = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (MovieInterface movie : movies) {
+                instances.add(movie.getGenre());
+                instances.add(movie.getCountry());
+            }
+            System.out.println("  distinct genre and country instances: " + instances.size());
+            double filter = averageMillis(() -> {
+                MovieQuery query = new MovieQuery.Builder().genre("romance").country("uk").build();
+                int count = 0;
+                for (MovieInterface movie : movies) {
+                    if (query.matches(movie)) {
+                        count++;
+                    }
+                }
+                return count;
+            });
+            System.out.printf("  genre and country filter: %10.3f ms%n", filter);
+        } catch (IOException e) {
+            System.out.println("Could not write the csv file: " + e.getMessage());
+        } finally {
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Prints the lines of the class histogram of the live heap that contain one of the names.
+     */
+    private static void printHistogram(String... names) {
+        try {
+            String histogram = (String) ManagementFactory.getPlatformMBeanServer().invoke(
+                    new ObjectName("com.sun.management:type=DiagnosticCommand"),
+                    "gcClassHistogram", new Object[] {null},
+                    new String[] {String[].class.getName()});
+            //Prints the header line and the lines whose class name, the fourth column, is listed
+            for (String line : histogram.split("\n")) {
+                String[] columns = line.trim().split("\\s+");
+                if (line.contains("#instances")
+                        || (columns.length > 3 && List.of(names).contains(columns[3]))) {
+                    System.out.println("  " + line.trim());
+                }
+            }
+        } catch (JMException e) {
+            System.out.println("  No class histogram: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compares the red black tree, whose searches compare movies with compareTo, to the
+     * DurationIndex, which searches an int array of the durations. Measures lookups of random
+     * durations, counting the movies of a range of durations by iterating over them, and
+     * building the collection by inserting the movies one by one.
+     * @param numMovies number of movies in each collection
+     */
+    public static void benchmarkDurationIndex(int numMovies) {
+        List<MovieInterface> movies = generateMovies(numMovies, 42);
+        System.out.println("durationIndex: " + numMovies + " movies");
+        int[] durations = new int[1_000_000];
+        Random random = new Random(5);
+        for (int i = 0; i < durations.length; i++) {
+            durations[i] = 40 + random.nextInt(300);
+        }
+        int rangeIterations = 20;
+        List<Supplier<IterableMultiKeySortedCollectionInterface<MovieInterface>>> factories =
+                List.of(IterableMultiKeyRBT::new, DurationIndex::new);
+        for (Supplier<IterableMultiKeySortedCollectionInterface<MovieInterface>> factory
+                : factories) {
+            IterableMultiKeySortedCollectionInterface<MovieInterface> collection = factory.get();
+            collection.bulkLoad(movies);
+            double lookup = averageMillis(() -> {
+                long sum = 0;
+                for (int duration : durations) {
+                    sum += collection.rank(Backend.durationBound(duration));
+                }
+                return sum;
+            });
+            //Only counts the movies, so that the time is not spent loading the movies
+            double range = averageMillis(() -> {
+                long count = 0;
+                for (int i = 0; i < rangeIterations; i++) {
+                    Iterator<MovieInterface> iterator = collection.iterator(
+                            Backend.durationBound(90), true, Backend.durationBound(120), true);
+                    while (iterator.hasNext()) {
+                        iterator.next();
+                        count++;
+                    }
+                }
+                return count;
+            });
+            double insert = averageMillis(() -> {
+                IterableMultiKeySortedCollectionInterface<MovieInterface> inserted =
+                        factory.get();
+                for (MovieInterface movie : movies) {
+                    inserted.insertSingleKey(movie);
+                }
+                return inserted.numKeys();
+            });
+            System.out.printf("  %-20s rank %6.1f ns/lookup, range 90-120 %7.3f ms, "
+                    + "insert %6.1f ns/movie%n", collection.getClass().getName() + ":",
+                    lookup * 1e6 / durations.length, range / rangeIterations,
+                    insert * 1e6 / numMovies);
+        }
+    }
+
+    /**
+     * Compares the object per movie model, movies in the red black tree, to the ColumnarMovieStore
+     * for the heap they retain, a range scan that sums the years of the movies within a duration
+     * range, an aggregation over all movies by year, and counting the movies of a genre.
+     * @param numMovies number of movies in each store
+     */
+    public static void benchmarkColumnarStore(int numMovies) {
+        System.out.println("columnarStore: " + numMovies + " movies");
+        long heapBefore = usedHeap();
+        IterableMultiKeyRBT<MovieInterface> tree = new IterableMultiKeyRBT<>();
+        tree.bulkLoad(generateMovies(numMovies, 42));
+        long treeBytes = usedHeap() - heapBefore;
+        heapBefore = usedHeap();
+        ColumnarMovieStore store = ColumnarMovieStore.of(generateMovies(numMovies, 42));
+        long storeBytes = usedHeap() - heapBefore;
+
+        double treeRange = averageMillis(() -> {
+            long sum = 0;
+            Iterator<MovieInterface> iterator = tree.iterator(Backend.durationBound(90), true,
+                    Backend.durationBound(150), true);
+            while (iterator.hasNext()) {
+                sum += iterator.next().getYear();
+            }
+            return sum;
+        });
+        double storeRange = averageMillis(() -> (long) store.averageYearWithinRange(90, 150));
+        double treeAggregation = averageMillis(() -> {
+            long sum = 0;
+            for (MovieInterface movie : tree) {
+                if (movie.getYear() >= 1990 && movie.getYear() <= 1999) {
+                    sum += movie.getDuration();
+                }
+            }
+            return sum;
+        });
+        double storeAggregation = averageMillis(
+                () -> (long) store.averageDurationFromYears(1990, 1999));
+        MovieQuery drama = new MovieQuery.Builder().genre("Drama").build();
+        double treeGenre = averageMillis(() -> {
+            long count = 0;
+            for (MovieInterface movie : tree) {
+                if (drama.matches(movie)) {
+                    count++;
+                }
+            }
+            return count;
+        });
+        double storeGenre = averageMillis(() -> store.countWithGenre("Drama"));
+        System.out.printf("  %-20s %8.1f MB, %6.1f bytes/movie%n", "movie tree:",
+                treeBytes / (1024.0 * 1024.0), treeBytes / (double) numMovies);
+        System.out.printf("  %-20s %8.1f MB, %6.1f bytes/movie%n", "columnar store:",
+                storeBytes / (1024.0 * 1024.0), storeBytes / (double) numMovies);
+        System.out.printf("  %-20s tree %8.3f ms, columns %8.3f ms%n", "range 90-150:",
+                treeRange, storeRange);
+        System.out.printf("  %-20s tree %8.3f ms, columns %8.3f ms%n", "average of 1990s:",
+                treeAggregation, storeAggregation);
+        System.out.printf("  %-20s tree %8.3f ms, columns %8.3f ms%n", "count genre:",
+                treeGenre, storeGenre);
+    }
+
+    /**
+     * Compares movies on the heap, in the red black tree and in a DurationIndex, to the
+     * OffHeapMovieStore under a sustained query load. For each collection it prints the time of
+     * a full collection with the movies loaded, then runs range queries that collect the movies
+     * of three durations into a list, like the Backend does, for a fixed time, replacing an old
+     * movie with a new one after every query, and prints the
+     * queries per second and the number, total and longest of the collection pauses meanwhile.
+     * @param numMovies number of movies in each collection
+     * @param seconds how long the queries run for each collection
+     */
+    public static void benchmarkOffHeap(int numMovies, int seconds) {
+        System.out.println("offHeap: " + numMovies + " movies, " + seconds + " s of queries");
+        List<Supplier<IterableMultiKeySortedCollectionInterface<MovieInterface>>> collections =
+                List.of(IterableMultiKeyRBT::new, DurationIndex::new, OffHeapMovieStore::new);
+        for (Supplier<IterableMultiKeySortedCollectionInterface<MovieInterface>> supplier
+                : collections) {
+            IterableMultiKeySortedCollectionInterface<MovieInterface> movies = supplier.get();
+            movies.bulkLoad(generateMovies(numMovies, 42));
+            long start = System.nanoTime();
+            System.gc();
+            double fullCollection = (System.nanoTime() - start) / 1e6;
+
+            //Counts, sums and keeps the longest pause of every collection while queries run
+            long[] pauses = new long[3];
+            NotificationListener listener = (notification, handback) -> {
+                if (notification.getType().equals(
+                        GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    long duration = GarbageCollectionNotificationInfo.from(
+                            (CompositeData) notification.getUserData()).getGcInfo().getDuration();
+                    synchronized (pauses) {
+                        pauses[0]++;
+                        pauses[1] += duration;
+                        pauses[2] = Math.max(pauses[2], duration);
+                    }
+                }
+            };
+            for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+                ((NotificationEmitter) bean).addNotificationListener(listener, null, null);
+            }
+            Random random = new Random(7);
+            ArrayDeque<MovieInterface> inserted = new ArrayDeque<>();
+            long queries = 0;
+            long blackhole = 0;
+            start = System.nanoTime();
+            long end = start + seconds * 1_000_000_000L;
+            while (System.nanoTime() < end) {
+                int low = 40 + random.nextInt(298);
+                List<MovieInterface> result = new ArrayList<>();
+                movies.iterator(DurationIndex.bound(low), true, DurationIndex.bound(low + 2), true)
+                        .forEachRemaining(result::add);
+                blackhole += result.get(random.nextInt(result.size())).getYear();
+                MovieInterface movie = new Movie("New movie " + queries, "Drama", "USA", 2020,
+                        40 + random.nextInt(300));
+                movies.insertSingleKey(movie);
+                inserted.add(movie);
+                if (inserted.size() > 10_000) {
+                    movies.removeSingleKey(inserted.poll());
+                }
+                queries++;
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+                try {
+                    ((NotificationEmitter) bean).removeNotificationListener(listener);
+                } catch (ListenerNotFoundException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            if (blackhole == Long.MIN_VALUE) {
+                System.out.println(blackhole);
+            }
+            System.out.printf("  %-20s full collection %7.1f ms, %7.1f queries/s, "
+                            + "%4d pauses, total %6d ms, longest %4d ms%n",
+                    movies.getClass().getName() + ":", fullCollection, queries / elapsed,
+                    pauses[0], pauses[1], pauses[2]);
+            if (movies instanceof OffHeapMovieStore) {
+                System.out.printf("  %-20s %7.1f MB off-heap%n", "",
+                        ((OffHeapMovieStore) movies).offHeapBytes() / (1024.0 * 1024.0));
+                ((OffHeapMovieStore) movies).close();
+            }
+        }
+    }
+
+    /**
+     * Compares the red black tree to B+ trees with different fan-outs for inserting distinct keys
+     * in a random order, looking up single keys, and scanning ranges of 1000 keys. Inserting is
+     * timed once for all keys, after a warm up with a smaller tree.
+     * @param numKeys number of distinct keys in each tree
+     */
+    public static void benchmarkBPlusTree(int numKeys) {
+        System.out.println("bPlusTree: " + numKeys + " keys");
+        Integer[] keys = new Integer[numKeys];
+        for (int i = 0; i < numKeys; i++) {
+            keys[i] = i;
+        }
+        Collections.shuffle(java.util.Arrays.asList(keys), new Random(42));
+        int[] lookups = new Random(7).ints(1_000_000, 0, numKeys).toArray();
+        List<Supplier<IterableMultiKeySortedCollectionInterface<Integer>>> trees = List.of(
+                IterableMultiKeyRBT::new, () -> new BPlusTree<>(16), BPlusTree::new,
+                () -> new BPlusTree<>(256));
+        List<String> names = List.of("IterableMultiKeyRBT", "BPlusTree(16)", "BPlusTree(64)",
+                "BPlusTree(256)");
+        for (int t = 0; t < trees.size(); t++) {
+            //Warms up the insert path with a smaller tree
+            IterableMultiKeySortedCollectionInterface<Integer> tree = trees.get(t).get();
+            for (int i = 0; i < Math.min(numKeys, 200_000); i++) {
+                tree.insertSingleKey(keys[i]);
+            }
+            tree = null;
+            System.gc();
+            tree = trees.get(t).get();
+            long start = System.nanoTime();
+            for (Integer key : keys) {
+                tree.insertSingleKey(key);
+            }
+            double insert = (System.nanoTime() - start) / (double) numKeys;
+
+            IterableMultiKeySortedCollectionInterface<Integer> lookupTree = tree;
+            double lookup = averageMillis(() -> {
+                long sum = 0;
+                for (int key : lookups) {
+                    sum += lookupTree.iterator(keys[key], true, keys[key], true).next();
+                }
+                return sum;
+            });
+            double scan = averageMillis(() -> {
+                long sum = 0;
+                for (int i = 0; i < 1000; i++) {
+                    int low = lookups[i] - lookups[i] % 1000;
+                    Iterator<Integer> iterator = lookupTree.iterator(low, true, low + 999, true);
+                    while (iterator.hasNext()) {
+                        sum += iterator.next();
+                    }
+                }
+                return sum;
+            });
+            System.out.printf("  %-20s insert %7.1f ns/key, lookup %7.1f ns/key, "
+                            + "scan %7.1f ns/key%n", names.get(t) + ":", insert,
+                    lookup * 1e6 / lookups.length, scan * 1e6 / (1000 * 1000));
+        }
+    }
+
+    /**
+     * Compares a backend without a query cache to backends with caches of two sizes for a mix of
+     * queries whose popularity follows a Zipf distribution, like the queries of many users: a few
+     * queries are asked very often and most of them rarely. Half of the distinct queries are
+     * duration ranges and half are findMovies queries that also filter by year, and the mix
+     * changes the duration of a random movie after every writeEvery queries, which invalidates
+     * the cached queries that contain its old or new duration.
+     * @param numMovies number of movies in the backend
+     * @param numQueries number of queries in the measured mix
+     * @param writeEvery number of queries between two writes
+     */
+    public static void benchmarkQueryCache(int numMovies, int numQueries, int writeEvery) {
+        int distinctQueries = 1000;
+        System.out.println("queryCache: " + numMovies + " movies, " + numQueries
+                + " queries of " + distinctQueries + " with Zipf(1) popularity, a write every "
+                + writeEvery + " queries");
+        Random random = new Random(7);
+        MovieQuery[] queries = new MovieQuery[distinctQueries];
+        for (int i = 0; i < distinctQueries; i++) {
+            int minDuration = 40 + random.nextInt(300);
+            MovieQuery.Builder builder = new MovieQuery.Builder()
+                    .durationBetween(minDuration, minDuration + random.nextInt(10));
+            if (i % 2 == 1) {
+                int minYear = 1920 + random.nextInt(90);
+                builder.yearBetween(minYear, minYear + 9);
+            }
+            queries[i] = builder.build();
+        }
+        //The i-th most popular query is asked with a probability proportional to 1 / (i + 1)
+        double[] cumulative = new double[distinctQueries];
+        double total = 0;
+        for (int i = 0; i < distinctQueries; i++) {
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+        int[] mix = new int[numQueries];
+        for (int i = 0; i < numQueries; i++) {
+            int rank = java.util.Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            mix[i] = Math.min(rank < 0 ? -rank - 1 : rank, distinctQueries - 1);
+        }
+
+        List<MovieInterface> generated = generateMovies(numMovies, 42);
+        List<Supplier<QueryCache>> caches = List.of(() -> null, () -> new QueryCache(100,
+                QueryCache.DEFAULT_MAX_BYTES), QueryCache::new);
+        List<String> names = List.of("no cache", "100 entries", QueryCache.DEFAULT_MAX_ENTRIES
+                + " entries");
+        for (int c = 0; c < caches.size(); c++) {
+            IterableMultiKeyRBT<MovieInterface> tree = new IterableMultiKeyRBT<>();
+            tree.bulkLoad(generated);
+            Backend backend = new Backend(tree);
+            List<MovieInterface> movies = new ArrayList<>(generated);
+            Random writes = new Random(11);
+            //Warms up with a tenth of the mix and its own cache, then measures the whole mix
+            backend.setQueryCache(caches.get(c).get());
+            runQueryMix(backend, queries, java.util.Arrays.copyOf(mix, numQueries / 10),
+                    writeEvery, movies, writes);
+            QueryCache cache = caches.get(c).get();
+            backend.setQueryCache(cache);
+            long start = System.nanoTime();
+            long count = runQueryMix(backend, queries, mix, writeEvery, movies, writes);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("  %-13s %10.0f queries/s, %6.0f movies per query%n",
+                    names.get(c) + ":", numQueries / seconds, count / (double) numQueries);
+            if (cache != null) {
+                System.out.printf("  %13s hit rate %.1f%%, %s%n", "", 100.0 * cache.getHits()
+                        / (cache.getHits() + cache.getMisses()), cache);
+            }
+        }
+    }
+
+    /**
+     * Runs a mix of queries on a backend, and changes the duration of a random movie after
+     * every writeEvery queries.
+     * @return the number of movies that the queries returned
+     */
+    private static long runQueryMix(Backend backend, MovieQuery[] queries, int[] mix,
+                                    int writeEvery, List<MovieInterface> movies, Random writes) {
+        long count = 0;
+        for (int i = 0; i < mix.length; i++) {
+            MovieQuery query = queries[mix[i]];
+            if (query.getMinYear() == null) {
+                count += backend.getMoviesWithinRange(query.getMinDuration(),
+                        query.getMaxDuration()).size();
+            } else {
+                count += backend.findMovies(query).size();
+            }
+            if ((i + 1) % writeEvery == 0) {
+                int index = writes.nextInt(movies.size());
+                movies.set(index, backend.updateDuration(movies.get(index),
+                        40 + writes.nextInt(300)));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Measures the title index on titles of one to five words from a vocabulary of 50000 words
+     * with Zipf(1) frequencies, so that a few words like "the" are in many titles and most words
+     * are rare: the throughput of indexing all titles, the size of the varint posting lists, and
+     * the latency of queries for words of different frequencies, answered with the index and by
+     * a backend without it, which compares the words of every title.
+     * @param numMovies number of movies in the backend
+     */
+    public static void benchmarkTitleIndex(int numMovies) {
+        Random random = new Random(42);
+        String[] vocabulary = new String[50_000];
+        double[] cumulative = new double[vocabulary.length];
+        double total = 0;
+        for (int i = 0; i < vocabulary.length; i++) {
+            char[] letters = new char[3 + random.nextInt(7)];
+            for (int j = 0; j < letters.length; j++) {
+                letters[j] = (char) ('a' + random.nextInt(26));
+            }
+            vocabulary[i] = new String(letters);
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+        List<MovieInterface> movies = new ArrayList<>(numMovies);
+        long titleBytes = 0;
+        for (MovieInterface generated : generateMovies(numMovies, 42)) {
+            StringBuilder title = new StringBuilder();
+            for (int words = 1 + random.nextInt(5); words > 0; words--) {
+                int rank = java.util.Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                rank = Math.min(rank < 0 ? -rank - 1 : rank, vocabulary.length - 1);
+                title.append(title.length() == 0 ? "" : " ").append(vocabulary[rank]);
+            }
+            titleBytes += title.length();
+            movies.add(new Movie(title.toString(), generated.getGenre(), generated.getCountry(),
+                    generated.getYear(), generated.getDuration()));
+        }
+        System.out.println("titleIndex: " + numMovies + " titles, " + titleBytes / (1024 * 1024)
+                + " MB of text");
+
+        //Warms up with a smaller index, then indexes all titles once
+        new TitleIndex().add(movies.subList(0, Math.min(numMovies, 500_000)));
+        System.gc();
+        long start = System.nanoTime();
+        TitleIndex index = new TitleIndex().add(movies);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long[] postings = index.postingsSize();
+        System.out.printf("  indexing:   %8.0f titles/s, %6.1f MB/s of text%n",
+                numMovies / seconds, titleBytes / seconds / (1024 * 1024));
+        System.out.printf("  postings:   %d words, %d ids in %.1f MB, %.2f bytes per id "
+                        + "instead of 4%n", index.numWords(), postings[1],
+                postings[0] / (1024.0 * 1024), postings[0] / (double) postings[1]);
+        index = null;
+
+        IterableMultiKeyRBT<MovieInterface> tree = new IterableMultiKeyRBT<>();
+        tree.bulkLoad(movies);
+        movies = null;
+        Backend scanned = new Backend(tree);
+        Backend indexed = new Backend(tree);
+        indexed.setTitleIndexEnabled(true);
+
+        String[] names = {"common word", "word #100", "word #10000", "2 common words (AND)",
+                "2 words #100 (OR)", "word #1000 + 90-95 min"};
+        String[] words = {vocabulary[0], vocabulary[100], vocabulary[10_000],
+                vocabulary[0] + " " + vocabulary[1], vocabulary[100] + " " + vocabulary[101],
+                vocabulary[1000]};
+        MovieQuery withDuration = new MovieQuery.Builder().durationBetween(90, 95)
+                .titleWords(vocabulary[1000]).build();
+        for (int q = 0; q < names.length; q++) {
+            int query = q;
+            Operation indexedQuery = () -> titleQuery(indexed, query, words[query],
+                    withDuration);
+            Operation scannedQuery = () -> titleQuery(scanned, query, words[query],
+                    withDuration);
+            double indexMillis = averageMillis(indexedQuery);
+            //A scan takes seconds, so it is only run twice and the second run is timed
+            scannedQuery.run();
+            start = System.nanoTime();
+            long count = scannedQuery.run();
+            double scanMillis = (System.nanoTime() - start) / 1e6;
+            System.out.printf("  %-24s %8d movies, index %9.3f ms, scan %9.1f ms%n",
+                    names[q] + ":", count, indexMillis, scanMillis);
+        }
+        System.out.println("  plan of the last query: " + indexed.explainQuery(withDuration));
+    }
+
+    /**
+     * Runs one of the queries of benchmarkTitleIndex.
+     * @return the number of movies found
+     */
+    private static long titleQuery(Backend backend, int query, String words,
+                                   MovieQuery withDuration) {
+        switch (query) {
+            case 4:
+                return backend.getMoviesWithAnyTitleWord(words).size();
+            case 5:
+                return backend.findMovies(withDuration).size();
+            default:
+                return backend.getMoviesWithTitleWords(words).size();
+        }
+    }
+
+    /**
+     * Parses csv lines the way readFile did before MovieCsvParser: split at every comma, join
+     * the parts of quoted fields with string concatenation, then trim and parse the fields.
+     */
+    private static void splitParse(BufferedReader input, Consumer<MovieInterface> movieConsumer)
+            throws IOException {
+        String currentLine;
+        input.readLine();
+        List<String> updatedValues = new ArrayList<>();
+        while ((currentLine = input.readLine()) != null) {
+            String[] movieData = currentLine.split(",");
+            for (int i = 0; i < movieData.length; i++) {
+                if (movieData[i].startsWith("\"")) {
+                    String combinedString = movieData[i].substring(1);
+                    while (!movieData[i].endsWith("\"") && i < movieData.length - 1) {
+                        i++;
+                        combinedString += ("," + movieData[i]);
+                    }
+                    if (combinedString.endsWith("\"")) {
+                        combinedString = combinedString.substring(0, combinedString.length() - 1);
+                    }
+                    updatedValues.add(combinedString);
+                } else {
+                    updatedValues.add(movieData[i].trim());
+                }
+            }
+            if (updatedValues.size() == 8) {
+                movieConsumer.accept(new Movie(updatedValues.get(1).trim(),
+                        updatedValues.get(3).trim(), updatedValues.get(5).trim(),
+                        Integer.parseInt(updatedValues.get(2).trim()),
+                        Integer.parseInt(updatedValues.get(4).trim())));
+            }
+            updatedValues.clear();
+        }
+    }
+
+    /**
+     * Writes a movie csv file with a header line until the file has at least the given size.
+     * @param file the file to write
+     * @param minBytes the size the file should reach
+     * @return the number of movie records written
+     */
+    public static long writeCsvFile(File file, long minBytes) throws IOException {
+        Random random = new Random(42);
+        String[] genres = {"Drama", "\"Drama, Romance\"", "Comedy", "\"Action, Crime, Drama\""};
+        String[] countries = {"USA", "France", "Italy", "\"USA, UK\""};
+        long rows = 0;
+        long bytes = 0;
+        try (BufferedWriter output = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+            output.write(",title,year,genre,duration,country,avg_vote,votes\n");
+            while (bytes < minBytes) {
+                String line = rows + ",\"Movie " + rows + ", Part " + random.nextInt(10)
+                        + " of the \"\"Series\"\"\"," + (1920 + random.nextInt(100)) + ","
+                        + genres[random.nextInt(genres.length)] + "," + (40 + random.nextInt(300))
+                        + "," + countries[random.nextInt(countries.length)] + ","
+                        + random.nextInt(100) / 10.0 + "," + random.nextInt(100000) + "\n";
+                output.write(line);
+                bytes += line.length();
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Prints the throughput of a parser in MB/s and rows/s.
+     */
+    private static void printThroughput(String name, long bytes, long rows, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("  %-16s %10.3f s, %8.1f MB/s, %12.0f rows/s%n", name + ":", seconds,
+                bytes / (1024.0 * 1024.0) / seconds, rows / seconds);
+    }
+
+    /**
+     * Returns the number of bytes the current thread allocates while running an operation once.
+     * Uses the allocation counter of the HotSpot thread management bean.
+     * @param operation the operation to measure
+     * @return bytes allocated by the operation, or -1 if the JVM does not count allocations
+     */
+    public static long allocatedBytes(Operation operation) {
+        java.lang.management.ThreadMXBean bean =
+                java.lang.management.ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        operation.run();
+        return threadBean.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    /**
+     * Generates movies with durations between 40 and 339 minutes, in a random order.
+     * @param numMovies number of movies to generate
+     * @param seed seed for the random durations and years
+     * @return list of generated movies
+     */
+    public static List<MovieInterface> generateMovies(int numMovies, long seed) {
+        Random random = new Random(seed);
+        List<MovieInterface> movies = new ArrayList<>(numMovies);
+        for (int i = 0; i < numMovies; i++) {
+            movies.add(new Movie("Movie " + i, "Drama", "USA", 1920 + random.nextInt(100),
+                    40 + random.nextInt(300)));
+        }
+        return movies;
+    }
+
+    /**
+     * Operation that is measured by a benchmark. Returns a value so that the JIT cannot remove
+     * the work that was done.
+     */
+    public interface Operation {
+        long run();
+    }
+
+    /**
+     * Runs the operation a few times to warm up and then returns its average running time.
+     * @param operation the operation to measure
+     * @return average time of one run in milliseconds
+     */
+    public static double averageMillis(Operation operation) {
+        long blackhole = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            blackhole += operation.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            blackhole += operation.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (blackhole == Long.MIN_VALUE) {
+            System.out.println(blackhole);
+        }
+        return elapsed / 1e6 / MEASURED_ROUNDS;
+    }
+}
@@ -0,0 +1,337 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Single pass parser for the movie csv files. The parser is a state machine that is fed the raw
+ * bytes of a file in blocks of any size, so quoted fields, records and CRLF line endings may span
+ * block boundaries. Quoted fields may contain commas, line breaks and quotes escaped as "", as
+ * described in RFC 4180.
+ *
+ * Each record has eight fields, of which the title (1), year (2), genre (3), duration (4) and
+ * country (5) are used to create a Movie. Year and duration are parsed directly from the bytes,
+ * genre and country are looked up in the dictionary of Movie by their bytes, and only the title
+ * and genres or countries that are new are turned into Strings. Records that do not have eight fields
+ * or whose year or duration is not a number are skipped. Fields are trimmed of surrounding
+ * whitespace. A parser created with withRowIds also passes on the first field of every record,
+ * which identifies the row, and counts the bytes up to the end of the last complete record, so
+ * that a file that grows can be parsed again from there.
+ */
+public class MovieCsvParser {
+    //Size of the blocks read from an input stream
+    private static final int BLOCK_SIZE = 1 << 16;
+    private static final int NUM_FIELDS = 8;
+    private static final int ID = 0;
+    private static final int TITLE = 1;
+    private static final int YEAR = 2;
+    private static final int GENRE = 3;
+    private static final int DURATION = 4;
+    private static final int COUNTRY = 5;
+
+    //States of the parser within a field
+    private static final int FIELD_START = 0;
+    private static final int UNQUOTED = 1;
+    private static final int QUOTED = 2;
+    //A quote was read inside a quoted field, it is either escaped or ends the quoted part
+    private static final int QUOTE_IN_QUOTED = 3;
+
+    private final RecordConsumer recordConsumer;
+    //True if the first field is read as the id of the record
+    private final boolean readIds;
+    private boolean skipRecord;
+
+    //Number of bytes parsed before the current block, and up to the end of the last record that
+    //ended with a line break
+    private long parsedBytes = 0;
+    private long completeRecordsEnd = 0;
+
+    private int state = FIELD_START;
+    private int fieldIndex = 0;
+    //True once the current record contains any byte, so empty lines are ignored
+    private boolean recordStarted = false;
+
+    //Bytes of the current string field
+    private byte[] fieldBytes = new byte[256];
+    private int fieldLength = 0;
+
+    //Value of the current number field, and whether it is still a valid number
+    private int number = 0;
+    private boolean negative = false;
+    private boolean hasDigits = false;
+    private boolean numberEnded = false;
+    private boolean numberValid = true;
+
+    //Fields of the current record
+    private String id;
+    private String title;
+    private int genre;
+    private int country;
+    private int year;
+    private int duration;
+    private boolean recordValid = true;
+
+    /**
+     * Creates a parser that passes every movie it reads to movieConsumer.
+     * @param movieConsumer receives the movies in the order of the records in the file
+     * @param skipHeader true if the first record is a header that should not be parsed
+     */
+    public MovieCsvParser(Consumer<MovieInterface> movieConsumer, boolean skipHeader) {
+        this((id, movie) -> movieConsumer.accept(movie), skipHeader, false);
+    }
+
+    private MovieCsvParser(RecordConsumer recordConsumer, boolean skipHeader, boolean readIds) {
+        this.recordConsumer = recordConsumer;
+        this.skipRecord = skipHeader;
+        this.readIds = readIds;
+    }
+
+    /**
+     * Receives every movie together with the trimmed first field of its record.
+     */
+    public interface RecordConsumer {
+        void accept(String id, MovieInterface movie);
+    }
+
+    /**
+     * Creates a parser that passes every movie and the id in the first field of its record to
+     * recordConsumer.
+     * @param recordConsumer receives the movies in the order of the records in the file
+     * @param skipHeader true if the first record is a header that should not be parsed
+     * @return the parser
+     */
+    public static MovieCsvParser withRowIds(RecordConsumer recordConsumer, boolean skipHeader) {
+        return new MovieCsvParser(recordConsumer, skipHeader, true);
+    }
+
+    /**
+     * Reads a whole csv file with a header line from an input stream.
+     * @param input stream with the contents of the file
+     * @param movieConsumer receives the movies in the order of the records in the file
+     * @throws IOException when reading from the stream fails
+     */
+    public static void parse(InputStream input, Consumer<MovieInterface> movieConsumer)
+            throws IOException {
+        MovieCsvParser parser = new MovieCsvParser(movieConsumer, true);
+        byte[] block = new byte[BLOCK_SIZE];
+        int read;
+        while ((read = input.read(block)) != -1) {
+            parser.parse(block, 0, read);
+        }
+        parser.finish();
+    }
+
+    /**
+     * Parses the remaining bytes of a buffer.
+     * @param buffer buffer whose bytes between position and limit are parsed
+     */
+    public void parse(ByteBuffer buffer) {
+        byte[] block = new byte[Math.min(BLOCK_SIZE, Math.max(buffer.remaining(), 1))];
+        while (buffer.hasRemaining()) {
+            int length = Math.min(block.length, buffer.remaining());
+            buffer.get(block, 0, length);
+            parse(block, 0, length);
+        }
+    }
+
+    /**
+     * Parses the next block of bytes of the file.
+     * @param bytes array that contains the block
+     * @param offset index of the first byte of the block
+     * @param length number of bytes in the block
+     */
+    public void parse(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            byte b = bytes[i];
+            switch (state) {
+                case FIELD_START:
+                    if (b == '"') {
+                        recordStarted = true;
+                        state = QUOTED;
+                    } else if (b == ',' || b == '\n') {
+                        endField(b, parsedBytes + (i - offset) + 1);
+                    } else if (b != '\r') {
+                        recordStarted = true;
+                        state = UNQUOTED;
+                        addByte(b);
+                    }
+                    break;
+                case UNQUOTED:
+                    if (b == ',' || b == '\n') {
+                        endField(b, parsedBytes + (i - offset) + 1);
+                    } else if (b != '\r') {
+                        addByte(b);
+                    }
+                    break;
+                case QUOTED:
+                    if (b == '"') {
+                        state = QUOTE_IN_QUOTED;
+                    } else {
+                        addByte(b);
+                    }
+                    break;
+                default:
+                    if (b == '"') {
+                        //Escaped quote within the quoted field
+                        addByte(b);
+                        state = QUOTED;
+                    } else if (b == ',' || b == '\n') {
+                        endField(b, parsedBytes + (i - offset) + 1);
+                    } else if (b != '\r') {
+                        //Text after the closing quote belongs to the same field
+                        state = UNQUOTED;
+                        addByte(b);
+                    }
+                    break;
+            }
+        }
+        parsedBytes += length;
+    }
+
+    /**
+     * Ends the last record when the file does not end with a line break.
+     */
+    public void finish() {
+        if (recordStarted || fieldIndex > 0) {
+            //The last record has no line break, so it does not count as a complete record
+            endField((byte) '\n', completeRecordsEnd);
+        }
+    }
+
+    /**
+     * Returns the number of bytes from the start of the parsed input to the end of the last
+     * record that ended with a line break. Parsing the input again from this offset with a new
+     * parser, which does not skip a header, continues with the record after it.
+     * @return the offset after the last complete record
+     */
+    public long completeRecordsEnd() {
+        return completeRecordsEnd;
+    }
+
+    /**
+     * Adds a byte to the current field. Number fields are parsed as the digits arrive, string
+     * fields are collected, and all other fields are ignored.
+     */
+    private void addByte(byte b) {
+        if (fieldIndex == YEAR || fieldIndex == DURATION) {
+            if (b >= '0' && b <= '9') {
+                //Digits separated by whitespace, like "1 2", or too many digits are no int
+                if (numberEnded || number > (Integer.MAX_VALUE - 9) / 10) {
+                    numberValid = false;
+                }
+                number = number * 10 + (b - '0');
+                hasDigits = true;
+            } else if (b == ' ' || b == '\t') {
+                numberEnded = hasDigits;
+            } else if (b == '-' && !hasDigits && !negative) {
+                negative = true;
+            } else {
+                numberValid = false;
+            }
+        } else if (fieldIndex == TITLE || fieldIndex == GENRE || fieldIndex == COUNTRY
+                || (fieldIndex == ID && readIds)) {
+            if (fieldLength == fieldBytes.length) {
+                fieldBytes = Arrays.copyOf(fieldBytes, fieldLength * 2);
+            }
+            fieldBytes[fieldLength++] = b;
+        }
+    }
+
+    /**
+     * Ends the current field, and the current record when the field ended with a line break.
+     * @param delimiter the comma or line break that ended the field
+     * @param end offset after the delimiter in the parsed input
+     */
+    private void endField(byte delimiter, long end) {
+        switch (fieldIndex) {
+            case ID:
+                id = readIds ? fieldString() : null;
+                break;
+            case TITLE:
+                title = fieldString();
+                break;
+            case GENRE:
+                genre = fieldCode();
+                break;
+            case COUNTRY:
+                country = fieldCode();
+                break;
+            case YEAR:
+                year = negative ? -number : number;
+                recordValid &= numberValid && hasDigits;
+                break;
+            case DURATION:
+                duration = negative ? -number : number;
+                recordValid &= numberValid && hasDigits;
+                break;
+            default:
+                break;
+        }
+        fieldLength = 0;
+        number = 0;
+        negative = false;
+        hasDigits = false;
+        numberEnded = false;
+        numberValid = true;
+        state = FIELD_START;
+
+        if (delimiter == ',') {
+            fieldIndex++;
+            recordStarted = true;
+            return;
+        }
+        //End of the record
+        completeRecordsEnd = end;
+        if (skipRecord) {
+            skipRecord = !recordStarted;
+        } else if (recordStarted && fieldIndex == NUM_FIELDS - 1 && recordValid) {
+            recordConsumer.accept(id, new Movie(title, genre, country, year, duration));
+        }
+        fieldIndex = 0;
+        recordStarted = false;
+        recordValid = true;
+    }
+
+    /**
+     * Creates a String from the bytes of the current field, without surrounding whitespace.
+     */
+    private String fieldString() {
+        int start = trimmedStart();
+        return new String(fieldBytes, start, trimmedEnd(start) - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Looks up the bytes of the current field, without surrounding whitespace, in the
+     * dictionary of Movie.
+     */
+    private int fieldCode() {
+        int start = trimmedStart();
+        return Movie.VALUES.code(fieldBytes, start, trimmedEnd(start) - start);
+    }
+
+    /**
+     * @return the index of the first byte of the current field that is not whitespace
+     */
+    private int trimmedStart() {
+        int start = 0;
+        while (start < fieldLength && (fieldBytes[start] & 0xff) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * @return the index after the last byte of the current field that is not whitespace
+     */
+    private int trimmedEnd(int start) {
+        int end = fieldLength;
+        while (end > start && (fieldBytes[end - 1] & 0xff) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+}
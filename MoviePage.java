@@ -0,0 +1,42 @@
+import java.util.List;
+
+/**
+ * One page of the movies of a query, and the cursor that continues the query after the last movie
+ * of this page. The cursor is an opaque string that is passed back to the query to get the next
+ * page. It is null when there are no more movies.
+ */
+public class MoviePage {
+    private final List<MovieInterface> movies;
+    private final String nextCursor;
+
+    /**
+     * Creates a page of movies.
+     * @param movies the movies of this page
+     * @param nextCursor the cursor for the next page, or null if this is the last page
+     */
+    public MoviePage(List<MovieInterface> movies, String nextCursor) {
+        this.movies = movies;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * @return the movies of this page
+     */
+    public List<MovieInterface> getMovies() {
+        return movies;
+    }
+
+    /**
+     * @return the cursor to pass to the query for the next page, or null if this is the last page
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * @return true if there are more movies after this page
+     */
+    public boolean hasNextPage() {
+        return nextCursor != null;
+    }
+}
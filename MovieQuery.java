@@ -0,0 +1,346 @@
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * A query for movies that combines predicates on duration, year, genre, country, the start of
+ * the title and the words in the title. A movie matches the query when it matches every
+ * predicate that was set, and a query without predicates matches every movie. Queries are
+ * created with a Builder:
+ *
+ *   MovieQuery query = new MovieQuery.Builder().durationBetween(90, 120).minYear(2000)
+ *           .genre("Drama").country("France").build();
+ *
+ * Genres and countries match when the movie lists them, so a movie with the genre
+ * "Drama, Romance" matches both "Drama" and "Romance". Genres and countries are compared ignoring
+ * case and surrounding whitespace, and title prefixes ignoring case only, so the prefix "The "
+ * does not match "Theatre". For a Movie, the genre and country are compared by their codes in
+ * the dictionary of Movie, so matching them compares ints. Title words are split like TitleIndex
+ * splits titles, and match when the title has all of them.
+ */
+public class MovieQuery {
+    private final Integer minDuration;
+    private final Integer maxDuration;
+    private final Integer minYear;
+    private final Integer maxYear;
+    private final String genre;
+    private final String country;
+    private final String titlePrefix;
+    private final List<String> titleWords;
+    //codes of genre and country in Movie.VALUES, looked up again while they are not in it
+    private int genreCode = StringDictionary.NULL_CODE;
+    private int countryCode = StringDictionary.NULL_CODE;
+
+    /**
+     * Creates a query from the predicates set on a builder.
+     */
+    private MovieQuery(Builder builder) {
+        this.minDuration = builder.minDuration;
+        this.maxDuration = builder.maxDuration;
+        this.minYear = builder.minYear;
+        this.maxYear = builder.maxYear;
+        this.genre = builder.genre == null ? null : normalize(builder.genre);
+        this.country = builder.country == null ? null : normalize(builder.country);
+        this.titlePrefix = builder.titlePrefix == null ? null
+                : builder.titlePrefix.toLowerCase(Locale.ROOT);
+        this.titleWords = builder.titleWords == null ? null
+                : TitleIndex.words(builder.titleWords);
+    }
+
+    /**
+     * @return the minimum duration in minutes, or null when the duration has no lower bound
+     */
+    public Integer getMinDuration() {
+        return minDuration;
+    }
+
+    /**
+     * @return the maximum duration in minutes, or null when the duration has no upper bound
+     */
+    public Integer getMaxDuration() {
+        return maxDuration;
+    }
+
+    /**
+     * @return the first year, or null when the year has no lower bound
+     */
+    public Integer getMinYear() {
+        return minYear;
+    }
+
+    /**
+     * @return the last year, or null when the year has no upper bound
+     */
+    public Integer getMaxYear() {
+        return maxYear;
+    }
+
+    /**
+     * @return the normalized genre, or null when any genre matches
+     */
+    public String getGenre() {
+        return genre;
+    }
+
+    /**
+     * @return the normalized country, or null when any country matches
+     */
+    public String getCountry() {
+        return country;
+    }
+
+    /**
+     * @return the lower case start of the title, or null when any title matches
+     */
+    public String getTitlePrefix() {
+        return titlePrefix;
+    }
+
+    /**
+     * @return the distinct lower case words that the title has to contain, or null when any
+     *         title matches
+     */
+    public List<String> getTitleWords() {
+        return titleWords;
+    }
+
+    /**
+     * Checks whether a movie matches every predicate of the query.
+     * @param movie the movie to check
+     * @return true if the movie matches the query
+     */
+    public boolean matches(MovieInterface movie) {
+        if ((minDuration != null && movie.getDuration() < minDuration)
+                || (maxDuration != null && movie.getDuration() > maxDuration)
+                || (minYear != null && movie.getYear() < minYear)
+                || (maxYear != null && movie.getYear() > maxYear)) {
+            return false;
+        }
+        if (genre != null && !hasGenre(movie)) {
+            return false;
+        }
+        if (country != null && !hasCountry(movie)) {
+            return false;
+        }
+        String title = movie.getTitle();
+        if (titleWords != null && (titleWords.isEmpty()
+                || !TitleIndex.words(title).containsAll(titleWords))) {
+            return false;
+        }
+        return titlePrefix == null || (title != null
+                && title.regionMatches(true, 0, titlePrefix, 0, titlePrefix.length()));
+    }
+
+    /**
+     * Checks whether a movie lists the genre of the query.
+     */
+    private boolean hasGenre(MovieInterface movie) {
+        if (!(movie instanceof Movie)) {
+            return listContains(movie.getGenre(), genre);
+        }
+        if (genreCode == StringDictionary.NULL_CODE) {
+            genreCode = Movie.VALUES.find(genre);
+        }
+        return ((Movie) movie).hasGenre(genreCode);
+    }
+
+    /**
+     * Checks whether a movie lists the country of the query.
+     */
+    private boolean hasCountry(MovieInterface movie) {
+        if (!(movie instanceof Movie)) {
+            return listContains(movie.getCountry(), country);
+        }
+        if (countryCode == StringDictionary.NULL_CODE) {
+            countryCode = Movie.VALUES.find(country);
+        }
+        return ((Movie) movie).hasCountry(countryCode);
+    }
+
+    /**
+     * Checks whether another query has the same predicates. Genres, countries and title prefixes
+     * are compared after normalizing them, so queries that match the same movies are equal.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof MovieQuery)) {
+            return false;
+        }
+        MovieQuery query = (MovieQuery) other;
+        return Objects.equals(minDuration, query.minDuration)
+                && Objects.equals(maxDuration, query.maxDuration)
+                && Objects.equals(minYear, query.minYear)
+                && Objects.equals(maxYear, query.maxYear)
+                && Objects.equals(genre, query.genre)
+                && Objects.equals(country, query.country)
+                && Objects.equals(titlePrefix, query.titlePrefix)
+                && Objects.equals(titleWords, query.titleWords);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(minDuration, maxDuration, minYear, maxYear, genre, country,
+                titlePrefix, titleWords);
+    }
+
+    /**
+     * Describes the predicates of the query, like "duration 90-120, year 2000-, genre drama".
+     */
+    @Override
+    public String toString() {
+        StringBuilder description = new StringBuilder();
+        if (minDuration != null || maxDuration != null) {
+            description.append(", duration ").append(range(minDuration, maxDuration));
+        }
+        if (minYear != null || maxYear != null) {
+            description.append(", year ").append(range(minYear, maxYear));
+        }
+        if (genre != null) {
+            description.append(", genre ").append(genre);
+        }
+        if (country != null) {
+            description.append(", country ").append(country);
+        }
+        if (titlePrefix != null) {
+            description.append(", title ").append(titlePrefix).append("*");
+        }
+        if (titleWords != null) {
+            description.append(", title words ").append(String.join(" ", titleWords));
+        }
+        return description.length() == 0 ? "all movies" : description.substring(2);
+    }
+
+    /**
+     * Describes a range with optional bounds, like "90-120" or "2000-".
+     */
+    private static String range(Integer min, Integer max) {
+        return (min == null ? "" : min) + "-" + (max == null ? "" : max);
+    }
+
+    /**
+     * Checks whether a comma separated list of values contains a normalized value.
+     * @param values one value or a comma separated list of values, may be null
+     * @param value the normalized value to look for
+     * @return true if one of the values is equal to value after normalizing it
+     */
+    static boolean listContains(String values, String value) {
+        if (values == null) {
+            return false;
+        }
+        for (String listValue : values.split(",")) {
+            if (normalize(listValue).equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Normalizes a genre, country or title so that comparisons ignore case and surrounding
+     * whitespace.
+     */
+    static String normalize(String value) {
+        return value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Builder for queries. Every predicate is optional, and setting a predicate again replaces
+     * its previous value.
+     */
+    public static class Builder {
+        private Integer minDuration;
+        private Integer maxDuration;
+        private Integer minYear;
+        private Integer maxYear;
+        private String genre;
+        private String country;
+        private String titlePrefix;
+        private String titleWords;
+
+        /**
+         * Only matches movies that are at least minDuration minutes long.
+         */
+        public Builder minDuration(int minDuration) {
+            this.minDuration = minDuration;
+            return this;
+        }
+
+        /**
+         * Only matches movies that are at most maxDuration minutes long.
+         */
+        public Builder maxDuration(int maxDuration) {
+            this.maxDuration = maxDuration;
+            return this;
+        }
+
+        /**
+         * Only matches movies with a duration between the two lengths, both included.
+         */
+        public Builder durationBetween(int minDuration, int maxDuration) {
+            return minDuration(minDuration).maxDuration(maxDuration);
+        }
+
+        /**
+         * Only matches movies made in minYear or later.
+         */
+        public Builder minYear(int minYear) {
+            this.minYear = minYear;
+            return this;
+        }
+
+        /**
+         * Only matches movies made in maxYear or earlier.
+         */
+        public Builder maxYear(int maxYear) {
+            this.maxYear = maxYear;
+            return this;
+        }
+
+        /**
+         * Only matches movies made between the two years, both included.
+         */
+        public Builder yearBetween(int minYear, int maxYear) {
+            return minYear(minYear).maxYear(maxYear);
+        }
+
+        /**
+         * Only matches movies that list this genre.
+         */
+        public Builder genre(String genre) {
+            this.genre = genre;
+            return this;
+        }
+
+        /**
+         * Only matches movies that list this country.
+         */
+        public Builder country(String country) {
+            this.country = country;
+            return this;
+        }
+
+        /**
+         * Only matches movies whose title starts with titlePrefix, including its whitespace.
+         */
+        public Builder titlePrefix(String titlePrefix) {
+            this.titlePrefix = titlePrefix;
+            return this;
+        }
+
+        /**
+         * Only matches movies whose title contains every word of titleWords, in any order. Text
+         * without any words matches no movie.
+         */
+        public Builder titleWords(String titleWords) {
+            this.titleWords = titleWords;
+            return this;
+        }
+
+        /**
+         * @return a query with the predicates that were set
+         */
+        public MovieQuery build() {
+            return new MovieQuery(this);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of a loaded movie catalog, so that a restart does not have to parse the csv
+ * file again. The snapshot stores the movies in sorted order as columns of ints, and their
+ * strings in one string table: first the title of every movie in the same order, then every
+ * distinct genre and country, which the genre and country columns refer to by their index:
+ *
+ *   int magic, int version, long size and long modification time of the csv file,
+ *   int number of movies, int number of strings,
+ *   for every string: int length in bytes, byte[] UTF-8 string,
+ *   int[number of movies] durations, years, genre ids and country ids,
+ *   long CRC32 checksum of all bytes before it.
+ *
+ * A snapshot is only used when its checksum matches and the csv file still has the size and
+ * modification time it was created from, otherwise it is treated as missing. It is memory-mapped
+ * as a single buffer, so it can be at most MAX_SIZE bytes, and write fails for larger catalogs.
+ */
+public class MovieSnapshot {
+    private static final int MAGIC = 0x4D56534E;
+    private static final int VERSION = 1;
+    //Bytes of the fixed size header
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4;
+    //Largest snapshot that can be mapped as one buffer
+    public static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    /**
+     * Writes a snapshot of movies. The snapshot is written to a temporary file first and then
+     * moved into place, so a crash while writing never leaves a partial snapshot behind.
+     * @param snapshot the file to write the snapshot to
+     * @param movies the movies in sorted order
+     * @param sourceFile the csv file the movies were read from
+     * @throws IOException when the snapshot cannot be written, or would be larger than
+     *                     MAX_SIZE
+     */
+    public static void write(Path snapshot, Iterable<MovieInterface> movies, Path sourceFile)
+            throws IOException {
+        //Collects the movies and gives every distinct genre and country an id after the titles
+        List<MovieInterface> movieList = new ArrayList<>();
+        for (MovieInterface movie : movies) {
+            movieList.add(movie);
+        }
+        Map<String, Integer> stringIds = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        for (MovieInterface movie : movieList) {
+            for (String value : new String[] {movie.getGenre(), movie.getCountry()}) {
+                if (!stringIds.containsKey(value)) {
+                    stringIds.put(value, movieList.size() + strings.size());
+                    strings.add(value);
+                }
+            }
+        }
+
+        Path tempFile = Files.createTempFile(snapshot.toAbsolutePath().getParent(),
+                snapshot.getFileName().toString(), ".tmp");
+        try {
+            CRC32 checksum = new CRC32();
+            try (OutputStream fileOutput = Files.newOutputStream(tempFile);
+                 DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                         new CheckedOutputStream(fileOutput, checksum), 1 << 16))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeLong(Files.size(sourceFile));
+                output.writeLong(Files.getLastModifiedTime(sourceFile).toMillis());
+                output.writeInt(movieList.size());
+                output.writeInt(movieList.size() + strings.size());
+                for (MovieInterface movie : movieList) {
+                    writeString(output, movie.getTitle());
+                }
+                for (String value : strings) {
+                    writeString(output, value);
+                }
+                for (MovieInterface movie : movieList) {
+                    output.writeInt(movie.getDuration());
+                }
+                for (MovieInterface movie : movieList) {
+                    output.writeInt(movie.getYear());
+                }
+                for (MovieInterface movie : movieList) {
+                    output.writeInt(stringIds.get(movie.getGenre()));
+                }
+                for (MovieInterface movie : movieList) {
+                    output.writeInt(stringIds.get(movie.getCountry()));
+                }
+                //The checksum is written after the buffer, without being added to itself
+                output.flush();
+                new DataOutputStream(fileOutput).writeLong(checksum.getValue());
+            }
+            if (Files.size(tempFile) > MAX_SIZE) {
+                throw new IOException("Snapshot of " + movieList.size()
+                        + " movies is larger than " + MAX_SIZE + " bytes");
+            }
+            Files.move(tempFile, snapshot, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Writes the length of a string in UTF-8 bytes followed by its bytes.
+     */
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Reads the movies of a snapshot by memory-mapping it.
+     * @param snapshot the snapshot file
+     * @param sourceFile the csv file the snapshot should have been created from
+     * @return the movies in sorted order, or null when the snapshot does not exist, is stale
+     *         because the csv file changed, is corrupt, or is larger than MAX_SIZE
+     */
+    public static List<MovieInterface> read(Path snapshot, Path sourceFile) {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE + 8 || channel.size() > MAX_SIZE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != Files.size(sourceFile)
+                    || buffer.getLong() != Files.getLastModifiedTime(sourceFile).toMillis()) {
+                return null;
+            }
+
+            //Checks the checksum before trusting any of the counts and ids
+            int checksumPosition = buffer.limit() - 8;
+            CRC32 checksum = new CRC32();
+            checksum.update(buffer.duplicate().position(0).limit(checksumPosition));
+            if (checksum.getValue() != buffer.getLong(checksumPosition)) {
+                return null;
+            }
+
+            int numMovies = buffer.getInt();
+            int numStrings = buffer.getInt();
+            String[] strings = new String[numStrings];
+            byte[] bytes = new byte[256];
+            for (int i = 0; i < numStrings; i++) {
+                int length = buffer.getInt();
+                if (length > bytes.length) {
+                    bytes = new byte[Math.max(length, 2 * bytes.length)];
+                }
+                buffer.get(bytes, 0, length);
+                strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            }
+
+            //Reads the columns directly from their positions in the file
+            int durations = buffer.position();
+            int years = durations + 4 * numMovies;
+            int genres = years + 4 * numMovies;
+            int countries = genres + 4 * numMovies;
+            if (countries + 4L * numMovies != checksumPosition) {
+                return null;
+            }
+            List<MovieInterface> movies = new ArrayList<>(numMovies);
+            for (int i = 0; i < numMovies; i++) {
+                int offset = 4 * i;
+                movies.add(new Movie(strings[i], strings[buffer.getInt(genres + offset)],
+                        strings[buffer.getInt(countries + offset)], buffer.getInt(years + offset),
+                        buffer.getInt(durations + offset)));
+            }
+            return movies;
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException
+                 | NegativeArraySizeException | IllegalArgumentException e) {
+            //A missing or malformed snapshot is the same as no snapshot
+            return null;
+        }
+    }
+
+}
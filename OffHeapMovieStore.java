@@ -0,0 +1,679 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * DurationIndex that keeps its movies outside of the Java heap. Every movie that is inserted is
+ * copied into a record of fixed size in direct ByteBuffers: its duration, year, the codes of its
+ * genre and country in the dictionary of Movie, and where its UTF-8 title is stored in a second
+ * set of direct buffers. The lists of the durations hold the numbers of these records, in direct
+ * buffers as well. The garbage collector only sees the buffers, a few hundred objects for
+ * millions of movies, instead of one movie with a title for every movie, so collections do not
+ * get slower as the catalog grows.
+ *
+ * Movies are returned as views that only hold the store, the number of their record and the
+ * generation of the record, so the movie that is returned is not the movie that was inserted. A
+ * movie is removed when it is a view of the store or has the same title, genre, country, year
+ * and duration as a stored movie. The record of a removed movie is reused by a movie that is
+ * inserted later, which also reuses the bytes of the old title when the new title fits into
+ * them. Every record that is written gets a new generation, so a view of a removed movie can be
+ * read until its record is reused, and throws an IllegalStateException afterwards, like the
+ * views of a store that was cleared.
+ *
+ * In a Backend, storedKey copies every movie into its record before it is inserted, and the
+ * year, genre, country and title indexes of the Backend hold the view of the record instead of
+ * the movie that was read. Views are equal when they have the same record and generation, so a
+ * movie is removed from the store and from the indexes alike.
+ *
+ * The store has to be closed when it is no longer used. Closing drops the buffers, after which
+ * the store is empty, inserting throws an IllegalStateException, and so does reading a movie
+ * from a view. The memory of a direct buffer is released once the buffer itself is collected.
+ */
+public class OffHeapMovieStore extends DurationIndex implements Closeable {
+    //Ints of a record: duration, year, genre code, country code, the buffer, position, length
+    //and capacity of the title, where a null title has the length -1, the generation of the
+    //record and its state
+    private static final int DURATION = 0;
+    private static final int YEAR = 4;
+    private static final int GENRE = 8;
+    private static final int COUNTRY = 12;
+    private static final int TITLE_BUFFER = 16;
+    private static final int TITLE_POSITION = 20;
+    private static final int TITLE_LENGTH = 24;
+    private static final int TITLE_CAPACITY = 28;
+    private static final int GENERATION = 32;
+    private static final int STATE = 36;
+    private static final int RECORD_SIZE = 40;
+    //States of a record: written by storedKey but in no list yet, in a list, or free for reuse
+    private static final int STORED = 0;
+    private static final int LISTED = 1;
+    private static final int FREE = 2;
+    //Records per record buffer, and bytes per title buffer
+    private static final int RECORDS_SHIFT = 16;
+    private static final int TITLES_SIZE = 1 << 22;
+
+    private final List<ByteBuffer> records = new ArrayList<>();
+    private final List<ByteBuffer> titles = new ArrayList<>();
+    private int numRecords = 0;
+    //numbers of the free records, which are reused before new records are added
+    private int[] freeRecords = new int[16];
+    private int numFree = 0;
+    //generation of the record that was written last, which clear does not reset
+    private int generation = 0;
+    //record and generation of the movie that removeKey removed last
+    private int removedRecord;
+    private int removedGeneration;
+    private long listBytes = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates the off-heap list for the movies of a duration that is not in the store yet.
+     */
+    @Override
+    protected KeyListInterface<MovieInterface> newList(MovieInterface firstKey) {
+        return new RecordList(firstKey);
+    }
+
+    /**
+     * Frees the records of a list that was removed from the store.
+     */
+    @Override
+    protected void releaseList(KeyListInterface<MovieInterface> list) {
+        RecordList recordList = (RecordList) list;
+        for (int i = 0; i < recordList.size; i++) {
+            freeRecord(recordList.numbers.getInt(4 * i));
+        }
+        listBytes -= recordList.numbers.capacity();
+    }
+
+    /**
+     * Copies a movie into a record that no list holds yet, so inserting the view that is
+     * returned does not copy the movie again.
+     * @param key the movie that is about to be inserted
+     * @return the view of the record of the movie
+     */
+    @Override
+    public MovieInterface storedKey(MovieInterface key) {
+        int record = addRecord(key);
+        return new RecordView(record, field(record, GENERATION));
+    }
+
+    /**
+     * Removes a movie like removeSingleKey, and returns the view of its record, which can be
+     * read until the record is reused.
+     * @param key the movie to remove, a view of the store or a movie with the same fields
+     * @return the view of the removed movie, or null if the store does not contain it
+     */
+    @Override
+    public MovieInterface removeStoredKey(MovieInterface key) {
+        return removeSingleKey(key) ? new RecordView(removedRecord, removedGeneration) : null;
+    }
+
+    /**
+     * Removes all movies and releases the buffers of their records and titles.
+     */
+    @Override
+    public void clear() {
+        super.clear();
+        records.clear();
+        titles.clear();
+        numRecords = 0;
+        freeRecords = new int[16];
+        numFree = 0;
+        listBytes = 0;
+    }
+
+    /**
+     * Removes all movies and releases the buffers. Inserting and reading views fails afterwards.
+     */
+    @Override
+    public void close() {
+        clear();
+        closed = true;
+    }
+
+    /**
+     * @return the number of bytes of all buffers of the store, which are allocated outside of
+     *         the Java heap
+     */
+    public long offHeapBytes() {
+        long bytes = listBytes;
+        for (ByteBuffer buffer : records) {
+            bytes += buffer.capacity();
+        }
+        for (ByteBuffer buffer : titles) {
+            bytes += buffer.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Copies the fields of a movie into a free record, or into a new one when no record is free.
+     * @return the number of the record
+     */
+    private int addRecord(MovieInterface movie) {
+        checkOpen();
+        int record;
+        if (numFree > 0) {
+            record = freeRecords[--numFree];
+        } else {
+            if ((numRecords & ((1 << RECORDS_SHIFT) - 1)) == 0) {
+                records.add(allocate(RECORD_SIZE << RECORDS_SHIFT));
+            }
+            record = numRecords++;
+        }
+        ByteBuffer buffer = records.get(record >>> RECORDS_SHIFT);
+        int offset = recordOffset(record);
+        buffer.putInt(offset + DURATION, movie.getDuration());
+        buffer.putInt(offset + YEAR, movie.getYear());
+        buffer.putInt(offset + GENRE, Movie.VALUES.code(movie.getGenre()));
+        buffer.putInt(offset + COUNTRY, Movie.VALUES.code(movie.getCountry()));
+        byte[] title = movie.getTitle() == null ? null
+                : movie.getTitle().getBytes(StandardCharsets.UTF_8);
+        if (title == null) {
+            buffer.putInt(offset + TITLE_LENGTH, -1);
+        } else if (title.length <= buffer.getInt(offset + TITLE_CAPACITY)) {
+            //The title fits into the bytes of the title of the movie that had the record before
+            titles.get(buffer.getInt(offset + TITLE_BUFFER))
+                    .put(buffer.getInt(offset + TITLE_POSITION), title);
+            buffer.putInt(offset + TITLE_LENGTH, title.length);
+        } else {
+            //A title that does not fit into the last title buffer starts a new one
+            ByteBuffer titleBuffer = titles.isEmpty() ? null : titles.get(titles.size() - 1);
+            if (titleBuffer == null || titleBuffer.remaining() < title.length) {
+                titleBuffer = allocate(Math.max(TITLES_SIZE, title.length));
+                titles.add(titleBuffer);
+            }
+            buffer.putInt(offset + TITLE_BUFFER, titles.size() - 1);
+            buffer.putInt(offset + TITLE_POSITION, titleBuffer.position());
+            buffer.putInt(offset + TITLE_LENGTH, title.length);
+            buffer.putInt(offset + TITLE_CAPACITY, title.length);
+            titleBuffer.put(title);
+        }
+        buffer.putInt(offset + GENERATION, ++generation);
+        buffer.putInt(offset + STATE, STORED);
+        return record;
+    }
+
+    /**
+     * Marks a record as free, so that a movie that is inserted later reuses it. The record keeps
+     * its fields and generation until then.
+     */
+    private void freeRecord(int record) {
+        recordBuffer(record).putInt(recordOffset(record) + STATE, FREE);
+        if (numFree == freeRecords.length) {
+            freeRecords = Arrays.copyOf(freeRecords, 2 * numFree);
+        }
+        freeRecords[numFree++] = record;
+    }
+
+    /**
+     * @return the buffer that contains a record
+     */
+    private ByteBuffer recordBuffer(int record) {
+        checkOpen();
+        return records.get(record >>> RECORDS_SHIFT);
+    }
+
+    /**
+     * @return the position of a record in its buffer
+     */
+    private static int recordOffset(int record) {
+        return (record & ((1 << RECORDS_SHIFT) - 1)) * RECORD_SIZE;
+    }
+
+    /**
+     * @return an int field of a record
+     */
+    private int field(int record, int field) {
+        return recordBuffer(record).getInt(recordOffset(record) + field);
+    }
+
+    /**
+     * Throws an IllegalStateException when the store is closed, or when a record was cleared or
+     * reused since a view of it was created.
+     */
+    private void checkView(int record, int recordGeneration) {
+        checkOpen();
+        if (record >= numRecords || field(record, GENERATION) != recordGeneration) {
+            throw new IllegalStateException("The movie was removed from the store");
+        }
+    }
+
+    /**
+     * @return the title of a record decoded into a new String, or null
+     */
+    private String title(int record) {
+        ByteBuffer buffer = recordBuffer(record);
+        int offset = recordOffset(record);
+        int length = buffer.getInt(offset + TITLE_LENGTH);
+        if (length < 0) {
+            return null;
+        }
+        byte[] title = new byte[length];
+        titles.get(buffer.getInt(offset + TITLE_BUFFER))
+                .get(buffer.getInt(offset + TITLE_POSITION), title);
+        return new String(title, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks whether a record stores a movie, either because the movie is a view of the record or
+     * because all of its fields are equal.
+     * @param title the title of movie in UTF-8, or null
+     */
+    private boolean matches(int record, MovieInterface movie, byte[] title) {
+        if (movie instanceof RecordView && ((RecordView) movie).store() == this) {
+            return ((RecordView) movie).record == record
+                    && ((RecordView) movie).generation == field(record, GENERATION);
+        }
+        ByteBuffer buffer = recordBuffer(record);
+        int offset = recordOffset(record);
+        if (buffer.getInt(offset + YEAR) != movie.getYear()
+                || buffer.getInt(offset + GENRE) != Movie.VALUES.find(movie.getGenre())
+                || buffer.getInt(offset + COUNTRY) != Movie.VALUES.find(movie.getCountry())) {
+            return false;
+        }
+        int length = buffer.getInt(offset + TITLE_LENGTH);
+        if (title == null || length != title.length) {
+            return title == null && length < 0;
+        }
+        ByteBuffer titleBuffer = titles.get(buffer.getInt(offset + TITLE_BUFFER));
+        int position = buffer.getInt(offset + TITLE_POSITION);
+        for (int i = 0; i < length; i++) {
+            if (titleBuffer.get(position + i) != title[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Throws an IllegalStateException when the store is closed.
+     */
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The movie store is closed");
+        }
+    }
+
+    /**
+     * Allocates a direct buffer in the native byte order.
+     */
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * List of the record numbers of the movies of one duration, stored in a direct buffer that
+     * grows by half of its size when it is full.
+     */
+    private class RecordList implements KeyListInterface<MovieInterface> {
+        private final int duration;
+        private ByteBuffer numbers;
+        private int size = 0;
+
+        private RecordList(MovieInterface firstKey) {
+            this.duration = firstKey.getDuration();
+            this.numbers = allocate(4 * 16);
+            listBytes += numbers.capacity();
+            addKey(firstKey);
+        }
+
+        /**
+         * Appends the record of a view that storedKey returned, or copies any other movie into a
+         * new record and appends its number. The store only adds movies of the duration of the
+         * list.
+         */
+        @Override
+        public void addKey(MovieInterface newKey) {
+            int record;
+            if (newKey instanceof RecordView
+                    && ((RecordView) newKey).store() == OffHeapMovieStore.this
+                    && ((RecordView) newKey).isStoredOnly()) {
+                record = ((RecordView) newKey).record;
+            } else {
+                record = addRecord(newKey);
+            }
+            recordBuffer(record).putInt(recordOffset(record) + STATE, LISTED);
+            if (4 * size == numbers.capacity()) {
+                ByteBuffer grown = allocate(numbers.capacity() + 4 * (size >> 1));
+                grown.put(numbers.clear());
+                listBytes += grown.capacity() - numbers.capacity();
+                numbers = grown;
+            }
+            numbers.putInt(4 * size++, record);
+        }
+
+        /**
+         * Removes the first record that stores key, and frees the record.
+         */
+        @Override
+        public boolean removeKey(MovieInterface key) {
+            int index = indexOf(key);
+            if (index < 0) {
+                return false;
+            }
+            removedRecord = numbers.getInt(4 * index);
+            removedGeneration = field(removedRecord, GENERATION);
+            for (int i = index + 1; i < size; i++) {
+                numbers.putInt(4 * (i - 1), numbers.getInt(4 * i));
+            }
+            size--;
+            freeRecord(removedRecord);
+            return true;
+        }
+
+        @Override
+        public boolean containsKey(MovieInterface key) {
+            return indexOf(key) >= 0;
+        }
+
+        /**
+         * @return the position of the first record that stores key, or -1
+         */
+        private int indexOf(MovieInterface key) {
+            if (key.getDuration() != duration) {
+                return -1;
+            }
+            byte[] title = key.getTitle() == null ? null
+                    : key.getTitle().getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < size; i++) {
+                if (matches(numbers.getInt(4 * i), key, title)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public MovieInterface firstKey() {
+            return get(0);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public MovieInterface get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + " of " + size + " keys");
+            }
+            int record = numbers.getInt(4 * index);
+            return new RecordView(record, field(record, GENERATION));
+        }
+
+        @Override
+        public int compareTo(KeyListInterface<MovieInterface> other) {
+            return Integer.compare(duration, other.firstKey().getDuration());
+        }
+
+        @Override
+        public Iterator<MovieInterface> iterator() {
+            return iterator(0);
+        }
+
+        @Override
+        public Iterator<MovieInterface> iterator(int startIndex) {
+            return new Iterator<MovieInterface>() {
+                private int index = startIndex;
+
+                @Override
+                public boolean hasNext() {
+                    return index < size;
+                }
+
+                @Override
+                public MovieInterface next() {
+                    if (index >= size) {
+                        throw new NoSuchElementException("No elements left");
+                    }
+                    return get(index++);
+                }
+            };
+        }
+    }
+
+    /**
+     * Flyweight movie that reads its fields from a record of the store. Two views are equal when
+     * they read the same record in the same generation.
+     */
+    private class RecordView implements MovieInterface {
+        private final int record;
+        private final int generation;
+
+        private RecordView(int record, int generation) {
+            this.record = record;
+            this.generation = generation;
+        }
+
+        private OffHeapMovieStore store() {
+            return OffHeapMovieStore.this;
+        }
+
+        /**
+         * @return true if this view was returned by storedKey and its record is in no list yet
+         */
+        private boolean isStoredOnly() {
+            return !closed && record < numRecords && field(record, GENERATION) == generation
+                    && field(record, STATE) == STORED;
+        }
+
+        @Override
+        public String getTitle() {
+            checkView(record, generation);
+            return title(record);
+        }
+
+        @Override
+        public String getGenre() {
+            checkView(record, generation);
+            return Movie.VALUES.value(field(record, GENRE));
+        }
+
+        @Override
+        public String getCountry() {
+            checkView(record, generation);
+            return Movie.VALUES.value(field(record, COUNTRY));
+        }
+
+        @Override
+        public int getYear() {
+            checkView(record, generation);
+            return field(record, YEAR);
+        }
+
+        @Override
+        public int getDuration() {
+            checkView(record, generation);
+            return field(record, DURATION);
+        }
+
+        @Override
+        public int compareTo(MovieInterface other) {
+            return Integer.compare(getDuration(), other.getDuration());
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof RecordView && ((RecordView) other).store() == store()
+                    && ((RecordView) other).record == record
+                    && ((RecordView) other).generation == generation;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(store()) + record) + generation;
+        }
+    }
+
+    /**
+     * Tests that random inserts and removes leave the store with the same movies in the same
+     * order as IterableMultiKeyRBT, comparing the fields that are read back from the buffers.
+     */
+    @Test
+    public void testMatchesIterableMultiKeyRBT() {
+        for (int seed = 0; seed < 10; seed++) {
+            Random random = new Random(seed);
+            IterableMultiKeyRBT<MovieInterface> expected = new IterableMultiKeyRBT<>();
+            List<MovieInterface> movies = new ArrayList<>();
+            try (OffHeapMovieStore store = new OffHeapMovieStore()) {
+                for (int i = 0; i < 300; i++) {
+                    movies.add(new Movie("Bulk " + i, "Drama", "USA", 1990 + random.nextInt(30),
+                            random.nextInt(50)));
+                }
+                store.bulkLoad(movies);
+                expected.bulkLoad(movies);
+                for (int i = 0; i < 1000; i++) {
+                    if (random.nextInt(3) > 0) {
+                        MovieInterface movie = new Movie("Movie " + i, random.nextBoolean()
+                                ? "Horror" : "Comedy, Drama", "France", 2000, random.nextInt(50));
+                        movies.add(movie);
+                        assertEquals(expected.insertSingleKey(movie),
+                                store.insertSingleKey(movie));
+                    } else {
+                        MovieInterface movie = movies.remove(random.nextInt(movies.size()));
+                        assertEquals(expected.removeSingleKey(movie),
+                                store.removeSingleKey(movie));
+                    }
+                    assertEquals(expected.size(), store.size());
+                    assertEquals(expected.numKeys(), store.numKeys());
+                }
+                assertEquals(describe(expected.iterator()), describe(store.iterator()));
+                assertEquals(describe(expected.descendingIterator()),
+                        describe(store.descendingIterator()));
+                assertEquals(describe(expected.iterator(bound(10), true, bound(20), false)),
+                        describe(store.iterator(bound(10), true, bound(20), false)));
+                assertEquals(expected.countInRange(bound(10), false, bound(40), true),
+                        store.countInRange(bound(10), false, bound(40), true));
+            }
+        }
+    }
+
+    /**
+     * Tests that movies are read back with all of their fields, that views and copies of a
+     * movie remove it, and that a closed store can no longer be used.
+     */
+    @Test
+    public void testViewsAndClose() {
+        OffHeapMovieStore store = new OffHeapMovieStore();
+        MovieInterface amelie = new Movie("Le Fabuleux Destin d'Amélie Poulain",
+                "Comedy, Romance", "France", 2001, 122);
+        store.insertSingleKey(amelie);
+        store.insertSingleKey(new Movie(null, "Drama", "USA", 1999, 90));
+        store.insertSingleKey(new Movie("Copy", "Drama", "USA", 1999, 90));
+        assertTrue(store.offHeapBytes() > 0);
+
+        MovieInterface view = store.select(2);
+        assertEquals(amelie.getTitle(), view.getTitle());
+        assertEquals("Comedy, Romance", view.getGenre());
+        assertEquals("France", view.getCountry());
+        assertEquals(2001, view.getYear());
+        assertEquals(122, view.getDuration());
+        assertEquals(view, store.select(2));
+        assertTrue(new MovieQuery.Builder().genre("romance").country("France").build()
+                .matches(view));
+        assertEquals(null, store.select(0).getTitle());
+
+        //Removes by the fields of an equal movie and by a view
+        assertTrue(!store.removeSingleKey(new Movie("Copy", "Drama", "USA", 2000, 90)));
+        assertTrue(store.removeSingleKey(new Movie("Copy", "Drama", "USA", 1999, 90)));
+        assertTrue(store.removeSingleKey(store.select(0)));
+        assertEquals(1, store.numKeys());
+        assertEquals(amelie.getTitle(), store.select(0).getTitle());
+
+        store.close();
+        assertEquals(0, store.numKeys());
+        assertEquals(0, store.offHeapBytes());
+        try {
+            view.getTitle();
+            fail("Views of a closed store should not be readable");
+        } catch (IllegalStateException e) {
+            assertTrue(true);
+        }
+        try {
+            store.insertSingleKey(amelie);
+            fail("A closed store should not accept movies");
+        } catch (IllegalStateException e) {
+            assertTrue(true);
+        }
+    }
+
+    /**
+     * Tests that removed records are reused, that stored views are inserted without copying them
+     * again, and that views fail once their record was reused or cleared.
+     */
+    @Test
+    public void testReuseRecords() {
+        try (OffHeapMovieStore store = new OffHeapMovieStore()) {
+            for (int i = 0; i < 100; i++) {
+                store.insertSingleKey(new Movie("Movie " + i, "Drama", "USA", 2000, i % 10));
+            }
+            //Movies of the same duration with titles that fit reuse the records and their titles
+            long bytes = store.offHeapBytes();
+            for (int i = 0; i < 1000; i++) {
+                MovieInterface removed = store.removeStoredKey(store.select(i % 100));
+                store.insertSingleKey(new Movie("Other " + i % 10, "Comedy", "France", 2010,
+                        removed.getDuration()));
+            }
+            assertEquals(100, store.numKeys());
+            assertEquals(bytes, store.offHeapBytes());
+
+            //A removed view can be read until its record holds another movie
+            MovieInterface view = store.select(0);
+            MovieInterface removed = store.removeStoredKey(view);
+            assertEquals(view, removed);
+            assertEquals(view.getTitle(), removed.getTitle());
+            assertTrue(store.removeStoredKey(view) == null);
+            MovieInterface stored = store.storedKey(new Movie("New", "Drama", "USA", 1999, 0));
+            assertTrue(!view.equals(stored));
+            try {
+                view.getTitle();
+                fail("A view of a reused record should not be readable");
+            } catch (IllegalStateException e) {
+                assertTrue(true);
+            }
+            store.insertSingleKey(stored);
+            store.insertSingleKey(stored);
+            assertEquals(101, store.numKeys());
+            assertEquals(stored, store.select(store.rank(bound(1)) - 2));
+            assertTrue(!stored.equals(store.select(store.rank(bound(1)) - 1)));
+
+            //Views of a cleared store fail even though their record numbers are used again
+            store.clear();
+            store.insertSingleKey(new Movie("After", "Drama", "USA", 2000, 0));
+            try {
+                stored.getTitle();
+                fail("A view of a cleared record should not be readable");
+            } catch (IllegalStateException e) {
+                assertTrue(true);
+            }
+            assertEquals("After", store.select(0).getTitle());
+        }
+    }
+
+    /**
+     * Describes every movie of an iterator by its fields.
+     */
+    private static List<String> describe(Iterator<MovieInterface> iterator) {
+        List<String> movies = new ArrayList<>();
+        iterator.forEachRemaining(movie -> movies.add(movie.getTitle() + "|" + movie.getGenre()
+                + "|" + movie.getCountry() + "|" + movie.getYear() + "|" + movie.getDuration()));
+        return movies;
+    }
+
+}
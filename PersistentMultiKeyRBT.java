@@ -0,0 +1,1009 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Persistent version of IterableMultiKeyRBT. The nodes of the tree are never changed once they
+ * are created: inserting or removing a key copies the nodes on the path from the root to the key
+ * and rebalances the copies, and all other subtrees are shared with the previous version. Every
+ * change therefore creates a new root, and the previous root still describes the tree as it was
+ * before. snapshot() returns a tree over the current root in O(1), which keeps returning the
+ * same keys no matter what is inserted into this tree afterwards, so it can be read from any
+ * number of threads without locks while another thread writes.
+ *
+ * The KeyLists of the nodes share one array per key between the versions. A version only sees
+ * the first size keys of the array, and a new key is appended in place when it goes right after
+ * the keys of the newest version, otherwise the array is copied. Every node also stores the
+ * number of keys and KeyLists in its subtree, so counting, rank and select take O(log n) like in
+ * IterableMultiKeyRBT. The KeyLists returned by the tree cannot be changed.
+ *
+ * Writes to one tree have to come from one thread at a time. Every method reads the root once,
+ * so reading this tree while it is written returns the keys of one of its versions.
+ */
+public class PersistentMultiKeyRBT<T extends Comparable<T>>
+        implements IterableMultiKeySortedCollectionInterface<T> {
+    //Root of the current version, volatile so that readers see all nodes of the version
+    private volatile Node<T> root;
+    private Comparable<T> iterationStartPoint;
+
+    /**
+     * Creates an empty tree.
+     */
+    public PersistentMultiKeyRBT() {
+    }
+
+    /**
+     * Creates a tree over an existing version.
+     */
+    private PersistentMultiKeyRBT(Node<T> root) {
+        this.root = root;
+    }
+
+    /**
+     * Node of the tree. All fields are final, so a node can be shared by any number of versions.
+     */
+    private static final class Node<T extends Comparable<T>> {
+        private final SharedKeyList<T> data;
+        private final Node<T> left;
+        private final Node<T> right;
+        private final boolean red;
+        //number of keys and of KeyLists in this node and all of its descendants
+        private final int subtreeKeys;
+        private final int subtreeLists;
+
+        private Node(SharedKeyList<T> data, Node<T> left, Node<T> right, boolean red) {
+            this.data = data;
+            this.left = left;
+            this.right = right;
+            this.red = red;
+            this.subtreeKeys = keys(left) + data.size() + keys(right);
+            this.subtreeLists = lists(left) + 1 + lists(right);
+        }
+
+        private static int keys(Node<?> node) {
+            return node == null ? 0 : node.subtreeKeys;
+        }
+
+        private static int lists(Node<?> node) {
+            return node == null ? 0 : node.subtreeLists;
+        }
+    }
+
+    /**
+     * Returns a tree over the current version of this tree. Keys inserted into this tree
+     * afterwards are not visible in the snapshot, and keys inserted into the snapshot are not
+     * visible in this tree.
+     *
+     * @return a tree with the keys that this tree has now
+     */
+    public PersistentMultiKeyRBT<T> snapshot() {
+        return new PersistentMultiKeyRBT<>(root);
+    }
+
+    /**
+     * Inserts a key into a copy of the path to its KeyList, and publishes the new root. The key
+     * is appended to the KeyList with the same key, or stored in a new node.
+     *
+     * @param key object to insert
+     * @return true if a new node was inserted, false if the key was added into an existing node
+     */
+    @Override
+    public boolean insertSingleKey(T key) {
+        if (key == null) {
+            throw new NullPointerException("Key is null");
+        }
+        Node<T> oldRoot = root;
+        root = blacken(insert(oldRoot, key, null));
+        return Node.lists(root) > Node.lists(oldRoot);
+    }
+
+    /**
+     * Inserts a copy of a whole KeyList into a new node of the tree, unless the tree already has
+     * a KeyList with the same key.
+     *
+     * @param data the KeyList to insert
+     * @return true if the KeyList was inserted, false if there is a KeyList with its key already
+     */
+    @Override
+    public boolean insert(KeyListInterface<T> data) throws NullPointerException {
+        if (data == null) {
+            throw new NullPointerException("Cannot insert data value null into the tree.");
+        }
+        Node<T> oldRoot = root;
+        Node<T> newRoot = insert(oldRoot, data.firstKey(), SharedKeyList.copyOf(data));
+        if (newRoot == oldRoot) {
+            return false;
+        }
+        root = blacken(newRoot);
+        return true;
+    }
+
+    /**
+     * Inserts a key or a KeyList into a subtree by copying the path to it.
+     *
+     * @param node    root of the subtree
+     * @param key     the key to insert
+     * @param newList KeyList to insert as a new node, or null to insert the single key
+     * @return the root of the new subtree, or node itself when newList has a key that is in the
+     *         subtree already
+     */
+    private static <T extends Comparable<T>> Node<T> insert(Node<T> node, T key,
+                                                            SharedKeyList<T> newList) {
+        if (node == null) {
+            return new Node<>(newList != null ? newList : SharedKeyList.of(key), null, null,
+                    true);
+        }
+        int compare = key.compareTo(node.data.firstKey());
+        if (compare == 0) {
+            return newList != null ? node
+                    : new Node<>(node.data.append(key), node.left, node.right, node.red);
+        }
+        if (compare < 0) {
+            Node<T> left = insert(node.left, key, newList);
+            return left == node.left ? node : balance(node.data, left, node.right, node.red);
+        }
+        Node<T> right = insert(node.right, key, newList);
+        return right == node.right ? node : balance(node.data, node.left, right, node.red);
+    }
+
+    /**
+     * Creates a node from a KeyList and two subtrees. A black node with a red child that has a
+     * red child of its own is replaced by a red node with two black children, which moves the
+     * violation of the red black tree properties up by two levels, as described by Okasaki.
+     */
+    private static <T extends Comparable<T>> Node<T> balance(SharedKeyList<T> data, Node<T> left,
+                                                             Node<T> right, boolean red) {
+        if (!red) {
+            if (isRed(left) && isRed(left.left)) {
+                return new Node<>(left.data, blacken(left.left),
+                        new Node<>(data, left.right, right, false), true);
+            }
+            if (isRed(left) && isRed(left.right)) {
+                return new Node<>(left.right.data,
+                        new Node<>(left.data, left.left, left.right.left, false),
+                        new Node<>(data, left.right.right, right, false), true);
+            }
+            if (isRed(right) && isRed(right.left)) {
+                return new Node<>(right.left.data,
+                        new Node<>(data, left, right.left.left, false),
+                        new Node<>(right.data, right.left.right, right.right, false), true);
+            }
+            if (isRed(right) && isRed(right.right)) {
+                return new Node<>(right.data, new Node<>(data, left, right.left, false),
+                        blacken(right.right), true);
+            }
+        }
+        return new Node<>(data, left, right, red);
+    }
+
+    private static boolean isRed(Node<?> node) {
+        return node != null && node.red;
+    }
+
+    /**
+     * @return a black copy of node, or node itself when it is black or null
+     */
+    private static <T extends Comparable<T>> Node<T> blacken(Node<T> node) {
+        return isRed(node) ? new Node<>(node.data, node.left, node.right, false) : node;
+    }
+
+    /**
+     * Removes one value from the KeyList of its key in a copy of the path to it, and publishes
+     * the new root. The node of the KeyList is removed when key is its last value.
+     *
+     * @param key object to remove
+     * @return true if key was removed, false if the tree does not contain it
+     */
+    @Override
+    public boolean removeSingleKey(T key) {
+        if (key == null) {
+            throw new NullPointerException("Key is null");
+        }
+        Node<T> oldRoot = root;
+        Comparable<KeyListInterface<T>> target = list -> key.compareTo(list.firstKey());
+        Node<T> node = find(oldRoot, target);
+        int index = node == null ? -1 : node.data.indexOf(key);
+        if (index < 0) {
+            return false;
+        }
+        root = node.data.size() == 1 ? blacken(remove(oldRoot, target))
+                : replace(oldRoot, target, node.data.without(index));
+        return true;
+    }
+
+    /**
+     * Removes the KeyList with the key of data and all of its values, and publishes the new root.
+     *
+     * @param data a comparable for the key of the KeyList to remove
+     * @return true if a KeyList was removed, false if the tree has no KeyList with this key
+     */
+    @Override
+    public boolean remove(Comparable<KeyListInterface<T>> data) {
+        if (data == null) {
+            throw new NullPointerException("This tree cannot store null references.");
+        }
+        Node<T> oldRoot = root;
+        if (find(oldRoot, data) == null) {
+            return false;
+        }
+        root = blacken(remove(oldRoot, data));
+        return true;
+    }
+
+    /**
+     * Removes the node of a KeyList from a subtree that contains it, by copying the path to it, as
+     * described by Kahrs. Below a black node, removing the node can leave one side of the subtree
+     * with one black node less than the other, which balanceLeft and balanceRight make up for on
+     * the way back up. The two subtrees of the removed node are joined by join.
+     *
+     * @param node   root of the subtree
+     * @param target comparable for the key of the KeyList to remove
+     * @return the root of the new subtree
+     */
+    private static <T extends Comparable<T>> Node<T> remove(Node<T> node,
+                                                            Comparable<KeyListInterface<T>> target) {
+        int compare = target.compareTo(node.data);
+        if (compare == 0) {
+            return join(node.left, node.right);
+        }
+        if (compare < 0) {
+            Node<T> left = remove(node.left, target);
+            return isRed(node.left) ? new Node<>(node.data, left, node.right, true)
+                    : balanceLeft(node.data, left, node.right);
+        }
+        Node<T> right = remove(node.right, target);
+        return isRed(node.right) ? new Node<>(node.data, node.left, right, true)
+                : balanceRight(node.data, node.left, right);
+    }
+
+    /**
+     * Joins two subtrees of the same black height, whose keys are all smaller in left than in
+     * right, into one subtree.
+     */
+    private static <T extends Comparable<T>> Node<T> join(Node<T> left, Node<T> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.red != right.red) {
+            //Joins into the red node, which has black children of the height of the other node
+            return left.red ? new Node<>(left.data, left.left, join(left.right, right), true)
+                    : new Node<>(right.data, join(left, right.left), right.right, true);
+        }
+        Node<T> middle = join(left.right, right.left);
+        if (isRed(middle)) {
+            return new Node<>(middle.data, new Node<>(left.data, left.left, middle.left, left.red),
+                    new Node<>(right.data, middle.right, right.right, left.red), true);
+        }
+        if (left.red) {
+            return new Node<>(left.data, left.left,
+                    new Node<>(right.data, middle, right.right, true), true);
+        }
+        return balanceLeft(left.data, left.left, new Node<>(right.data, middle, right.right, false));
+    }
+
+    /**
+     * Creates a node whose left subtree has one black node less than its right subtree, and
+     * restores the black heights below it. The result either has the black height of a black
+     * node over right, or one less if the left subtree could not make up for it.
+     */
+    private static <T extends Comparable<T>> Node<T> balanceLeft(SharedKeyList<T> data,
+                                                                 Node<T> left, Node<T> right) {
+        if (isRed(left)) {
+            return new Node<>(data, blacken(left), right, true);
+        }
+        if (!right.red) {
+            return rebalance(data, left, redden(right));
+        }
+        return new Node<>(right.left.data, new Node<>(data, left, right.left.left, false),
+                rebalance(right.data, right.left.right, redden(right.right)), true);
+    }
+
+    /**
+     * Mirror image of balanceLeft, for a right subtree that has one black node less.
+     */
+    private static <T extends Comparable<T>> Node<T> balanceRight(SharedKeyList<T> data,
+                                                                  Node<T> left, Node<T> right) {
+        if (isRed(right)) {
+            return new Node<>(data, left, blacken(right), true);
+        }
+        if (!left.red) {
+            return rebalance(data, redden(left), right);
+        }
+        return new Node<>(left.right.data, rebalance(left.data, redden(left.left), left.right.left),
+                new Node<>(data, left.right.right, right, false), true);
+    }
+
+    /**
+     * Creates a black node, unless one of its children is red and has a red child or both of its
+     * children are red. Then the node is replaced by a red node with two black children.
+     */
+    private static <T extends Comparable<T>> Node<T> rebalance(SharedKeyList<T> data, Node<T> left,
+                                                               Node<T> right) {
+        if (isRed(left) && isRed(right)) {
+            return new Node<>(data, blacken(left), blacken(right), true);
+        }
+        return balance(data, left, right, false);
+    }
+
+    /**
+     * @return a red copy of a black node
+     */
+    private static <T extends Comparable<T>> Node<T> redden(Node<T> node) {
+        return new Node<>(node.data, node.left, node.right, true);
+    }
+
+    /**
+     * Copies the path to the KeyList with the key of target, and replaces the KeyList.
+     */
+    private static <T extends Comparable<T>> Node<T> replace(Node<T> node,
+                                                             Comparable<KeyListInterface<T>> target,
+                                                             SharedKeyList<T> newList) {
+        int compare = target.compareTo(node.data);
+        if (compare == 0) {
+            return new Node<>(newList, node.left, node.right, node.red);
+        }
+        return compare < 0 ? new Node<>(node.data, replace(node.left, target, newList), node.right,
+                node.red) : new Node<>(node.data, node.left, replace(node.right, target, newList),
+                node.red);
+    }
+
+    /**
+     * @return the node of a version with the KeyList with the key of data, or null if there is none
+     */
+    private static <T extends Comparable<T>> Node<T> find(Node<T> version,
+                                                          Comparable<KeyListInterface<T>> data) {
+        Node<T> currentNode = version;
+        while (currentNode != null) {
+            int compare = data.compareTo(currentNode.data);
+            if (compare == 0) {
+                return currentNode;
+            }
+            currentNode = compare < 0 ? currentNode.left : currentNode.right;
+        }
+        return null;
+    }
+
+    /**
+     * Inserts all keys into the tree. An empty tree is built bottom-up from the keys grouped into
+     * sorted KeyLists, like in IterableMultiKeyRBT, and a tree that already contains keys
+     * inserts every key with insertSingleKey.
+     *
+     * @param keys the keys to insert
+     * @throws NullPointerException when keys or one of the keys is null
+     */
+    @Override
+    public void bulkLoad(Iterable<T> keys) {
+        if (keys == null) {
+            throw new NullPointerException("Keys are null");
+        }
+        if (!isEmpty()) {
+            for (T key : keys) {
+                insertSingleKey(key);
+            }
+            return;
+        }
+        List<T> inputKeys = new ArrayList<>();
+        for (T key : keys) {
+            if (key == null) {
+                throw new NullPointerException("Key is null");
+            }
+            inputKeys.add(key);
+        }
+        List<KeyListInterface<T>> keyLists = IterableMultiKeyRBT.groupKeys(inputKeys);
+        if (keyLists.isEmpty()) {
+            return;
+        }
+        //Nodes at the deepest level of the tree are red, all others are black
+        int redDepth = 31 - Integer.numberOfLeadingZeros(keyLists.size());
+        root = blacken(buildBalancedSubtree(keyLists, 0, keyLists.size() - 1, 0, redDepth));
+    }
+
+    /**
+     * Builds a balanced subtree from a sorted range of KeyLists, using the middle list as root of
+     * the subtree.
+     */
+    private static <T extends Comparable<T>> Node<T> buildBalancedSubtree(
+            List<KeyListInterface<T>> keyLists, int low, int high, int depth, int redDepth) {
+        if (low > high) {
+            return null;
+        }
+        int middle = (low + high) >>> 1;
+        Node<T> left = buildBalancedSubtree(keyLists, low, middle - 1, depth + 1, redDepth);
+        Node<T> right = buildBalancedSubtree(keyLists, middle + 1, high, depth + 1, redDepth);
+        return new Node<>(SharedKeyList.copyOf(keyLists.get(middle)), left, right,
+                depth == redDepth);
+    }
+
+    /**
+     * Checks if the tree contains a KeyList with the key of data.
+     */
+    @Override
+    public boolean contains(Comparable<KeyListInterface<T>> data) {
+        if (data == null) {
+            throw new NullPointerException("This tree cannot store null references.");
+        }
+        return find(root, data) != null;
+    }
+
+    /**
+     * @return the number of KeyLists in the tree
+     */
+    @Override
+    public int size() {
+        return Node.lists(root);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * Clears the tree. Snapshots taken before keep their keys.
+     */
+    @Override
+    public void clear() {
+        root = null;
+    }
+
+    /**
+     * @return the number of values in the tree.
+     */
+    @Override
+    public int numKeys() {
+        return Node.keys(root);
+    }
+
+    /**
+     * Counts the keys between two bounds in O(log n), by counting the keys below each bound.
+     */
+    @Override
+    public int countInRange(Comparable<T> lowerBound, boolean lowerInclusive,
+                            Comparable<T> upperBound, boolean upperInclusive) {
+        Node<T> version = root;
+        int upperCount = upperBound == null ? Node.keys(version)
+                : countBelow(version, upperBound, upperInclusive);
+        int lowerCount = lowerBound == null ? 0 : countBelow(version, lowerBound, !lowerInclusive);
+        return Math.max(upperCount - lowerCount, 0);
+    }
+
+    /**
+     * Returns the number of keys that are smaller than key in O(log n).
+     */
+    @Override
+    public int rank(Comparable<T> key) {
+        if (key == null) {
+            throw new NullPointerException("Key is null");
+        }
+        return countBelow(root, key, false);
+    }
+
+    /**
+     * Returns the key at an index of the in-order iteration in O(log n).
+     *
+     * @throws IndexOutOfBoundsException when index is negative or not smaller than numKeys()
+     */
+    @Override
+    public T select(int index) {
+        Node<T> currentNode = root;
+        if (index < 0 || index >= Node.keys(currentNode)) {
+            throw new IndexOutOfBoundsException("Index " + index + " of "
+                    + Node.keys(currentNode) + " keys");
+        }
+        while (true) {
+            int leftKeys = Node.keys(currentNode.left);
+            if (index < leftKeys) {
+                currentNode = currentNode.left;
+            } else if (index < leftKeys + currentNode.data.size()) {
+                return currentNode.data.get(index - leftKeys);
+            } else {
+                index -= leftKeys + currentNode.data.size();
+                currentNode = currentNode.right;
+            }
+        }
+    }
+
+    /**
+     * Counts the keys of a version that are smaller than a bound, or smaller than or equal to it.
+     */
+    private static <T extends Comparable<T>> int countBelow(Node<T> version, Comparable<T> bound,
+                                                           boolean inclusive) {
+        int count = 0;
+        Node<T> currentNode = version;
+        while (currentNode != null) {
+            int compare = bound.compareTo(currentNode.data.firstKey());
+            if (compare < 0) {
+                currentNode = currentNode.left;
+            } else if (compare > 0) {
+                count += Node.keys(currentNode.left) + currentNode.data.size();
+                currentNode = currentNode.right;
+            } else {
+                count += Node.keys(currentNode.left);
+                return inclusive ? count + currentNode.data.size() : count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks the red black tree properties and the subtree counts of every node: the root is
+     * black, no red node has a red child, every path from the root to a leaf has the same number
+     * of black nodes, and the keys are sorted.
+     *
+     * @return true if the tree is a valid red black tree
+     */
+    public boolean isValid() {
+        Node<T> version = root;
+        return !isRed(version) && checkSubtree(version, null, null) >= 0;
+    }
+
+    /**
+     * @return the black height of the subtree of node, or -1 if it is not valid
+     */
+    private int checkSubtree(Node<T> node, T lower, T upper) {
+        if (node == null) {
+            return 0;
+        }
+        T key = node.data.firstKey();
+        if ((lower != null && key.compareTo(lower) <= 0)
+                || (upper != null && key.compareTo(upper) >= 0)
+                || (node.red && (isRed(node.left) || isRed(node.right)))
+                || node.subtreeKeys != Node.keys(node.left) + node.data.size()
+                        + Node.keys(node.right)) {
+            return -1;
+        }
+        int left = checkSubtree(node.left, lower, key);
+        int right = checkSubtree(node.right, key, upper);
+        if (left < 0 || left != right) {
+            return -1;
+        }
+        return left + (node.red ? 0 : 1);
+    }
+
+    /**
+     * Returns an iterator that does an in-order iteration over the current version of the tree,
+     * starting at the iteration start point.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return iterator(iterationStartPoint, true, null, true);
+    }
+
+    /**
+     * Returns an iterator that does an in-order iteration over the keys between two bounds of
+     * the current version of the tree.
+     */
+    @Override
+    public Iterator<T> iterator(Comparable<T> lowerBound, boolean lowerInclusive,
+                                Comparable<T> upperBound, boolean upperInclusive) {
+        Deque<Node<T>> stack = new ArrayDeque<>();
+        Node<T> currentNode = root;
+        while (currentNode != null) {
+            int compare = lowerBound == null ? -1
+                    : lowerBound.compareTo(currentNode.data.firstKey());
+            if (compare < 0 || (lowerInclusive && compare == 0)) {
+                stack.push(currentNode);
+                currentNode = currentNode.left;
+            } else {
+                currentNode = currentNode.right;
+            }
+        }
+        return new KeyIterator<>(stack, upperBound, upperInclusive, false);
+    }
+
+    /**
+     * Returns an iterator that resumes an in-order iteration at a position within the KeyList of
+     * startKey, see IterableMultiKeyRBT.
+     */
+    @Override
+    public Iterator<T> iterator(Comparable<T> startKey, int startIndex, Comparable<T> upperBound,
+                                boolean upperInclusive) {
+        if (startIndex < 0) {
+            throw new IllegalArgumentException("Start index is negative");
+        }
+        KeyIterator<T> iterator = (KeyIterator<T>) iterator(startKey, true, upperBound,
+                upperInclusive);
+        if (startKey != null && !iterator.stack.isEmpty()
+                && startKey.compareTo(iterator.stack.peek().data.firstKey()) == 0) {
+            iterator.startInFirstList(startIndex);
+        }
+        return iterator;
+    }
+
+    /**
+     * Returns an iterator that does a reverse in-order iteration over the current version of the
+     * tree, starting at the largest key.
+     */
+    @Override
+    public Iterator<T> descendingIterator() {
+        Deque<Node<T>> stack = new ArrayDeque<>();
+        for (Node<T> currentNode = root; currentNode != null; currentNode = currentNode.right) {
+            stack.push(currentNode);
+        }
+        return new KeyIterator<>(stack, null, true, true);
+    }
+
+    /**
+     * Returns a spliterator over the keys of the current version, starting at the iteration start
+     * point. It reports its exact size and can be split for parallel streams.
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        Node<T> version = root;
+        int start = iterationStartPoint == null ? 0
+                : countBelow(version, iterationStartPoint, false);
+        return new KeySpliterator<>(version, start, Node.keys(version));
+    }
+
+    /**
+     * Returns a spliterator over the keys between two bounds of the current version. It reports
+     * its exact size and can be split for parallel streams.
+     */
+    @Override
+    public Spliterator<T> spliterator(Comparable<T> lowerBound, boolean lowerInclusive,
+                                      Comparable<T> upperBound, boolean upperInclusive) {
+        Node<T> version = root;
+        int start = lowerBound == null ? 0 : countBelow(version, lowerBound, !lowerInclusive);
+        int end = upperBound == null ? Node.keys(version)
+                : countBelow(version, upperBound, upperInclusive);
+        return new KeySpliterator<>(version, start, Math.max(start, end));
+    }
+
+    /**
+     * Sets the starting point for iterations. Future iterations will start at the starting point or
+     * the key closest to it in the tree. Passing in null disables the starting point.
+     *
+     * @param startPoint the start point to set for iterations
+     */
+    @Override
+    public void setIterationStartPoint(Comparable<T> startPoint) {
+        iterationStartPoint = startPoint;
+    }
+
+    /**
+     * Spliterator over the keys with the indexes from start to end of the in-order iteration of
+     * one version. Splits the remaining indexes in half, like the spliterator of
+     * IterableMultiKeyRBT.
+     */
+    private static class KeySpliterator<T extends Comparable<T>> implements Spliterator<T> {
+        private final Node<T> version;
+        //Index of the next key and index after the last key
+        private int index;
+        private final int end;
+        //Iterator positioned at index, created when the traversal starts
+        private Iterator<T> iterator;
+
+        private KeySpliterator(Node<T> version, int start, int end) {
+            this.version = version;
+            this.index = start;
+            this.end = end;
+        }
+
+        /**
+         * Returns an iterator that starts at the key with an index of the in-order iteration.
+         */
+        private Iterator<T> iteratorAt(int index) {
+            Deque<Node<T>> stack = new ArrayDeque<>();
+            KeyIterator<T> iterator = new KeyIterator<>(stack, null, true, false);
+            Node<T> currentNode = version;
+            while (currentNode != null) {
+                int leftKeys = Node.keys(currentNode.left);
+                if (index < leftKeys) {
+                    stack.push(currentNode);
+                    currentNode = currentNode.left;
+                } else if (index < leftKeys + currentNode.data.size()) {
+                    stack.push(currentNode);
+                    iterator.startInFirstList(index - leftKeys);
+                    return iterator;
+                } else {
+                    index -= leftKeys + currentNode.data.size();
+                    currentNode = currentNode.right;
+                }
+            }
+            return iterator;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (index >= end) {
+                return false;
+            }
+            if (iterator == null) {
+                iterator = iteratorAt(index);
+            }
+            index++;
+            action.accept(iterator.next());
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (index >= end) {
+                return;
+            }
+            if (iterator == null) {
+                iterator = iteratorAt(index);
+            }
+            while (index < end) {
+                index++;
+                action.accept(iterator.next());
+            }
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            if (end - index < 2) {
+                return null;
+            }
+            int middle = index + (end - index) / 2;
+            Spliterator<T> firstHalf = new KeySpliterator<>(version, index, middle);
+            index = middle;
+            iterator = null;
+            return firstHalf;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | NONNULL | SIZED | SUBSIZED | IMMUTABLE;
+        }
+
+        /**
+         * Returns null, as the keys are sorted by their natural order.
+         */
+        @Override
+        public Comparator<? super T> getComparator() {
+            return null;
+        }
+    }
+
+    /**
+     * Iterator that walks the nodes on a stack in order, or in reverse order when descending,
+     * and returns every key of each node's KeyList, like the iterator of IterableMultiKeyRBT.
+     */
+    private static class KeyIterator<T extends Comparable<T>> implements Iterator<T> {
+        //Stack of nodes that have not been visited yet
+        private final Deque<Node<T>> stack;
+        //Iterator over the keys of the node that was visited last
+        private Iterator<T> keyIterator = null;
+        private final Comparable<T> upperBound;
+        private final boolean upperInclusive;
+        private final boolean descending;
+
+        private KeyIterator(Deque<Node<T>> stack, Comparable<T> upperBound,
+                            boolean upperInclusive, boolean descending) {
+            this.stack = stack;
+            this.upperBound = upperBound;
+            this.upperInclusive = upperInclusive;
+            this.descending = descending;
+            if (!stack.isEmpty() && isPastUpperBound(stack.peek())) {
+                stack.clear();
+            }
+        }
+
+        /**
+         * Visits the node on top of the stack, skipping the keys of its KeyList before startIndex
+         */
+        private void startInFirstList(int startIndex) {
+            keyIterator = visitNextNode().data.iterator(startIndex);
+        }
+
+        /**
+         * Pops the next node from the stack and pushes the path to the node that follows it
+         */
+        private Node<T> visitNextNode() {
+            Node<T> currentNode = stack.pop();
+            Node<T> nextNode = descending ? currentNode.left : currentNode.right;
+            while (nextNode != null) {
+                stack.push(nextNode);
+                nextNode = descending ? nextNode.right : nextNode.left;
+            }
+            if (!stack.isEmpty() && isPastUpperBound(stack.peek())) {
+                stack.clear();
+            }
+            return currentNode;
+        }
+
+        @Override
+        public boolean hasNext() {
+            //Skips past a KeyList that was resumed after its last key
+            while (keyIterator != null && !keyIterator.hasNext() && !stack.isEmpty()) {
+                keyIterator = visitNextNode().data.iterator();
+            }
+            return !stack.isEmpty() || (keyIterator != null && keyIterator.hasNext());
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No elements left");
+            }
+            if (keyIterator != null && keyIterator.hasNext()) {
+                return keyIterator.next();
+            }
+            keyIterator = visitNextNode().data.iterator();
+            return keyIterator.next();
+        }
+
+        private boolean isPastUpperBound(Node<T> node) {
+            if (upperBound == null) {
+                return false;
+            }
+            int compare = upperBound.compareTo(node.data.firstKey());
+            return upperInclusive ? compare < 0 : compare <= 0;
+        }
+    }
+
+    /**
+     * KeyList of a persistent tree. It is a view of the first size keys of an array that is
+     * shared with the KeyLists of the same key in other versions. Appending a key returns a new
+     * view: the key is written into the array in place when the array has room and no other
+     * version appended to it yet, which is decided by claiming the next slot of the array,
+     * otherwise the keys are copied into a larger array. A view never reads past its size, so
+     * keys appended by newer versions are invisible to it.
+     */
+    private static final class SharedKeyList<T extends Comparable<T>>
+            implements KeyListInterface<T> {
+        private static final int INITIAL_CAPACITY = 4;
+
+        private final Object[] keys;
+        //number of slots of keys that some version has claimed
+        private final AtomicInteger claimed;
+        private final int size;
+
+        private SharedKeyList(Object[] keys, AtomicInteger claimed, int size) {
+            this.keys = keys;
+            this.claimed = claimed;
+            this.size = size;
+        }
+
+        /**
+         * @return a KeyList with a single key
+         */
+        private static <T extends Comparable<T>> SharedKeyList<T> of(T key) {
+            Object[] keys = new Object[INITIAL_CAPACITY];
+            keys[0] = key;
+            return new SharedKeyList<>(keys, new AtomicInteger(1), 1);
+        }
+
+        /**
+         * @return a KeyList with a copy of the keys of another KeyList
+         */
+        private static <T extends Comparable<T>> SharedKeyList<T> copyOf(KeyListInterface<T> list) {
+            Object[] keys = new Object[Math.max(list.size(), INITIAL_CAPACITY)];
+            int size = 0;
+            for (T key : list) {
+                keys[size++] = key;
+            }
+            return new SharedKeyList<>(keys, new AtomicInteger(size), size);
+        }
+
+        /**
+         * Returns a KeyList with the keys of this list followed by newKey.
+         */
+        private SharedKeyList<T> append(T newKey) {
+            if (firstKey().compareTo(newKey) != 0) {
+                throw new IllegalArgumentException("compareTo for keys in same list must return 0");
+            }
+            if (size < keys.length && claimed.compareAndSet(size, size + 1)) {
+                keys[size] = newKey;
+                return new SharedKeyList<>(keys, claimed, size + 1);
+            }
+            Object[] copy = Arrays.copyOf(keys, size + (size >> 1) + 1);
+            copy[size] = newKey;
+            return new SharedKeyList<>(copy, new AtomicInteger(size + 1), size + 1);
+        }
+
+        /**
+         * Returns a KeyList with the keys of this list except for the key at index.
+         */
+        private SharedKeyList<T> without(int index) {
+            Object[] copy = new Object[Math.max(size - 1, INITIAL_CAPACITY)];
+            System.arraycopy(keys, 0, copy, 0, index);
+            System.arraycopy(keys, index + 1, copy, index, size - index - 1);
+            return new SharedKeyList<>(copy, new AtomicInteger(size - 1), size - 1);
+        }
+
+        /**
+         * @return the position of the first key equal to key, or -1 if the list does not contain it
+         */
+        private int indexOf(T key) {
+            for (int i = 0; i < size; i++) {
+                if (keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * KeyLists of a persistent tree cannot be changed, keys are added through the tree.
+         */
+        @Override
+        public void addKey(T newKey) {
+            throw new UnsupportedOperationException("KeyLists of a persistent tree cannot be "
+                    + "changed");
+        }
+
+        /**
+         * KeyLists of a persistent tree cannot be changed, keys are removed through the tree.
+         */
+        @Override
+        public boolean removeKey(T key) {
+            throw new UnsupportedOperationException("KeyLists of a persistent tree cannot be "
+                    + "changed");
+        }
+
+        @Override
+        public boolean containsKey(T key) {
+            return indexOf(key) >= 0;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T firstKey() {
+            return (T) keys[0];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + " of " + size + " keys");
+            }
+            return (T) keys[index];
+        }
+
+        @Override
+        public int compareTo(KeyListInterface<T> o) {
+            return firstKey().compareTo(o.firstKey());
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return iterator(0);
+        }
+
+        @Override
+        public Iterator<T> iterator(int startIndex) {
+            return new Iterator<T>() {
+                private int index = startIndex;
+
+                @Override
+                public boolean hasNext() {
+                    return index < size;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public T next() {
+                    if (index >= size) {
+                        throw new NoSuchElementException("No elements left");
+                    }
+                    return (T) keys[index++];
+                }
+            };
+        }
+    }
+
+}
@@ -0,0 +1,284 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Cache of the results of the list queries of a Backend, keyed by the kind of query and its
+ * MovieQuery, whose predicates are normalized, so "Drama" and " drama" share an entry. The cache
+ * is bounded by its number of entries and by the estimated bytes of their results, and evicts the
+ * least recently used entries when either bound is exceeded. Results are stored as unmodifiable
+ * copies, so callers can change the lists they get without changing the cache.
+ *
+ * Writes invalidate exactly the entries that they can change: an entry is dropped when one of the
+ * inserted or removed movies matches its query, so inserting movies of 200 minutes keeps every
+ * cached query for shorter movies. The changed movies are sorted by duration once, and each entry
+ * only checks those in its duration range, or drops itself without checking them when there are
+ * too many.
+ *
+ * Every invalidation also increments a version. A query reads the version before it reads the
+ * catalog, and its result is only put into the cache while the version is unchanged, so a result
+ * that was read before a write can never be cached after the write invalidated the cache. All
+ * methods are synchronized, and hits, misses, evictions and invalidations are counted.
+ */
+public class QueryCache {
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+    //Estimated bytes of an entry without its movies, and of each movie reference in its result
+    static final int ENTRY_BYTES = 128;
+    static final int MOVIE_BYTES = 8;
+    //Changed movies in the duration range of an entry that are checked before it is just dropped
+    private static final int MAX_CHECKED_MOVIES = 4096;
+
+    /**
+     * Key of an entry: the kind of query, like "range" or "find", and its predicates.
+     */
+    private static class Key {
+        private final String kind;
+        private final MovieQuery query;
+
+        private Key(String kind, MovieQuery query) {
+            this.kind = kind;
+            this.query = query;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && kind.equals(((Key) other).kind)
+                    && query.equals(((Key) other).query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, query);
+        }
+    }
+
+    /**
+     * Cached result of a query and its estimated size.
+     */
+    private static class Entry {
+        private final List<MovieInterface> movies;
+        private final long bytes;
+
+        private Entry(List<MovieInterface> movies) {
+            this.movies = movies;
+            this.bytes = ENTRY_BYTES + (long) MOVIE_BYTES * movies.size();
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+    //Entries in access order, the least recently used one first
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private long version = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    /**
+     * Creates a cache with DEFAULT_MAX_ENTRIES entries and DEFAULT_MAX_BYTES bytes.
+     */
+    public QueryCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates a cache with bounds.
+     * @param maxEntries the number of results the cache keeps at most
+     * @param maxBytes the estimated bytes of the results the cache keeps at most, a result that
+     *                 is larger on its own is not cached
+     */
+    public QueryCache(int maxEntries, long maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("The cache needs room for at least one result");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Looks up the result of a query, and counts a hit or a miss.
+     * @param kind the kind of query
+     * @param query the predicates of the query
+     * @return the unmodifiable cached result, or null when it is not cached
+     */
+    synchronized List<MovieInterface> get(String kind, MovieQuery query) {
+        Entry entry = entries.get(new Key(kind, query));
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.movies;
+    }
+
+    /**
+     * @return the version of the cache, which has to be read before the catalog that a result
+     *         passed to put is read from
+     */
+    synchronized long version() {
+        return version;
+    }
+
+    /**
+     * Caches a copy of the result of a query, unless the cache was invalidated since version was
+     * read, and evicts the least recently used entries until the cache is within its bounds.
+     * @param kind the kind of query
+     * @param query the predicates of the query
+     * @param movies the result of the query
+     * @param version the version that was read before the result was
+     */
+    synchronized void put(String kind, MovieQuery query, List<MovieInterface> movies,
+                          long version) {
+        if (version != this.version) {
+            return;
+        }
+        Entry entry = new Entry(List.copyOf(movies));
+        if (entry.bytes > maxBytes) {
+            return;
+        }
+        Entry previous = entries.put(new Key(kind, query), entry);
+        bytes += entry.bytes - (previous == null ? 0 : previous.bytes);
+        Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+        while (entries.size() > maxEntries || bytes > maxBytes) {
+            bytes -= leastRecentlyUsed.next().bytes;
+            leastRecentlyUsed.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Drops the entries whose query matches one of the movies that a write inserted or removed,
+     * and increments the version.
+     * @param changed the movies that were inserted or removed
+     */
+    synchronized void invalidate(Collection<? extends MovieInterface> changed) {
+        version++;
+        if (entries.isEmpty() || changed.isEmpty()) {
+            return;
+        }
+        List<MovieInterface> movies = new ArrayList<>(changed);
+        movies.sort(Comparator.comparingInt(MovieInterface::getDuration));
+        int[] durations = new int[movies.size()];
+        for (int i = 0; i < durations.length; i++) {
+            durations[i] = movies.get(i).getDuration();
+        }
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Key, Entry> entry = iterator.next();
+            if (isAffected(entry.getKey().query, movies, durations)) {
+                bytes -= entry.getValue().bytes;
+                iterator.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Checks whether one of the changed movies matches a query. Only the movies in the duration
+     * range of the query are checked.
+     * @param query the query of an entry
+     * @param movies the changed movies, sorted by duration
+     * @param durations the durations of the changed movies
+     */
+    private static boolean isAffected(MovieQuery query, List<MovieInterface> movies,
+                                      int[] durations) {
+        int start = query.getMinDuration() == null ? 0
+                : firstAbove(durations, (long) query.getMinDuration() - 1);
+        int end = query.getMaxDuration() == null ? durations.length
+                : firstAbove(durations, query.getMaxDuration());
+        for (int i = start; i < end; i++) {
+            if (i - start == MAX_CHECKED_MOVIES || query.matches(movies.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the index of the first duration that is greater than bound
+     */
+    private static int firstAbove(int[] durations, long bound) {
+        int low = 0;
+        int high = durations.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (durations[middle] <= bound) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Drops all entries and increments the version. The counters are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+        version++;
+    }
+
+    /**
+     * @return the number of cached results
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the estimated bytes of the cached results
+     */
+    public synchronized long getEstimatedBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of lookups that found a cached result
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that did not find a cached result
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of entries that were evicted to stay within the bounds
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of entries that were dropped because a write changed their result
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Describes the counters and size of the cache, like
+     * "hits 90, misses 10, evictions 2, invalidations 3, 5 entries, 2 KB".
+     */
+    @Override
+    public synchronized String toString() {
+        return "hits " + hits + ", misses " + misses + ", evictions " + evictions
+                + ", invalidations " + invalidations + ", " + entries.size() + " entries, "
+                + bytes / 1024 + " KB";
+    }
+
+}
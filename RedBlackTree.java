@@ -1,6 +1,9 @@
 import org.junit.jupiter.api.Test;
 
+import java.util.Random;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * Red Black Tree implementation that extends BinarySearchTree class. Has an insert method to insert
@@ -138,10 +141,14 @@ public class RedBlackTree<T extends Comparable<T>> extends BinarySearchTree<T> {
      */
     @Override
     public boolean insert(T data) throws NullPointerException {
+        if (data == null)
+            throw new NullPointerException("Cannot insert data value null into the tree.");
         //Create new node
         RBTNode<T> newNode = new RBTNode<>(data);
-        //Insert into BST
-        super.insertHelper(newNode);
+        //Insert into BST, a duplicate value is not inserted and needs no rebalancing
+        if (!super.insertHelper(newNode)) {
+            return false;
+        }
         //Enforce red black tree properties
         enforceRBTreePropertiesAfterInsert(newNode);
 
@@ -151,6 +158,178 @@ public class RedBlackTree<T extends Comparable<T>> extends BinarySearchTree<T> {
         return true;
     }
 
+    /**
+     * Links a new node as a child of a leaf position that was found by the caller, and restores the
+     * red black tree properties. Lets subclasses that already walked down the tree add a node
+     * without a second descent through insertHelper.
+     *
+     * @param newNode    the new node to add into the tree
+     * @param parent     the node to add the new node below, null if the tree is empty
+     * @param rightChild true to add the new node as right child of parent, false for left child
+     */
+    protected void insertBelow(RBTNode<T> newNode, Node<T> parent, boolean rightChild) {
+        if (parent == null) {
+            root = newNode;
+        } else {
+            parent.down[rightChild ? 1 : 0] = newNode;
+            newNode.up = parent;
+        }
+        size++;
+        //Enforce red black tree properties
+        enforceRBTreePropertiesAfterInsert(newNode);
+
+        //Root is always black in a RBT
+        ((RBTNode<T>) root).blackHeight = 1;
+    }
+
+    /**
+     * Removes a node from the tree and restores the red black tree properties. A node with two
+     * children takes over the data of its successor, so the node that is unlinked has at most one
+     * child. Removing a red node or a black node with a red child keeps every black height when
+     * the child is colored black. Removing a black leaf shortens all paths through it by one black
+     * node, which is fixed before the leaf is unlinked.
+     */
+    @Override
+    protected void removeNode(Node<T> node) {
+        if (node.down[0] != null && node.down[1] != null) {
+            Node<T> successor = node.down[1];
+            while (successor.down[0] != null) {
+                successor = successor.down[0];
+            }
+            node.data = successor.data;
+            node = successor;
+        }
+        RBTNode<T> removed = (RBTNode<T>) node;
+        if (removed.blackHeight == 1) {
+            //A black node with only one child has a red child without children
+            RBTNode<T> child = removed.down[0] != null ? removed.getDownLeft()
+                    : removed.getDownRight();
+            if (child != null) {
+                child.blackHeight = 1;
+            } else {
+                enforceRBTreePropertiesBeforeRemove(removed);
+            }
+        }
+        super.removeNode(removed);
+    }
+
+    /**
+     * Restores the black heights around a black leaf that is about to be removed. The paths
+     * through node are missing one black node once it is gone, so node counts as "double black"
+     * until the missing black node is made up for. Each case looks at the sibling of the double
+     * black node:
+     * - a red sibling is rotated above the parent, which gives the node a black sibling,
+     * - a black sibling with two black children is colored red, which moves the missing black
+     *   node up to the parent,
+     * - a black sibling with a red child is rotated above the parent and takes over its color,
+     *   after the red child is moved to the far side of the sibling, which adds the missing black
+     *   node and ends the fix-up.
+     *
+     * @param node the black leaf that is about to be removed
+     */
+    protected void enforceRBTreePropertiesBeforeRemove(RBTNode<T> node) {
+        while (node != root && node.blackHeight == 1) {
+            RBTNode<T> parent = node.getUp();
+            //Index of the sibling in the children of parent
+            int side = node.isRightChild() ? 0 : 1;
+            RBTNode<T> sibling = (RBTNode<T>) parent.down[side];
+            //Case 1: red sibling, rotates it above the parent so the new sibling is black
+            if (sibling.blackHeight == 0) {
+                sibling.blackHeight = 1;
+                parent.blackHeight = 0;
+                rotate(sibling, parent);
+                sibling = (RBTNode<T>) parent.down[side];
+            }
+            RBTNode<T> nearChild = (RBTNode<T>) sibling.down[1 - side];
+            RBTNode<T> farChild = (RBTNode<T>) sibling.down[side];
+            //Case 2: black sibling with black children, the missing black node moves up
+            if (isBlack(nearChild) && isBlack(farChild)) {
+                sibling.blackHeight = 0;
+                node = parent;
+                continue;
+            }
+            //Case 3: only the near child is red, rotates it into the place of the sibling
+            if (isBlack(farChild)) {
+                nearChild.blackHeight = 1;
+                sibling.blackHeight = 0;
+                rotate(nearChild, sibling);
+                farChild = sibling;
+                sibling = nearChild;
+            }
+            //Case 4: the far child is red, rotating the sibling above the parent adds the black
+            //node that was missing
+            sibling.blackHeight = parent.blackHeight;
+            parent.blackHeight = 1;
+            farChild.blackHeight = 1;
+            rotate(sibling, parent);
+            return;
+        }
+        //A red node that received the missing black node, or the root, is colored black
+        node.blackHeight = 1;
+    }
+
+    /**
+     * @return true if node is black, null children count as black
+     */
+    private static boolean isBlack(RBTNode<?> node) {
+        return node == null || node.blackHeight == 1;
+    }
+
+    /**
+     * Checks that this tree satisfies the binary search tree ordering and all red-black tree
+     * properties: the root is black, a red node never has a red child, and every path from a node
+     * down to a null child passes through the same number of black nodes. Also checks that the
+     * parent references and the size match the structure of the tree.
+     *
+     * @return true if the tree is a valid red black tree, false otherwise
+     */
+    public boolean isValidRedBlackTree() {
+        if (root == null) {
+            return size == 0;
+        }
+        if (root.up != null || ((RBTNode<T>) root).blackHeight != 1) {
+            return false;
+        }
+        int[] numNodes = new int[1];
+        return checkSubtree((RBTNode<T>) root, null, null, numNodes) != -1 && numNodes[0] == size;
+    }
+
+    /**
+     * Recursively checks the subtree below node for the red black tree properties.
+     *
+     * @param node     root of the subtree to check
+     * @param min      all values in the subtree must be larger than min, null for no bound
+     * @param max      all values in the subtree must be smaller than max, null for no bound
+     * @param numNodes counter that the number of nodes in the subtree is added to
+     * @return the number of black nodes on each path to a null child, or -1 on a violation
+     */
+    private int checkSubtree(RBTNode<T> node, T min, T max, int[] numNodes) {
+        if (node == null) {
+            return 0;
+        }
+        numNodes[0]++;
+        if ((min != null && node.data.compareTo(min) <= 0)
+                || (max != null && node.data.compareTo(max) >= 0)) {
+            return -1;
+        }
+        for (Node<T> child : node.down) {
+            if (child == null) {
+                continue;
+            }
+            //Children must point back to their parent and a red node cannot have a red child
+            if (child.up != node
+                    || (node.blackHeight == 0 && ((RBTNode<T>) child).blackHeight == 0)) {
+                return -1;
+            }
+        }
+        int leftBlackHeight = checkSubtree(node.getDownLeft(), min, node.data, numNodes);
+        int rightBlackHeight = checkSubtree(node.getDownRight(), node.data, max, numNodes);
+        if (leftBlackHeight == -1 || leftBlackHeight != rightBlackHeight) {
+            return -1;
+        }
+        return leftBlackHeight + node.blackHeight;
+    }
+
 
     /**
      * This first test models inserting a red node where its parent's violating node, and it's
@@ -312,4 +491,78 @@ public class RedBlackTree<T extends Comparable<T>> extends BinarySearchTree<T> {
 
     }
 
+    /**
+     * This test inserts sorted, reverse sorted and clustered values and checks that the tree stays
+     * a valid red black tree with a height of at most 2 * log2(n + 1) after every insertion.
+     */
+    @Test
+    public void testBalancedOnSortedInput() {
+        int n = 2000;
+        Random random = new Random(7);
+        int[][] inputs = new int[3][n];
+        for (int i = 0; i < n; i++) {
+            //Sorted input
+            inputs[0][i] = i;
+            //Reverse sorted input
+            inputs[1][i] = n - i;
+            //Clustered input: sorted runs that start at random positions
+            inputs[2][i] = (i % 100 == 0 ? random.nextInt(1000) * 1000 : inputs[2][i - 1] + 1);
+        }
+
+        for (int[] input : inputs) {
+            RedBlackTree<Integer> tree = new RedBlackTree<>();
+            for (int value : input) {
+                tree.insert(value);
+                assertTrue(tree.isValidRedBlackTree(), "Red black tree properties violated");
+            }
+            double maxHeight = 2 * Math.log(tree.size() + 1) / Math.log(2);
+            assertTrue(tree.height() <= maxHeight, "Tree of height " + tree.height() + " is " +
+                    "not balanced");
+        }
+
+        //Duplicate values are not inserted and do not break the tree
+        RedBlackTree<Integer> tree = new RedBlackTree<>();
+        assertTrue(tree.insert(1));
+        assertTrue(!tree.insert(1));
+        assertEquals(1, tree.size());
+        assertTrue(tree.isValidRedBlackTree());
+    }
+
+    /**
+     * This test inserts and removes random values and checks after every operation that the tree
+     * is a valid red black tree with the same values as a TreeSet, until all values are removed
+     * again.
+     */
+    @Test
+    public void testRandomInsertAndRemove() {
+        for (long seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            RedBlackTree<Integer> tree = new RedBlackTree<>();
+            java.util.TreeSet<Integer> oracle = new java.util.TreeSet<>();
+            int maxValue = 10 + random.nextInt(500);
+            for (int i = 0; i < 2000; i++) {
+                int value = random.nextInt(maxValue);
+                //Inserts more values than it removes during the first half, and fewer after it
+                if (random.nextInt(2000) < 2000 - i) {
+                    assertEquals(oracle.add(value), tree.insert(value));
+                } else {
+                    assertEquals(oracle.remove(value), tree.remove(value));
+                }
+                assertTrue(tree.isValidRedBlackTree(), "Red black tree properties violated");
+                assertEquals(oracle.size(), tree.size());
+            }
+            assertEquals(oracle.toString().replace("[", "[ ").replace("]", " ]"),
+                    tree.toInOrderString());
+            double maxHeight = 2 * Math.log(tree.size() + 1) / Math.log(2);
+            assertTrue(tree.height() <= maxHeight, "Tree of height " + tree.height() + " is " +
+                    "not balanced");
+            for (int value : oracle) {
+                assertTrue(tree.remove(value));
+                assertTrue(tree.isValidRedBlackTree(), "Red black tree properties violated");
+            }
+            assertTrue(tree.isEmpty());
+            assertEquals("[  ]", tree.toInOrderString());
+        }
+    }
+
 }
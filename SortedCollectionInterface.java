@@ -4,6 +4,8 @@ public interface SortedCollectionInterface<T extends Comparable<T>> {
 
     public boolean contains(Comparable<T> data);
 
+    public boolean remove(Comparable<T> data);
+
     public int size();
 
     public boolean isEmpty();
@@ -0,0 +1,263 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of the values of low cardinality string fields, like the genres and countries of
+ * the movies. Every distinct value is stored once and gets a small int code, so that millions of
+ * movies can refer to a few hundred shared strings by their code instead of each holding their
+ * own copy. A value is either looked up as a String, or directly from UTF-8 bytes, in which case
+ * no String is created for values that are already in the dictionary.
+ *
+ * Every value also knows its keys: the normalized values of its comma separated list, which are
+ * in the dictionary as well. A movie with the genre "Drama, Romance" has the keys "drama" and
+ * "romance", so checking whether a movie lists a genre compares the int codes of the keys
+ * instead of splitting and normalizing the genre again.
+ *
+ * Lookups do not lock: the values are a table that is replaced by a new table when a value is
+ * added, and codes are looked up by String in a concurrent map. Adding is synchronized, which
+ * is cheap because new values are rare. Values are never removed, so the dictionary is not meant
+ * for fields like titles, that are different for almost every movie.
+ */
+public class StringDictionary {
+    //Code of null, which is never stored
+    public static final int NULL_CODE = -1;
+
+    /**
+     * The values and their lookup table by bytes at one point in time. The arrays have room for
+     * more values than the table has, and a new table appends its value to the arrays of the
+     * previous one while they have room, so adding n values only copies O(n) array elements. A
+     * table never reads past its own size, so the values that later tables append do not change
+     * it.
+     */
+    private static class Table {
+        private final String[] values;
+        private final byte[][] bytes;
+        private final int[][] keyCodes;
+        private final List<String>[] keys;
+        //Open addressing table of code + 1 by the hash of the bytes, 0 is an empty slot
+        private final int[] byBytes;
+        //Number of values in the table, the arrays may be longer
+        private final int size;
+
+        private Table() {
+            values = new String[16];
+            bytes = new byte[16][];
+            keyCodes = new int[16][];
+            keys = newKeys(16);
+            byBytes = new int[32];
+            size = 0;
+        }
+
+        /**
+         * Creates a table with one more value than another table, in its arrays if they have
+         * room and in copies with twice the length otherwise.
+         */
+        private Table(Table table, String value, byte[] valueBytes, int[] valueKeyCodes) {
+            int code = table.size;
+            if (code < table.values.length) {
+                values = table.values;
+                bytes = table.bytes;
+                keyCodes = table.keyCodes;
+                keys = table.keys;
+            } else {
+                values = Arrays.copyOf(table.values, 2 * code);
+                bytes = Arrays.copyOf(table.bytes, 2 * code);
+                keyCodes = Arrays.copyOf(table.keyCodes, 2 * code);
+                keys = Arrays.copyOf(table.keys, 2 * code);
+            }
+            size = code + 1;
+            values[code] = value;
+            bytes[code] = valueBytes;
+            keyCodes[code] = valueKeyCodes;
+            String[] keyValues = new String[valueKeyCodes.length];
+            for (int i = 0; i < keyValues.length; i++) {
+                keyValues[i] = valueKeyCodes[i] == code ? value : values[valueKeyCodes[i]];
+            }
+            keys[code] = Collections.unmodifiableList(Arrays.asList(keyValues));
+
+            //Keeps the lookup table at most half full, and only hashes all values when it grows
+            if (2 * size <= table.byBytes.length) {
+                byBytes = table.byBytes;
+                insert(code);
+            } else {
+                byBytes = new int[2 * table.byBytes.length];
+                for (int i = 0; i <= code; i++) {
+                    insert(i);
+                }
+            }
+        }
+
+        /**
+         * Adds a code to the lookup table by bytes.
+         */
+        private void insert(int code) {
+            int mask = byBytes.length - 1;
+            int slot = hash(bytes[code], 0, bytes[code].length) & mask;
+            while (byBytes[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            byBytes[slot] = code + 1;
+        }
+
+        /**
+         * @return the code of a value given by its UTF-8 bytes, or NULL_CODE if it is not stored
+         */
+        private int find(byte[] valueBytes, int offset, int length) {
+            int mask = byBytes.length - 1;
+            for (int slot = hash(valueBytes, offset, length) & mask; ; slot = (slot + 1) & mask) {
+                int code = byBytes[slot] - 1;
+                if (code == NULL_CODE) {
+                    return NULL_CODE;
+                }
+                //Skips the codes that later tables added to the shared lookup table
+                if (code < size) {
+                    byte[] stored = bytes[code];
+                    if (Arrays.equals(stored, 0, stored.length, valueBytes, offset,
+                            offset + length)) {
+                        return code;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Creates an array for the keys of the values.
+         */
+        @SuppressWarnings("unchecked")
+        private static List<String>[] newKeys(int capacity) {
+            return (List<String>[]) new List<?>[capacity];
+        }
+    }
+
+    private volatile Table table = new Table();
+    //Codes by value, a value is only put here after the table that contains it is published
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the code of a value, and adds the value if it is not in the dictionary yet.
+     * @param value the value, may be null
+     * @return the code of the value, or NULL_CODE for null
+     */
+    public int code(String value) {
+        if (value == null) {
+            return NULL_CODE;
+        }
+        Integer code = codes.get(value);
+        return code != null ? code : add(value);
+    }
+
+    /**
+     * Returns the code of a value given by its UTF-8 bytes, and adds the value if it is not in
+     * the dictionary yet. Only a new value creates a String.
+     * @param bytes array that contains the bytes of the value
+     * @param offset index of the first byte of the value
+     * @param length number of bytes of the value
+     * @return the code of the value
+     */
+    public int code(byte[] bytes, int offset, int length) {
+        int code = table.find(bytes, offset, length);
+        return code != NULL_CODE ? code
+                : add(new String(bytes, offset, length, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the code of a value without adding it.
+     * @param value the value, may be null
+     * @return the code of the value, or NULL_CODE when it is null or not in the dictionary
+     */
+    public int find(String value) {
+        Integer code = value == null ? null : codes.get(value);
+        return code != null ? code : NULL_CODE;
+    }
+
+    /**
+     * @param code a code returned by this dictionary, or NULL_CODE
+     * @return the value of the code, the same instance for every call, or null for NULL_CODE
+     */
+    public String value(int code) {
+        return code == NULL_CODE ? null : table.values[code];
+    }
+
+    /**
+     * Returns the keys of a value that is in the dictionary: the normalized values of its comma
+     * separated list, without empty ones.
+     * @param value the value
+     * @return the keys of the value, or null when the value is not in the dictionary
+     */
+    public List<String> keys(String value) {
+        Integer code = value == null ? null : codes.get(value);
+        return code == null ? null : table.keys[code];
+    }
+
+    /**
+     * Checks whether the comma separated list of a value contains a key, by comparing codes.
+     * @param code the code of the value, or NULL_CODE
+     * @param keyCode the code of a normalized key
+     * @return true if the value has the key
+     */
+    public boolean hasKey(int code, int keyCode) {
+        if (code == NULL_CODE || keyCode == NULL_CODE) {
+            return false;
+        }
+        for (int valueKeyCode : table.keyCodes[code]) {
+            if (valueKeyCode == keyCode) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of values in the dictionary
+     */
+    public int size() {
+        return table.size;
+    }
+
+    /**
+     * Adds a value and its keys, unless another thread added it first.
+     * @return the code of the value
+     */
+    private synchronized int add(String value) {
+        Integer existing = codes.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        //Adds the keys first, a value that is its own only key gets the code after them
+        String[] listValues = value.split(",");
+        int[] keyCodes = new int[listValues.length];
+        int numKeys = 0;
+        for (String listValue : listValues) {
+            String key = MovieQuery.normalize(listValue);
+            if (!key.isEmpty()) {
+                keyCodes[numKeys++] = key.equals(value) ? NULL_CODE : code(key);
+            }
+        }
+        int code = table.size;
+        for (int i = 0; i < numKeys; i++) {
+            if (keyCodes[i] == NULL_CODE) {
+                keyCodes[i] = code;
+            }
+        }
+        table = new Table(table, value, value.getBytes(StandardCharsets.UTF_8),
+                Arrays.copyOf(keyCodes, numKeys));
+        codes.put(value, code);
+        return code;
+    }
+
+    /**
+     * @return the hash of a range of bytes
+     */
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+}
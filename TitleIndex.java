@@ -0,0 +1,485 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Inverted index of the words in movie titles, for finding the movies whose title contains all
+ * or any of some words. A title is split into words at every character that is not a letter or
+ * digit, and words are compared in lower case, so "Star Wars: Episode IV" has the words "star",
+ * "wars", "episode" and "iv".
+ *
+ * Every indexed movie gets an id, in the order the movies are added, and every word has a posting
+ * list of the ids of the movies with that word. The ids of a list are increasing, so it is stored
+ * as the gaps between them, each written as a varint: 7 bits per byte, with the high bit set on
+ * every byte but the last. Most gaps of common words fit into one byte instead of the four of an
+ * int. Words are matched by walking the lists of all words of a query at the same time: an AND
+ * query advances every list to the id of the shortest one, and an OR query merges them.
+ *
+ * A TitleIndex is never changed. Adding and removing movies return a new version of the index,
+ * and older versions keep returning the movies they had, so the index can be part of the
+ * catalogs of a Backend with a persistent tree. The versions share the posting lists, because
+ * new ids are only appended behind the ids of older versions, which stop reading a list at the
+ * first id they do not have. Removed movies keep their ids in the lists and are skipped with a
+ * set of removed ids, which is stored in chunks so that a removal only copies one chunk. When
+ * more than half of the ids are removed, the index is built again with new ids. Changing a
+ * version that is not the newest one also builds a new index, as its ids are already used by
+ * the newer version.
+ */
+public class TitleIndex {
+    //Bits of an id that select its bit in a chunk of the removed ids
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+    //Fewest removed ids for which the index is built again
+    private static final int MIN_REBUILT = 1024;
+    //Id after the last one of a posting list
+    private static final int END = Integer.MAX_VALUE;
+
+    /**
+     * Posting list of one word, which is never changed. Its bytes may be shared with the longer
+     * lists that later versions appended to it, which only write behind length.
+     */
+    private static final class Postings {
+        private static final Postings EMPTY = new Postings(new byte[0], 0, 0, -1);
+
+        private final byte[] bytes;
+        private final int length;
+        private final int count;
+        private final int lastId;
+
+        private Postings(byte[] bytes, int length, int count, int lastId) {
+            this.bytes = bytes;
+            this.length = length;
+            this.count = count;
+            this.lastId = lastId;
+        }
+    }
+
+    /**
+     * Appends ids to a posting list while movies are added, and publishes them as a new
+     * Postings once all movies were added.
+     */
+    private static final class PostingsWriter {
+        private byte[] bytes;
+        private int length;
+        private int count;
+        private int lastId;
+
+        private PostingsWriter(Postings postings) {
+            this.bytes = postings.bytes;
+            this.length = postings.length;
+            this.count = postings.count;
+            this.lastId = postings.lastId;
+        }
+
+        /**
+         * Appends an id that is greater than all ids of the list as a varint of its gap.
+         */
+        private void add(int id) {
+            if (length + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(8, length + 5 + (length >> 1)));
+            }
+            int gap = id - lastId;
+            while ((gap & ~0x7F) != 0) {
+                bytes[length++] = (byte) (gap | 0x80);
+                gap >>>= 7;
+            }
+            bytes[length++] = (byte) gap;
+            count++;
+            lastId = id;
+        }
+
+        private Postings toPostings() {
+            return new Postings(bytes, length, count, lastId);
+        }
+    }
+
+    /**
+     * Reads the ids of a posting list that are less than a limit, in increasing order.
+     */
+    private static final class Cursor {
+        private final Postings postings;
+        private final int limit;
+        private int position = 0;
+        //id that the cursor is at, -1 before the first one and END after the last one
+        private int id = -1;
+
+        private Cursor(Postings postings, int limit) {
+            this.postings = postings;
+            this.limit = limit;
+        }
+
+        /**
+         * Moves to the next id.
+         * @return the id, or END when there are no more ids
+         */
+        private int next() {
+            if (position >= postings.length) {
+                return id = END;
+            }
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = postings.bytes[position++];
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            id += gap;
+            if (id >= limit) {
+                position = postings.length;
+                return id = END;
+            }
+            return id;
+        }
+
+        /**
+         * Moves to the first id that is at least target, unless the cursor is there already.
+         * @return the id, or END when there is no such id
+         */
+        private int advance(int target) {
+            while (id < target) {
+                next();
+            }
+            return id;
+        }
+    }
+
+    //Posting list of every word, shared by all versions that were created from each other
+    private final Map<String, Postings> postings;
+    //Number of versions that were changed, shared like the posting lists
+    private final AtomicInteger writes;
+    //Number of changed versions when this version was created
+    private final int write;
+    //Movies by their id, only the first numIds slots belong to this version
+    private final MovieInterface[] movies;
+    private final int numIds;
+    //Chunks of bits of the removed ids, null when no id of the chunk is removed
+    private final long[][] removed;
+    private final int numRemoved;
+
+    /**
+     * Creates an empty index.
+     */
+    public TitleIndex() {
+        this(new ConcurrentHashMap<>(), new AtomicInteger(), 0, new MovieInterface[16], 0,
+                new long[0][], 0);
+    }
+
+    private TitleIndex(Map<String, Postings> postings, AtomicInteger writes, int write,
+                       MovieInterface[] movies, int numIds, long[][] removed, int numRemoved) {
+        this.postings = postings;
+        this.writes = writes;
+        this.write = write;
+        this.movies = movies;
+        this.numIds = numIds;
+        this.removed = removed;
+        this.numRemoved = numRemoved;
+    }
+
+    /**
+     * Splits a text into its distinct words: the runs of letters and digits, in lower case.
+     * @param text the text to split, may be null
+     * @return the words of the text in the order they first appear
+     */
+    public static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                String word = text.substring(start, i).toLowerCase(Locale.ROOT);
+                if (!words.contains(word)) {
+                    words.add(word);
+                }
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Returns a version of the index with more movies. Movies whose title has no words are not
+     * indexed, as no query can find them.
+     * @param added the movies to add
+     * @return the new version
+     */
+    public TitleIndex add(List<? extends MovieInterface> added) {
+        return claim().append(added);
+    }
+
+    /**
+     * Returns a version of the index without some movies. A movie is found with equals, which
+     * for a Movie is its identity, in the posting list of the least common word of its title.
+     * @param removedMovies the movies to remove, movies that are not in the index are ignored
+     * @return the new version
+     */
+    public TitleIndex remove(Collection<? extends MovieInterface> removedMovies) {
+        return claim().removeIds(removedMovies);
+    }
+
+    /**
+     * Returns this version if it is the newest one, after counting the change that is about to
+     * be made to it, or otherwise a new index with the movies of this version.
+     */
+    private TitleIndex claim() {
+        if (writes.compareAndSet(write, write + 1)) {
+            return this;
+        }
+        return new TitleIndex().add(liveMovies()).claim();
+    }
+
+    /**
+     * Gives the movies the next ids and appends them to the posting lists of their words.
+     */
+    private TitleIndex append(List<? extends MovieInterface> added) {
+        MovieInterface[] target = movies;
+        if (numIds + added.size() > movies.length) {
+            target = Arrays.copyOf(movies, Math.max(numIds + added.size(),
+                    numIds + (numIds >> 1)));
+        }
+        Map<String, PostingsWriter> writers = new HashMap<>();
+        int id = numIds;
+        for (MovieInterface movie : added) {
+            List<String> titleWords = words(movie.getTitle());
+            if (titleWords.isEmpty()) {
+                continue;
+            }
+            target[id] = movie;
+            for (String word : titleWords) {
+                PostingsWriter writer = writers.get(word);
+                if (writer == null) {
+                    writer = new PostingsWriter(postings.getOrDefault(word, Postings.EMPTY));
+                    writers.put(word, writer);
+                }
+                writer.add(id);
+            }
+            id++;
+        }
+        for (Map.Entry<String, PostingsWriter> entry : writers.entrySet()) {
+            postings.put(entry.getKey(), entry.getValue().toPostings());
+        }
+        return new TitleIndex(postings, writes, write + 1, target, id, removed, numRemoved);
+    }
+
+    /**
+     * Marks the ids of movies as removed, copying every chunk of removed ids that changes once.
+     */
+    private TitleIndex removeIds(Collection<? extends MovieInterface> removedMovies) {
+        long[][] chunks = Arrays.copyOf(removed, (numIds >>> CHUNK_SHIFT) + 1);
+        boolean[] copied = new boolean[chunks.length];
+        int count = numRemoved;
+        for (MovieInterface movie : removedMovies) {
+            int id = find(movie, chunks);
+            if (id < 0) {
+                continue;
+            }
+            int chunk = id >>> CHUNK_SHIFT;
+            if (!copied[chunk]) {
+                chunks[chunk] = chunks[chunk] == null ? new long[1 << (CHUNK_SHIFT - 6)]
+                        : chunks[chunk].clone();
+                copied[chunk] = true;
+            }
+            chunks[chunk][(id & CHUNK_MASK) >>> 6] |= 1L << id;
+            count++;
+        }
+        TitleIndex next = new TitleIndex(postings, writes, write + 1, movies, numIds, chunks,
+                count);
+        if (count >= MIN_REBUILT && 2 * count > numIds) {
+            return new TitleIndex().add(next.liveMovies());
+        }
+        return next;
+    }
+
+    /**
+     * Finds the id of a movie that is not removed yet.
+     * @return the id, or -1 when the movie is not in the index
+     */
+    private int find(MovieInterface movie, long[][] chunks) {
+        Postings rarest = null;
+        for (String word : words(movie.getTitle())) {
+            Postings wordPostings = postings.getOrDefault(word, Postings.EMPTY);
+            if (rarest == null || wordPostings.count < rarest.count) {
+                rarest = wordPostings;
+            }
+        }
+        if (rarest == null) {
+            return -1;
+        }
+        Cursor cursor = new Cursor(rarest, numIds);
+        for (int id = cursor.next(); id != END; id = cursor.next()) {
+            if (movie.equals(movies[id]) && !isRemoved(chunks, id)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the bit of an id is set in chunks of removed ids
+     */
+    private static boolean isRemoved(long[][] chunks, int id) {
+        int chunk = id >>> CHUNK_SHIFT;
+        return chunk < chunks.length && chunks[chunk] != null
+                && (chunks[chunk][(id & CHUNK_MASK) >>> 6] & (1L << id)) != 0;
+    }
+
+    /**
+     * @return the movies of this version that are not removed, in the order of their ids
+     */
+    private List<MovieInterface> liveMovies() {
+        List<MovieInterface> live = new ArrayList<>(size());
+        for (int id = 0; id < numIds; id++) {
+            if (!isRemoved(removed, id)) {
+                live.add(movies[id]);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * @return the number of movies in this version of the index
+     */
+    public int size() {
+        return numIds - numRemoved;
+    }
+
+    /**
+     * Estimates the number of movies that an AND query returns, as the length of the shortest
+     * posting list of its words. The lists also count removed movies and movies of newer
+     * versions, so the estimate is never too low.
+     * @param words the normalized words of the query, as returned by words
+     * @return an upper bound of the number of movies with all words
+     */
+    public int estimateAll(List<String> words) {
+        if (words.isEmpty()) {
+            return 0;
+        }
+        int estimate = Integer.MAX_VALUE;
+        for (String word : words) {
+            estimate = Math.min(estimate, postings.getOrDefault(word, Postings.EMPTY).count);
+        }
+        return estimate;
+    }
+
+    /**
+     * Returns an iterator over the movies whose title has all or any of some words, in the order
+     * they were added. No movie matches a query without words.
+     * @param words the normalized words of the query, as returned by words
+     * @param all true for the movies with all words, false for the movies with any of them
+     * @return iterator over the matching movies
+     */
+    public Iterator<MovieInterface> iterator(List<String> words, boolean all) {
+        Cursor[] cursors = new Cursor[words.size()];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = new Cursor(postings.getOrDefault(words.get(i), Postings.EMPTY), numIds);
+        }
+        //AND queries check the other lists for the ids of the shortest one
+        if (all) {
+            Arrays.sort(cursors, (a, b) -> Integer.compare(a.postings.count, b.postings.count));
+        }
+        return new Iterator<MovieInterface>() {
+            private int next = nextId(cursors, all, 0);
+
+            @Override
+            public boolean hasNext() {
+                return next != END;
+            }
+
+            @Override
+            public MovieInterface next() {
+                if (next == END) {
+                    throw new NoSuchElementException("No more movies with the words");
+                }
+                int id = next;
+                next = nextId(cursors, all, id + 1);
+                return movies[id];
+            }
+        };
+    }
+
+    /**
+     * Finds the movies whose title has all or any of some words.
+     * @param words the normalized words of the query, as returned by words
+     * @param all true for the movies with all words, false for the movies with any of them
+     * @return list of the matching movies, in the order they were added
+     */
+    public List<MovieInterface> find(List<String> words, boolean all) {
+        List<MovieInterface> found = new ArrayList<>();
+        iterator(words, all).forEachRemaining(found::add);
+        return found;
+    }
+
+    /**
+     * Returns the first id that is at least from, in all lists for an AND query or in any list
+     * for an OR query, and that is not removed.
+     */
+    private int nextId(Cursor[] cursors, boolean all, int from) {
+        if (cursors.length == 0) {
+            return END;
+        }
+        int id = all ? nextInAll(cursors, from) : nextInAny(cursors, from);
+        while (id != END && isRemoved(removed, id)) {
+            id = all ? nextInAll(cursors, id + 1) : nextInAny(cursors, id + 1);
+        }
+        return id;
+    }
+
+    private static int nextInAll(Cursor[] cursors, int from) {
+        int id = cursors[0].advance(from);
+        int matched = 1;
+        //Advances the lists in turn until all of them are at the same id
+        for (int i = 1; id != END && matched < cursors.length; i = (i + 1) % cursors.length) {
+            int other = cursors[i].advance(id);
+            if (other == id) {
+                matched++;
+            } else {
+                id = other;
+                matched = 1;
+            }
+        }
+        return id;
+    }
+
+    private static int nextInAny(Cursor[] cursors, int from) {
+        int id = END;
+        for (Cursor cursor : cursors) {
+            id = Math.min(id, cursor.advance(from));
+        }
+        return id;
+    }
+
+    /**
+     * @return the number of distinct words, of all versions that share this index
+     */
+    public int numWords() {
+        return postings.size();
+    }
+
+    /**
+     * @return the bytes of the varints of all posting lists, and the number of ids in them,
+     *         of all versions that share this index
+     */
+    public long[] postingsSize() {
+        long bytes = 0;
+        long ids = 0;
+        for (Postings wordPostings : postings.values()) {
+            bytes += wordPostings.length;
+            ids += wordPostings.count;
+        }
+        return new long[] {bytes, ids};
+    }
+
+}